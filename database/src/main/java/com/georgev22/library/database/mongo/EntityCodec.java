@@ -0,0 +1,640 @@
+package com.georgev22.library.database.mongo;
+
+import com.georgev22.library.utilities.Entity;
+import com.georgev22.library.utilities.EntitySerializer;
+import com.google.gson.*;
+import com.google.gson.annotations.SerializedName;
+import com.google.gson.internal.LazilyParsedNumber;
+import com.google.gson.reflect.TypeToken;
+import org.bson.BsonBinary;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecConfigurationException;
+import org.bson.io.BasicOutputBuffer;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * A BSON {@link Codec} for {@link Entity} subclasses that writes and reads the fields of an entity directly, instead
+ * of serializing it to a JSON string with Gson and parsing that string into a {@link org.bson.Document}.
+ * <p>
+ * The documents have the same shape as the ones written through Gson: every non-static, non-transient field of the
+ * entity class and its superclasses is stored under its Gson name, which honours {@link SerializedName} and the
+ * field naming strategy of the given Gson instance, and null fields are omitted unless Gson serializes nulls.
+ * Strings, numbers, booleans, characters, {@link UUID}s and enums are written as BSON values, every other field type
+ * is converted through its Gson {@link TypeAdapter} to a JSON tree, which is written without a text round trip.
+ * Documents written through Gson can therefore be read by the codec and vice versa.
+ * <p>
+ * The fields, their method handles and the constructor of an entity class are looked up once per class and shared
+ * by every codec of that class. Entities are created with their no-argument constructor, or with a constructor
+ * taking their ID; entity classes without either, or for which the Gson instance has a custom type adapter, are
+ * converted to a JSON tree by Gson as a whole.
+ * <p>
+ * A codec created with an {@link EntitySerializer} instead stores documents with the ID and the serialized entity in
+ * a {@code data} field, as binary data for binary formats and as a string otherwise. Such documents are smaller and
+ * faster to convert, but their fields cannot be queried.
+ *
+ * @param <V> the type of the entities
+ */
+public final class EntityCodec<V extends Entity> implements Codec<V> {
+
+    private static final EncoderContext ENCODER_CONTEXT = EncoderContext.builder().isEncodingCollectibleDocument(true).build();
+
+    private static final ClassValue<Layout> LAYOUTS = new ClassValue<>() {
+        @Override
+        protected Layout computeValue(@NotNull Class<?> type) {
+            return Layout.of(type);
+        }
+    };
+
+    private final Class<V> entityClass;
+    private final Gson gson;
+    private final Layout layout;
+    private final Property[] properties;
+    private final Map<String, Property> propertiesByName;
+    private final @Nullable TypeAdapter<V> treeAdapter;
+    private final @Nullable EntitySerializer<V> serializer;
+
+    private EntityCodec(@NotNull Class<V> entityClass, @NotNull Gson gson) {
+        this.entityClass = entityClass;
+        this.gson = gson;
+        this.serializer = null;
+        this.layout = LAYOUTS.get(entityClass);
+        TypeAdapter<V> adapter = gson.getAdapter(entityClass);
+        if (this.layout.constructor() == null || !adapter.getClass().getName().startsWith("com.google.gson.internal.bind.ReflectiveTypeAdapterFactory")) {
+            this.treeAdapter = adapter;
+            this.properties = new Property[0];
+            this.propertiesByName = Map.of();
+            return;
+        }
+        this.treeAdapter = null;
+        FieldNamingStrategy namingStrategy = gson.fieldNamingStrategy();
+        this.properties = new Property[this.layout.fields().size()];
+        this.propertiesByName = new HashMap<>();
+        for (int i = 0; i < this.properties.length; i++) {
+            Slot slot = this.layout.fields().get(i);
+            SerializedName serializedName = slot.field().getAnnotation(SerializedName.class);
+            String name = serializedName != null ? serializedName.value() : namingStrategy.translateName(slot.field());
+            Property property = new Property(i, name, slot, Kind.of(slot.field().getType()), gson.getAdapter(TypeToken.get(slot.field().getGenericType())));
+            this.properties[i] = property;
+            this.propertiesByName.putIfAbsent(name, property);
+            if (serializedName != null) {
+                for (String alternate : serializedName.alternate()) {
+                    this.propertiesByName.putIfAbsent(alternate, property);
+                }
+            }
+        }
+    }
+
+    private EntityCodec(@NotNull Class<V> entityClass, @NotNull EntitySerializer<V> serializer) {
+        this.entityClass = entityClass;
+        this.gson = new Gson();
+        this.serializer = serializer;
+        this.layout = new Layout(List.of(), null, null);
+        this.treeAdapter = null;
+        this.properties = new Property[0];
+        this.propertiesByName = Map.of();
+    }
+
+    /**
+     * Returns a codec for the given entity class. The reflective lookups of the class are cached, so creating a codec
+     * for a class that was seen before is cheap.
+     *
+     * @param entityClass the entity class
+     * @param gson        the Gson instance whose naming strategy and type adapters are used
+     * @param <V>         the type of the entities
+     * @return a codec for the entity class
+     */
+    @Contract("_, _ -> new")
+    public static <V extends Entity> @NotNull EntityCodec<V> of(@NotNull Class<V> entityClass, @NotNull Gson gson) {
+        return new EntityCodec<>(entityClass, gson);
+    }
+
+    /**
+     * Returns a codec that stores the entities of the given class in the format of the serializer, in the
+     * {@code data} field of the documents.
+     *
+     * @param entityClass the entity class
+     * @param serializer  the serializer of the entities
+     * @param <V>         the type of the entities
+     * @return a codec for the entity class
+     */
+    @Contract("_, _ -> new")
+    public static <V extends Entity> @NotNull EntityCodec<V> of(@NotNull Class<V> entityClass, @NotNull EntitySerializer<V> serializer) {
+        return new EntityCodec<>(entityClass, serializer);
+    }
+
+    /**
+     * Encodes the entity into the bytes of a BSON document.
+     *
+     * @param entity the entity
+     * @return the encoded document
+     */
+    public byte @NotNull [] toBson(@NotNull V entity) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            encode(writer, entity, ENCODER_CONTEXT);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Encodes the entity into a raw BSON document, which can be written to a collection without being encoded again.
+     *
+     * @param entity the entity
+     * @return the encoded document
+     */
+    public @NotNull RawBsonDocument toDocument(@NotNull V entity) {
+        return new RawBsonDocument(toBson(entity));
+    }
+
+    /**
+     * Decodes an entity from a raw BSON document.
+     *
+     * @param document the document
+     * @return the decoded entity
+     * @throws CodecConfigurationException if the document cannot be decoded into an entity
+     */
+    public @NotNull V fromDocument(@NotNull RawBsonDocument document) {
+        return document.decode(this);
+    }
+
+    /**
+     * Computes the content hash of a raw BSON document as stored, which is the hash of {@link #toBson(Entity)} for a
+     * document written by this codec, without copying its bytes.
+     *
+     * @param document the document
+     * @return the content hash
+     * @see Entity#contentHash(java.nio.ByteBuffer)
+     */
+    public static long contentHash(@NotNull RawBsonDocument document) {
+        return Entity.contentHash(document.getByteBuffer().asNIO());
+    }
+
+    @Override
+    public void encode(@NotNull BsonWriter writer, @NotNull V entity, EncoderContext encoderContext) {
+        if (this.serializer != null) {
+            writer.writeStartDocument();
+            writer.writeName("_id");
+            writer.writeString(entity._id());
+            writer.writeName("data");
+            if (this.serializer.isBinary()) {
+                writer.writeBinaryData(new BsonBinary(this.serializer.serialize(entity)));
+            } else {
+                writer.writeString(this.serializer.serializeToString(entity));
+            }
+            writer.writeEndDocument();
+            return;
+        }
+        if (this.treeAdapter != null) {
+            writeJson(writer, this.treeAdapter.toJsonTree(entity));
+            return;
+        }
+        writer.writeStartDocument();
+        writer.writeName("_id");
+        writer.writeString(entity._id());
+        try {
+            for (Property property : this.properties) {
+                Object value = property.slot().getter().invokeExact((Object) entity);
+                if (value == null && !this.gson.serializeNulls()) {
+                    continue;
+                }
+                writer.writeName(property.name());
+                property.write(writer, value);
+            }
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new CodecConfigurationException("Failed to encode entity " + entity._id(), e);
+        }
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public V decode(@NotNull BsonReader reader, DecoderContext decoderContext) {
+        if (this.serializer != null) {
+            return decodeSerialized(reader);
+        }
+        if (this.treeAdapter != null) {
+            JsonElement tree = readJson(reader);
+            try {
+                return this.treeAdapter.fromJsonTree(tree);
+            } catch (JsonParseException | IllegalStateException e) {
+                throw new CodecConfigurationException("Failed to decode " + this.entityClass.getName(), e);
+            }
+        }
+        String id = null;
+        Object[] values = new Object[this.properties.length];
+        boolean[] present = new boolean[this.properties.length];
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String name = reader.readName();
+            if (name.equals("_id")) {
+                Object value = readScalar(reader);
+                id = value instanceof JsonElement ? value.toString() : String.valueOf(value);
+                continue;
+            }
+            Property property = this.propertiesByName.get(name);
+            if (property == null) {
+                reader.skipValue();
+                continue;
+            }
+            try {
+                values[property.index()] = property.read(reader);
+            } catch (RuntimeException e) {
+                throw new CodecConfigurationException("Failed to decode field " + name + " of " + this.entityClass.getName(), e);
+            }
+            present[property.index()] = true;
+        }
+        reader.readEndDocument();
+
+        try {
+            V entity = this.entityClass.cast(this.layout.constructor().invoke(id));
+            if (this.layout.idSetter() != null) {
+                this.layout.idSetter().invokeExact((Object) entity, (Object) id);
+            }
+            for (Property property : this.properties) {
+                Object value = values[property.index()];
+                if (present[property.index()] && (value != null || !property.slot().field().getType().isPrimitive())) {
+                    property.slot().setter().invokeExact((Object) entity, value);
+                }
+            }
+            return entity;
+        } catch (Throwable e) {
+            throw new CodecConfigurationException("Failed to create " + this.entityClass.getName() + " with ID " + id, e);
+        }
+    }
+
+    private @NotNull V decodeSerialized(@NotNull BsonReader reader) {
+        V entity = null;
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            if (!reader.readName().equals("data")) {
+                reader.skipValue();
+                continue;
+            }
+            try {
+                entity = switch (reader.getCurrentBsonType()) {
+                    case BINARY -> this.serializer.deserialize(reader.readBinaryData().getData());
+                    case STRING -> this.serializer.deserialize(reader.readString());
+                    default -> {
+                        reader.skipValue();
+                        yield null;
+                    }
+                };
+            } catch (IllegalArgumentException e) {
+                throw new CodecConfigurationException("Failed to decode " + this.entityClass.getName(), e);
+            }
+        }
+        reader.readEndDocument();
+        if (entity == null) {
+            throw new CodecConfigurationException("Document without " + this.serializer.name() + " data for " + this.entityClass.getName());
+        }
+        return entity;
+    }
+
+    @Override
+    public Class<V> getEncoderClass() {
+        return this.entityClass;
+    }
+
+    private static void writeJson(@NotNull BsonWriter writer, @Nullable JsonElement element) {
+        if (element == null || element.isJsonNull()) {
+            writer.writeNull();
+        } else if (element.isJsonObject()) {
+            writer.writeStartDocument();
+            for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+                writer.writeName(entry.getKey());
+                writeJson(writer, entry.getValue());
+            }
+            writer.writeEndDocument();
+        } else if (element.isJsonArray()) {
+            writer.writeStartArray();
+            for (JsonElement item : element.getAsJsonArray()) {
+                writeJson(writer, item);
+            }
+            writer.writeEndArray();
+        } else {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isBoolean()) {
+                writer.writeBoolean(primitive.getAsBoolean());
+            } else if (primitive.isNumber()) {
+                writeNumber(writer, primitive.getAsNumber());
+            } else {
+                writer.writeString(primitive.getAsString());
+            }
+        }
+    }
+
+    /**
+     * Writes a number the way {@link org.bson.Document#parse(String)} would read it from JSON: integral numbers
+     * as an int32 when they fit and as an int64 otherwise, every other number as a double.
+     */
+    private static void writeNumber(@NotNull BsonWriter writer, @NotNull Number number) {
+        if (number instanceof Integer || number instanceof Short || number instanceof Byte) {
+            writer.writeInt32(number.intValue());
+            return;
+        }
+        if (number instanceof Double || number instanceof Float) {
+            writer.writeDouble(number.doubleValue());
+            return;
+        }
+        if (number instanceof Long) {
+            long value = number.longValue();
+            if (value == (int) value) {
+                writer.writeInt32((int) value);
+            } else {
+                writer.writeInt64(value);
+            }
+            return;
+        }
+        String text = number instanceof LazilyParsedNumber ? number.toString() : null;
+        BigDecimal decimal = text != null ? new BigDecimal(text) : number instanceof BigDecimal bigDecimal ? bigDecimal
+                : number instanceof BigInteger bigInteger ? new BigDecimal(bigInteger) : null;
+        if (decimal != null && (text == null || (text.indexOf('.') < 0 && text.indexOf('e') < 0 && text.indexOf('E') < 0))) {
+            try {
+                long value = decimal.longValueExact();
+                writeNumber(writer, value);
+                return;
+            } catch (ArithmeticException ignored) {
+            }
+        }
+        writer.writeDouble(number.doubleValue());
+    }
+
+    private static @NotNull JsonElement readJson(@NotNull BsonReader reader) {
+        return switch (reader.getCurrentBsonType()) {
+            case DOCUMENT -> {
+                JsonObject object = new JsonObject();
+                reader.readStartDocument();
+                while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                    String name = reader.readName();
+                    object.add(name, readJson(reader));
+                }
+                reader.readEndDocument();
+                yield object;
+            }
+            case ARRAY -> {
+                JsonArray array = new JsonArray();
+                reader.readStartArray();
+                while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                    array.add(readJson(reader));
+                }
+                reader.readEndArray();
+                yield array;
+            }
+            default -> {
+                Object value = readScalar(reader);
+                if (value == null) {
+                    yield JsonNull.INSTANCE;
+                }
+                if (value instanceof JsonElement element) {
+                    yield element;
+                }
+                yield value instanceof Boolean bool ? new JsonPrimitive(bool)
+                        : value instanceof Number number ? new JsonPrimitive(number)
+                        : new JsonPrimitive(value.toString());
+            }
+        };
+    }
+
+    /**
+     * Reads the current value as a String, Boolean or Number, or as a JSON tree for documents and arrays.
+     */
+    private static @Nullable Object readScalar(@NotNull BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case STRING -> {
+                return reader.readString();
+            }
+            case INT32 -> {
+                return reader.readInt32();
+            }
+            case INT64 -> {
+                return reader.readInt64();
+            }
+            case DOUBLE -> {
+                return reader.readDouble();
+            }
+            case BOOLEAN -> {
+                return reader.readBoolean();
+            }
+            case DECIMAL128 -> {
+                return reader.readDecimal128().bigDecimalValue();
+            }
+            case OBJECT_ID -> {
+                return reader.readObjectId().toHexString();
+            }
+            case DATE_TIME -> {
+                return reader.readDateTime();
+            }
+            case DOCUMENT, ARRAY -> {
+                return readJson(reader);
+            }
+            case NULL -> {
+                reader.readNull();
+                return null;
+            }
+            default -> {
+                reader.skipValue();
+                return null;
+            }
+        }
+    }
+
+    /**
+     * How the value of a field is written to and read from BSON.
+     */
+    private enum Kind {
+        STRING, INTEGER, LONG, DOUBLE, FLOAT, SHORT, BYTE, BOOLEAN, CHARACTER, UUID, ENUM, OTHER;
+
+        private static @NotNull Kind of(@NotNull Class<?> type) {
+            if (type == String.class) return STRING;
+            if (type == int.class || type == Integer.class) return INTEGER;
+            if (type == long.class || type == Long.class) return LONG;
+            if (type == double.class || type == Double.class) return DOUBLE;
+            if (type == float.class || type == Float.class) return FLOAT;
+            if (type == short.class || type == Short.class) return SHORT;
+            if (type == byte.class || type == Byte.class) return BYTE;
+            if (type == boolean.class || type == Boolean.class) return BOOLEAN;
+            if (type == char.class || type == Character.class) return CHARACTER;
+            if (type == java.util.UUID.class) return UUID;
+            if (type.isEnum() && !hasSerializedNames(type)) return ENUM;
+            return OTHER;
+        }
+
+        private static boolean hasSerializedNames(@NotNull Class<?> enumClass) {
+            for (Field field : enumClass.getDeclaredFields()) {
+                if (field.isEnumConstant() && field.isAnnotationPresent(SerializedName.class)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A field of the entity class as stored by this codec.
+     *
+     * @param index   the index of the field in the layout
+     * @param name    the name of the field in the document
+     * @param slot    the field and its method handles
+     * @param kind    how the value is written and read
+     * @param adapter the Gson adapter of the field type, used for {@link Kind#OTHER} and for values of another type
+     */
+    private record Property(int index, @NotNull String name, @NotNull Slot slot, @NotNull Kind kind,
+                            @NotNull TypeAdapter<?> adapter) {
+
+        private void write(@NotNull BsonWriter writer, @Nullable Object value) {
+            if (value == null) {
+                writer.writeNull();
+                return;
+            }
+            switch (kind) {
+                case STRING -> writer.writeString((String) value);
+                case INTEGER, SHORT, BYTE -> writer.writeInt32(((Number) value).intValue());
+                case LONG -> writeNumber(writer, (Number) value);
+                case DOUBLE, FLOAT -> writer.writeDouble(((Number) value).doubleValue());
+                case BOOLEAN -> writer.writeBoolean((Boolean) value);
+                case CHARACTER, UUID -> writer.writeString(value.toString());
+                case ENUM -> writer.writeString(((Enum<?>) value).name());
+                case OTHER -> writeJson(writer, toJsonTree(value));
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private JsonElement toJsonTree(@NotNull Object value) {
+            return ((TypeAdapter<Object>) adapter).toJsonTree(value);
+        }
+
+        private @Nullable Object read(@NotNull BsonReader reader) {
+            if (kind == Kind.OTHER) {
+                return adapter.fromJsonTree(readJson(reader));
+            }
+            Object value = readScalar(reader);
+            if (value == null) {
+                return null;
+            }
+            if (value instanceof JsonElement element) {
+                return adapter.fromJsonTree(element);
+            }
+            return switch (kind) {
+                case STRING -> value.toString();
+                case INTEGER -> value instanceof Number number ? number.intValue() : Integer.parseInt(value.toString());
+                case LONG -> value instanceof Number number ? number.longValue() : Long.parseLong(value.toString());
+                case DOUBLE -> value instanceof Number number ? number.doubleValue() : Double.parseDouble(value.toString());
+                case FLOAT -> value instanceof Number number ? number.floatValue() : Float.parseFloat(value.toString());
+                case SHORT -> value instanceof Number number ? number.shortValue() : Short.parseShort(value.toString());
+                case BYTE -> value instanceof Number number ? number.byteValue() : Byte.parseByte(value.toString());
+                case BOOLEAN -> value instanceof Boolean bool ? bool : Boolean.parseBoolean(value.toString());
+                case CHARACTER -> value.toString().isEmpty() ? null : value.toString().charAt(0);
+                case UUID -> java.util.UUID.fromString(value.toString());
+                case ENUM -> enumConstant(value.toString());
+                case OTHER -> throw new IllegalStateException();
+            };
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private @Nullable Object enumConstant(@NotNull String name) {
+            try {
+                return Enum.valueOf((Class) slot.field().getType(), name);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * A stored field of an entity class with its getter and setter, typed {@code (Object)Object} and
+     * {@code (Object,Object)void}.
+     */
+    private record Slot(@NotNull Field field, @NotNull MethodHandle getter, @NotNull MethodHandle setter) {
+    }
+
+    /**
+     * The reflective view of an entity class, shared by every codec of the class.
+     *
+     * @param fields      the stored fields, superclass fields first
+     * @param constructor creates an entity, typed {@code (String)Object}, or null if the class has no usable constructor
+     * @param idSetter    sets the ID of an entity created without it, or null if the constructor takes the ID
+     */
+    private record Layout(@NotNull List<Slot> fields, @Nullable MethodHandle constructor,
+                          @Nullable MethodHandle idSetter) {
+
+        private static @NotNull Layout of(@NotNull Class<?> type) {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            List<Class<?>> hierarchy = new ArrayList<>();
+            for (Class<?> current = type; current != null && current != Entity.class && current != Object.class; current = current.getSuperclass()) {
+                hierarchy.add(0, current);
+            }
+            List<Slot> fields = new ArrayList<>();
+            Set<String> names = new HashSet<>();
+            try {
+                for (Class<?> current : hierarchy) {
+                    for (Field field : current.getDeclaredFields()) {
+                        int modifiers = field.getModifiers();
+                        if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()
+                                || field.getName().equals("_id") || !names.add(field.getName())) {
+                            continue;
+                        }
+                        field.setAccessible(true);
+                        fields.add(new Slot(field,
+                                lookup.unreflectGetter(field).asType(MethodType.methodType(Object.class, Object.class)),
+                                lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, Object.class))));
+                    }
+                }
+
+                MethodHandle constructor = null;
+                MethodHandle idSetter = null;
+                try {
+                    var withId = type.getDeclaredConstructor(String.class);
+                    withId.setAccessible(true);
+                    constructor = lookup.unreflectConstructor(withId).asType(MethodType.methodType(Object.class, String.class));
+                } catch (NoSuchMethodException e) {
+                    try {
+                        var noArgs = type.getDeclaredConstructor();
+                        noArgs.setAccessible(true);
+                        constructor = MethodHandles.dropArguments(
+                                lookup.unreflectConstructor(noArgs).asType(MethodType.methodType(Object.class)), 0, String.class);
+                        Field id = Entity.class.getDeclaredField("_id");
+                        id.setAccessible(true);
+                        idSetter = lookup.unreflectSetter(id).asType(MethodType.methodType(void.class, Object.class, Object.class));
+                    } catch (NoSuchMethodException ignored) {
+                    }
+                }
+                if (Modifier.isAbstract(type.getModifiers())) {
+                    constructor = null;
+                }
+                return new Layout(List.copyOf(fields), constructor, idSetter);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // inaccessible classes are converted by Gson as a whole
+                return new Layout(List.of(), null, null);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "EntityCodec{" +
+                "entityClass=" + entityClass.getName() +
+                ", properties=" + properties.length +
+                ", tree=" + (treeAdapter != null) +
+                ", serializer=" + (serializer != null ? serializer.name() : null) +
+                '}';
+    }
+}
@@ -0,0 +1,673 @@
+package com.georgev22.library.database.sql;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A bounded pool of JDBC connections.
+ * <p>
+ * {@link #getConnection()} lends an idle connection, opens a new one while fewer than
+ * {@link Settings#maximumPoolSize()} connections exist, or waits up to {@link Settings#connectionTimeout()} for one
+ * to be returned. Closing a borrowed connection returns it to the pool instead of closing the physical connection,
+ * after closing the statements created through it and rolling back an unfinished transaction, so callers can keep
+ * using try-with-resources.
+ * <p>
+ * A connection that was idle for a while is validated with {@link Connection#isValid(int)} before it is lent.
+ * A background task closes connections that exceeded {@link Settings#maxLifetime()} or stayed idle longer than
+ * {@link Settings#idleTimeout()}, keeps {@link Settings#minimumIdle()} connections open and logs a warning with the
+ * borrowing stack trace for every connection that is held longer than {@link Settings#leakDetectionThreshold()}.
+ * <p>
+ * Every connection caches up to {@link Settings#statementCacheSize()} prepared statements by SQL text, so
+ * {@link Connection#prepareStatement(String)} returns an already prepared statement when the same SQL was prepared
+ * on that connection before, and closing the statement returns it to the cache.
+ *
+ * @see Database#enablePooling(Settings)
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    /**
+     * Connections used within this window are lent without being validated.
+     */
+    private static final long VALIDATION_BYPASS_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final ConnectionFactory factory;
+    private final Settings settings;
+    private final Logger logger;
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition available = lock.newCondition();
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private final Set<PooledConnection> active = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService housekeeper;
+    private int total;
+    private int waiting;
+    private boolean closed;
+
+    private final LongAdder borrowed = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder destroyed = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder leaks = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LongAdder statementHits = new LongAdder();
+    private final LongAdder statementMisses = new LongAdder();
+
+    /**
+     * Creates a ConnectionPool with the given settings.
+     *
+     * @param factory  the factory that opens the physical connections
+     * @param settings the settings of the pool
+     * @param logger   the logger used to report leaks and failures
+     */
+    public ConnectionPool(@NotNull ConnectionFactory factory, @NotNull Settings settings, @NotNull Logger logger) {
+        this.factory = factory;
+        this.settings = settings;
+        this.logger = logger;
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ConnectionPool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = settings.housekeepingInterval().toMillis();
+        this.housekeeper.scheduleWithFixedDelay(this::housekeep, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection from the pool. The connection must be closed to return it to the pool.
+     *
+     * @return a connection from the pool
+     * @throws SQLTransientConnectionException if no connection became available within the connection timeout
+     * @throws SQLException                    if the pool is closed or a database access error occurs
+     * @throws ClassNotFoundException          if the driver class does not exist
+     */
+    public @NotNull Connection getConnection() throws SQLException, ClassNotFoundException {
+        long start = System.nanoTime();
+        long deadline = start + settings.connectionTimeout().toNanos();
+        while (true) {
+            PooledConnection candidate = null;
+            boolean create = false;
+            lock.lock();
+            try {
+                while (candidate == null && !create) {
+                    if (closed) {
+                        throw new SQLException("ConnectionPool is closed");
+                    }
+                    candidate = idle.pollFirst();
+                    if (candidate == null) {
+                        if (total < settings.maximumPoolSize()) {
+                            total++;
+                            create = true;
+                        } else {
+                            await(deadline);
+                        }
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (create) {
+                return lend(open(), start);
+            }
+            if (isUsable(candidate)) {
+                return lend(candidate, start);
+            }
+            discard(candidate);
+        }
+    }
+
+    private void await(long deadline) throws SQLException {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+            timeouts.increment();
+            throw new SQLTransientConnectionException("Connection is not available, request timed out after "
+                    + settings.connectionTimeout().toMillis() + "ms (total=" + total + ", active=" + active.size()
+                    + ", waiting=" + waiting + ")");
+        }
+        waiting++;
+        try {
+            available.awaitNanos(remaining);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        } finally {
+            waiting--;
+        }
+    }
+
+    /**
+     * Opens a physical connection for a slot that was already reserved by incrementing {@link #total}.
+     */
+    private @NotNull PooledConnection open() throws SQLException, ClassNotFoundException {
+        try {
+            PooledConnection connection = new PooledConnection(factory.create());
+            created.increment();
+            return connection;
+        } catch (SQLException | ClassNotFoundException | RuntimeException e) {
+            lock.lock();
+            try {
+                total--;
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+            throw e;
+        }
+    }
+
+    private @NotNull Connection lend(@NotNull PooledConnection connection, long start) {
+        long now = System.nanoTime();
+        long wait = now - start;
+        borrowed.increment();
+        totalWaitNanos.add(wait);
+        maxWaitNanos.accumulateAndGet(wait, Math::max);
+        connection.borrowedAt = now;
+        connection.leakReported = false;
+        connection.borrowStack = settings.leakDetectionThreshold().isZero()
+                ? null
+                : new Exception("Connection borrowed by " + Thread.currentThread().getName());
+        active.add(connection);
+        return connection.lease();
+    }
+
+    private boolean isUsable(@NotNull PooledConnection connection) {
+        if (isExpired(connection, System.nanoTime())) {
+            return false;
+        }
+        if (System.nanoTime() - connection.lastAccess < VALIDATION_BYPASS_NANOS) {
+            return true;
+        }
+        try {
+            return connection.raw.isValid((int) Math.max(1, settings.validationTimeout().toSeconds()));
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private boolean isExpired(@NotNull PooledConnection connection, long now) {
+        return !settings.maxLifetime().isZero() && now - connection.createdAt > settings.maxLifetime().toNanos();
+    }
+
+    /**
+     * Called when a lease of the given connection is closed.
+     */
+    private void release(@NotNull PooledConnection connection) {
+        active.remove(connection);
+        boolean healthy = connection.reset(logger);
+        connection.lastAccess = System.nanoTime();
+        lock.lock();
+        try {
+            if (closed || !healthy || isExpired(connection, connection.lastAccess)) {
+                total--;
+            } else {
+                idle.addFirst(connection);
+                connection = null;
+            }
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (connection != null) {
+            closeQuietly(connection);
+        }
+    }
+
+    private void discard(@NotNull PooledConnection connection) {
+        lock.lock();
+        try {
+            total--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+        closeQuietly(connection);
+    }
+
+    private void closeQuietly(@NotNull PooledConnection connection) {
+        destroyed.increment();
+        if (connection.statementCache != null) {
+            connection.statementCache.close();
+        }
+        try {
+            connection.raw.close();
+        } catch (SQLException e) {
+            logger.log(Level.FINE, "[ConnectionPool]: Failed to close connection", e);
+        }
+    }
+
+    private void housekeep() {
+        try {
+            long now = System.nanoTime();
+            List<PooledConnection> evicted = new ArrayList<>();
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                Iterator<PooledConnection> iterator = idle.descendingIterator();
+                while (iterator.hasNext()) {
+                    PooledConnection connection = iterator.next();
+                    boolean idleTooLong = !settings.idleTimeout().isZero()
+                            && now - connection.lastAccess > settings.idleTimeout().toNanos()
+                            && idle.size() > settings.minimumIdle();
+                    if (idleTooLong || isExpired(connection, now)) {
+                        iterator.remove();
+                        evicted.add(connection);
+                        total--;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            evicted.forEach(this::closeQuietly);
+
+            if (!settings.leakDetectionThreshold().isZero()) {
+                long threshold = settings.leakDetectionThreshold().toNanos();
+                for (PooledConnection connection : active) {
+                    if (!connection.leakReported && now - connection.borrowedAt > threshold) {
+                        connection.leakReported = true;
+                        leaks.increment();
+                        logger.log(Level.WARNING, "[ConnectionPool]: Connection leak detected, connection held for "
+                                + TimeUnit.NANOSECONDS.toMillis(now - connection.borrowedAt) + "ms", connection.borrowStack);
+                    }
+                }
+            }
+
+            fillIdle();
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "[ConnectionPool]:", e);
+        }
+    }
+
+    private void fillIdle() {
+        while (true) {
+            lock.lock();
+            try {
+                if (closed || idle.size() >= settings.minimumIdle() || total >= settings.maximumPoolSize()) {
+                    return;
+                }
+                total++;
+            } finally {
+                lock.unlock();
+            }
+            PooledConnection connection;
+            try {
+                connection = open();
+            } catch (SQLException | ClassNotFoundException e) {
+                logger.log(Level.WARNING, "[ConnectionPool]: Failed to open an idle connection", e);
+                return;
+            }
+            lock.lock();
+            try {
+                if (closed) {
+                    total--;
+                } else {
+                    idle.addLast(connection);
+                    available.signal();
+                    connection = null;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (connection != null) {
+                closeQuietly(connection);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the settings of this pool.
+     *
+     * @return the settings of this pool
+     */
+    public @NotNull Settings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Returns a snapshot of the state and the counters of this pool.
+     *
+     * @return the current metrics of this pool
+     */
+    public @NotNull Metrics getMetrics() {
+        lock.lock();
+        try {
+            return new Metrics(total, idle.size(), active.size(), waiting,
+                    borrowed.sum(), created.sum(), destroyed.sum(), timeouts.sum(), leaks.sum(),
+                    Duration.ofNanos(totalWaitNanos.sum()), Duration.ofNanos(maxWaitNanos.get()),
+                    statementHits.sum(), statementMisses.sum());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns whether this pool is closed.
+     *
+     * @return {@code true} if this pool is closed
+     */
+    public boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes this pool and every idle connection. Borrowed connections are closed when they are returned.
+     */
+    @Override
+    public void close() {
+        List<PooledConnection> toClose;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            toClose = new ArrayList<>(idle);
+            total -= idle.size();
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        housekeeper.shutdownNow();
+        toClose.forEach(this::closeQuietly);
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPool{" +
+                "settings=" + settings +
+                ", metrics=" + getMetrics() +
+                '}';
+    }
+
+    /**
+     * Opens a new physical connection for the pool.
+     */
+    @FunctionalInterface
+    public interface ConnectionFactory {
+
+        /**
+         * Opens a new physical connection.
+         *
+         * @return a new connection
+         * @throws SQLException           if a database access error occurs
+         * @throws ClassNotFoundException if the driver class does not exist
+         */
+        Connection create() throws SQLException, ClassNotFoundException;
+    }
+
+    /**
+     * The settings of a {@link ConnectionPool}. A zero duration disables the corresponding feature.
+     *
+     * @param maximumPoolSize        the maximum number of open connections
+     * @param minimumIdle            the number of idle connections the pool tries to keep open
+     * @param connectionTimeout      how long {@link #getConnection()} waits for a connection
+     * @param validationTimeout      how long a connection is given to answer a validation
+     * @param idleTimeout            how long a connection above {@code minimumIdle} may stay idle
+     * @param maxLifetime            the maximum lifetime of a connection, which is retired when it is returned
+     * @param leakDetectionThreshold how long a connection may be borrowed before it is reported as a possible leak
+     * @param housekeepingInterval   how often idle eviction, leak detection and the idle top-up run
+     * @param statementCacheSize     the number of prepared statements cached per connection, zero to disable
+     */
+    public record Settings(int maximumPoolSize, int minimumIdle, @NotNull Duration connectionTimeout,
+                           @NotNull Duration validationTimeout, @NotNull Duration idleTimeout,
+                           @NotNull Duration maxLifetime, @NotNull Duration leakDetectionThreshold,
+                           @NotNull Duration housekeepingInterval, int statementCacheSize) {
+
+        /**
+         * Ten connections at most, none kept open while idle, a 30 seconds connection timeout, a 10 minutes idle
+         * timeout, a 30 minutes maximum lifetime, no leak detection and 64 cached statements per connection.
+         */
+        public static final Settings DEFAULT = new Settings(10, 0, Duration.ofSeconds(30), Duration.ofSeconds(5),
+                Duration.ofMinutes(10), Duration.ofMinutes(30), Duration.ZERO, Duration.ofSeconds(30), 64);
+
+        public Settings {
+            if (maximumPoolSize < 1) {
+                throw new IllegalArgumentException("maximumPoolSize must be at least 1");
+            }
+            if (minimumIdle < 0 || minimumIdle > maximumPoolSize) {
+                throw new IllegalArgumentException("minimumIdle must be between 0 and maximumPoolSize");
+            }
+            if (connectionTimeout.isNegative() || validationTimeout.isNegative() || idleTimeout.isNegative()
+                    || maxLifetime.isNegative() || leakDetectionThreshold.isNegative()) {
+                throw new IllegalArgumentException("durations must not be negative");
+            }
+            if (housekeepingInterval.isNegative() || housekeepingInterval.isZero()) {
+                throw new IllegalArgumentException("housekeepingInterval must be positive");
+            }
+            if (statementCacheSize < 0) {
+                throw new IllegalArgumentException("statementCacheSize must not be negative");
+            }
+        }
+
+        /**
+         * Creates settings with the default statement cache size.
+         */
+        public Settings(int maximumPoolSize, int minimumIdle, @NotNull Duration connectionTimeout,
+                        @NotNull Duration validationTimeout, @NotNull Duration idleTimeout,
+                        @NotNull Duration maxLifetime, @NotNull Duration leakDetectionThreshold,
+                        @NotNull Duration housekeepingInterval) {
+            this(maximumPoolSize, minimumIdle, connectionTimeout, validationTimeout, idleTimeout, maxLifetime,
+                    leakDetectionThreshold, housekeepingInterval, 64);
+        }
+
+        @Contract("_ -> new")
+        public @NotNull Settings maximumPoolSize(int maximumPoolSize) {
+            return new Settings(maximumPoolSize, Math.min(minimumIdle, maximumPoolSize), connectionTimeout, validationTimeout, idleTimeout, maxLifetime, leakDetectionThreshold, housekeepingInterval, statementCacheSize);
+        }
+
+        @Contract("_ -> new")
+        public @NotNull Settings minimumIdle(int minimumIdle) {
+            return new Settings(maximumPoolSize, minimumIdle, connectionTimeout, validationTimeout, idleTimeout, maxLifetime, leakDetectionThreshold, housekeepingInterval, statementCacheSize);
+        }
+
+        @Contract("_ -> new")
+        public @NotNull Settings connectionTimeout(@NotNull Duration connectionTimeout) {
+            return new Settings(maximumPoolSize, minimumIdle, connectionTimeout, validationTimeout, idleTimeout, maxLifetime, leakDetectionThreshold, housekeepingInterval, statementCacheSize);
+        }
+
+        @Contract("_ -> new")
+        public @NotNull Settings validationTimeout(@NotNull Duration validationTimeout) {
+            return new Settings(maximumPoolSize, minimumIdle, connectionTimeout, validationTimeout, idleTimeout, maxLifetime, leakDetectionThreshold, housekeepingInterval, statementCacheSize);
+        }
+
+        @Contract("_ -> new")
+        public @NotNull Settings idleTimeout(@NotNull Duration idleTimeout) {
+            return new Settings(maximumPoolSize, minimumIdle, connectionTimeout, validationTimeout, idleTimeout, maxLifetime, leakDetectionThreshold, housekeepingInterval, statementCacheSize);
+        }
+
+        @Contract("_ -> new")
+        public @NotNull Settings maxLifetime(@NotNull Duration maxLifetime) {
+            return new Settings(maximumPoolSize, minimumIdle, connectionTimeout, validationTimeout, idleTimeout, maxLifetime, leakDetectionThreshold, housekeepingInterval, statementCacheSize);
+        }
+
+        @Contract("_ -> new")
+        public @NotNull Settings leakDetectionThreshold(@NotNull Duration leakDetectionThreshold) {
+            return new Settings(maximumPoolSize, minimumIdle, connectionTimeout, validationTimeout, idleTimeout, maxLifetime, leakDetectionThreshold, housekeepingInterval, statementCacheSize);
+        }
+
+        @Contract("_ -> new")
+        public @NotNull Settings housekeepingInterval(@NotNull Duration housekeepingInterval) {
+            return new Settings(maximumPoolSize, minimumIdle, connectionTimeout, validationTimeout, idleTimeout, maxLifetime, leakDetectionThreshold, housekeepingInterval, statementCacheSize);
+        }
+
+        @Contract("_ -> new")
+        public @NotNull Settings statementCacheSize(int statementCacheSize) {
+            return new Settings(maximumPoolSize, minimumIdle, connectionTimeout, validationTimeout, idleTimeout, maxLifetime, leakDetectionThreshold, housekeepingInterval, statementCacheSize);
+        }
+    }
+
+    /**
+     * A snapshot of the state and the counters of a {@link ConnectionPool}.
+     *
+     * @param total           the number of open connections
+     * @param idle            the number of idle connections
+     * @param active          the number of borrowed connections
+     * @param waiting         the number of threads waiting for a connection
+     * @param borrowed        the number of connections lent since the pool was created
+     * @param created         the number of physical connections opened
+     * @param destroyed       the number of physical connections closed
+     * @param timeouts        the number of requests that timed out waiting for a connection
+     * @param leaks           the number of connections reported as possible leaks
+     * @param totalWaitTime   the time spent by all requests waiting for a connection
+     * @param maxWaitTime     the longest time a request waited for a connection
+     * @param statementHits   the number of prepared statements served from a statement cache
+     * @param statementMisses the number of prepared statements that had to be prepared by the driver
+     */
+    public record Metrics(int total, int idle, int active, int waiting, long borrowed, long created, long destroyed,
+                          long timeouts, long leaks, @NotNull Duration totalWaitTime, @NotNull Duration maxWaitTime,
+                          long statementHits, long statementMisses) {
+
+        /**
+         * Returns the average time a request waited for a connection.
+         *
+         * @return the average wait time
+         */
+        public @NotNull Duration averageWaitTime() {
+            return borrowed == 0 ? Duration.ZERO : totalWaitTime.dividedBy(borrowed);
+        }
+    }
+
+    /**
+     * A physical connection owned by the pool. Every borrow hands out a new {@link #lease()} proxy, so a lease that
+     * was already closed cannot return or use the connection again.
+     */
+    private final class PooledConnection {
+
+        private final Connection raw;
+        private final long createdAt = System.nanoTime();
+        private final List<Statement> statements = new ArrayList<>();
+        private final @Nullable StatementCache statementCache;
+        private volatile long lastAccess = createdAt;
+        private volatile long borrowedAt;
+        private volatile boolean leakReported;
+        private volatile @Nullable Exception borrowStack;
+
+        private PooledConnection(@NotNull Connection raw) {
+            this.raw = raw;
+            this.statementCache = settings.statementCacheSize() > 0
+                    ? new StatementCache(raw, settings.statementCacheSize(), statementHits, statementMisses)
+                    : null;
+        }
+
+        private @NotNull Connection lease() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, new Lease());
+        }
+
+        /**
+         * Closes the statements created through the last lease and ends an unfinished transaction.
+         *
+         * @return {@code false} if the connection is broken and must be discarded
+         */
+        private boolean reset(@NotNull Logger logger) {
+            synchronized (statements) {
+                for (Statement statement : statements) {
+                    try {
+                        statement.close();
+                    } catch (SQLException ignored) {
+                    }
+                }
+                statements.clear();
+            }
+            try {
+                if (raw.isClosed()) {
+                    return false;
+                }
+                if (!raw.getAutoCommit()) {
+                    raw.rollback();
+                    raw.setAutoCommit(true);
+                }
+                raw.clearWarnings();
+                return true;
+            } catch (SQLException e) {
+                logger.log(Level.FINE, "[ConnectionPool]: Discarding broken connection", e);
+                return false;
+            }
+        }
+
+        private final class Lease implements InvocationHandler {
+
+            private boolean closed;
+
+            @Override
+            public Object invoke(Object proxy, @NotNull Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close" -> {
+                        synchronized (this) {
+                            if (closed) {
+                                return null;
+                            }
+                            closed = true;
+                        }
+                        release(PooledConnection.this);
+                        return null;
+                    }
+                    case "isClosed" -> {
+                        synchronized (this) {
+                            return closed || raw.isClosed();
+                        }
+                    }
+                    case "equals" -> {
+                        return proxy == args[0];
+                    }
+                    case "hashCode" -> {
+                        return System.identityHashCode(proxy);
+                    }
+                    case "toString" -> {
+                        return "PooledConnection{" + raw + '}';
+                    }
+                    default -> {
+                    }
+                }
+                synchronized (this) {
+                    if (closed) {
+                        throw new SQLException("Connection is closed");
+                    }
+                }
+                try {
+                    Object result = statementCache != null && method.getName().equals("prepareStatement") && args.length == 1
+                            ? statementCache.prepare((Connection) proxy, (String) args[0])
+                            : method.invoke(raw, args);
+                    if (result instanceof Statement statement) {
+                        synchronized (statements) {
+                            statements.add(statement);
+                        }
+                    }
+                    return result;
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        }
+    }
+}
@@ -7,19 +7,25 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.StringJoiner;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
 
 import static com.georgev22.library.utilities.Utils.Assertions.notNull;
 
 public abstract class Database {
 
     protected Connection connection;
+    protected volatile ConnectionPool pool;
+    private final ReentrantLock sharedConnectionLock = new ReentrantLock();
 
     protected Database() {
         this.connection = null;
+        this.pool = null;
     }
 
     /**
@@ -44,6 +50,67 @@ public abstract class Database {
      */
     public abstract Connection openConnection() throws SQLException, ClassNotFoundException;
 
+    /**
+     * Opens a new physical connection to the database, independent of the connection
+     * returned by {@link #openConnection()}. Used by the {@link ConnectionPool}.
+     *
+     * @return a new Connection to the database
+     * @throws SQLException           if a database access error occurs or pooling is not supported
+     * @throws ClassNotFoundException if the driver class does not exist
+     */
+    protected Connection createConnection() throws SQLException, ClassNotFoundException {
+        throw new SQLFeatureNotSupportedException(getClass().getSimpleName() + " does not support connection pooling");
+    }
+
+    /**
+     * Enables connection pooling with the default {@link ConnectionPool.Settings}.
+     *
+     * @return the connection pool
+     * @see #enablePooling(ConnectionPool.Settings)
+     */
+    public ConnectionPool enablePooling() {
+        return enablePooling(ConnectionPool.Settings.DEFAULT);
+    }
+
+    /**
+     * Enables connection pooling.
+     * <p>
+     * Once enabled, {@link #getConnection()} borrows a connection from the pool, which must be closed to
+     * return it, and {@link #updateSQL(String)} runs on a pooled connection. This allows concurrent callers
+     * to use their own connection instead of sharing a single one, and closing a connection no longer forces
+     * the next call to reconnect. A previously enabled pool is closed.
+     *
+     * @param settings the settings of the pool
+     * @return the connection pool
+     */
+    public synchronized ConnectionPool enablePooling(@NotNull ConnectionPool.Settings settings) {
+        if (this.pool != null) {
+            this.pool.close();
+        }
+        return this.pool = new ConnectionPool(this::createPooledConnection, settings, Logger.getLogger(getClass().getName()));
+    }
+
+    /**
+     * Opens a new physical connection for the connection pool.
+     *
+     * @return a new Connection to the database
+     * @throws SQLException           if a database access error occurs or pooling is not supported
+     * @throws ClassNotFoundException if the driver class does not exist
+     */
+    protected Connection createPooledConnection() throws SQLException, ClassNotFoundException {
+        return createConnection();
+    }
+
+    /**
+     * Returns the connection pool, or null if pooling is not enabled.
+     *
+     * @return the connection pool or null
+     */
+    @Nullable
+    public ConnectionPool getPool() {
+        return pool;
+    }
+
     /**
      * Checks if the connection is valid
      *
@@ -77,13 +144,19 @@ public abstract class Database {
     /**
      * Returns the connection to the database
      * <p>
-     * If the connection is invalid it returns null
+     * If pooling is enabled, a connection is borrowed from the pool and must be closed
+     * to return it to the pool. Otherwise the single connection of this database is returned, which is shared with
+     * every other caller: it must not be closed, and {@link #withConnection(ConnectionFunction)} should be preferred
+     * so its use is serialized with the other methods of this class.
      *
-     * @return the <code>Connection</code> to the database or null
-     * if the connection is not valid.
+     * @return the <code>Connection</code> to the database
      */
     @NotNull
     public Connection getConnection() throws SQLException, ClassNotFoundException {
+        ConnectionPool pool = this.pool;
+        if (pool != null) {
+            return pool.getConnection();
+        }
         if (!isConnectionValid()) {
             this.connection = this.openConnection();
         }
@@ -91,31 +164,64 @@ public abstract class Database {
     }
 
     /**
-     * Disconnects from the database.
+     * Disconnects from the database and closes the connection pool, if any.
      *
      * @throws SQLException if a database access error occurs
      */
     public boolean closeConnection() throws SQLException {
+        ConnectionPool pool = this.pool;
+        if (pool != null) {
+            this.pool = null;
+            pool.close();
+        }
         if (connection == null) {
-            return false;
+            return pool != null;
         }
         connection.close();
         return true;
     }
 
+    /**
+     * Runs the function on a connection: a pooled connection if pooling is enabled, otherwise the single connection
+     * of this database. Since that connection is shared, calls on it are serialized: only one thread at a time runs
+     * a function, statement or transaction on it through this class.
+     *
+     * @param function the function to run, which must not close the connection
+     * @param <T>      the type of the result
+     * @return the result of the function
+     * @throws SQLException           if a database access error occurs or the function fails
+     * @throws ClassNotFoundException if the driver class does not exist
+     */
+    public <T> T withConnection(@NotNull ConnectionFunction<T> function) throws SQLException, ClassNotFoundException {
+        ConnectionPool pool = this.pool;
+        if (pool != null) {
+            try (Connection connection = pool.getConnection()) {
+                return function.apply(connection);
+            }
+        }
+        sharedConnectionLock.lock();
+        try {
+            return function.apply(openConnection());
+        } finally {
+            sharedConnectionLock.unlock();
+        }
+    }
+
     /**
      * Executes a SQL query and returns the result set.
+     * <p>
+     * The result set outlives this call, so the query is not serialized with the other methods of this class;
+     * prefer {@link #query(String, RowMapper, Object...)}.
      *
      * @param query the SQL query to execute
      * @return the result set generated by the query
      * @throws SQLException if a database access error occurs or the query is invalid
      */
     public ResultSet querySQL(String query) throws SQLException, ClassNotFoundException {
-        if (!isClosed()) {
-            openConnection();
-        }
-
-        return connection.createStatement().executeQuery(query);
+        Statement statement = openConnection().createStatement();
+        // closing the result set closes the statement
+        statement.closeOnCompletion();
+        return statement.executeQuery(query);
     }
 
     /**
@@ -126,74 +232,197 @@ public abstract class Database {
      * @throws SQLException if a database access error occurs or the query is invalid
      */
     public int updateSQL(String query) throws SQLException, ClassNotFoundException {
-        if (!isClosed()) {
-            openConnection();
-        }
+        return withConnection(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                return statement.executeUpdate(query);
+            }
+        });
+    }
 
-        return connection.createStatement().executeUpdate(query);
+    /**
+     * Executes a parameterized SQL update and returns the number of affected rows.
+     * <p>
+     * The parameters are bound in order to the {@code ?} placeholders of the statement, so values never have to be
+     * escaped and the database can reuse the statement; pooled connections also reuse the prepared statement itself.
+     *
+     * @param sql        the SQL update with {@code ?} placeholders
+     * @param parameters the values of the placeholders
+     * @return the number of affected rows
+     * @throws SQLException           if a database access error occurs or the statement is invalid
+     * @throws ClassNotFoundException if the driver class does not exist
+     */
+    public int update(@NotNull String sql, Object... parameters) throws SQLException, ClassNotFoundException {
+        return withConnection(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                bind(statement, parameters);
+                return statement.executeUpdate();
+            }
+        });
     }
 
     /**
-     * Checks if the column exists and if it is the right type
+     * Executes a parameterized SQL query and maps every row of the result.
      *
-     * @param tableName The name of the table to check the column
-     * @param column    The column name
-     * @param type      The column type
-     * @throws SQLException if a database access error occurs
+     * @param sql        the SQL query with {@code ?} placeholders
+     * @param mapper     maps the current row of the result set
+     * @param parameters the values of the placeholders
+     * @param <T>        the type of the mapped rows
+     * @return the mapped rows
+     * @throws SQLException           if a database access error occurs or the query is invalid
+     * @throws ClassNotFoundException if the driver class does not exist
+     * @see #update(String, Object...)
      */
-    public void checkColumn(@NotNull String tableName, @NotNull String column, @NotNull String type) throws SQLException, ClassNotFoundException {
-        ResultSet set = querySQL("SELECT * FROM `" + notNull("tableName", tableName) + "`;");
-        ResultSetMetaData metaData = set.getMetaData();
-        int rowCount = metaData.getColumnCount();
-
-        boolean isMyColumnPresent = false;
-        boolean isMyColumnTypeCorrect = false;
-        for (int i = 1; i <= rowCount; i++) {
-            if (notNull("column", column).equals(metaData.getColumnName(i))) {
-                isMyColumnPresent = true;
+    public <T> @NotNull List<T> query(@NotNull String sql, @NotNull RowMapper<T> mapper, Object... parameters) throws SQLException, ClassNotFoundException {
+        return withConnection(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                return query(statement, mapper, parameters);
             }
-            if (type.replaceAll("\\(.*\\)", "").equals(metaData.getColumnTypeName(i))) {
-                isMyColumnTypeCorrect = true;
+        });
+    }
+
+    /**
+     * Executes a parameterized SQL query and maps its first row.
+     *
+     * @param sql        the SQL query with {@code ?} placeholders
+     * @param mapper     maps the first row of the result set
+     * @param parameters the values of the placeholders
+     * @param <T>        the type of the mapped row
+     * @return the mapped row, or null if the query returned no rows
+     * @throws SQLException           if a database access error occurs or the query is invalid
+     * @throws ClassNotFoundException if the driver class does not exist
+     * @see #update(String, Object...)
+     */
+    public <T> @Nullable T queryFirst(@NotNull String sql, @NotNull RowMapper<T> mapper, Object... parameters) throws SQLException, ClassNotFoundException {
+        return withConnection(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                return queryFirst(statement, mapper, parameters);
+            }
+        });
+    }
+
+    private static <T> @NotNull List<T> query(@NotNull PreparedStatement statement, @NotNull RowMapper<T> mapper, Object... parameters) throws SQLException {
+        bind(statement, parameters);
+        List<T> rows = new ArrayList<>();
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                rows.add(mapper.map(resultSet));
             }
         }
+        return rows;
+    }
 
-        if (!isMyColumnPresent) {
-            updateSQL("ALTER TABLE `" + notNull("tableName", tableName) + "` ADD COLUMN `" + column + "` " + notNull("type", type) + ";");
-        } else {
-            if (!isMyColumnTypeCorrect) {
-                if (this instanceof SQLite) {
-                    String getTableQuery = "SELECT sql FROM sqlite_master WHERE type='table' AND name='" + tableName + "'";
-                    String tableCreationQuery;
-                    try (ResultSet resultSet = querySQL(getTableQuery)) {
-                        tableCreationQuery = resultSet.getString("sql");
-                    }
+    private static <T> @Nullable T queryFirst(@NotNull PreparedStatement statement, @NotNull RowMapper<T> mapper, Object... parameters) throws SQLException {
+        bind(statement, parameters);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            return resultSet.next() ? mapper.map(resultSet) : null;
+        }
+    }
 
-                    String oldColumnType = null;
-                    Pattern pattern = Pattern.compile(column + "\\s+(\\w+)");
-                    Matcher matcher = pattern.matcher(tableCreationQuery);
-                    if (matcher.find()) {
-                        oldColumnType = matcher.group(1);
-                    }
+    /**
+     * Runs the work in a transaction, which is committed if the work returns and rolled back if it throws.
+     * <p>
+     * The work must not commit, roll back or change the auto-commit mode of the connection itself. If pooling is
+     * enabled, the transaction runs on a pooled connection; otherwise it holds the single connection of this database
+     * until it ends, see {@link #withConnection(ConnectionFunction)}.
+     *
+     * @param transaction the work to run
+     * @param <T>         the type of the result
+     * @return the result of the work
+     * @throws SQLException           if a database access error occurs or the work fails
+     * @throws ClassNotFoundException if the driver class does not exist
+     */
+    public <T> T transaction(@NotNull Transaction<T> transaction) throws SQLException, ClassNotFoundException {
+        return withConnection(connection -> transaction(connection, transaction));
+    }
 
-                    if (oldColumnType != null) {
-                        String modifiedTableCreationQuery = tableCreationQuery.replace(column + " " + oldColumnType, column + " " + type);
+    /**
+     * Runs the work in a transaction on the given connection.
+     *
+     * @param connection  the connection
+     * @param transaction the work to run
+     * @param <T>         the type of the result
+     * @return the result of the work
+     * @throws SQLException if a database access error occurs or the work fails
+     * @see #transaction(Transaction)
+     */
+    protected static <T> T transaction(@NotNull Connection connection, @NotNull Transaction<T> transaction) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            T result = transaction.execute(connection);
+            connection.commit();
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
 
-                        String renameTableQuery = "ALTER TABLE " + tableName + " RENAME TO temp_" + tableName;
-                        updateSQL(renameTableQuery);
+    /**
+     * Binds the parameters in order to the {@code ?} placeholders of a prepared statement.
+     * Null values are bound with {@link PreparedStatement#setNull(int, int)}.
+     *
+     * @param statement  the prepared statement
+     * @param parameters the values of the placeholders
+     * @throws SQLException if a parameter cannot be bound
+     */
+    public static void bind(@NotNull PreparedStatement statement, Object... parameters) throws SQLException {
+        for (int i = 0; i < parameters.length; i++) {
+            if (parameters[i] == null) {
+                statement.setNull(i + 1, Types.NULL);
+            } else {
+                statement.setObject(i + 1, parameters[i]);
+            }
+        }
+    }
 
-                        updateSQL(modifiedTableCreationQuery);
+    /**
+     * Checks if the column exists and if it is the right type, adding it or changing its type otherwise.
+     *
+     * @param tableName The name of the table to check the column
+     * @param column    The column name
+     * @param type      The column type
+     * @throws SQLException if a database access error occurs
+     * @see #migrateTable(String, ObjectMap, String)
+     */
+    public void checkColumn(@NotNull String tableName, @NotNull String column, @NotNull String type) throws SQLException, ClassNotFoundException {
+        ObjectMap<String, Pair<String, String>> columnsMap = ObjectMap.newLinkedObjectMap();
+        columnsMap.append(notNull("column", column), Pair.create(notNull("type", type), null));
+        migrateTable(notNull("tableName", tableName), columnsMap, null);
+    }
 
-                        String migrateDataQuery = "INSERT INTO " + tableName + " SELECT * FROM temp_" + tableName;
-                        updateSQL(migrateDataQuery);
+    /**
+     * Adds the missing columns of an existing table and changes the type of the columns declared with another type.
+     * <p>
+     * The columns of the table are read once from its metadata, and every change is applied in one transaction
+     * together with a new version in the {@code schema_migrations} log. Types are compared by name, so a different
+     * length or an alias of the same type does not alter the table. On SQLite, where the type of a column cannot be
+     * changed, the table is rebuilt once for all changed columns.
+     *
+     * @param tableName  the name of the table
+     * @param columnsMap a map containing the column names and their types with optional default values
+     * @param primaryKey the name of the primary key column, which is not migrated, or null
+     * @return the applied migration, or null if the table already had the declared columns
+     * @throws SQLException           if a database access error occurs
+     * @throws ClassNotFoundException if the driver class does not exist
+     * @see #getMigrations(String)
+     */
+    public @Nullable Migration migrateTable(@NotNull String tableName, @NotNull ObjectMap<String, Pair<String, String>> columnsMap, @Nullable String primaryKey) throws SQLException, ClassNotFoundException {
+        return transaction(connection -> SchemaMigration.migrate(this, connection, tableName, columnsMap, primaryKey));
+    }
 
-                        String dropTempTableQuery = "DROP TABLE temp_" + tableName;
-                        updateSQL(dropTempTableQuery);
-                    }
-                } else {
-                    updateSQL("ALTER TABLE `" + notNull("tableName", tableName) + "` MODIFY COLUMN `" + column + "` " + notNull("type", type) + ";");
-                }
-            }
-        }
+    /**
+     * Returns the migrations applied to a table by {@link #migrateTable(String, ObjectMap, String)}, oldest first.
+     *
+     * @param tableName the name of the table
+     * @return the applied migrations
+     * @throws SQLException           if a database access error occurs
+     * @throws ClassNotFoundException if the driver class does not exist
+     */
+    public @NotNull List<Migration> getMigrations(@NotNull String tableName) throws SQLException, ClassNotFoundException {
+        return withConnection(connection -> SchemaMigration.migrations(this, connection, tableName));
     }
 
     /**
@@ -217,34 +446,34 @@ public abstract class Database {
      * @throws ClassNotFoundException if the specified database driver class cannot be found
      */
     public void createTable(@NotNull String tableName, @NotNull ObjectMap<String, Pair<String, String>> columnsMap) throws SQLException, ClassNotFoundException {
-        StringBuilder queryBuilder = new StringBuilder("CREATE TABLE IF NOT EXISTS `" + tableName + "` (");
+        createTable(tableName, columnsMap, null);
+    }
 
+    /**
+     * Creates a table in the database with the specified name, columns and primary key.
+     * If the table already exists, its columns are migrated with {@link #migrateTable(String, ObjectMap, String)}
+     * in the same transaction.
+     *
+     * @param tableName  the name of the table to create
+     * @param columnsMap a map containing the column names and their types with optional default values
+     * @param primaryKey the name of the primary key column, or null for a table without a primary key
+     * @throws SQLException           if a database access error occurs
+     * @throws ClassNotFoundException if the specified database driver class cannot be found
+     */
+    public void createTable(@NotNull String tableName, @NotNull ObjectMap<String, Pair<String, String>> columnsMap, @Nullable String primaryKey) throws SQLException, ClassNotFoundException {
+        StringJoiner definitions = new StringJoiner(", ", "CREATE TABLE IF NOT EXISTS " + SchemaMigration.quote(this, tableName) + " (", ")");
         for (Map.Entry<String, Pair<String, String>> entry : columnsMap.entrySet()) {
-            String columnName = entry.getKey();
-            Pair<String, String> columnDetails = entry.getValue();
-            String columnType = columnDetails.key();
-            String defaultValue = columnDetails.value();
-
-            queryBuilder.append("`").append(columnName).append("` ").append(columnType);
-
-            if (defaultValue != null && !defaultValue.isEmpty()) {
-                queryBuilder.append(" DEFAULT ").append(defaultValue);
-            }
-
-            queryBuilder.append(", ");
+            definitions.add(SchemaMigration.definition(this, entry.getKey(), entry.getValue()));
+        }
+        if (primaryKey != null) {
+            definitions.add("PRIMARY KEY (" + SchemaMigration.quote(this, primaryKey) + ")");
         }
 
-        queryBuilder.setLength(queryBuilder.length() - 2);
-        queryBuilder.append(");");
-
-        updateSQL(queryBuilder.toString());
-
-        columnsMap.forEach((columnName, columnDetails) -> {
-            try {
-                checkColumn(tableName, columnName, columnDetails.key());
-            } catch (SQLException | ClassNotFoundException exception) {
-                exception.printStackTrace();
+        transaction(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate(definitions.toString());
             }
+            return SchemaMigration.migrate(this, connection, tableName, columnsMap, primaryKey);
         });
     }
 
@@ -354,6 +583,70 @@ public abstract class Database {
         }
     }
 
+    /**
+     * Maps the current row of a {@link ResultSet}.
+     *
+     * @param <T> the type of the mapped row
+     */
+    @FunctionalInterface
+    public interface RowMapper<T> {
+        /**
+         * Maps the current row of the result set, without moving the cursor.
+         *
+         * @param resultSet the result set positioned on the row
+         * @return the mapped row
+         * @throws SQLException if a column cannot be read
+         */
+        T map(@NotNull ResultSet resultSet) throws SQLException;
+    }
+
+    /**
+     * Work that runs on a connection.
+     *
+     * @param <T> the type of the result
+     * @see #withConnection(ConnectionFunction)
+     */
+    @FunctionalInterface
+    public interface ConnectionFunction<T> {
+        /**
+         * Runs the work on the connection.
+         *
+         * @param connection the connection
+         * @return the result of the work
+         * @throws SQLException if a database access error occurs
+         */
+        T apply(@NotNull Connection connection) throws SQLException;
+    }
+
+    /**
+     * Work that runs in a transaction.
+     *
+     * @param <T> the type of the result
+     * @see #transaction(Transaction)
+     */
+    @FunctionalInterface
+    public interface Transaction<T> {
+        /**
+         * Runs the work on a connection whose transaction is committed by the caller.
+         *
+         * @param connection the connection
+         * @return the result of the work
+         * @throws SQLException if a database access error occurs
+         */
+        T execute(@NotNull Connection connection) throws SQLException;
+    }
+
+    /**
+     * A migration applied to a table by {@link #migrateTable(String, ObjectMap, String)}.
+     *
+     * @param tableName  the name of the migrated table
+     * @param version    the version of the table after the migration, starting at 1
+     * @param statements the statements that were executed
+     * @param appliedAt  when the migration was applied, in milliseconds since the epoch
+     */
+    public record Migration(@NotNull String tableName, int version, @NotNull List<String> statements, long appliedAt) {
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
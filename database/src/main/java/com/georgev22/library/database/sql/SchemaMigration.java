@@ -0,0 +1,463 @@
+package com.georgev22.library.database.sql;
+
+import com.georgev22.library.database.sql.postgresql.PostgreSQL;
+import com.georgev22.library.database.sql.sqlite.SQLite;
+import com.georgev22.library.maps.ObjectMap;
+import com.georgev22.library.maps.Pair;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.*;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Brings the columns of an existing table in line with the columns it is declared with.
+ * <p>
+ * The columns of the table are read once, from {@code PRAGMA table_info} on SQLite and from
+ * {@link DatabaseMetaData#getColumns(String, String, String, String)} elsewhere, instead of querying the table
+ * itself. The missing columns and the columns whose type changed are then applied together: MySQL and PostgreSQL
+ * alter the table with a single {@code ALTER TABLE}, and SQLite, which cannot change the type of a column, adds the
+ * missing columns in place or rebuilds the table once for all changed types. The rebuilt table is created from the
+ * original {@code CREATE TABLE} statement with the types replaced, so its constraints are kept, and its indexes and
+ * triggers are created again. Every migration is recorded with a version per table in the {@value #LOG_TABLE} table,
+ * in the same transaction.
+ * <p>
+ * Types are compared by their name only, ignoring the length and the aliases of the same type, so {@code INT} and
+ * {@code INTEGER} or {@code VARCHAR(64)} and {@code VARCHAR(191)} do not trigger a migration.
+ */
+final class SchemaMigration {
+
+    /**
+     * The table that records the applied migrations.
+     */
+    static final String LOG_TABLE = "schema_migrations";
+
+    private static final Pattern CONSTRAINT = Pattern.compile("\\s+(NOT\\s+NULL|NULL|DEFAULT|PRIMARY|UNIQUE|CHECK|REFERENCES|COLLATE|AUTO_INCREMENT)\\b.*$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern LENGTH = Pattern.compile("\\s*\\(.*?\\)");
+    private static final Pattern COLUMN_CONSTRAINT = Pattern.compile("\\s+(CONSTRAINT|PRIMARY|NOT|NULL|UNIQUE|CHECK|DEFAULT|COLLATE|REFERENCES|GENERATED|AS)\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern TABLE_CONSTRAINT = Pattern.compile("^(CONSTRAINT|PRIMARY|UNIQUE|CHECK|FOREIGN)\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern AUTOINCREMENT = Pattern.compile("\\bAUTOINCREMENT\\b", Pattern.CASE_INSENSITIVE);
+    private static final Map<String, String> ALIASES = Map.ofEntries(
+            Map.entry("INT", "INTEGER"), Map.entry("INT4", "INTEGER"), Map.entry("MEDIUMINT", "INTEGER"),
+            Map.entry("INT8", "BIGINT"), Map.entry("INT2", "SMALLINT"),
+            Map.entry("BOOL", "BOOLEAN"), Map.entry("BIT", "BOOLEAN"), Map.entry("TINYINT", "BOOLEAN"),
+            Map.entry("FLOAT8", "DOUBLE"), Map.entry("DOUBLE PRECISION", "DOUBLE"), Map.entry("FLOAT4", "REAL"),
+            Map.entry("CHARACTER VARYING", "VARCHAR"), Map.entry("CHARACTER", "CHAR"), Map.entry("BPCHAR", "CHAR"),
+            Map.entry("NUMERIC", "DECIMAL"), Map.entry("TIMESTAMP WITHOUT TIME ZONE", "TIMESTAMP"));
+
+    private SchemaMigration() {
+    }
+
+    /**
+     * Adds the missing columns of a table and changes the type of the columns declared with another type.
+     *
+     * @param database   the database of the table
+     * @param connection the connection, in a transaction
+     * @param tableName  the name of the table
+     * @param columnsMap the declared columns with their types and optional default values
+     * @param primaryKey the primary key column, which is never migrated, or null
+     * @return the applied migration, or null if the table already matched
+     * @throws SQLException if the table cannot be read or altered
+     */
+    static @Nullable Database.Migration migrate(@NotNull Database database, @NotNull Connection connection, @NotNull String tableName,
+                                                @NotNull ObjectMap<String, Pair<String, String>> columnsMap, @Nullable String primaryKey) throws SQLException {
+        Map<String, Column> existing = columns(database, connection, tableName);
+        List<String> added = new ArrayList<>();
+        List<String> changed = new ArrayList<>();
+        for (Map.Entry<String, Pair<String, String>> entry : columnsMap.entrySet()) {
+            String name = entry.getKey();
+            if (name.equals(primaryKey)) {
+                continue;
+            }
+            Column column = existing.get(name.toLowerCase(Locale.ROOT));
+            if (column == null) {
+                added.add(name);
+            } else if (!sameType(entry.getValue().key(), column.type())) {
+                changed.add(name);
+            }
+        }
+        if (added.isEmpty() && changed.isEmpty()) {
+            return null;
+        }
+
+        List<String> statements = new ArrayList<>();
+        String table = quote(database, tableName);
+        if (database instanceof SQLite) {
+            if (changed.isEmpty()) {
+                for (String name : added) {
+                    statements.add("ALTER TABLE " + table + " ADD COLUMN " + definition(database, name, columnsMap.get(name)));
+                }
+            } else {
+                statements.addAll(rebuild(database, connection, tableName, existing, columnsMap, changed));
+            }
+        } else {
+            StringJoiner alterations = new StringJoiner(", ", "ALTER TABLE " + table + " ", "");
+            for (String name : added) {
+                alterations.add("ADD COLUMN " + definition(database, name, columnsMap.get(name)));
+            }
+            for (String name : changed) {
+                String type = stripConstraints(columnsMap.get(name).key());
+                alterations.add(database instanceof PostgreSQL
+                        ? "ALTER COLUMN " + quote(database, name) + " TYPE " + type + " USING " + quote(database, name) + "::" + type
+                        : "MODIFY COLUMN " + definition(database, name, columnsMap.get(name)));
+            }
+            statements.add(alterations.toString());
+        }
+
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : statements) {
+                statement.executeUpdate(sql);
+            }
+        }
+        return log(database, connection, tableName, statements);
+    }
+
+    /**
+     * Returns the SQLite statements that recreate a table with the declared types, keeping its rows, the columns
+     * that are no longer declared and their order.
+     * <p>
+     * The new table is created from the {@code CREATE TABLE} statement stored in {@code sqlite_master}, with the type
+     * of the changed columns replaced and the missing columns added, so the constraints of the table and its columns,
+     * {@code AUTOINCREMENT} and options like {@code WITHOUT ROWID} are kept. Dropping the old table drops its indexes
+     * and triggers, so they are created again from their stored statements after the rename.
+     */
+    private static @NotNull List<String> rebuild(@NotNull Database database, @NotNull Connection connection, @NotNull String tableName,
+                                                 @NotNull Map<String, Column> existing, @NotNull ObjectMap<String, Pair<String, String>> columnsMap,
+                                                 @NotNull List<String> changed) throws SQLException {
+        String createTable = null;
+        List<String> recreated = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement("SELECT type, sql FROM sqlite_master WHERE tbl_name = ? AND sql IS NOT NULL "
+                + "ORDER BY CASE type WHEN 'table' THEN 0 WHEN 'index' THEN 1 ELSE 2 END")) {
+            statement.setString(1, tableName);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    if ("table".equals(resultSet.getString(1))) {
+                        createTable = resultSet.getString(2);
+                    } else {
+                        recreated.add(resultSet.getString(2));
+                    }
+                }
+            }
+        }
+        if (createTable == null) {
+            throw new SQLException("No CREATE TABLE statement found for " + tableName);
+        }
+        int open = indexOutsideQuotes(createTable, '(', 0);
+        int close = open < 0 ? -1 : closingParenthesis(createTable, open);
+        if (close < 0) {
+            throw new SQLException("Cannot parse the CREATE TABLE statement of " + tableName + ": " + createTable);
+        }
+
+        Map<String, String> declared = new HashMap<>();
+        columnsMap.keySet().forEach(name -> declared.put(name.toLowerCase(Locale.ROOT), name));
+        Set<String> changedColumns = new HashSet<>();
+        changed.forEach(name -> changedColumns.add(name.toLowerCase(Locale.ROOT)));
+
+        List<String> columnDefinitions = new ArrayList<>();
+        List<String> tableConstraints = new ArrayList<>();
+        for (String item : splitOutsideQuotes(createTable.substring(open + 1, close))) {
+            if (TABLE_CONSTRAINT.matcher(item).find()) {
+                tableConstraints.add(item);
+                continue;
+            }
+            int nameEnd = identifierEnd(item);
+            String name = unquote(item.substring(0, nameEnd)).toLowerCase(Locale.ROOT);
+            if (changedColumns.contains(name)) {
+                columnDefinitions.add(retype(database, item, nameEnd, declared.get(name), columnsMap.get(declared.get(name))));
+            } else {
+                columnDefinitions.add(item);
+            }
+        }
+        for (String name : columnsMap.keySet()) {
+            if (!existing.containsKey(name.toLowerCase(Locale.ROOT))) {
+                columnDefinitions.add(definition(database, name, columnsMap.get(name)));
+            }
+        }
+        columnDefinitions.addAll(tableConstraints);
+
+        StringJoiner copied = new StringJoiner(", ");
+        for (Column column : existing.values()) {
+            copied.add(quote(database, column.name()));
+        }
+        String table = quote(database, tableName);
+        String rebuiltName = "rebuild_" + tableName;
+        String rebuilt = quote(database, rebuiltName);
+        List<String> statements = new ArrayList<>();
+        statements.add("CREATE TABLE " + rebuilt + " (" + String.join(", ", columnDefinitions) + ")" + createTable.substring(close + 1));
+        statements.add("INSERT INTO " + rebuilt + " (" + copied + ") SELECT " + copied + " FROM " + table);
+        if (AUTOINCREMENT.matcher(createTable).find()) {
+            // keep the sequence, which may be ahead of the copied rows if the last ones were deleted
+            String name = literal(tableName);
+            String rebuiltLiteral = literal(rebuiltName);
+            statements.add("INSERT INTO sqlite_sequence (name, seq) SELECT " + rebuiltLiteral + ", seq FROM sqlite_sequence WHERE name = " + name
+                    + " AND NOT EXISTS (SELECT 1 FROM sqlite_sequence WHERE name = " + rebuiltLiteral + ")");
+            statements.add("UPDATE sqlite_sequence SET seq = (SELECT MAX(seq) FROM sqlite_sequence WHERE name IN (" + name + ", " + rebuiltLiteral + ")) "
+                    + "WHERE name = " + rebuiltLiteral);
+        }
+        statements.add("DROP TABLE " + table);
+        statements.add("ALTER TABLE " + rebuilt + " RENAME TO " + table);
+        statements.addAll(recreated);
+        return statements;
+    }
+
+    /**
+     * Replaces the type of a column definition with the declared one. The constraints of the existing definition
+     * are kept, unless the declared type or default value comes with its own.
+     */
+    private static @NotNull String retype(@NotNull Database database, @NotNull String definition, int nameEnd, @NotNull String name,
+                                          @NotNull Pair<String, String> details) {
+        String type = stripConstraints(details.key());
+        boolean declaresConstraints = !type.equals(details.key().trim()) || (details.value() != null && !details.value().isEmpty());
+        if (declaresConstraints) {
+            return definition(database, name, details);
+        }
+        String rest = definition.substring(nameEnd);
+        Matcher constraints = COLUMN_CONSTRAINT.matcher(rest);
+        return definition.substring(0, nameEnd) + " " + type + (constraints.find() ? rest.substring(constraints.start()) : "");
+    }
+
+    /**
+     * Splits a list of definitions at the commas that are not within parentheses or quotes.
+     */
+    private static @NotNull List<String> splitOutsideQuotes(@NotNull String list) {
+        List<String> items = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < list.length(); i++) {
+            char c = list.charAt(i);
+            if (isQuote(c)) {
+                i = quoteEnd(list, i);
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                items.add(list.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+        items.add(list.substring(start).trim());
+        items.removeIf(String::isEmpty);
+        return items;
+    }
+
+    private static int indexOutsideQuotes(@NotNull String sql, char target, int from) {
+        for (int i = from; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (isQuote(c)) {
+                i = quoteEnd(sql, i);
+            } else if (c == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int closingParenthesis(@NotNull String sql, int open) {
+        int depth = 0;
+        for (int i = open; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (isQuote(c)) {
+                i = quoteEnd(sql, i);
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the end of the quoted or bare identifier at the start of a column definition.
+     */
+    private static int identifierEnd(@NotNull String definition) {
+        if (!definition.isEmpty() && isQuote(definition.charAt(0))) {
+            return quoteEnd(definition, 0) + 1;
+        }
+        int end = 0;
+        while (end < definition.length() && !Character.isWhitespace(definition.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    private static boolean isQuote(char c) {
+        return c == '\'' || c == '"' || c == '`' || c == '[';
+    }
+
+    /**
+     * Returns the index of the character closing the quote at the given index. Doubled quote characters are escapes.
+     */
+    private static int quoteEnd(@NotNull String sql, int start) {
+        char quote = sql.charAt(start) == '[' ? ']' : sql.charAt(start);
+        for (int i = start + 1; i < sql.length(); i++) {
+            if (sql.charAt(i) == quote) {
+                if (quote != ']' && i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+                    i++;
+                } else {
+                    return i;
+                }
+            }
+        }
+        return sql.length() - 1;
+    }
+
+    private static @NotNull String unquote(@NotNull String identifier) {
+        if (identifier.length() >= 2 && isQuote(identifier.charAt(0))) {
+            char quote = identifier.charAt(0) == '[' ? ']' : identifier.charAt(0);
+            String body = identifier.substring(1, identifier.length() - 1);
+            return quote == ']' ? body : body.replace(String.valueOf(quote) + quote, String.valueOf(quote));
+        }
+        return identifier;
+    }
+
+    private static @NotNull String literal(@NotNull String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+    /**
+     * Reads the columns of a table in their order, keyed by their lower case name.
+     *
+     * @param database   the database of the table
+     * @param connection the connection
+     * @param tableName  the name of the table
+     * @return the columns, empty if the table does not exist
+     * @throws SQLException if the columns cannot be read
+     */
+    static @NotNull Map<String, Column> columns(@NotNull Database database, @NotNull Connection connection, @NotNull String tableName) throws SQLException {
+        Map<String, Column> columns = new LinkedHashMap<>();
+        if (database instanceof SQLite) {
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("PRAGMA table_info(" + quote(database, tableName) + ")")) {
+                while (resultSet.next()) {
+                    Column column = new Column(resultSet.getString("name"), resultSet.getString("type"),
+                            resultSet.getString("dflt_value"), resultSet.getInt("notnull") != 0, resultSet.getInt("pk") > 0);
+                    columns.put(column.name().toLowerCase(Locale.ROOT), column);
+                }
+            }
+            return columns;
+        }
+        DatabaseMetaData metaData = connection.getMetaData();
+        // unquoted names are stored in lower case by PostgreSQL and in upper case by others
+        for (String name : new LinkedHashSet<>(List.of(tableName, tableName.toLowerCase(Locale.ROOT), tableName.toUpperCase(Locale.ROOT)))) {
+            try (ResultSet resultSet = metaData.getColumns(connection.getCatalog(), connection.getSchema(), name, null)) {
+                while (resultSet.next()) {
+                    Column column = new Column(resultSet.getString("COLUMN_NAME"), resultSet.getString("TYPE_NAME"),
+                            resultSet.getString("COLUMN_DEF"), resultSet.getInt("NULLABLE") == DatabaseMetaData.columnNoNulls, false);
+                    columns.put(column.name().toLowerCase(Locale.ROOT), column);
+                }
+            }
+            if (!columns.isEmpty()) {
+                break;
+            }
+        }
+        return columns;
+    }
+
+    private static @NotNull Database.Migration log(@NotNull Database database, @NotNull Connection connection, @NotNull String tableName,
+                                                   @NotNull List<String> statements) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + quote(database, LOG_TABLE) + " ("
+                    + "table_name VARCHAR(191) NOT NULL, version INTEGER NOT NULL, statements TEXT NOT NULL, applied_at BIGINT NOT NULL, "
+                    + "PRIMARY KEY (table_name, version))");
+        }
+        int version;
+        try (PreparedStatement statement = connection.prepareStatement("SELECT MAX(version) FROM " + quote(database, LOG_TABLE) + " WHERE table_name = ?")) {
+            statement.setString(1, tableName);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                version = (resultSet.next() ? resultSet.getInt(1) : 0) + 1;
+            }
+        }
+        Database.Migration migration = new Database.Migration(tableName, version, List.copyOf(statements), System.currentTimeMillis());
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO " + quote(database, LOG_TABLE) + " (table_name, version, statements, applied_at) VALUES (?, ?, ?, ?)")) {
+            statement.setString(1, migration.tableName());
+            statement.setInt(2, migration.version());
+            statement.setString(3, String.join(";\n", migration.statements()));
+            statement.setLong(4, migration.appliedAt());
+            statement.executeUpdate();
+        }
+        return migration;
+    }
+
+    /**
+     * Reads the migrations recorded for a table, oldest first.
+     *
+     * @param database   the database of the table
+     * @param connection the connection
+     * @param tableName  the name of the table
+     * @return the recorded migrations
+     * @throws SQLException if the log cannot be read
+     */
+    static @NotNull List<Database.Migration> migrations(@NotNull Database database, @NotNull Connection connection, @NotNull String tableName) throws SQLException {
+        if (columns(database, connection, LOG_TABLE).isEmpty()) {
+            return List.of();
+        }
+        List<Database.Migration> migrations = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement("SELECT version, statements, applied_at FROM " + quote(database, LOG_TABLE) + " WHERE table_name = ? ORDER BY version")) {
+            statement.setString(1, tableName);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    migrations.add(new Database.Migration(tableName, resultSet.getInt(1),
+                            List.of(resultSet.getString(2).split(";\n")), resultSet.getLong(3)));
+                }
+            }
+        }
+        return migrations;
+    }
+
+    /**
+     * Returns the definition of a declared column, as used by {@code CREATE TABLE} and {@code ADD COLUMN}.
+     *
+     * @param database the database
+     * @param name     the name of the column
+     * @param details  the type and the optional default value of the column
+     * @return the column definition
+     */
+    static @NotNull String definition(@NotNull Database database, @NotNull String name, @NotNull Pair<String, String> details) {
+        String defaultValue = details.value();
+        return quote(database, name) + " " + details.key() + (defaultValue != null && !defaultValue.isEmpty() ? " DEFAULT " + defaultValue : "");
+    }
+
+    /**
+     * Quotes an identifier for the database. PostgreSQL identifiers are left unquoted, so that they fold to lower case
+     * like in every other query.
+     *
+     * @param database   the database
+     * @param identifier the identifier
+     * @return the quoted identifier
+     */
+    static @NotNull String quote(@NotNull Database database, @NotNull String identifier) {
+        return database instanceof PostgreSQL ? identifier : "`" + identifier.replace("`", "``") + "`";
+    }
+
+    static boolean sameType(@NotNull String declared, @Nullable String actual) {
+        return actual != null && normalize(stripConstraints(declared)).equals(normalize(actual));
+    }
+
+    private static @NotNull String stripConstraints(@NotNull String type) {
+        return CONSTRAINT.matcher(type.trim()).replaceFirst("");
+    }
+
+    private static @NotNull String normalize(@NotNull String type) {
+        String name = LENGTH.matcher(type).replaceAll("").trim().toUpperCase(Locale.ROOT)
+                .replaceAll("\\s+", " ")
+                .replaceFirst(" (UNSIGNED|ZEROFILL)\\b.*$", "");
+        return ALIASES.getOrDefault(name, name);
+    }
+
+    /**
+     * A column of an existing table.
+     *
+     * @param name         the name of the column
+     * @param type         the type of the column as reported by the database
+     * @param defaultValue the default value expression, or null
+     * @param notNull      whether the column is declared NOT NULL
+     * @param primaryKey   whether the column is part of the primary key, only known on SQLite
+     */
+    record Column(@NotNull String name, @NotNull String type, @Nullable String defaultValue, boolean notNull,
+                  boolean primaryKey) {
+    }
+}
@@ -0,0 +1,218 @@
+package com.georgev22.library.database.sql;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The prepared statements of a single physical connection, keyed by their SQL text.
+ * <p>
+ * {@link #prepare(Connection, String)} returns the cached statement for the SQL when it is not in use, so the
+ * driver parses and plans a query once per connection instead of once per call. Closing the returned statement
+ * clears its parameters and puts it back into the cache; the physical statement is only closed when it is evicted
+ * as the least recently used one, or when the cache is closed with its connection.
+ * <p>
+ * A StatementCache is not thread-safe beyond what a single borrower of a {@link ConnectionPool} connection needs.
+ */
+final class StatementCache {
+
+    private final Connection raw;
+    private final int maximumSize;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LinkedHashMap<String, Entry> statements;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param raw         the physical connection that prepares the statements
+     * @param maximumSize the maximum number of cached statements
+     * @param hits        counts the statements served from the cache
+     * @param misses      counts the statements that had to be prepared
+     */
+    StatementCache(@NotNull Connection raw, int maximumSize, @NotNull LongAdder hits, @NotNull LongAdder misses) {
+        this.raw = raw;
+        this.maximumSize = maximumSize;
+        this.hits = hits;
+        this.misses = misses;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns a prepared statement for the SQL, reusing the cached one if it is not in use.
+     *
+     * @param lease the connection handed to the borrower, returned by {@link PreparedStatement#getConnection()}
+     * @param sql   the SQL of the statement
+     * @return a prepared statement whose {@code close()} returns it to the cache
+     * @throws SQLException if the statement cannot be prepared
+     */
+    synchronized @NotNull PreparedStatement prepare(@NotNull Connection lease, @NotNull String sql) throws SQLException {
+        Entry entry = statements.get(sql);
+        if (entry != null && entry.owner == null) {
+            hits.increment();
+        } else {
+            misses.increment();
+            PreparedStatement statement = raw.prepareStatement(sql);
+            if (entry != null) {
+                // the cached statement is used by an outer call, this one is closed for real
+                return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                        new Class<?>[]{PreparedStatement.class}, new Handle(lease, new Entry(sql, statement), false));
+            }
+            entry = new Entry(sql, statement);
+            statements.put(sql, entry);
+            evict();
+        }
+        Handle handle = new Handle(lease, entry, true);
+        entry.owner = handle;
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, handle);
+    }
+
+    private void evict() {
+        Iterator<Entry> iterator = statements.values().iterator();
+        while (statements.size() > maximumSize && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            if (eldest.owner == null) {
+                iterator.remove();
+                closeQuietly(eldest.statement);
+            }
+        }
+    }
+
+    /**
+     * Closes every cached statement.
+     */
+    synchronized void close() {
+        for (Entry entry : statements.values()) {
+            closeQuietly(entry.statement);
+        }
+        statements.clear();
+    }
+
+    private synchronized void release(@NotNull Entry entry, @NotNull Handle handle) {
+        if (entry.owner != handle) {
+            return;
+        }
+        if (!reset(entry) || statements.get(entry.sql) != entry) {
+            statements.remove(entry.sql, entry);
+            closeQuietly(entry.statement);
+        }
+        evict();
+    }
+
+    private boolean reset(@NotNull Entry entry) {
+        entry.owner = null;
+        try {
+            entry.statement.clearParameters();
+            entry.statement.clearBatch();
+            entry.statement.clearWarnings();
+            return !entry.statement.isClosed();
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private static void closeQuietly(@NotNull PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    /**
+     * Returns the number of cached statements.
+     *
+     * @return the number of cached statements
+     */
+    synchronized int size() {
+        return statements.size();
+    }
+
+    private static final class Entry {
+        private final String sql;
+        private final PreparedStatement statement;
+        private volatile Handle owner;
+
+        private Entry(@NotNull String sql, @NotNull PreparedStatement statement) {
+            this.sql = sql;
+            this.statement = statement;
+        }
+    }
+
+    /**
+     * The statement handed to a borrower. Closing it returns the statement to the cache, or closes it if it was
+     * prepared while the cached one was in use.
+     */
+    private final class Handle implements InvocationHandler {
+
+        private final Connection lease;
+        private final Entry entry;
+        private final boolean cached;
+        private boolean closed;
+
+        private Handle(@NotNull Connection lease, @NotNull Entry entry, boolean cached) {
+            this.lease = lease;
+            this.entry = entry;
+            this.cached = cached;
+        }
+
+        @Override
+        public Object invoke(Object proxy, @NotNull Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close" -> {
+                    if (!closed) {
+                        closed = true;
+                        if (cached) {
+                            release(entry, this);
+                        } else {
+                            entry.statement.close();
+                        }
+                    }
+                    return null;
+                }
+                case "isClosed" -> {
+                    return closed || entry.statement.isClosed();
+                }
+                case "getConnection" -> {
+                    return lease;
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                case "toString" -> {
+                    return "CachedStatement{" + entry.statement + '}';
+                }
+                default -> {
+                }
+            }
+            if (closed || (cached && entry.owner != this)) {
+                throw new SQLException("Statement is closed");
+            }
+            try {
+                return method.invoke(entry.statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "StatementCache{" +
+                "size=" + size() +
+                ", maximumSize=" + maximumSize +
+                '}';
+    }
+}
@@ -61,14 +61,28 @@ public class MySQL extends Database {
             if (!isClosed())
                 return connection;
         }
+        return connection = createConnection();
+    }
+
+    /**
+     * Opens a new physical connection to the database.
+     *
+     * @return a new Connection to the database
+     * @throws SQLException           if a database access error occurs
+     * @throws ClassNotFoundException if the driver class does not exist
+     */
+    @Override
+    protected Connection createConnection() throws SQLException, ClassNotFoundException {
         Class.forName("com.mysql.jdbc.Driver");
         final Properties prop = new Properties();
         prop.setProperty("user", user);
         prop.setProperty("password", password);
         prop.setProperty("useSSL", "false");
         prop.setProperty("autoReconnect", "true");
+        // honor Statement#setFetchSize with a server-side cursor instead of reading the whole result set
+        prop.setProperty("useCursorFetch", "true");
         prop.setProperty("connectTimeout", String.valueOf(Integer.MAX_VALUE));
-        return connection = database != null ? DriverManager.getConnection("jdbc:mysql://" + this.hostname + ":" + this.port + "/" + this.database, prop) : DriverManager.getConnection("jdbc:mysql://" + this.hostname + ":" + this.port + "/", prop);
+        return database != null ? DriverManager.getConnection("jdbc:mysql://" + this.hostname + ":" + this.port + "/" + this.database, prop) : DriverManager.getConnection("jdbc:mysql://" + this.hostname + ":" + this.port + "/", prop);
     }
 
     @Override
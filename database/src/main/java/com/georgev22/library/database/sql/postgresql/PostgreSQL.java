@@ -61,13 +61,25 @@ public class PostgreSQL extends Database {
             if (!isClosed())
                 return connection;
         }
+        return connection = createConnection();
+    }
+
+    /**
+     * Opens a new physical connection to the database.
+     *
+     * @return a new Connection to the database
+     * @throws SQLException           if a database access error occurs
+     * @throws ClassNotFoundException if the driver class does not exist
+     */
+    @Override
+    protected Connection createConnection() throws SQLException, ClassNotFoundException {
         Class.forName("org.postgresql.Driver");
         final Properties prop = new Properties();
         prop.setProperty("user", this.user);
         prop.setProperty("password", this.password);
         prop.setProperty("connectTimeout", String.valueOf(Integer.MAX_VALUE));
         prop.setProperty("autosave", "always");
-        return connection = database != null ? DriverManager.getConnection("jdbc:postgresql://" + this.hostname + ":" + this.port + "/" + this.database, prop) : DriverManager.getConnection("jdbc:postgresql://" + this.hostname + ":" + this.port + "/", prop);
+        return database != null ? DriverManager.getConnection("jdbc:postgresql://" + this.hostname + ":" + this.port + "/" + this.database, prop) : DriverManager.getConnection("jdbc:postgresql://" + this.hostname + ":" + this.port + "/", prop);
     }
 
     @Override
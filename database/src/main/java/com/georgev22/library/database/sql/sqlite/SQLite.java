@@ -1,25 +1,52 @@
 package com.georgev22.library.database.sql.sqlite;
 
 import com.georgev22.library.database.sql.Database;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.Locale;
 
 public class SQLite extends Database {
 
     private final String fileName;
     private final File path;
+    private final Settings settings;
+    private volatile SQLiteWriter writer;
 
     /**
      * @param path     The full path to the database file.
      * @param fileName The file name of the database file.
      */
     public SQLite(final File path, final String fileName) {
+        this(path, fileName, Settings.DEFAULT);
+    }
+
+    /**
+     * Creates a SQLite database whose connections are configured by the given settings.
+     * <p>
+     * With {@link Settings#singleWriter()} every write of {@link #update(String, Object...)},
+     * {@link #updateSQL(String)} and {@link #transaction(Transaction)} runs on a single writer thread, which commits
+     * the writes queued meanwhile in one transaction, and the connections of the {@link #enablePooling() pool} are
+     * read-only, so that in WAL mode reads run concurrently with each other and with the writer.
+     *
+     * @param path     The full path to the database file.
+     * @param fileName The file name of the database file.
+     * @param settings The settings of the connections.
+     * @see Settings#TUNED
+     */
+    public SQLite(final File path, final String fileName, @NotNull Settings settings) {
         this.fileName = fileName;
         this.path = path;
+        this.settings = settings;
     }
 
     /**
@@ -48,18 +75,277 @@ public class SQLite extends Database {
             if (!isClosed())
                 return connection;
         }
+        return connection = createConnection();
+    }
+
+    /**
+     * Opens a new physical connection to the database and applies the pragmas of the {@link Settings}.
+     *
+     * @return a new Connection to the database
+     * @throws SQLException           if a database access error occurs
+     * @throws ClassNotFoundException if the driver class does not exist
+     */
+    @Override
+    protected Connection createConnection() throws SQLException, ClassNotFoundException {
         Class.forName("org.sqlite.JDBC");
         String connectionURL = "jdbc:sqlite:" + path.getPath() + "/" + this.fileName + ".db";
-        connection = DriverManager.getConnection(connectionURL);
-        connection.createStatement().setQueryTimeout(Integer.MAX_VALUE);
+        Connection connection = DriverManager.getConnection(connectionURL);
+        try (Statement statement = connection.createStatement()) {
+            // wait for the lock of another connection instead of failing with SQLITE_BUSY right away
+            statement.execute("PRAGMA busy_timeout = " + settings.busyTimeout().toMillis());
+            if (settings.journalMode() != null) {
+                statement.execute("PRAGMA journal_mode = " + settings.journalMode());
+            }
+            if (settings.synchronous() != null) {
+                statement.execute("PRAGMA synchronous = " + settings.synchronous());
+            }
+            if (settings.cacheSize() != 0) {
+                statement.execute("PRAGMA cache_size = " + settings.cacheSize());
+            }
+            if (settings.mmapSize() != 0) {
+                statement.execute("PRAGMA mmap_size = " + settings.mmapSize());
+            }
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
         return connection;
     }
 
+    /**
+     * Opens a new physical connection for the pool, which is read-only if writes go through the single writer.
+     *
+     * @return a new Connection to the database
+     * @throws SQLException           if a database access error occurs
+     * @throws ClassNotFoundException if the driver class does not exist
+     */
+    @Override
+    protected Connection createPooledConnection() throws SQLException, ClassNotFoundException {
+        Connection connection = createConnection();
+        if (settings.singleWriter()) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("PRAGMA query_only = ON");
+            } catch (SQLException e) {
+                connection.close();
+                throw e;
+            }
+        }
+        return connection;
+    }
+
+    private @Nullable SQLiteWriter writer() {
+        if (!settings.singleWriter()) {
+            return null;
+        }
+        SQLiteWriter writer = this.writer;
+        if (writer == null) {
+            synchronized (this) {
+                writer = this.writer;
+                if (writer == null) {
+                    this.writer = writer = new SQLiteWriter(this, "SQLite-writer-" + fileName, settings.writeBatchSize());
+                }
+            }
+        }
+        return writer;
+    }
+
+    @Override
+    public int updateSQL(String query) throws SQLException, ClassNotFoundException {
+        SQLiteWriter writer = writer();
+        if (writer == null) {
+            return super.updateSQL(query);
+        }
+        return writer.execute(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                return statement.executeUpdate(query);
+            }
+        });
+    }
+
+    @Override
+    public int update(@NotNull String sql, Object... parameters) throws SQLException, ClassNotFoundException {
+        SQLiteWriter writer = writer();
+        if (writer == null) {
+            return super.update(sql, parameters);
+        }
+        return writer.execute(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                bind(statement, parameters);
+                return statement.executeUpdate();
+            }
+        });
+    }
+
+    /**
+     * Runs the work in a transaction, which is committed if the work returns and rolled back if it throws.
+     * <p>
+     * With {@link Settings#singleWriter()} the work runs on the writer thread, in a savepoint of a transaction that
+     * may contain other writes, and this method returns once that transaction was committed.
+     *
+     * @param transaction the work to run
+     * @param <T>         the type of the result
+     * @return the result of the work
+     * @throws SQLException           if a database access error occurs or the work fails
+     * @throws ClassNotFoundException if the driver class does not exist
+     */
+    @Override
+    public <T> T transaction(@NotNull Transaction<T> transaction) throws SQLException, ClassNotFoundException {
+        SQLiteWriter writer = writer();
+        if (writer == null) {
+            return super.transaction(transaction);
+        }
+        return writer.execute(transaction);
+    }
+
+    /**
+     * Commits the queued writes, stops the writer thread and disconnects from the database.
+     *
+     * @throws SQLException if a database access error occurs
+     */
+    @Override
+    public boolean closeConnection() throws SQLException {
+        SQLiteWriter writer;
+        synchronized (this) {
+            writer = this.writer;
+            this.writer = null;
+        }
+        if (writer != null) {
+            writer.close();
+        }
+        return super.closeConnection() || writer != null;
+    }
+
+    /**
+     * Returns the settings of the connections.
+     *
+     * @return the settings
+     */
+    public @NotNull Settings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Returns a snapshot of the metrics of the single writer, or null if writes do not go through a single writer or
+     * nothing was written yet.
+     *
+     * @return the writer metrics or null
+     */
+    public @Nullable WriterMetrics getWriterMetrics() {
+        SQLiteWriter writer = this.writer;
+        return writer == null ? null : writer.getMetrics();
+    }
+
     @Override
     public String toString() {
         return "SQLite{" +
                 "fileName='" + fileName + '\'' +
                 ", path=" + path +
+                ", settings=" + settings +
                 '}';
     }
+
+    /**
+     * The settings of the SQLite connections. A null pragma, or a zero size, leaves the SQLite default in place.
+     *
+     * @param journalMode    the {@code journal_mode} pragma, such as {@code WAL}
+     * @param synchronous    the {@code synchronous} pragma, such as {@code NORMAL}
+     * @param cacheSize      the {@code cache_size} pragma, in pages if positive or in KiB if negative
+     * @param mmapSize       the {@code mmap_size} pragma, in bytes
+     * @param busyTimeout    how long a connection waits for the lock of another one before failing with
+     *                       {@code SQLITE_BUSY}
+     * @param singleWriter   whether the writes run on a single writer thread and the pooled connections are read-only
+     * @param writeBatchSize the maximum number of writes the single writer commits in one transaction
+     */
+    public record Settings(@Nullable String journalMode, @Nullable String synchronous, int cacheSize, long mmapSize,
+                           @NotNull Duration busyTimeout, boolean singleWriter, int writeBatchSize) {
+
+        /**
+         * The SQLite defaults, with a 30 seconds busy timeout.
+         */
+        public static final Settings DEFAULT = new Settings(null, null, 0, 0, Duration.ofSeconds(30), false, 256);
+
+        /**
+         * WAL journal with {@code synchronous = NORMAL}, which only syncs at checkpoints and stays consistent after a
+         * power loss but may lose the last commits, a 64 MiB page cache, 256 MiB of memory mapped I/O, a 30 seconds
+         * busy timeout and a single writer committing up to 256 writes per transaction.
+         */
+        public static final Settings TUNED = new Settings("WAL", "NORMAL", -64 * 1024, 256L * 1024 * 1024,
+                Duration.ofSeconds(30), true, 256);
+
+        public Settings {
+            if (journalMode != null && !journalMode.matches("(?i)DELETE|TRUNCATE|PERSIST|MEMORY|WAL|OFF")) {
+                throw new IllegalArgumentException("Unknown journal mode: " + journalMode);
+            }
+            if (synchronous != null && !synchronous.matches("(?i)OFF|NORMAL|FULL|EXTRA|[0-3]")) {
+                throw new IllegalArgumentException("Unknown synchronous mode: " + synchronous);
+            }
+            if (mmapSize < 0) {
+                throw new IllegalArgumentException("mmapSize must not be negative");
+            }
+            if (busyTimeout.isNegative()) {
+                throw new IllegalArgumentException("busyTimeout must not be negative");
+            }
+            if (writeBatchSize < 1) {
+                throw new IllegalArgumentException("writeBatchSize must be at least 1");
+            }
+            journalMode = journalMode == null ? null : journalMode.toUpperCase(Locale.ROOT);
+            synchronous = synchronous == null ? null : synchronous.toUpperCase(Locale.ROOT);
+        }
+
+        @Contract("_ -> new")
+        public @NotNull Settings journalMode(@Nullable String journalMode) {
+            return new Settings(journalMode, synchronous, cacheSize, mmapSize, busyTimeout, singleWriter, writeBatchSize);
+        }
+
+        @Contract("_ -> new")
+        public @NotNull Settings synchronous(@Nullable String synchronous) {
+            return new Settings(journalMode, synchronous, cacheSize, mmapSize, busyTimeout, singleWriter, writeBatchSize);
+        }
+
+        @Contract("_ -> new")
+        public @NotNull Settings cacheSize(int cacheSize) {
+            return new Settings(journalMode, synchronous, cacheSize, mmapSize, busyTimeout, singleWriter, writeBatchSize);
+        }
+
+        @Contract("_ -> new")
+        public @NotNull Settings mmapSize(long mmapSize) {
+            return new Settings(journalMode, synchronous, cacheSize, mmapSize, busyTimeout, singleWriter, writeBatchSize);
+        }
+
+        @Contract("_ -> new")
+        public @NotNull Settings busyTimeout(@NotNull Duration busyTimeout) {
+            return new Settings(journalMode, synchronous, cacheSize, mmapSize, busyTimeout, singleWriter, writeBatchSize);
+        }
+
+        @Contract("_ -> new")
+        public @NotNull Settings singleWriter(boolean singleWriter) {
+            return new Settings(journalMode, synchronous, cacheSize, mmapSize, busyTimeout, singleWriter, writeBatchSize);
+        }
+
+        @Contract("_ -> new")
+        public @NotNull Settings writeBatchSize(int writeBatchSize) {
+            return new Settings(journalMode, synchronous, cacheSize, mmapSize, busyTimeout, singleWriter, writeBatchSize);
+        }
+    }
+
+    /**
+     * A snapshot of the counters of the single writer of a {@link SQLite} database.
+     *
+     * @param writes       the number of committed writes
+     * @param failures     the number of writes that failed or whose transaction could not be committed
+     * @param transactions the number of committed transactions
+     * @param largestBatch the largest number of writes committed in one transaction
+     * @param queued       the number of writes waiting for the writer
+     */
+    public record WriterMetrics(long writes, long failures, long transactions, long largestBatch, int queued) {
+
+        /**
+         * Returns the average number of writes committed per transaction.
+         *
+         * @return the average batch size
+         */
+        public double averageBatchSize() {
+            return transactions == 0 ? 0 : (double) writes / transactions;
+        }
+    }
 }
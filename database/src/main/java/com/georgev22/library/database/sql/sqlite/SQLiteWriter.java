@@ -0,0 +1,234 @@
+package com.georgev22.library.database.sql.sqlite;
+
+import com.georgev22.library.database.sql.Database;
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs every write to a SQLite database on a single thread and connection.
+ * <p>
+ * SQLite allows one writer at a time, so concurrent writers on their own connections mostly wait for each other's
+ * lock and fail with {@code SQLITE_BUSY} once the busy timeout expires. The writer thread instead takes every write
+ * that is queued, up to the batch size, and runs them in one transaction, each in its own savepoint: a write that
+ * fails is rolled back on its own, and the others are committed together, so the cost of the commit is shared by the
+ * whole batch.
+ * <p>
+ * A write submitted from the writer thread itself, by a write that is running, runs immediately in the current
+ * transaction instead of being queued.
+ */
+final class SQLiteWriter implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(SQLiteWriter.class.getName());
+
+    private final SQLite database;
+    private final int batchSize;
+    private final BlockingQueue<Write<?>> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder transactions = new LongAdder();
+    private final AtomicLong largestBatch = new AtomicLong();
+    private Connection connection;
+    private volatile boolean closed;
+
+    /**
+     * Creates and starts a writer.
+     *
+     * @param database  the database whose connections the writer opens
+     * @param name      the name of the writer thread
+     * @param batchSize the maximum number of writes committed in one transaction
+     */
+    SQLiteWriter(@NotNull SQLite database, @NotNull String name, int batchSize) {
+        this.database = database;
+        this.batchSize = batchSize;
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Runs the work in the next transaction of the writer and waits until that transaction was committed.
+     *
+     * @param transaction the work to run
+     * @param <T>         the type of the result
+     * @return the result of the work
+     * @throws SQLException if the work or the commit failed, or the writer is closed
+     */
+    <T> T execute(@NotNull Database.Transaction<T> transaction) throws SQLException {
+        if (Thread.currentThread() == this.thread) {
+            return transaction.execute(this.connection);
+        }
+        CompletableFuture<T> future = submit(transaction);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the SQLite writer", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException sqlException) {
+                throw sqlException;
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new SQLException(e.getCause());
+        }
+    }
+
+    /**
+     * Queues the work for the next transaction of the writer.
+     *
+     * @param transaction the work to run
+     * @param <T>         the type of the result
+     * @return a future completed with the result of the work once its transaction was committed
+     */
+    <T> @NotNull CompletableFuture<T> submit(@NotNull Database.Transaction<T> transaction) {
+        Write<T> write = new Write<>(transaction, new CompletableFuture<>());
+        if (this.closed) {
+            write.future().completeExceptionally(new SQLException("SQLite writer is closed"));
+            return write.future();
+        }
+        this.queue.add(write);
+        if (this.closed && this.queue.remove(write)) {
+            write.future().completeExceptionally(new SQLException("SQLite writer is closed"));
+        }
+        return write.future();
+    }
+
+    private void run() {
+        List<Write<?>> batch = new ArrayList<>(this.batchSize);
+        while (!this.closed || !this.queue.isEmpty()) {
+            try {
+                Write<?> first = this.queue.take();
+                batch.add(first);
+                this.queue.drainTo(batch, this.batchSize - 1);
+                commit(batch);
+            } catch (InterruptedException e) {
+                if (!this.closed) {
+                    LOGGER.log(Level.WARNING, "[SQLiteWriter]: Interrupted while waiting for writes", e);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+        closeConnection();
+    }
+
+    private void commit(@NotNull List<Write<?>> batch) {
+        List<Runnable> completions = new ArrayList<>(batch.size());
+        try {
+            Connection connection = connection();
+            for (Write<?> write : batch) {
+                Savepoint savepoint = connection.setSavepoint();
+                try {
+                    completions.add(write.run(connection));
+                    connection.releaseSavepoint(savepoint);
+                } catch (SQLException | RuntimeException e) {
+                    connection.rollback(savepoint);
+                    connection.releaseSavepoint(savepoint);
+                    this.failures.increment();
+                    write.future().completeExceptionally(e);
+                }
+            }
+            connection.commit();
+        } catch (SQLException | ClassNotFoundException | RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "[SQLiteWriter]: Failed to commit a batch of " + batch.size() + " writes", e);
+            rollbackQuietly();
+            for (Write<?> write : batch) {
+                write.future().completeExceptionally(e);
+            }
+            this.failures.add(completions.size());
+            return;
+        }
+        this.transactions.increment();
+        this.writes.add(completions.size());
+        this.largestBatch.accumulateAndGet(batch.size(), Math::max);
+        completions.forEach(Runnable::run);
+    }
+
+    private @NotNull Connection connection() throws SQLException, ClassNotFoundException {
+        if (this.connection == null || this.connection.isClosed()) {
+            this.connection = this.database.createConnection();
+            this.connection.setAutoCommit(false);
+        }
+        return this.connection;
+    }
+
+    private void rollbackQuietly() {
+        try {
+            if (this.connection != null && !this.connection.isClosed()) {
+                this.connection.rollback();
+            }
+        } catch (SQLException e) {
+            // the connection is broken, the next batch opens a new one
+            closeConnection();
+        }
+    }
+
+    private void closeConnection() {
+        if (this.connection != null) {
+            try {
+                this.connection.close();
+            } catch (SQLException ignored) {
+            }
+            this.connection = null;
+        }
+    }
+
+    /**
+     * Returns a snapshot of the metrics of this writer.
+     *
+     * @return the current metrics
+     */
+    @NotNull SQLite.WriterMetrics getMetrics() {
+        return new SQLite.WriterMetrics(this.writes.sum(), this.failures.sum(), this.transactions.sum(),
+                this.largestBatch.get(), this.queue.size());
+    }
+
+    /**
+     * Commits the queued writes and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        this.thread.interrupt();
+        try {
+            this.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SQLiteWriter{" +
+                "thread=" + thread.getName() +
+                ", metrics=" + getMetrics() +
+                '}';
+    }
+
+    private record Write<T>(@NotNull Database.Transaction<T> transaction, @NotNull CompletableFuture<T> future) {
+
+        /**
+         * Runs the work and returns the completion of its future, which must only run once the transaction was
+         * committed.
+         */
+        private @NotNull Runnable run(@NotNull Connection connection) throws SQLException {
+            T result = this.transaction.execute(connection);
+            return () -> this.future.complete(result);
+        }
+    }
+}
@@ -0,0 +1,502 @@
+package com.georgev22.library.utilities;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * An {@link EntitySerializer} that stores the fields of an entity in a compact binary form.
+ * <p>
+ * The stored fields are the non-static, non-transient fields of the entity class and its superclasses, superclass
+ * fields first, which form the schema of the class. An entity is written as a header with the schema fingerprint and
+ * the ID, a bitmap of the fields that are not null and the values of those fields in schema order, without names:
+ * <ul>
+ *     <li>integral numbers and characters as zigzag varints, floating point numbers in 4 or 8 bytes, booleans in
+ *     one byte;</li>
+ *     <li>strings and byte arrays as their varint length followed by their UTF-8 or raw bytes;</li>
+ *     <li>{@link UUID}s in 16 bytes and enums as the varint ordinal of the constant;</li>
+ *     <li>every other field type as the JSON of its Gson {@link TypeAdapter}.</li>
+ * </ul>
+ * The fingerprint covers the names and types of the fields and the constants of enum fields, so data written with
+ * another schema, after a field was added, removed, renamed or retyped, is rejected instead of being misread.
+ * Entities of a changed class must be rewritten with another serializer first.
+ * <p>
+ * The schema of a class, with the method handles of its fields and its constructor, is built once and shared by
+ * every serializer of the class. Entities are created with their constructor taking their ID, or with their
+ * no-argument constructor.
+ *
+ * @param <V> the type of the entities
+ */
+public final class BinaryEntitySerializer<V extends Entity> implements EntitySerializer<V> {
+
+    private static final byte MAGIC = (byte) 0xB5;
+    private static final byte VERSION = 1;
+
+    /**
+     * The largest buffer, in bytes, a thread keeps for the next entity.
+     */
+    private static final int RETAINED_BYTES = 64 * 1024;
+
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final ClassValue<Schema> SCHEMAS = new ClassValue<>() {
+        @Override
+        protected Schema computeValue(@NotNull Class<?> type) {
+            return Schema.of(type);
+        }
+    };
+
+    private static final ThreadLocal<Output> OUTPUTS = ThreadLocal.withInitial(Output::new);
+
+    private final Class<V> entityClass;
+    private final Schema schema;
+    private final TypeAdapter<?>[] adapters;
+
+    /**
+     * Creates a binary serializer.
+     *
+     * @param entityClass the entity class
+     * @param gson        the Gson instance that converts the fields without a binary encoding
+     * @throws IllegalArgumentException if the entity class has neither a no-argument constructor nor one taking its
+     *                                  ID, or its fields cannot be accessed
+     */
+    public BinaryEntitySerializer(@NotNull Class<V> entityClass, @NotNull Gson gson) {
+        this.entityClass = entityClass;
+        this.schema = SCHEMAS.get(entityClass);
+        if (this.schema.constructor() == null) {
+            throw new IllegalArgumentException(entityClass.getName() + " has neither a no-argument constructor nor one taking its ID");
+        }
+        this.adapters = new TypeAdapter<?>[this.schema.fields().size()];
+        for (int i = 0; i < this.adapters.length; i++) {
+            Slot slot = this.schema.fields().get(i);
+            if (slot.kind() == Kind.OTHER) {
+                this.adapters[i] = gson.getAdapter(TypeToken.get(slot.field().getGenericType()));
+            }
+        }
+    }
+
+    @Override
+    public @NotNull String name() {
+        return "binary";
+    }
+
+    @Override
+    public boolean isBinary() {
+        return true;
+    }
+
+    @Override
+    public byte @NotNull [] serialize(@NotNull V entity) {
+        Output output = OUTPUTS.get().reset();
+        List<Slot> fields = this.schema.fields();
+        Object[] values = new Object[fields.size()];
+        output.writeByte(MAGIC);
+        output.writeByte(VERSION);
+        output.writeInt(this.schema.fingerprint());
+        output.writeString(entity._id());
+        int bitmap = output.skip((fields.size() + 7) >>> 3);
+        try {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = fields.get(i).getter().invokeExact((Object) entity);
+            }
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to read the fields of " + entity._id(), e);
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                output.buffer[bitmap + (i >>> 3)] |= (byte) (1 << (i & 7));
+                write(output, i, fields.get(i).kind(), values[i]);
+            }
+        }
+        return output.toByteArray();
+    }
+
+    private void write(@NotNull Output output, int index, @NotNull Kind kind, @NotNull Object value) {
+        switch (kind) {
+            case STRING -> output.writeString((String) value);
+            case INTEGER, LONG, SHORT, BYTE -> output.writeVarLong(zigzag(((Number) value).longValue()));
+            case DOUBLE -> output.writeLong(Double.doubleToRawLongBits((Double) value));
+            case FLOAT -> output.writeInt(Float.floatToRawIntBits((Float) value));
+            case BOOLEAN -> output.writeByte((Boolean) value ? (byte) 1 : 0);
+            case CHARACTER -> output.writeVarLong((Character) value);
+            case UUID -> {
+                output.writeLong(((UUID) value).getMostSignificantBits());
+                output.writeLong(((UUID) value).getLeastSignificantBits());
+            }
+            case ENUM -> output.writeVarLong(((Enum<?>) value).ordinal());
+            case BYTES -> output.writeBytes((byte[]) value);
+            case OTHER -> output.writeString(toJson(this.adapters[index], value));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static @NotNull String toJson(@NotNull TypeAdapter<?> adapter, @NotNull Object value) {
+        return ((TypeAdapter<Object>) adapter).toJson(value);
+    }
+
+    @Override
+    public @NotNull V deserialize(byte @NotNull [] data) {
+        Input input = new Input(data);
+        List<Slot> fields = this.schema.fields();
+        try {
+            if (input.readByte() != MAGIC || input.readByte() != VERSION) {
+                throw new IllegalArgumentException("Not a binary " + this.entityClass.getName());
+            }
+            int fingerprint = input.readInt();
+            if (fingerprint != this.schema.fingerprint()) {
+                throw new IllegalArgumentException("The data was written with another schema of " + this.entityClass.getName()
+                        + " (" + Integer.toHexString(fingerprint) + " instead of " + Integer.toHexString(this.schema.fingerprint()) + ")");
+            }
+            String id = input.readString();
+            int bitmap = input.skip((fields.size() + 7) >>> 3);
+            V entity = this.entityClass.cast(this.schema.constructor().invokeExact(id));
+            if (this.schema.idSetter() != null) {
+                this.schema.idSetter().invokeExact((Object) entity, (Object) id);
+            }
+            for (int i = 0; i < fields.size(); i++) {
+                if ((data[bitmap + (i >>> 3)] & (1 << (i & 7))) != 0) {
+                    Slot slot = fields.get(i);
+                    slot.setter().invokeExact((Object) entity, read(input, i, slot));
+                }
+            }
+            return entity;
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated binary " + this.entityClass.getName(), e);
+        } catch (Throwable e) {
+            throw new IllegalArgumentException("Failed to deserialize " + this.entityClass.getName(), e);
+        }
+    }
+
+    private @Nullable Object read(@NotNull Input input, int index, @NotNull Slot slot) throws IOException {
+        return switch (slot.kind()) {
+            case STRING -> input.readString();
+            case INTEGER -> (int) unzigzag(input.readVarLong());
+            case LONG -> unzigzag(input.readVarLong());
+            case SHORT -> (short) unzigzag(input.readVarLong());
+            case BYTE -> (byte) unzigzag(input.readVarLong());
+            case DOUBLE -> Double.longBitsToDouble(input.readLong());
+            case FLOAT -> Float.intBitsToFloat(input.readInt());
+            case BOOLEAN -> input.readByte() != 0;
+            case CHARACTER -> (char) input.readVarLong();
+            case UUID -> new UUID(input.readLong(), input.readLong());
+            case ENUM -> slot.field().getType().getEnumConstants()[(int) input.readVarLong()];
+            case BYTES -> input.readBytes();
+            case OTHER -> this.adapters[index].fromJson(input.readString());
+        };
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Returns the fingerprint of the schema of the entity class, which every serialized entity starts with.
+     *
+     * @return the schema fingerprint
+     */
+    public int getFingerprint() {
+        return this.schema.fingerprint();
+    }
+
+    @Override
+    public String toString() {
+        return "BinaryEntitySerializer{" +
+                "entityClass=" + entityClass.getName() +
+                ", fields=" + schema.fields().size() +
+                ", fingerprint=" + Integer.toHexString(schema.fingerprint()) +
+                '}';
+    }
+
+    /**
+     * How the value of a field is stored.
+     */
+    private enum Kind {
+        STRING, INTEGER, LONG, DOUBLE, FLOAT, SHORT, BYTE, BOOLEAN, CHARACTER, UUID, ENUM, BYTES, OTHER;
+
+        private static @NotNull Kind of(@NotNull Class<?> type) {
+            if (type == String.class) return STRING;
+            if (type == int.class || type == Integer.class) return INTEGER;
+            if (type == long.class || type == Long.class) return LONG;
+            if (type == double.class || type == Double.class) return DOUBLE;
+            if (type == float.class || type == Float.class) return FLOAT;
+            if (type == short.class || type == Short.class) return SHORT;
+            if (type == byte.class || type == Byte.class) return BYTE;
+            if (type == boolean.class || type == Boolean.class) return BOOLEAN;
+            if (type == char.class || type == Character.class) return CHARACTER;
+            if (type == java.util.UUID.class) return UUID;
+            if (type.isEnum()) return ENUM;
+            if (type == byte[].class) return BYTES;
+            return OTHER;
+        }
+    }
+
+    /**
+     * A stored field of an entity class with its getter and setter, typed {@code (Object)Object} and
+     * {@code (Object,Object)void}.
+     */
+    private record Slot(@NotNull Field field, @NotNull Kind kind, @NotNull MethodHandle getter,
+                        @NotNull MethodHandle setter) {
+    }
+
+    /**
+     * The stored fields and the constructor of an entity class, shared by every serializer of the class.
+     *
+     * @param fields      the stored fields, superclass fields first
+     * @param fingerprint the hash of the names and types of the fields
+     * @param constructor creates an entity, typed {@code (String)Object}, or null if the class has no usable constructor
+     * @param idSetter    sets the ID of an entity created without it, or null if the constructor takes the ID
+     */
+    private record Schema(@NotNull List<Slot> fields, int fingerprint, @Nullable MethodHandle constructor,
+                          @Nullable MethodHandle idSetter) {
+
+        private static @NotNull Schema of(@NotNull Class<?> type) {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            List<Class<?>> hierarchy = new ArrayList<>();
+            for (Class<?> current = type; current != null && current != Entity.class && current != Object.class; current = current.getSuperclass()) {
+                hierarchy.add(0, current);
+            }
+            List<Slot> fields = new ArrayList<>();
+            Set<String> names = new HashSet<>();
+            int fingerprint = 1;
+            try {
+                for (Class<?> current : hierarchy) {
+                    for (Field field : current.getDeclaredFields()) {
+                        int modifiers = field.getModifiers();
+                        if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()
+                                || field.getName().equals("_id") || !names.add(field.getName())) {
+                            continue;
+                        }
+                        field.setAccessible(true);
+                        fields.add(new Slot(field, Kind.of(field.getType()),
+                                lookup.unreflectGetter(field).asType(MethodType.methodType(Object.class, Object.class)),
+                                lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, Object.class))));
+                        fingerprint = 31 * fingerprint + field.getName().hashCode();
+                        fingerprint = 31 * fingerprint + field.getGenericType().getTypeName().hashCode();
+                        if (field.getType().isEnum()) {
+                            for (Object constant : field.getType().getEnumConstants()) {
+                                fingerprint = 31 * fingerprint + ((Enum<?>) constant).name().hashCode();
+                            }
+                        }
+                    }
+                }
+
+                MethodHandle constructor = null;
+                MethodHandle idSetter = null;
+                try {
+                    var withId = type.getDeclaredConstructor(String.class);
+                    withId.setAccessible(true);
+                    constructor = lookup.unreflectConstructor(withId).asType(MethodType.methodType(Object.class, String.class));
+                } catch (NoSuchMethodException e) {
+                    try {
+                        var noArgs = type.getDeclaredConstructor();
+                        noArgs.setAccessible(true);
+                        constructor = MethodHandles.dropArguments(
+                                lookup.unreflectConstructor(noArgs).asType(MethodType.methodType(Object.class)), 0, String.class);
+                        Field id = Entity.class.getDeclaredField("_id");
+                        id.setAccessible(true);
+                        idSetter = lookup.unreflectSetter(id).asType(MethodType.methodType(void.class, Object.class, Object.class));
+                    } catch (NoSuchMethodException ignored) {
+                    }
+                }
+                if (Modifier.isAbstract(type.getModifiers())) {
+                    constructor = null;
+                }
+                return new Schema(List.copyOf(fields), fingerprint, constructor, idSetter);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                throw new IllegalArgumentException("Cannot access the fields of " + type.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * A growable buffer a thread reuses from one entity to the next.
+     */
+    private static final class Output {
+        private byte[] buffer = new byte[256];
+        private int position;
+
+        private @NotNull Output reset() {
+            if (this.buffer.length > RETAINED_BYTES) {
+                this.buffer = new byte[256];
+            }
+            this.position = 0;
+            return this;
+        }
+
+        private void ensure(int bytes) {
+            if (this.position + bytes > this.buffer.length) {
+                this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.position + bytes));
+            }
+        }
+
+        private int skip(int bytes) {
+            ensure(bytes);
+            int start = this.position;
+            Arrays.fill(this.buffer, start, start + bytes, (byte) 0);
+            this.position += bytes;
+            return start;
+        }
+
+        private void writeByte(byte value) {
+            ensure(1);
+            this.buffer[this.position++] = value;
+        }
+
+        private void writeInt(int value) {
+            ensure(4);
+            INT.set(this.buffer, this.position, value);
+            this.position += 4;
+        }
+
+        private void writeLong(long value) {
+            ensure(8);
+            LONG.set(this.buffer, this.position, value);
+            this.position += 8;
+        }
+
+        private void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                this.buffer[this.position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            this.buffer[this.position++] = (byte) value;
+        }
+
+        private void writeBytes(byte @NotNull [] value) {
+            writeVarLong(value.length);
+            ensure(value.length);
+            System.arraycopy(value, 0, this.buffer, this.position, value.length);
+            this.position += value.length;
+        }
+
+        private void writeString(@NotNull String value) {
+            int length = value.length();
+            ensure(5 + length);
+            int start = this.position;
+            // most strings are ASCII, whose UTF-8 length is known upfront
+            this.position += varLongSize(length);
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c >= 0x80) {
+                    this.position = start;
+                    writeBytes(value.getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                this.buffer[this.position++] = (byte) c;
+            }
+            int end = this.position;
+            this.position = start;
+            writeVarLong(length);
+            this.position = end;
+        }
+
+        private static int varLongSize(long value) {
+            int size = 1;
+            while ((value & ~0x7FL) != 0) {
+                value >>>= 7;
+                size++;
+            }
+            return size;
+        }
+
+        private byte @NotNull [] toByteArray() {
+            return Arrays.copyOf(this.buffer, this.position);
+        }
+    }
+
+    /**
+     * Reads a serialized entity.
+     */
+    private static final class Input {
+        private final byte[] buffer;
+        private int position;
+
+        private Input(byte @NotNull [] buffer) {
+            this.buffer = buffer;
+        }
+
+        private int skip(int bytes) {
+            int start = this.position;
+            Objects.checkFromIndexSize(start, bytes, this.buffer.length);
+            this.position += bytes;
+            return start;
+        }
+
+        private byte readByte() {
+            return this.buffer[this.position++];
+        }
+
+        private int readInt() {
+            int value = (int) INT.get(this.buffer, this.position);
+            this.position += 4;
+            return value;
+        }
+
+        private long readLong() {
+            long value = (long) LONG.get(this.buffer, this.position);
+            this.position += 8;
+            return value;
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = this.buffer[this.position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        private byte @NotNull [] readBytes() {
+            int length = readLength();
+            byte[] value = Arrays.copyOfRange(this.buffer, this.position, this.position + length);
+            this.position += length;
+            return value;
+        }
+
+        private @NotNull String readString() {
+            int length = readLength();
+            int start = this.position;
+            this.position += length;
+            for (int i = start; i < start + length; i++) {
+                if (this.buffer[i] < 0) {
+                    return new String(this.buffer, start, length, StandardCharsets.UTF_8);
+                }
+            }
+            // ASCII, which Latin-1 decodes without validation
+            return new String(this.buffer, start, length, StandardCharsets.ISO_8859_1);
+        }
+
+        private int readLength() {
+            long length = readVarLong();
+            Objects.checkFromIndexSize(this.position, (int) Math.min(length, Integer.MAX_VALUE), this.buffer.length);
+            return (int) length;
+        }
+    }
+}
@@ -0,0 +1,833 @@
+package com.georgev22.library.utilities;
+
+import com.georgev22.library.database.sql.Database;
+import com.georgev22.library.database.sql.mysql.MySQL;
+import com.georgev22.library.database.sql.postgresql.PostgreSQL;
+import com.georgev22.library.maps.ObjectMap;
+import com.georgev22.library.maps.ObservableObjectMap;
+import com.georgev22.library.maps.Pair;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.math.BigInteger;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A repository manager for SQL entities that stores every field of an entity in its own column, instead of a single
+ * JSON document like {@link MySQLEntityRepository}.
+ * <p>
+ * The table schema is derived from the entity class: every non-static, non-transient and non-final field declared
+ * by the entity class and its superclasses below {@link Entity} is a column named after the field, next to the
+ * {@code _id} primary key. Strings, numbers, booleans, {@link UUID}s and enums are stored in columns of the matching
+ * SQL type, every other type is stored as JSON text. {@link EntityColumn} customizes the name and type of a column
+ * and marks it as indexed. {@link #createTable()} creates the table, its missing columns and its indexes.
+ * <p>
+ * The repository remembers the column values an entity was loaded or saved with, so a save only updates the
+ * columns that changed, and is skipped when none did. Indexed columns can be queried with
+ * {@link #findBy(String, Object)}.
+ * <p>
+ * Entities require a constructor taking their ID, which may be private.
+ *
+ * @param <V> The type of the entity.
+ */
+public class ColumnEntityRepository<V extends Entity> implements EntityRepository<V> {
+
+    /**
+     * The maximum number of IDs bound to a single {@code IN (...)} query by {@link #loadMany(Collection)}.
+     */
+    private static final int MAX_IN_PARAMETERS = 500;
+
+    private final ObservableObjectMap<String, V> loadedEntities = new ObservableObjectMap<>();
+    private final EntityCache<V> cache = new EntityCache<>(this, this.loadedEntities);
+    private final Database database;
+    private final Logger logger;
+    private final Class<V> entityClass;
+    private final String tableName;
+    private final Gson gson;
+    private final RepositoryExecutor executor;
+    private final MethodHandle constructor;
+    private final List<Column> columns;
+    private final Map<String, Column> columnsByField;
+    private final String selectColumns;
+    private final String upsertStatement;
+    private final Map<String, Object[]> persistedColumns = new ConcurrentHashMap<>();
+    private final LongAdder skippedWrites = new LongAdder();
+    private final SingleFlight<String, V> loads = new SingleFlight<>();
+    private final SingleFlight<Map.Entry<String, Boolean>, Boolean> existsChecks = new SingleFlight<>();
+    private final SingleFlight<String, V> saves = new SingleFlight<>();
+    private volatile int fetchSize = 1000;
+
+    /**
+     * Constructs a ColumnEntityRepository with the specified database, logger, and entity class.
+     *
+     * @param database    The database to be used.
+     * @param logger      The logger for handling log messages.
+     * @param entityClass The class type of the entity managed by this repository.
+     */
+    public ColumnEntityRepository(Database database, Logger logger, Class<V> entityClass) {
+        this(database, logger, entityClass, entityClass.getSimpleName());
+    }
+
+    /**
+     * Constructs a ColumnEntityRepository with the specified database, logger, entity class, and table name.
+     *
+     * @param database    The database to be used.
+     * @param logger      The logger for handling log messages.
+     * @param entityClass The class type of the entity managed by this repository.
+     * @param tableName   The name of the table in the database.
+     */
+    public ColumnEntityRepository(Database database, Logger logger, Class<V> entityClass, String tableName) {
+        this(database, logger, entityClass, tableName, RepositoryExecutor.shared("ColumnEntityRepository-" + tableName));
+    }
+
+    /**
+     * Constructs a ColumnEntityRepository that runs its queries on the given executor.
+     *
+     * @param database    The database to be used.
+     * @param logger      The logger for handling log messages.
+     * @param entityClass The class type of the entity managed by this repository.
+     * @param tableName   The name of the table in the database.
+     * @param executor    The executor that runs the queries.
+     * @throws IllegalArgumentException if the entity has no constructor taking its ID
+     */
+    public ColumnEntityRepository(Database database, Logger logger, Class<V> entityClass, String tableName, @NotNull Executor executor) {
+        this.executor = RepositoryExecutor.of("ColumnEntityRepository-" + tableName, executor);
+        this.database = database;
+        this.logger = logger;
+        this.entityClass = entityClass;
+        this.tableName = tableName;
+        this.gson = new GsonBuilder().create();
+        try {
+            Constructor<V> entityConstructor = entityClass.getDeclaredConstructor(String.class);
+            entityConstructor.setAccessible(true);
+            this.constructor = MethodHandles.lookup().unreflectConstructor(entityConstructor);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException(entityClass.getName() + " requires a constructor taking its ID", e);
+        }
+        this.columns = mapColumns(entityClass);
+        Map<String, Column> columnsByField = new HashMap<>();
+        StringJoiner selectColumns = new StringJoiner(", ");
+        selectColumns.add("_id");
+        for (Column column : this.columns) {
+            columnsByField.put(column.field(), column);
+            selectColumns.add(column.name());
+        }
+        this.columnsByField = Collections.unmodifiableMap(columnsByField);
+        this.selectColumns = selectColumns.toString();
+        this.upsertStatement = buildUpsertStatement();
+        this.loadedEntities.addListener(new ObservableObjectMap.MapChangeListener<>() {
+            @Override
+            public void entryAdded(String key, V value) {
+            }
+
+            @Override
+            public void entryRemoved(Object key, @Nullable Object value) {
+                // an entity that is loaded again is read with its columns, so evicted entities keep no snapshot
+                persistedColumns.remove(key);
+            }
+        });
+    }
+
+    private @NotNull List<Column> mapColumns(@NotNull Class<?> type) {
+        List<Class<?>> hierarchy = new ArrayList<>();
+        for (Class<?> current = type; current != null && current != Entity.class; current = current.getSuperclass()) {
+            hierarchy.add(0, current);
+        }
+        List<Column> columns = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        for (Class<?> declaringClass : hierarchy) {
+            for (Field field : declaringClass.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || Modifier.isFinal(modifiers) || field.isSynthetic()) {
+                    continue;
+                }
+                EntityColumn annotation = field.getAnnotation(EntityColumn.class);
+                String name = annotation != null && !annotation.name().isEmpty() ? annotation.name() : field.getName();
+                if (name.equalsIgnoreCase("_id") || !names.add(name.toLowerCase(Locale.ROOT))) {
+                    throw new IllegalArgumentException("Duplicate column " + name + " in " + type.getName());
+                }
+                boolean indexed = annotation != null && annotation.indexed();
+                Kind kind = Kind.of(field.getType());
+                String sqlType = annotation != null && !annotation.type().isEmpty() ? annotation.type() : sqlType(kind, indexed);
+                try {
+                    field.setAccessible(true);
+                    columns.add(new Column(field.getName(), name, field.getType(), field.getGenericType(), kind, sqlType, indexed,
+                            lookup.unreflectGetter(field), lookup.unreflectSetter(field)));
+                } catch (IllegalAccessException e) {
+                    throw new IllegalArgumentException("Cannot access field " + field.getName() + " of " + type.getName(), e);
+                }
+            }
+        }
+        return List.copyOf(columns);
+    }
+
+    private @NotNull String sqlType(@NotNull Kind kind, boolean indexed) {
+        return switch (kind) {
+            // MySQL cannot index TEXT columns without a prefix length
+            case STRING -> indexed ? "VARCHAR(191)" : "TEXT";
+            case INTEGER -> "INT";
+            case LONG -> "BIGINT";
+            case DOUBLE -> this.database instanceof PostgreSQL ? "DOUBLE PRECISION" : "DOUBLE";
+            case FLOAT -> "REAL";
+            case BOOLEAN -> "SMALLINT";
+            case UUID -> "VARCHAR(36)";
+            case ENUM -> "VARCHAR(64)";
+            case JSON -> "TEXT";
+        };
+    }
+
+    private @NotNull String buildUpsertStatement() {
+        StringJoiner values = new StringJoiner(", ");
+        StringJoiner updates = new StringJoiner(", ");
+        values.add("?");
+        boolean mysql = this.database instanceof MySQL;
+        for (Column column : this.columns) {
+            values.add("?");
+            updates.add(mysql ? column.name() + " = VALUES(" + column.name() + ")" : column.name() + " = excluded." + column.name());
+        }
+        String insert = "INSERT INTO " + this.tableName + " (" + this.selectColumns + ") VALUES (" + values + ")";
+        if (mysql) {
+            return insert + " ON DUPLICATE KEY UPDATE " + (this.columns.isEmpty() ? "_id = _id" : updates.toString());
+        }
+        return insert + " ON CONFLICT (_id) DO " + (this.columns.isEmpty() ? "NOTHING" : "UPDATE SET " + updates);
+    }
+
+    /**
+     * Creates the table if it does not exist, adds the missing columns with {@link Database#createTable} and
+     * creates the missing indexes of the indexed columns.
+     *
+     * @throws SQLException           if a database access error occurs
+     * @throws ClassNotFoundException if the driver class does not exist
+     */
+    public void createTable() throws SQLException, ClassNotFoundException {
+        ObjectMap<String, Pair<String, String>> columnsMap = ObjectMap.newLinkedObjectMap();
+        columnsMap.append("_id", Pair.create("VARCHAR(191) NOT NULL", null));
+        for (Column column : this.columns) {
+            columnsMap.append(column.name(), Pair.create(column.sqlType(), null));
+        }
+        this.database.createTable(this.tableName, columnsMap, "_id");
+
+        this.database.transaction(connection -> {
+            Set<String> indexes = new HashSet<>();
+            try (ResultSet resultSet = connection.getMetaData().getIndexInfo(null, null, this.tableName, false, false)) {
+                while (resultSet.next()) {
+                    String indexName = resultSet.getString("INDEX_NAME");
+                    if (indexName != null) {
+                        indexes.add(indexName.toLowerCase(Locale.ROOT));
+                    }
+                }
+            }
+            for (Column column : this.columns) {
+                String indexName = "idx_" + this.tableName + "_" + column.name();
+                if (column.indexed() && !indexes.contains(indexName.toLowerCase(Locale.ROOT))) {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.executeUpdate("CREATE INDEX " + indexName + " ON " + this.tableName + " (" + column.name() + ")");
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Saves the given entity, updating only the columns that changed since it was loaded or saved.
+     * Entities that were not loaded from this repository are written with a single upsert.
+     *
+     * @param entity The entity to be saved.
+     */
+    @Override
+    public CompletableFuture<V> save(@NotNull V entity) {
+        return this.saves.executeLatest(entity._id(), () -> CompletableFuture.supplyAsync(() -> write(entity), this.executor));
+    }
+
+    private @Nullable V write(@NotNull V entity) {
+        entity.clearDirty();
+        String entityId = entity._id();
+        Object[] values = new Object[this.columns.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = toColumn(this.columns.get(i), entity);
+        }
+        Object[] persisted = this.persistedColumns.get(entityId);
+        List<Integer> changed = null;
+        if (persisted != null) {
+            changed = new ArrayList<>();
+            for (int i = 0; i < values.length; i++) {
+                if (!Objects.equals(values[i], persisted[i])) {
+                    changed.add(i);
+                }
+            }
+            if (changed.isEmpty()) {
+                this.skippedWrites.increment();
+                return entity;
+            }
+        }
+        List<Integer> changedColumns = changed;
+        try {
+            this.database.transaction(connection -> writeRow(connection, entityId, values, changedColumns));
+        } catch (SQLException | ClassNotFoundException e) {
+            entity.markDirty();
+            this.logger.log(Level.SEVERE, "[EntityRepository]:", e);
+            return null;
+        }
+        if (!this.cache.isEvicting(entity)) {
+            this.loadedEntities.append(entityId, entity);
+        }
+        this.persistedColumns.put(entityId, values);
+        return entity;
+    }
+
+    /**
+     * Writes the columns of an entity: only the changed ones if they are known, otherwise all of them with an upsert.
+     */
+    private @Nullable Void writeRow(@NotNull Connection connection, @NotNull String entityId, Object @NotNull [] values,
+                                    @Nullable List<Integer> changed) throws SQLException {
+        boolean written = false;
+        if (changed != null) {
+            StringJoiner updates = new StringJoiner(", ");
+            for (int i : changed) {
+                updates.add(this.columns.get(i).name() + " = ?");
+            }
+            try (PreparedStatement preparedStatement = connection.prepareStatement("UPDATE " + this.tableName + " SET " + updates + " WHERE _id = ?")) {
+                int index = 1;
+                for (int i : changed) {
+                    bind(preparedStatement, index++, this.columns.get(i), values[i]);
+                }
+                preparedStatement.setString(index, entityId);
+                // the row may have been deleted by someone else, in which case it is inserted again below
+                written = preparedStatement.executeUpdate() > 0;
+            }
+        }
+        if (!written) {
+            try (PreparedStatement preparedStatement = connection.prepareStatement(this.upsertStatement)) {
+                preparedStatement.setString(1, entityId);
+                for (int i = 0; i < values.length; i++) {
+                    bind(preparedStatement, i + 2, this.columns.get(i), values[i]);
+                }
+                preparedStatement.executeUpdate();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Loads an entity from the database based on the specified entity ID.
+     *
+     * @param entityId The ID of the entity to be loaded.
+     */
+    @Override
+    public CompletableFuture<V> load(@NotNull String entityId) {
+        V loaded = this.cache.get(entityId);
+        if (loaded != null) {
+            return CompletableFuture.completedFuture(loaded);
+        }
+        return this.loads.execute(entityId, () -> CompletableFuture.supplyAsync(() -> loadNow(entityId), this.executor));
+    }
+
+    private @Nullable V loadNow(@NotNull String entityId) {
+        try {
+            Object[] row = this.database.queryFirst("SELECT " + this.selectColumns + " FROM " + this.tableName + " WHERE _id = ?", this::readRow, entityId);
+            if (row != null) {
+                return loaded(row);
+            }
+        } catch (SQLException | ClassNotFoundException e) {
+            this.logger.log(Level.SEVERE, "[EntityRepository]:", e);
+        }
+        return null;
+    }
+
+    /**
+     * Retrieves the loaded entity with the specified entity ID, loading it if it is not loaded or was evicted.
+     *
+     * @param entityId The ID of the entity to be retrieved.
+     * @return The loaded entity, or null if not found.
+     */
+    @Override
+    public CompletableFuture<V> getEntity(@NotNull String entityId) {
+        return this.load(entityId);
+    }
+
+    /**
+     * Loads the entities with the specified IDs with one {@code SELECT ... WHERE _id IN (...)} query per
+     * {@value #MAX_IN_PARAMETERS} IDs that are not loaded yet.
+     *
+     * @param entityIds The IDs of the entities to be loaded.
+     * @return a CompletableFuture containing the found entities by ID
+     */
+    @Override
+    public CompletableFuture<ObjectMap<String, V>> loadMany(@NotNull Collection<String> entityIds) {
+        return CompletableFuture.supplyAsync(() -> {
+            Set<String> ids = new LinkedHashSet<>(entityIds);
+            List<String> missing = new ArrayList<>();
+            ObjectMap<String, V> found = ObjectMap.newHashObjectMap();
+            for (String entityId : ids) {
+                V entity = this.cache.get(entityId);
+                if (entity != null) {
+                    found.put(entityId, entity);
+                } else {
+                    missing.add(entityId);
+                }
+            }
+
+            for (int from = 0; from < missing.size(); from += MAX_IN_PARAMETERS) {
+                List<String> batch = missing.subList(from, Math.min(from + MAX_IN_PARAMETERS, missing.size()));
+                String statement = "SELECT " + this.selectColumns + " FROM " + this.tableName + " WHERE _id IN (" + "?, ".repeat(batch.size() - 1) + "?)";
+                try {
+                    for (Object[] row : this.database.query(statement, this::readRow, batch.toArray())) {
+                        V entity = loaded(row);
+                        found.put(entity._id(), entity);
+                    }
+                } catch (SQLException | ClassNotFoundException e) {
+                    this.logger.log(Level.SEVERE, "[EntityRepository]:", e);
+                }
+            }
+
+            ObjectMap<String, V> entities = ObjectMap.newLinkedObjectMap();
+            for (String entityId : ids) {
+                V entity = found.get(entityId);
+                if (entity != null) {
+                    entities.put(entityId, entity);
+                }
+            }
+            return entities;
+        }, this.executor);
+    }
+
+    /**
+     * Finds the entities whose indexed column of the given field equals the given value.
+     * Entities that are already loaded are returned as they are in memory, the others are loaded.
+     *
+     * @param field the name of the field, which must be mapped to an {@link EntityColumn#indexed() indexed} column
+     * @param value the value of the field, or null to find the entities without a value
+     * @return a CompletableFuture containing the found entities
+     * @throws IllegalArgumentException if the field is not an indexed column or the value is not of its type
+     */
+    public CompletableFuture<List<V>> findBy(@NotNull String field, @Nullable Object value) {
+        Column column = this.columnsByField.get(field);
+        if (column == null || !column.indexed()) {
+            throw new IllegalArgumentException(field + " is not an indexed column of " + this.entityClass.getName());
+        }
+        if (value != null && !wrap(column.type()).isInstance(value)) {
+            throw new IllegalArgumentException(field + " is a " + column.type().getName() + ", not a " + value.getClass().getName());
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            Object columnValue = value == null ? null : column.kind().toColumn(value, this.gson);
+            String condition = columnValue == null ? column.name() + " IS NULL" : column.name() + " = ?";
+            List<V> entities = new ArrayList<>();
+            try {
+                this.database.withConnection(connection -> {
+                    try (PreparedStatement preparedStatement = connection.prepareStatement("SELECT " + this.selectColumns + " FROM " + this.tableName + " WHERE " + condition)) {
+                        if (columnValue != null) {
+                            bind(preparedStatement, 1, column, columnValue);
+                        }
+                        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                            while (resultSet.next()) {
+                                entities.add(loaded(readRow(resultSet)));
+                            }
+                        }
+                    }
+                    return null;
+                });
+            } catch (SQLException | ClassNotFoundException e) {
+                this.logger.log(Level.SEVERE, "[EntityRepository]:", e);
+            }
+            return entities;
+        }, this.executor);
+    }
+
+    /**
+     * Checks if an entity with the specified ID exists.
+     *
+     * @param entityId  The ID of the entity to check for existence.
+     * @param checkDb   Whether to check the database for the entity's existence.
+     * @param forceLoad Whether to load the entity if it exists in the database.
+     * @return True if the entity exists, false otherwise.
+     */
+    @Override
+    public CompletableFuture<Boolean> exists(@NotNull String entityId, boolean checkDb, boolean forceLoad) {
+        if (!checkDb) {
+            return CompletableFuture.completedFuture(this.loadedEntities.containsKey(entityId));
+        }
+        return this.existsChecks.execute(Map.entry(entityId, forceLoad), () -> CompletableFuture.supplyAsync(() -> {
+            if (this.loadedEntities.containsKey(entityId)) {
+                return true;
+            }
+            if (forceLoad) {
+                return loadNow(entityId) != null;
+            }
+            try {
+                return this.database.queryFirst("SELECT 1 FROM " + this.tableName + " WHERE _id = ?", resultSet -> true, entityId) != null;
+            } catch (SQLException | ClassNotFoundException e) {
+                this.logger.log(Level.SEVERE, "[EntityRepository]:", e);
+                return false;
+            }
+        }, this.executor));
+    }
+
+    /**
+     * Deletes the entity with the specified ID from the database and removes it from the loaded entities.
+     *
+     * @param entityId The ID of the entity to be deleted.
+     */
+    @Override
+    public CompletableFuture<Void> delete(@NotNull String entityId) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                if (this.database.update("DELETE FROM " + this.tableName + " WHERE _id = ?", entityId) == 0) {
+                    this.logger.log(Level.WARNING, "[EntityRepository]: Entity with ID " + entityId + " does not exist.");
+                }
+            } catch (SQLException | ClassNotFoundException e) {
+                this.logger.log(Level.SEVERE, "[EntityRepository]:", e);
+            }
+            this.persistedColumns.remove(entityId);
+            V entity = this.loadedEntities.remove(entityId);
+            if (entity != null) {
+                entity.resetPersisted();
+            }
+        }, this.executor);
+    }
+
+    /**
+     * Loads all entities from the database, reading the rows with a forward-only cursor and building the entities
+     * in parallel.
+     *
+     * @return a CompletableFuture containing the number of loaded entities
+     */
+    @Override
+    public CompletableFuture<BigInteger> loadAll() {
+        return CompletableFuture.supplyAsync(() -> {
+            StreamingLoader<Object[]> loader = new StreamingLoader<>(ForkJoinPool.commonPool(), row -> {
+                loaded(row);
+                return true;
+            });
+
+            long count = 0;
+            try {
+                // the connection may be the single shared one, so it is not closed and its auto-commit mode is restored
+                this.database.withConnection(connection -> {
+                    boolean autoCommit = connection.getAutoCommit();
+                    // PostgreSQL only honors the fetch size inside a transaction
+                    connection.setAutoCommit(false);
+                    try (PreparedStatement preparedStatement = connection.prepareStatement("SELECT " + this.selectColumns + " FROM " + this.tableName, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                        preparedStatement.setFetchSize(this.fetchSize);
+                        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                            while (resultSet.next()) {
+                                loader.accept(readRow(resultSet));
+                            }
+                        } catch (InterruptedException e) {
+                            // stops reading, the interruption is reported by loader.finish()
+                            Thread.currentThread().interrupt();
+                        }
+                    } finally {
+                        try {
+                            connection.commit();
+                        } finally {
+                            connection.setAutoCommit(autoCommit);
+                        }
+                    }
+                    return null;
+                });
+                count = loader.finish();
+            } catch (SQLException | ClassNotFoundException e) {
+                this.logger.log(Level.SEVERE, "[EntityRepository]:", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.logger.log(Level.SEVERE, "[EntityRepository]: Interrupted while loading entities", e);
+            }
+            if (loader.getFailure() != null) {
+                this.logger.log(Level.SEVERE, "[EntityRepository]: Failed to decode " + loader.failures() + " entities", loader.getFailure());
+            }
+            return BigInteger.valueOf(count);
+        }, this.executor);
+    }
+
+    /**
+     * Saves all loaded entities, updating only their changed columns.
+     */
+    @Override
+    public void saveAll() {
+        int skipped = 0;
+        for (V entity : this.loadedEntities.values()) {
+            if (entity.tracksChanges() && !entity.isDirty()) {
+                skipped++;
+                continue;
+            }
+            save(entity);
+        }
+        this.skippedWrites.add(skipped);
+    }
+
+    /**
+     * Reads the ID and the column values of the current row.
+     */
+    private Object @NotNull [] readRow(@NotNull ResultSet resultSet) throws SQLException {
+        Object[] row = new Object[this.columns.size() + 1];
+        row[0] = resultSet.getString(1);
+        for (int i = 0; i < this.columns.size(); i++) {
+            row[i + 1] = this.columns.get(i).kind().read(resultSet, i + 2);
+        }
+        return row;
+    }
+
+    /**
+     * Builds the entity of a row read by {@link #readRow(ResultSet)}, unless it is already loaded.
+     */
+    private @NotNull V loaded(Object @NotNull [] row) {
+        String entityId = (String) row[0];
+        V loaded = this.loadedEntities.get(entityId);
+        if (loaded != null) {
+            return loaded;
+        }
+        V entity;
+        try {
+            //noinspection unchecked
+            entity = (V) this.constructor.invoke(entityId);
+            for (int i = 0; i < this.columns.size(); i++) {
+                Column column = this.columns.get(i);
+                Object value = row[i + 1] == null ? null : column.kind().fromColumn(row[i + 1], column.type(), column.genericType(), this.gson);
+                if (value != null || !column.type().isPrimitive()) {
+                    column.setter().invoke(entity, value);
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to create " + this.entityClass.getName() + " " + entityId, e);
+        }
+        entity.clearDirty();
+        loaded = this.loadedEntities.putIfAbsent(entityId, entity);
+        if (loaded != null) {
+            return loaded;
+        }
+        this.persistedColumns.put(entityId, Arrays.copyOfRange(row, 1, row.length));
+        return entity;
+    }
+
+    private @Nullable Object toColumn(@NotNull Column column, @NotNull V entity) {
+        Object value;
+        try {
+            value = column.getter().invoke(entity);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+        return value == null ? null : column.kind().toColumn(value, this.gson);
+    }
+
+    private void bind(@NotNull PreparedStatement preparedStatement, int index, @NotNull Column column, @Nullable Object value) throws SQLException {
+        if (value == null) {
+            preparedStatement.setNull(index, column.kind().sqlType);
+        } else {
+            preparedStatement.setObject(index, value, column.kind().sqlType);
+        }
+    }
+
+    private static @NotNull Class<?> wrap(@NotNull Class<?> type) {
+        return type.isPrimitive() ? MethodType.methodType(type).wrap().returnType() : type;
+    }
+
+    @Override
+    public long getSkippedWrites() {
+        return this.skippedWrites.sum();
+    }
+
+    /**
+     * Returns how many load, exists and save requests were answered by a request already in flight for the same ID.
+     *
+     * @return the number of coalesced requests
+     */
+    @Override
+    public long getCoalescedRequests() {
+        return this.loads.coalesced() + this.existsChecks.coalesced() + this.saves.coalesced();
+    }
+
+    /**
+     * Returns the executor that runs the I/O of this repository.
+     *
+     * @return the executor of this repository
+     */
+    @Override
+    public @NotNull RepositoryExecutor getExecutor() {
+        return this.executor;
+    }
+
+    /**
+     * Returns the cache of the loaded entities, which evicts them according to its policy.
+     *
+     * @return the entity cache of this repository
+     */
+    @Override
+    public @NotNull EntityCache<V> getCache() {
+        return this.cache;
+    }
+
+    /**
+     * Sets the number of rows fetched per round trip by {@link #loadAll()}.
+     *
+     * @param fetchSize the fetch size
+     */
+    public void setFetchSize(int fetchSize) {
+        if (fetchSize < 1) {
+            throw new IllegalArgumentException("fetchSize must be at least 1");
+        }
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Returns the names of the columns by the names of the fields they store.
+     *
+     * @return the column names by field name
+     */
+    public @NotNull Map<String, String> getColumns() {
+        Map<String, String> columns = new LinkedHashMap<>();
+        for (Column column : this.columns) {
+            columns.put(column.field(), column.name());
+        }
+        return columns;
+    }
+
+    /**
+     * Returns the database instance.
+     *
+     * @return The database instance.
+     */
+    public Database getDatabase() {
+        return database;
+    }
+
+    /**
+     * Returns the name of the table.
+     *
+     * @return The name of the table.
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Returns the logger instance.
+     *
+     * @return The logger instance.
+     */
+    @Override
+    public Logger getLogger() {
+        return logger;
+    }
+
+    /**
+     * Returns an observable map of all loaded entities.
+     *
+     * @return an ObservableObjectMap containing all loaded entities
+     */
+    @Override
+    public ObservableObjectMap<String, V> getLoadedEntities() {
+        return this.loadedEntities;
+    }
+
+    /**
+     * A field of the entity and the column it is stored in.
+     */
+    private record Column(String field, String name, Class<?> type, Type genericType, Kind kind, String sqlType,
+                          boolean indexed, MethodHandle getter, MethodHandle setter) {
+    }
+
+    /**
+     * How the value of a field is stored in its column.
+     */
+    private enum Kind {
+        STRING(Types.VARCHAR),
+        INTEGER(Types.INTEGER),
+        LONG(Types.BIGINT),
+        DOUBLE(Types.DOUBLE),
+        FLOAT(Types.REAL),
+        BOOLEAN(Types.SMALLINT),
+        UUID(Types.VARCHAR),
+        ENUM(Types.VARCHAR),
+        JSON(Types.VARCHAR);
+
+        private final int sqlType;
+
+        Kind(int sqlType) {
+            this.sqlType = sqlType;
+        }
+
+        static @NotNull Kind of(@NotNull Class<?> type) {
+            Class<?> wrapped = wrap(type);
+            if (wrapped == String.class) {
+                return STRING;
+            } else if (wrapped == Integer.class || wrapped == Short.class || wrapped == Byte.class) {
+                return INTEGER;
+            } else if (wrapped == Long.class) {
+                return LONG;
+            } else if (wrapped == Double.class) {
+                return DOUBLE;
+            } else if (wrapped == Float.class) {
+                return FLOAT;
+            } else if (wrapped == Boolean.class) {
+                return BOOLEAN;
+            } else if (wrapped == java.util.UUID.class) {
+                return UUID;
+            } else if (type.isEnum()) {
+                return ENUM;
+            }
+            return JSON;
+        }
+
+        /**
+         * Converts a field value to the value stored in the column, which is also compared to detect changes.
+         */
+        @NotNull Object toColumn(@NotNull Object value, @NotNull Gson gson) {
+            return switch (this) {
+                case STRING, LONG, DOUBLE, FLOAT -> value;
+                case INTEGER -> ((Number) value).intValue();
+                case BOOLEAN -> (Boolean) value ? 1 : 0;
+                case UUID -> value.toString();
+                case ENUM -> ((Enum<?>) value).name();
+                case JSON -> gson.toJson(value);
+            };
+        }
+
+        @Nullable Object read(@NotNull ResultSet resultSet, int index) throws SQLException {
+            Object value = switch (this) {
+                case STRING, UUID, ENUM, JSON -> resultSet.getString(index);
+                case INTEGER, BOOLEAN -> resultSet.getInt(index);
+                case LONG -> resultSet.getLong(index);
+                case DOUBLE -> resultSet.getDouble(index);
+                case FLOAT -> resultSet.getFloat(index);
+            };
+            return resultSet.wasNull() ? null : value;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        @NotNull Object fromColumn(@NotNull Object value, @NotNull Class<?> type, @NotNull Type genericType, @NotNull Gson gson) {
+            Class<?> wrapped = wrap(type);
+            return switch (this) {
+                case STRING, LONG, DOUBLE, FLOAT -> value;
+                case INTEGER -> wrapped == Short.class ? (Object) ((Integer) value).shortValue()
+                        : wrapped == Byte.class ? (Object) ((Integer) value).byteValue() : value;
+                case BOOLEAN -> (Integer) value != 0;
+                case UUID -> java.util.UUID.fromString((String) value);
+                case ENUM -> Enum.valueOf((Class<? extends Enum>) type, (String) value);
+                case JSON -> gson.fromJson((String) value, genericType);
+            };
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.georgev22.library.utilities;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Loads every file of a directory in parallel with bounded memory.
+ * <p>
+ * The calling thread walks the directory lazily and hands the files to a {@link StreamingLoader}, which reads and
+ * parses them on the executor, so at most a few chunks of files are pending at any time. Each thread reads the files
+ * into a byte buffer it keeps for the next file and decodes the UTF-8 content into a pooled {@link CharBuffer} that
+ * is handed to the {@link Parser}. Reading a file thus allocates nothing but what the parser itself allocates.
+ * <p>
+ * The files are never memory mapped: a mapping is only released by the garbage collector, and until then Windows
+ * refuses to replace the file, which would fail the next atomic save of the entity.
+ */
+public final class DirectoryLoader {
+
+    /**
+     * The initial size, in bytes and characters, of the buffers of each thread.
+     */
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The number of files read and parsed per task.
+     */
+    private static final int CHUNK_SIZE = 16;
+
+    /**
+     * The largest file, in bytes and in decoded characters, whose buffers are kept for the next file.
+     */
+    private static final int RETAINED_SIZE = 1 << 20;
+
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+    private final Path directory;
+    private final String extension;
+    private final int parallelism;
+
+    /**
+     * Creates a DirectoryLoader that keeps two chunks of files in flight per available processor.
+     *
+     * @param directory the directory to load
+     * @param extension the extension of the files to load, including the dot
+     */
+    public DirectoryLoader(@NotNull Path directory, @NotNull String extension) {
+        this(directory, extension, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a DirectoryLoader.
+     *
+     * @param directory   the directory to load
+     * @param extension   the extension of the files to load, including the dot
+     * @param parallelism half the maximum number of chunks of files queued or being parsed
+     */
+    public DirectoryLoader(@NotNull Path directory, @NotNull String extension, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.directory = directory;
+        this.extension = extension;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Reads and parses every file of the directory, waiting until all of them were parsed.
+     * <p>
+     * A file that cannot be read or whose parser throws is skipped and counted as failed.
+     *
+     * @param executor the executor that reads and parses the files
+     * @param parser   parses a file and returns whether an entity was loaded from it
+     * @return the number of files loaded and the throughput
+     * @throws IOException          if the directory cannot be listed
+     * @throws InterruptedException if interrupted while waiting for the files to be parsed
+     */
+    public @NotNull Result load(@NotNull Executor executor, @NotNull Parser parser) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        LongAdder bytes = new LongAdder();
+        StreamingLoader<Path> loader = new StreamingLoader<>(executor, file -> {
+            String name = file.getFileName().toString();
+            try {
+                CharBuffer content = read(file, bytes);
+                return parser.parse(name.substring(0, name.length() - this.extension.length()), content);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error reading entity from file: " + file, e);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException("Error loading entity from file: " + file, e);
+            }
+        }, CHUNK_SIZE, this.parallelism * 2);
+
+        long files = 0;
+        long loaded;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, "*" + this.extension)) {
+            for (Path file : stream) {
+                loader.accept(file);
+                files++;
+            }
+        } finally {
+            loaded = loader.finish();
+        }
+        return new Result(files, loaded, loader.failures(), bytes.sum(), Duration.ofNanos(System.nanoTime() - start),
+                loader.getFailure());
+    }
+
+    private static @NotNull CharBuffer read(@NotNull Path file, @NotNull LongAdder bytes) throws IOException {
+        Buffers buffers = BUFFERS.get();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large: " + size + " bytes");
+            }
+            ByteBuffer content = buffers.bytes((int) size);
+            while (content.hasRemaining() && channel.read(content) >= 0) {
+                // read until the buffer is full or the file was truncated meanwhile
+            }
+            content.flip();
+            bytes.add(content.remaining());
+            return buffers.decode(content);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DirectoryLoader{" +
+                "directory=" + directory +
+                ", extension='" + extension + '\'' +
+                ", parallelism=" + parallelism +
+                '}';
+    }
+
+    /**
+     * Parses the content of a file.
+     */
+    @FunctionalInterface
+    public interface Parser {
+
+        /**
+         * Parses the content of a file.
+         * <p>
+         * The content is only valid during the call, its buffer is reused for the next file.
+         *
+         * @param id      the name of the file without the extension
+         * @param content the decoded content of the file
+         * @return whether an entity was loaded from the file
+         * @throws Exception if the content cannot be parsed
+         */
+        boolean parse(@NotNull String id, @NotNull CharBuffer content) throws Exception;
+    }
+
+    /**
+     * The outcome of {@link #load(Executor, Parser)}.
+     *
+     * @param files   the number of files found
+     * @param loaded  the number of files the parser reported as loaded
+     * @param failed  the number of files that could not be read or parsed
+     * @param bytes   the number of bytes read
+     * @param elapsed the time it took to load the directory
+     * @param failure the first exception that failed a file, or null
+     */
+    public record Result(long files, long loaded, long failed, long bytes, @NotNull Duration elapsed,
+                         RuntimeException failure) {
+
+        /**
+         * Returns the number of files read per second.
+         *
+         * @return the files per second
+         */
+        public double filesPerSecond() {
+            return this.files / seconds();
+        }
+
+        /**
+         * Returns the number of megabytes read per second.
+         *
+         * @return the megabytes per second
+         */
+        public double megabytesPerSecond() {
+            return this.bytes / (1024.0 * 1024.0) / seconds();
+        }
+
+        private double seconds() {
+            return Math.max(this.elapsed.toNanos(), 1) / 1_000_000_000.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d of %d files (%d failed, %.1f MB) in %d ms, %.0f files/s, %.1f MB/s",
+                    this.loaded, this.files, this.failed, this.bytes / (1024.0 * 1024.0), this.elapsed.toMillis(),
+                    filesPerSecond(), megabytesPerSecond());
+        }
+    }
+
+    /**
+     * The buffers a thread reuses from one file to the next.
+     */
+    private static final class Buffers {
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        private ByteBuffer bytes = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        private CharBuffer chars = CharBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+        private @NotNull ByteBuffer bytes(int size) {
+            ByteBuffer target = this.bytes;
+            if (target.capacity() < size) {
+                target = ByteBuffer.allocate(size);
+                if (size <= RETAINED_SIZE) {
+                    this.bytes = target;
+                }
+            }
+            return target.clear().limit(size);
+        }
+
+        private @NotNull CharBuffer decode(@NotNull ByteBuffer content) throws CharacterCodingException {
+            // UTF-8 never decodes to more chars than it has bytes
+            CharBuffer target = this.chars;
+            if (target.capacity() < content.remaining()) {
+                target = CharBuffer.allocate(content.remaining());
+                if (target.capacity() <= RETAINED_SIZE) {
+                    this.chars = target;
+                }
+            }
+            target.clear();
+            this.decoder.reset();
+            CoderResult result = this.decoder.decode(content, target, true);
+            if (result.isUnderflow()) {
+                result = this.decoder.flush(target);
+            }
+            if (result.isError()) {
+                result.throwException();
+            }
+            return target.flip();
+        }
+    }
+}
@@ -2,20 +2,43 @@ package com.georgev22.library.utilities;
 
 import org.jetbrains.annotations.NotNull;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.Map;
 
 /**
  * The {@code Entity} abstract class represents an entity in a database context.
  * Entities are expected to have an ID and support setting values for specific keys.
+ * <p>
+ * Entities carry a dirty flag, set by {@link #setValue(String, Object)} and {@link #markDirty()}, and the content
+ * hash of their last persisted form. {@link EntityRepository#saveAll()} uses both to skip entities that did not
+ * change: entities that {@link #tracksChanges() track their changes} are skipped without being serialized while
+ * clean, every other entity is serialized and only written if its content hash differs from the persisted one.
  */
 public abstract class Entity {
 
+    private static final VarHandle DIRTY;
+    private static final VarHandle CHANGES;
+
+    static {
+        try {
+            DIRTY = MethodHandles.lookup().findVarHandle(Entity.class, "dirty", boolean.class);
+            CHANGES = MethodHandles.lookup().findVarHandle(Entity.class, "changes", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     private final String _id;
+    private transient volatile boolean dirty;
+    private transient volatile long changes;
+    private transient volatile long savedContentHash;
+    private transient volatile long lastAccessed = System.nanoTime();
 
     public Entity(String _id) {
         this._id = _id;
+        this.dirty = true;
     }
 
     /**
@@ -29,36 +52,192 @@ public abstract class Entity {
 
     /**
      * Sets the value for a specified key in the entity.
-     * The default implementation attempts to find and invoke the corresponding setter method based on the key.
-     * The "_id" key is excluded from this process.
-     *
-     * <p>If a setter method is not found for the given key, the method attempts
-     * to directly set the field value using reflection. If both attempts fail, a {@link RuntimeException} is thrown,
-     * wrapping any encountered {@link IllegalAccessException} or {@link NoSuchFieldException}.
+     * The default implementation invokes the one-argument method named {@code set} followed by the key with an upper
+     * case first letter, or, if the class has no such method accepting the value, sets the field named like the key.
+     * The "_id" key is ignored.
+     * <p>
+     * The setters and fields of a class are looked up once and cached as method handles, so setting a value does not
+     * use reflection. The entity is marked dirty once the value is set.
      *
      * @param key   the key for which the value should be set
      * @param value the value to set
-     * @throws RuntimeException if setting the value encounters an error, including {@link IllegalAccessException}
-     *                          or {@link NoSuchFieldException}
+     * @throws RuntimeException if the class has neither a setter nor a field for the key that accepts the value, or
+     *                          the setter threw a checked exception
      */
     public void setValue(@NotNull String key, Object value) {
         if (key.equals("_id")) {
             return;
         }
+        EntityAccessors.of(getClass()).set(this, key, value);
+        markDirty();
+    }
 
+    /**
+     * Sets the values of several keys, as {@link #setValue(String, Object)} would, with the setters of the class
+     * looked up once for all of them. Classes that override {@link #setValue(String, Object)} have it called for
+     * every key instead.
+     * <p>
+     * The values are set in the iteration order of the map; if one of them cannot be set, the values before it stay
+     * set.
+     *
+     * @param values the values by key
+     * @throws RuntimeException if a value cannot be set
+     */
+    public void setValues(@NotNull Map<String, ?> values) {
+        EntityAccessors accessors = EntityAccessors.of(getClass());
+        if (accessors.overridesSetValue()) {
+            values.forEach(this::setValue);
+            return;
+        }
         try {
-            Method method = this.getClass().getDeclaredMethod("set" + key.substring(0, 1).toUpperCase() + key.substring(1), value.getClass());
-            method.invoke(this, value);
-        } catch (InvocationTargetException | IllegalAccessException e) {
-            throw new RuntimeException(e);
-        } catch (NoSuchMethodException e) {
-            try {
-                Field field = this.getClass().getDeclaredField(key);
-                field.setAccessible(true);
-                field.set(this, value);
-            } catch (NoSuchFieldException | IllegalAccessException ex) {
-                throw new RuntimeException("No setter found for key '" + key + "'", ex);
+            for (Map.Entry<String, ?> entry : values.entrySet()) {
+                if (!entry.getKey().equals("_id")) {
+                    accessors.set(this, entry.getKey(), entry.getValue());
+                }
             }
+        } finally {
+            markDirty();
+        }
+    }
+
+    /**
+     * Marks this entity as changed, so the next {@link EntityRepository#saveAll()} writes it.
+     * Entities that override {@link #tracksChanges()} must call this from every method that changes their state.
+     */
+    public void markDirty() {
+        CHANGES.getAndAdd(this, 1L);
+        this.dirty = true;
+    }
+
+    /**
+     * Returns whether this entity changed since it was last loaded or saved.
+     *
+     * @return true if the entity is dirty
+     */
+    public boolean isDirty() {
+        return this.dirty;
+    }
+
+    /**
+     * Clears the dirty flag. Repositories call this before serializing the entity for a write, so a change made
+     * while the write is in progress marks the entity dirty again.
+     *
+     * @return whether the entity was dirty
+     */
+    public boolean clearDirty() {
+        return (boolean) DIRTY.getAndSet(this, false);
+    }
+
+    /**
+     * Returns whether every change of this entity goes through {@link #setValue(String, Object)} or
+     * {@link #markDirty()}. If so, {@link EntityRepository#saveAll()} skips the entity without serializing it while
+     * it is clean; otherwise it is serialized and compared by {@link #contentHash(CharSequence) content hash}.
+     * <p>
+     * The default implementation returns false. Override it to return true once all the setters call
+     * {@link #markDirty()}.
+     *
+     * @return true if the entity reports all its changes
+     */
+    public boolean tracksChanges() {
+        return false;
+    }
+
+    /**
+     * Returns whether the serialized form with the given content hash matches the last persisted one.
+     *
+     * @param contentHash the content hash of the serialized entity
+     * @return true if the entity is known to be persisted with the same content
+     */
+    public boolean isPersisted(long contentHash) {
+        return this.savedContentHash != 0 && this.savedContentHash == contentHash;
+    }
+
+    /**
+     * Records the content hash of the form this entity was loaded from or written as.
+     *
+     * @param contentHash the content hash of the persisted entity
+     */
+    public void markPersisted(long contentHash) {
+        this.savedContentHash = contentHash;
+    }
+
+    /**
+     * Forgets the persisted content hash and marks the entity dirty, for example after it was deleted,
+     * so the next save writes it.
+     */
+    public void resetPersisted() {
+        this.savedContentHash = 0;
+        this.dirty = true;
+    }
+
+    /**
+     * Returns the number of times this entity was {@link #markDirty() marked dirty}, so a repository can tell whether
+     * it changed since a write was queued even after another write cleared the dirty flag.
+     *
+     * @return the change count of this entity
+     */
+    long changes() {
+        return this.changes;
+    }
+
+    /**
+     * Records an access to this entity for the eviction of {@link EntityCache}.
+     */
+    void touch() {
+        this.lastAccessed = System.nanoTime();
+    }
+
+    /**
+     * Returns the {@link System#nanoTime()} of the last access to this entity.
+     *
+     * @return the time of the last access
+     */
+    long lastAccessed() {
+        return this.lastAccessed;
+    }
+
+    /**
+     * Computes the 64-bit FNV-1a hash of a serialized entity. Never returns 0.
+     *
+     * @param content the serialized entity
+     * @return the content hash
+     */
+    public static long contentHash(@NotNull CharSequence content) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < content.length(); i++) {
+            char c = content.charAt(i);
+            hash = (hash ^ (c & 0xff)) * 0x100000001b3L;
+            hash = (hash ^ (c >>> 8)) * 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * Computes the 64-bit FNV-1a hash of a serialized entity. Never returns 0.
+     *
+     * @param content the serialized entity
+     * @return the content hash
+     */
+    public static long contentHash(byte @NotNull [] content) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : content) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * Computes the 64-bit FNV-1a hash of the remaining bytes of a serialized entity, without changing the position of
+     * the buffer. Equal to {@link #contentHash(byte[])} of the same bytes. Never returns 0.
+     *
+     * @param content the serialized entity
+     * @return the content hash
+     */
+    public static long contentHash(@NotNull ByteBuffer content) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = content.position(); i < content.limit(); i++) {
+            hash = (hash ^ (content.get(i) & 0xff)) * 0x100000001b3L;
         }
+        return hash == 0 ? 1 : hash;
     }
 }
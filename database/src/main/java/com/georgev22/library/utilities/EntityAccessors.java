@@ -0,0 +1,171 @@
+package com.georgev22.library.utilities;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/**
+ * The setters of an entity class by key, looked up once per class for {@link Entity#setValue(String, Object)}.
+ * <p>
+ * A key is set with the one-argument method named {@code set} followed by the key with an upper case first letter,
+ * or, if the class has none accepting the value, by writing the field named like the key directly. Methods and fields
+ * of superclasses are found as well, those of subclasses first. Every candidate is converted to a method handle
+ * typed {@code (Object,Object)void} when the class is first used, so setting a value only looks up the key and
+ * checks the type of the value.
+ */
+final class EntityAccessors {
+
+    private static final ClassValue<EntityAccessors> ACCESSORS = new ClassValue<>() {
+        @Override
+        protected EntityAccessors computeValue(@NotNull Class<?> type) {
+            return new EntityAccessors(type);
+        }
+    };
+
+    private final Class<?> type;
+    private final Map<String, Setter[]> setters;
+    private final boolean overridesSetValue;
+
+    private EntityAccessors(@NotNull Class<?> type) {
+        this.type = type;
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        Map<String, List<Setter>> setters = new HashMap<>();
+        List<Class<?>> hierarchy = new ArrayList<>();
+        for (Class<?> current = type; current != null && current != Entity.class && current != Object.class; current = current.getSuperclass()) {
+            hierarchy.add(current);
+        }
+        for (Class<?> current : hierarchy) {
+            for (Method method : current.getDeclaredMethods()) {
+                String name = method.getName();
+                if (Modifier.isStatic(method.getModifiers()) || method.isBridge() || method.getParameterCount() != 1
+                        || name.length() <= 3 || !name.startsWith("set")) {
+                    continue;
+                }
+                try {
+                    method.setAccessible(true);
+                    Setter setter = Setter.of(method.getParameterTypes()[0], lookup.unreflect(method));
+                    // setValue upper cases the first letter of the key, so both cases of it lead to the method
+                    String property = name.substring(3);
+                    for (String key : new LinkedHashSet<>(List.of(
+                            Character.toLowerCase(property.charAt(0)) + property.substring(1), property))) {
+                        setters.computeIfAbsent(key, k -> new ArrayList<>()).add(setter);
+                    }
+                } catch (IllegalAccessException | RuntimeException ignored) {
+                    // inaccessible methods are skipped
+                }
+            }
+        }
+        for (Class<?> current : hierarchy) {
+            for (Field field : current.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) {
+                    continue;
+                }
+                try {
+                    field.setAccessible(true);
+                    Setter setter = Setter.of(field.getType(), lookup.unreflectSetter(field));
+                    setters.computeIfAbsent(field.getName(), k -> new ArrayList<>()).add(setter);
+                } catch (IllegalAccessException | RuntimeException ignored) {
+                    // inaccessible fields are skipped
+                }
+            }
+        }
+        this.setters = new HashMap<>(setters.size() * 2);
+        setters.forEach((key, candidates) -> this.setters.put(key, candidates.toArray(new Setter[0])));
+
+        boolean overridesSetValue;
+        try {
+            overridesSetValue = type.getMethod("setValue", String.class, Object.class).getDeclaringClass() != Entity.class;
+        } catch (NoSuchMethodException e) {
+            overridesSetValue = false;
+        }
+        this.overridesSetValue = overridesSetValue;
+    }
+
+    /**
+     * Returns the accessors of an entity class.
+     *
+     * @param type the entity class
+     * @return the accessors of the class
+     */
+    static @NotNull EntityAccessors of(@NotNull Class<? extends Entity> type) {
+        return ACCESSORS.get(type);
+    }
+
+    /**
+     * Sets the value of a key, without marking the entity dirty.
+     *
+     * @param entity the entity, an instance of the class of these accessors
+     * @param key    the key
+     * @param value  the value
+     * @throws RuntimeException if the class has no setter or field for the key, or none accepting the value
+     */
+    void set(@NotNull Entity entity, @NotNull String key, @Nullable Object value) {
+        Setter[] candidates = this.setters.get(key);
+        if (candidates == null) {
+            throw new RuntimeException("No setter found for key '" + key + "'");
+        }
+        for (Setter setter : candidates) {
+            if (setter.accepts(value)) {
+                try {
+                    setter.handle().invokeExact((Object) entity, value);
+                } catch (RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new RuntimeException(e);
+                }
+                return;
+            }
+        }
+        throw new IllegalArgumentException("No setter for key '" + key + "' of " + this.type.getName() + " accepts "
+                + (value != null ? value.getClass().getName() : "null"));
+    }
+
+    /**
+     * Returns whether the class overrides {@link Entity#setValue(String, Object)}, whose override must then be
+     * called for every key.
+     *
+     * @return true if setValue is overridden
+     */
+    boolean overridesSetValue() {
+        return this.overridesSetValue;
+    }
+
+    /**
+     * A setter method or field, with its handle typed {@code (Object,Object)void}.
+     *
+     * @param type      the type of the parameter or field, boxed
+     * @param primitive whether the parameter or field is primitive, and cannot be set to null
+     * @param handle    sets the value
+     */
+    private record Setter(@NotNull Class<?> type, boolean primitive, @NotNull MethodHandle handle) {
+
+        private static @NotNull Setter of(@NotNull Class<?> type, @NotNull MethodHandle handle) {
+            return new Setter(wrapper(type), type.isPrimitive(),
+                    handle.asType(MethodType.methodType(void.class, Object.class, Object.class)));
+        }
+
+        private boolean accepts(@Nullable Object value) {
+            return value != null ? this.type.isInstance(value) : !this.primitive;
+        }
+
+        private static @NotNull Class<?> wrapper(@NotNull Class<?> type) {
+            if (!type.isPrimitive()) return type;
+            if (type == int.class) return Integer.class;
+            if (type == long.class) return Long.class;
+            if (type == double.class) return Double.class;
+            if (type == float.class) return Float.class;
+            if (type == boolean.class) return Boolean.class;
+            if (type == short.class) return Short.class;
+            if (type == byte.class) return Byte.class;
+            if (type == char.class) return Character.class;
+            return Void.class;
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package com.georgev22.library.utilities;
+
+import com.georgev22.library.maps.ObservableObjectMap;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * The eviction policy of the loaded entities of an {@link EntityRepository}.
+ * <p>
+ * Without a policy every entity ever loaded stays in {@link EntityRepository#getLoadedEntities()} until it is
+ * deleted. Once a {@link Policy} with a maximum size or an idle timeout is set, the least recently used entities
+ * above the maximum size and the entities that were not accessed for the idle timeout are evicted, except for the
+ * {@link #pin(String) pinned} ones. An evicted entity that may have changed is saved first, and it keeps answering
+ * {@link EntityRepository#getEntity(String)} until the save completed, after which the next access loads it again
+ * from the storage.
+ * <p>
+ * Entities are saved with {@link EntityRepository#save(Entity)} before they are evicted unless they
+ * {@link Entity#tracksChanges() track their changes} and are clean, and that save keeps them unloaded unless it
+ * fails. Code that keeps a reference to an entity,
+ * for example the entity of an online player, must pin it, as changes made to an evicted entity are lost.
+ *
+ * @param <V> the type of the entities
+ */
+public final class EntityCache<V extends Entity> {
+
+    private static volatile ScheduledExecutorService scheduler;
+
+    private final EntityRepository<V> repository;
+    private final ObservableObjectMap<String, V> entities;
+    private final Map<String, V> evicting = new ConcurrentHashMap<>();
+    private final Set<String> pinned = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean cleanupQueued = new AtomicBoolean();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private volatile Policy policy = Policy.UNBOUNDED;
+    private volatile ScheduledFuture<?> cleanupTask;
+
+    /**
+     * Creates the cache of the loaded entities of a repository.
+     *
+     * @param repository the repository
+     * @param entities   the loaded entities of the repository
+     */
+    public EntityCache(@NotNull EntityRepository<V> repository, @NotNull ObservableObjectMap<String, V> entities) {
+        this.repository = repository;
+        this.entities = entities;
+        this.entities.addListener(new ObservableObjectMap.MapChangeListener<>() {
+            @Override
+            public void entryAdded(String key, V value) {
+                value.touch();
+                Policy policy = EntityCache.this.policy;
+                if (policy.maximumSize() > 0 && EntityCache.this.entities.size() > policy.maximumSize()) {
+                    queueCleanup();
+                }
+            }
+
+            @Override
+            public void entryRemoved(Object key, @Nullable Object value) {
+            }
+        });
+    }
+
+    /**
+     * Returns the loaded entity with the given ID and records a hit, or records a miss and returns null.
+     * An entity that is being evicted is loaded again without querying the storage.
+     *
+     * @param entityId the ID of the entity
+     * @return the loaded entity, or null if it must be loaded from the storage
+     */
+    public @Nullable V get(@NotNull String entityId) {
+        V entity = this.entities.get(entityId);
+        if (entity == null) {
+            entity = this.evicting.get(entityId);
+            if (entity != null) {
+                V loaded = this.entities.putIfAbsent(entityId, entity);
+                if (loaded != null) {
+                    entity = loaded;
+                }
+            }
+        }
+        if (entity == null) {
+            this.misses.increment();
+            return null;
+        }
+        entity.touch();
+        this.hits.increment();
+        return entity;
+    }
+
+    /**
+     * Returns the eviction policy.
+     *
+     * @return the eviction policy
+     */
+    public @NotNull Policy getPolicy() {
+        return this.policy;
+    }
+
+    /**
+     * Sets the eviction policy and schedules the periodic cleanup if the policy has an idle timeout.
+     * {@link Policy#UNBOUNDED} disables the eviction.
+     *
+     * @param policy the eviction policy
+     */
+    public synchronized void setPolicy(@NotNull Policy policy) {
+        this.policy = policy;
+        if (this.cleanupTask != null) {
+            this.cleanupTask.cancel(false);
+            this.cleanupTask = null;
+        }
+        if (!policy.idleTimeout().isZero()) {
+            long interval = policy.cleanupInterval().toMillis();
+            this.cleanupTask = scheduler().scheduleWithFixedDelay(this::cleanUp, interval, interval, TimeUnit.MILLISECONDS);
+        }
+        if (policy.maximumSize() > 0 && this.entities.size() > policy.maximumSize()) {
+            queueCleanup();
+        }
+    }
+
+    /**
+     * Prevents the entity with the given ID from being evicted, whether it is loaded or not.
+     *
+     * @param entityId the ID of the entity
+     */
+    public void pin(@NotNull String entityId) {
+        this.pinned.add(entityId);
+    }
+
+    /**
+     * Allows the entity with the given ID to be evicted again.
+     *
+     * @param entityId the ID of the entity
+     */
+    public void unpin(@NotNull String entityId) {
+        this.pinned.remove(entityId);
+    }
+
+    /**
+     * Returns whether the entity with the given ID is pinned.
+     *
+     * @param entityId the ID of the entity
+     * @return true if the entity is pinned
+     */
+    public boolean isPinned(@NotNull String entityId) {
+        return this.pinned.contains(entityId);
+    }
+
+    /**
+     * Returns whether the given entity is being saved by its eviction. The saves of a repository must not add such
+     * an entity back to the loaded entities, otherwise a changed entity could never be evicted.
+     *
+     * @param entity the entity
+     * @return true if the entity was evicted and its save has not completed yet
+     */
+    public boolean isEvicting(@NotNull V entity) {
+        return this.evicting.get(entity._id()) == entity;
+    }
+
+    /**
+     * Evicts the least recently used entities above the maximum size and the entities that were not accessed for
+     * the idle timeout, skipping the pinned ones.
+     *
+     * @return the number of entities evicted
+     */
+    public int cleanUp() {
+        this.cleanupQueued.set(false);
+        Policy policy = this.policy;
+        long idleTimeout = policy.idleTimeout().toNanos();
+        if (policy.maximumSize() <= 0 && idleTimeout == 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        List<V> candidates = new ArrayList<>();
+        int evicted = 0;
+        for (V entity : this.entities.values()) {
+            if (this.pinned.contains(entity._id())) {
+                continue;
+            }
+            if (idleTimeout != 0 && now - entity.lastAccessed() > idleTimeout) {
+                if (evict(entity)) {
+                    evicted++;
+                }
+            } else {
+                candidates.add(entity);
+            }
+        }
+        int excess = policy.maximumSize() > 0 ? this.entities.size() - policy.maximumSize() : 0;
+        if (excess > 0) {
+            candidates.sort(Comparator.comparingLong(Entity::lastAccessed));
+            for (int i = 0; i < candidates.size() && excess > 0; i++) {
+                if (evict(candidates.get(i))) {
+                    evicted++;
+                    excess--;
+                }
+            }
+        }
+        if (evicted > 0) {
+            this.repository.getLogger().log(Level.FINE, "[EntityRepository]: Evicted " + evicted + " entities.");
+        }
+        return evicted;
+    }
+
+    /**
+     * Evicts the entity with the given ID unless it is pinned, saving it first if it may have changed.
+     *
+     * @param entityId the ID of the entity
+     * @return true if the entity was loaded and not pinned
+     */
+    public boolean evict(@NotNull String entityId) {
+        V entity = this.entities.get(entityId);
+        return entity != null && !this.pinned.contains(entityId) && evict(entity);
+    }
+
+    private boolean evict(@NotNull V entity) {
+        String entityId = entity._id();
+        if (entity.tracksChanges() && !entity.isDirty()) {
+            if (this.entities.remove(entityId, entity)) {
+                this.evictions.increment();
+                return true;
+            }
+            return false;
+        }
+        this.evicting.put(entityId, entity);
+        if (!this.entities.remove(entityId, entity)) {
+            this.evicting.remove(entityId, entity);
+            return false;
+        }
+        this.evictions.increment();
+        CompletableFuture<V> save;
+        try {
+            save = this.repository.save(entity);
+        } catch (RuntimeException e) {
+            save = CompletableFuture.failedFuture(e);
+        }
+        save.whenComplete((saved, throwable) -> {
+            if (saved == null || throwable != null) {
+                // keep the entity loaded, so its changes are written by the next save
+                this.entities.putIfAbsent(entityId, entity);
+                if (throwable != null) {
+                    this.repository.getLogger().log(Level.SEVERE, "[EntityRepository]: Failed to save evicted entity " + entityId, throwable);
+                }
+            }
+            this.evicting.remove(entityId, entity);
+        });
+        return true;
+    }
+
+    private void queueCleanup() {
+        if (this.cleanupQueued.compareAndSet(false, true)) {
+            try {
+                scheduler().execute(this::cleanUp);
+            } catch (RejectedExecutionException e) {
+                this.cleanupQueued.set(false);
+            }
+        }
+    }
+
+    private static @NotNull ScheduledExecutorService scheduler() {
+        ScheduledExecutorService executor = scheduler;
+        if (executor == null) {
+            synchronized (EntityCache.class) {
+                executor = scheduler;
+                if (executor == null) {
+                    scheduler = executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, "EntityCache-cleanup");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Returns a snapshot of the metrics of this cache.
+     *
+     * @return the current metrics
+     */
+    public @NotNull Metrics getMetrics() {
+        return new Metrics(this.hits.sum(), this.misses.sum(), this.evictions.sum(), this.entities.size(), this.pinned.size());
+    }
+
+    @Override
+    public String toString() {
+        return "EntityCache{" +
+                "policy=" + policy +
+                ", metrics=" + getMetrics() +
+                '}';
+    }
+
+    /**
+     * The eviction policy of an {@link EntityCache}. A maximum size of zero and a zero idle timeout disable the
+     * corresponding eviction.
+     *
+     * @param maximumSize     the number of loaded entities above which the least recently used ones are evicted
+     * @param idleTimeout     how long an entity may stay loaded without being accessed
+     * @param cleanupInterval how often the idle entities are evicted
+     */
+    public record Policy(int maximumSize, @NotNull Duration idleTimeout, @NotNull Duration cleanupInterval) {
+
+        /**
+         * No eviction, every loaded entity stays loaded until it is deleted.
+         */
+        public static final Policy UNBOUNDED = new Policy(0, Duration.ZERO, Duration.ofSeconds(30));
+
+        public Policy {
+            if (maximumSize < 0) {
+                throw new IllegalArgumentException("maximumSize must not be negative");
+            }
+            if (idleTimeout.isNegative()) {
+                throw new IllegalArgumentException("idleTimeout must not be negative");
+            }
+            if (cleanupInterval.isNegative() || cleanupInterval.isZero()) {
+                throw new IllegalArgumentException("cleanupInterval must be positive");
+            }
+        }
+
+        @Contract("_ -> new")
+        public @NotNull Policy maximumSize(int maximumSize) {
+            return new Policy(maximumSize, idleTimeout, cleanupInterval);
+        }
+
+        @Contract("_ -> new")
+        public @NotNull Policy idleTimeout(@NotNull Duration idleTimeout) {
+            return new Policy(maximumSize, idleTimeout, cleanupInterval);
+        }
+
+        @Contract("_ -> new")
+        public @NotNull Policy cleanupInterval(@NotNull Duration cleanupInterval) {
+            return new Policy(maximumSize, idleTimeout, cleanupInterval);
+        }
+    }
+
+    /**
+     * A snapshot of the metrics of an {@link EntityCache}.
+     *
+     * @param hits      the number of lookups answered by a loaded entity
+     * @param misses    the number of lookups that had to query the storage
+     * @param evictions the number of evicted entities
+     * @param size      the number of loaded entities
+     * @param pinned    the number of pinned entity IDs
+     */
+    public record Metrics(long hits, long misses, long evictions, int size, int pinned) {
+
+        /**
+         * Returns the share of lookups answered by a loaded entity.
+         *
+         * @return the hit rate between 0 and 1
+         */
+        public double hitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 1.0 : (double) hits / lookups;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.georgev22.library.utilities;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Customizes the column a field of an {@link Entity} is stored in by a {@link ColumnEntityRepository}.
+ * <p>
+ * Fields without this annotation are stored in a column named after the field, with a type derived from the
+ * field type.
+ *
+ * @see ColumnEntityRepository
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface EntityColumn {
+    /**
+     * The name of the column, or an empty string to use the name of the field.
+     *
+     * @return the name of the column
+     */
+    String name() default "";
+
+    /**
+     * The SQL type of the column, or an empty string to derive it from the type of the field.
+     *
+     * @return the SQL type of the column
+     */
+    String type() default "";
+
+    /**
+     * Whether the column is indexed, which allows querying it with
+     * {@link ColumnEntityRepository#findBy(String, Object)}.
+     *
+     * @return true if the column is indexed
+     */
+    boolean indexed() default false;
+}
@@ -1,9 +1,15 @@
 package com.georgev22.library.utilities;
 
+import com.georgev22.library.maps.ObjectMap;
 import com.georgev22.library.maps.ObservableObjectMap;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 
@@ -41,6 +47,48 @@ public interface EntityRepository<V extends Entity> {
      */
     CompletableFuture<V> getEntity(@NotNull String entityId);
 
+    /**
+     * Loads the entities with the specified IDs.
+     * Returns a CompletableFuture containing a map of the found entities by ID, in the order of the given IDs.
+     * IDs that are already loaded are served from the loaded entities and duplicate IDs are loaded once.
+     * <p>
+     * The default implementation loads the entities in parallel with one {@link #load(String)} per missing ID;
+     * database-backed repositories fetch them with a few multi-key queries instead.
+     *
+     * @param entityIds The IDs of the entities to be loaded.
+     * @return a CompletableFuture containing the found entities by ID
+     */
+    default CompletableFuture<ObjectMap<String, V>> loadMany(@NotNull Collection<String> entityIds) {
+        List<String> ids = new ArrayList<>(new LinkedHashSet<>(entityIds));
+        List<CompletableFuture<V>> futures = new ArrayList<>(ids.size());
+        for (String entityId : ids) {
+            V entity = getLoadedEntities().get(entityId);
+            futures.add(entity != null ? CompletableFuture.completedFuture(entity) : load(entityId));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(v -> {
+            ObjectMap<String, V> entities = ObjectMap.newLinkedObjectMap();
+            for (int i = 0; i < ids.size(); i++) {
+                V entity = futures.get(i).join();
+                if (entity != null) {
+                    entities.put(ids.get(i), entity);
+                }
+            }
+            return entities;
+        });
+    }
+
+    /**
+     * Retrieves the entities with the specified IDs, loading the ones that are not loaded yet.
+     * Returns a CompletableFuture containing a map of the found entities by ID, in the order of the given IDs.
+     *
+     * @param entityIds The IDs of the entities to be retrieved.
+     * @return a CompletableFuture containing the found entities by ID
+     * @see #loadMany(Collection)
+     */
+    default CompletableFuture<ObjectMap<String, V>> getEntities(@NotNull Collection<String> entityIds) {
+        return loadMany(entityIds);
+    }
+
     /**
      * Checks if an entity with the specified ID exists.
      * Returns a CompletableFuture containing true if the entity exists, false otherwise.
@@ -71,9 +119,49 @@ public interface EntityRepository<V extends Entity> {
 
     /**
      * Saves all loaded entities to the database.
+     * Implementations skip the entities that did not change since they were loaded or saved, see {@link Entity}.
      */
     void saveAll();
 
+    /**
+     * Returns how many writes {@link #saveAll()} skipped because the entity did not change.
+     *
+     * @return the number of skipped writes
+     */
+    default long getSkippedWrites() {
+        return 0;
+    }
+
+    /**
+     * Returns how many requests were answered by a request already in flight for the same ID
+     * instead of querying the storage again.
+     *
+     * @return the number of coalesced requests
+     */
+    default long getCoalescedRequests() {
+        return 0;
+    }
+
+    /**
+     * Returns the executor that runs the I/O of this repository, which reports its queue depth and latencies
+     * through {@link RepositoryExecutor#getMetrics()}.
+     *
+     * @return the executor of this repository, or null if the repository does not use one
+     */
+    default @Nullable RepositoryExecutor getExecutor() {
+        return null;
+    }
+
+    /**
+     * Returns the cache of the loaded entities, whose {@link EntityCache.Policy policy} evicts them by size or
+     * idle time, and which reports hit and miss metrics.
+     *
+     * @return the entity cache of this repository, or null if the repository never evicts its entities
+     */
+    default @Nullable EntityCache<V> getCache() {
+        return null;
+    }
+
     /**
      * Gets the logger associated with this repository.
      *
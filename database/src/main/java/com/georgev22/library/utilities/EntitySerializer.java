@@ -0,0 +1,122 @@
+package com.georgev22.library.utilities;
+
+import com.google.gson.Gson;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts entities to the form a repository stores and back.
+ * <p>
+ * Text formats are stored as strings, in {@code TEXT} columns and string fields, binary formats as bytes, in
+ * {@code BLOB} columns and binary fields. The library provides three formats:
+ * <ul>
+ *     <li>{@link #gson(Class, Gson)} stores the entity as JSON, which is readable and can be queried by the
+ *     database, and is the default of every repository.</li>
+ *     <li>{@link #kryo(Class)} stores the entity with the shared Kryo instance of {@link KryoUtils}, so the
+ *     serializers registered there are used.</li>
+ *     <li>{@link #binary(Class, Gson)} stores the fields of the entity in the order of a schema derived from its
+ *     class, without names; see {@link BinaryEntitySerializer}.</li>
+ * </ul>
+ * Serializers must be thread-safe.
+ *
+ * @param <V> the type of the entities
+ */
+public interface EntitySerializer<V extends Entity> {
+
+    /**
+     * Returns the name of the format, for example {@code json}.
+     *
+     * @return the name of the format
+     */
+    @NotNull String name();
+
+    /**
+     * Returns whether the format is binary. Binary formats must be stored with {@link #serialize(Entity)}, text
+     * formats may be stored with {@link #serializeToString(Entity)}.
+     *
+     * @return true if the format is binary
+     */
+    boolean isBinary();
+
+    /**
+     * Serializes the entity.
+     *
+     * @param entity the entity
+     * @return the serialized entity
+     */
+    byte @NotNull [] serialize(@NotNull V entity);
+
+    /**
+     * Deserializes an entity written by {@link #serialize(Entity)}.
+     *
+     * @param data the serialized entity
+     * @return the entity, or null if the data holds no entity
+     * @throws IllegalArgumentException if the data cannot be deserialized
+     */
+    @Nullable V deserialize(byte @NotNull [] data);
+
+    /**
+     * Serializes the entity to a string. Only text formats can be stored as strings; the default implementation
+     * decodes {@link #serialize(Entity)} as UTF-8.
+     *
+     * @param entity the entity
+     * @return the serialized entity
+     */
+    default @NotNull String serializeToString(@NotNull V entity) {
+        return new String(serialize(entity), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Deserializes an entity written by {@link #serializeToString(Entity)}.
+     *
+     * @param data the serialized entity
+     * @return the entity, or null if the data holds no entity
+     * @throws IllegalArgumentException if the data cannot be deserialized
+     */
+    default @Nullable V deserialize(@NotNull String data) {
+        return deserialize(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns a serializer that stores entities as JSON.
+     *
+     * @param entityClass the entity class
+     * @param gson        the Gson instance to use
+     * @param <V>         the type of the entities
+     * @return a JSON serializer
+     */
+    @Contract("_, _ -> new")
+    static <V extends Entity> @NotNull EntitySerializer<V> gson(@NotNull Class<V> entityClass, @NotNull Gson gson) {
+        return new GsonEntitySerializer<>(entityClass, gson);
+    }
+
+    /**
+     * Returns a serializer that stores entities with the shared Kryo instance of {@link KryoUtils}.
+     *
+     * @param entityClass the entity class
+     * @param <V>         the type of the entities
+     * @return a Kryo serializer
+     */
+    @Contract("_ -> new")
+    static <V extends Entity> @NotNull EntitySerializer<V> kryo(@NotNull Class<V> entityClass) {
+        return new KryoEntitySerializer<>(entityClass);
+    }
+
+    /**
+     * Returns a serializer that stores the fields of entities in a compact binary form.
+     *
+     * @param entityClass the entity class
+     * @param gson        the Gson instance that converts the fields without a binary encoding
+     * @param <V>         the type of the entities
+     * @return a binary serializer
+     * @throws IllegalArgumentException if the entity class has neither a no-argument constructor nor one taking
+     *                                  its ID
+     */
+    @Contract("_, _ -> new")
+    static <V extends Entity> @NotNull EntitySerializer<V> binary(@NotNull Class<V> entityClass, @NotNull Gson gson) {
+        return new BinaryEntitySerializer<>(entityClass, gson);
+    }
+}
@@ -14,6 +14,7 @@ public class GenericEntity extends Entity {
     public void setValue(@NotNull String key, Object value) {
         if (key.equals("name")) {
             this.name = (String) value;
+            markDirty();
         } else {
             super.setValue(key, value);
         }
@@ -0,0 +1,80 @@
+package com.georgev22.library.utilities;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An {@link EntitySerializer} that stores entities as JSON with Gson.
+ *
+ * @param <V> the type of the entities
+ */
+public final class GsonEntitySerializer<V extends Entity> implements EntitySerializer<V> {
+
+    private final Class<V> entityClass;
+    private final Gson gson;
+
+    /**
+     * Creates a JSON serializer.
+     *
+     * @param entityClass the entity class
+     * @param gson        the Gson instance to use
+     */
+    public GsonEntitySerializer(@NotNull Class<V> entityClass, @NotNull Gson gson) {
+        this.entityClass = entityClass;
+        this.gson = gson;
+    }
+
+    @Override
+    public @NotNull String name() {
+        return "json";
+    }
+
+    @Override
+    public boolean isBinary() {
+        return false;
+    }
+
+    @Override
+    public byte @NotNull [] serialize(@NotNull V entity) {
+        return serializeToString(entity).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public @Nullable V deserialize(byte @NotNull [] data) {
+        return deserialize(new String(data, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public @NotNull String serializeToString(@NotNull V entity) {
+        return this.gson.toJson(entity);
+    }
+
+    @Override
+    public @Nullable V deserialize(@NotNull String data) {
+        try {
+            return this.gson.fromJson(data, this.entityClass);
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("Failed to deserialize " + this.entityClass.getName(), e);
+        }
+    }
+
+    /**
+     * Returns the Gson instance of this serializer.
+     *
+     * @return the Gson instance
+     */
+    public @NotNull Gson getGson() {
+        return this.gson;
+    }
+
+    @Override
+    public String toString() {
+        return "GsonEntitySerializer{" +
+                "entityClass=" + entityClass.getName() +
+                '}';
+    }
+}
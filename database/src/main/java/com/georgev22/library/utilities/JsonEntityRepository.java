@@ -1,15 +1,22 @@
 package com.georgev22.library.utilities;
 
 import com.georgev22.library.maps.ObservableObjectMap;
+import com.georgev22.library.yaml.file.AtomicFileWriter;
 import com.google.gson.Gson;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.*;
 import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -23,10 +30,17 @@ import java.util.logging.Logger;
 public class JsonEntityRepository<V extends Entity> implements EntityRepository<V> {
 
     private final ObservableObjectMap<String, V> loadedEntities = new ObservableObjectMap<>();
+    private final EntityCache<V> cache = new EntityCache<>(this, this.loadedEntities);
     private final File dataFolder;
     private final Logger logger;
     private final Gson gson;
     private final Class<V> entityClass;
+    private final RepositoryExecutor executor;
+    private final LongAdder skippedWrites = new LongAdder();
+    private final SingleFlight<String, V> loads = new SingleFlight<>();
+    private final SingleFlight<Map.Entry<String, Boolean>, Boolean> existsChecks = new SingleFlight<>();
+    private final SingleFlight<String, V> saves = new SingleFlight<>();
+    private volatile AtomicFileWriter.Durability durability = AtomicFileWriter.Durability.ATOMIC;
 
     /**
      * Constructs a JSON entity repository.
@@ -37,6 +51,20 @@ public class JsonEntityRepository<V extends Entity> implements EntityRepository<
      * @param gson        The Gson instance to use.
      */
     public JsonEntityRepository(File dataFolder, Logger logger, Class<V> entityClass, Gson gson) {
+        this(dataFolder, logger, entityClass, gson, RepositoryExecutor.shared("JsonEntityRepository-" + dataFolder.getName()));
+    }
+
+    /**
+     * Constructs a JSON entity repository that runs its file I/O on the given executor.
+     *
+     * @param dataFolder  The folder where JSON files will be stored.
+     * @param logger      The logger for handling log messages.
+     * @param entityClass The class type of the entity managed by this repository.
+     * @param gson        The Gson instance to use.
+     * @param executor    The executor that runs the file I/O.
+     */
+    public JsonEntityRepository(File dataFolder, Logger logger, Class<V> entityClass, Gson gson, @NotNull Executor executor) {
+        this.executor = RepositoryExecutor.of("JsonEntityRepository-" + dataFolder.getName(), executor);
         this.dataFolder = dataFolder;
         this.logger = logger;
         this.entityClass = entityClass;
@@ -56,17 +84,24 @@ public class JsonEntityRepository<V extends Entity> implements EntityRepository<
      */
     @Override
     public CompletableFuture<V> save(@NotNull V entity) {
-        return CompletableFuture.supplyAsync(() -> {
-            File file = new File(dataFolder, entity._id() + ".json");
-            try (FileWriter fileWriter = new FileWriter(file)) {
-                this.gson.toJson(entity, fileWriter);
-            } catch (IOException e) {
-                this.logger.log(Level.SEVERE, "[EntityRepository] Error writing entity to file: " + file.getPath(), e);
+        return this.saves.executeLatest(entity._id(), () -> CompletableFuture.supplyAsync(() -> {
+            entity.clearDirty();
+            String json = this.gson.toJson(entity);
+            return write(entity, json, Entity.contentHash(json));
+        }, this.executor).thenCompose(Function.identity()));
+    }
+
+    private CompletableFuture<V> write(@NotNull V entity, @NotNull String json, long contentHash) {
+        Path file = new File(dataFolder, entity._id() + ".json").toPath();
+        return AtomicFileWriter.shared(this.durability).write(file, json.getBytes(StandardCharsets.UTF_8)).handleAsync((ignored, throwable) -> {
+            if (throwable != null) {
+                entity.markDirty();
+                this.logger.log(Level.SEVERE, "[EntityRepository] Error writing entity to file: " + file, throwable);
                 return null;
             }
-
+            entity.markPersisted(contentHash);
             return entity;
-        });
+        }, this.executor);
     }
 
     /**
@@ -77,37 +112,38 @@ public class JsonEntityRepository<V extends Entity> implements EntityRepository<
      */
     @Override
     public CompletableFuture<V> load(@NotNull String entityId) {
-        if (loadedEntities.containsKey(entityId)) {
-            return CompletableFuture.completedFuture(loadedEntities.get(entityId));
+        V loaded = this.cache.get(entityId);
+        if (loaded != null) {
+            return CompletableFuture.completedFuture(loaded);
         }
-        return CompletableFuture.supplyAsync(() -> {
+        return this.loads.execute(entityId, () -> CompletableFuture.supplyAsync(() -> {
             File file = new File(dataFolder, entityId + ".json");
             if (!file.exists()) {
                 return null;
             }
 
-            try (BufferedReader bufferedReader = new BufferedReader(new FileReader(file))) {
-                V entity = this.gson.fromJson(bufferedReader, this.entityClass);
+            try {
+                String json = Files.readString(file.toPath(), StandardCharsets.UTF_8);
+                V entity = this.gson.fromJson(json, this.entityClass);
+                entity.clearDirty();
+                entity.markPersisted(Entity.contentHash(json));
                 this.loadedEntities.put(entityId, entity);
                 return entity;
             } catch (IOException e) {
                 this.logger.log(Level.SEVERE, "[EntityRepository] Error reading entity from file: " + file.getPath(), e);
                 return null;
             }
-        });
+        }, this.executor));
     }
 
     /**
-     * Retrieves the loaded entity with the specified entity ID.
+     * Retrieves the loaded entity with the specified entity ID, loading it if it is not loaded or was evicted.
      *
      * @param entityId The ID of the entity to be retrieved.
      * @return The loaded entity, or null if not found.
      */
     @Override
     public CompletableFuture<V> getEntity(@NotNull String entityId) {
-        if (loadedEntities.containsKey(entityId)) {
-            return CompletableFuture.completedFuture(loadedEntities.get(entityId));
-        }
         return this.load(entityId);
     }
 
@@ -121,17 +157,18 @@ public class JsonEntityRepository<V extends Entity> implements EntityRepository<
      */
     @Override
     public CompletableFuture<Boolean> exists(@NotNull String entityId, boolean checkDb, boolean forceLoad) {
-        return CompletableFuture.supplyAsync(() -> {
+        if (!checkDb) {
+            return CompletableFuture.completedFuture(loadedEntities.containsKey(entityId));
+        }
+        return this.existsChecks.execute(Map.entry(entityId, forceLoad), () -> CompletableFuture.supplyAsync(() -> {
             if (loadedEntities.containsKey(entityId)) {
                 return true;
             }
 
-            if (checkDb) {
-                File file = new File(dataFolder, entityId + ".json");
-                return forceLoad ? this.load(entityId) != null : file.exists();
-            }
-            return false;
-        });
+            return new File(dataFolder, entityId + ".json").exists();
+        }, this.executor).thenCompose(found -> found && forceLoad
+                ? this.load(entityId).thenApply(Objects::nonNull)
+                : CompletableFuture.completedFuture(found)));
     }
 
     /**
@@ -147,47 +184,134 @@ public class JsonEntityRepository<V extends Entity> implements EntityRepository<
                 //noinspection ResultOfMethodCallIgnored
                 file.delete();
             }
-            this.loadedEntities.remove(entityId);
-        });
+            V entity = this.loadedEntities.remove(entityId);
+            if (entity != null) {
+                entity.resetPersisted();
+            }
+        }, this.executor);
     }
 
     /**
      * Loads all entities from the data folder.
+     * <p>
+     * The files are read and parsed in parallel by a {@link DirectoryLoader}. Entities that are already loaded are
+     * kept as they are.
      */
     @Override
     public CompletableFuture<BigInteger> loadAll() {
         return CompletableFuture.supplyAsync(() -> {
-            File[] files = dataFolder.listFiles((dir, name) -> name.endsWith(".json"));
-            if (files == null) {
-                return CompletableFuture.completedFuture(BigInteger.ZERO);
+            if (!this.dataFolder.isDirectory()) {
+                return BigInteger.ZERO;
             }
-
-            AtomicReference<BigInteger> atomicCount = new AtomicReference<>(BigInteger.ZERO);
-            List<CompletableFuture<Void>> futures = new ArrayList<>();
-
-            for (File file : files) {
-                String entityId = file.getName().replace(".json", "");
-                CompletableFuture<Void> future = load(entityId).thenAccept(v -> {
-                    if (v != null) {
-                        atomicCount.updateAndGet(current -> current.add(BigInteger.ONE));
+            try {
+                DirectoryLoader.Result result = new DirectoryLoader(this.dataFolder.toPath(), ".json").load(ForkJoinPool.commonPool(), (entityId, content) -> {
+                    if (this.loadedEntities.containsKey(entityId)) {
+                        return true;
                     }
+                    V entity = this.gson.fromJson(new CharArrayReader(content.array(), content.arrayOffset() + content.position(), content.remaining()), this.entityClass);
+                    if (entity == null) {
+                        return false;
+                    }
+                    entity.clearDirty();
+                    entity.markPersisted(Entity.contentHash(content));
+                    this.loadedEntities.put(entityId, entity);
+                    return true;
                 });
-                futures.add(future);
+                if (result.failure() != null) {
+                    this.logger.log(Level.SEVERE, "[EntityRepository]: Failed to load " + result.failed() + " entities", result.failure());
+                }
+                this.logger.log(Level.FINE, "[EntityRepository]: loadAll loaded " + result);
+                return BigInteger.valueOf(result.loaded());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.logger.log(Level.SEVERE, "[EntityRepository]: Interrupted while loading entities", e);
+            } catch (IOException e) {
+                this.logger.log(Level.SEVERE, "[EntityRepository]:", e);
             }
-
-            CompletableFuture<Void> allOf = CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
-            return allOf.thenApply(v -> atomicCount.get());
-        }).thenCompose(countFuture -> countFuture);
+            return BigInteger.ZERO;
+        }, this.executor);
     }
 
     /**
-     * Saves all entities to the data folder.
+     * Saves all changed entities to the data folder.
      */
     @Override
     public void saveAll() {
+        int skipped = 0;
         for (V entity : this.loadedEntities.values()) {
-            save(entity);
+            if (entity.tracksChanges() && !entity.isDirty()) {
+                skipped++;
+                continue;
+            }
+            entity.clearDirty();
+            String json = this.gson.toJson(entity);
+            long contentHash = Entity.contentHash(json);
+            if (entity.isPersisted(contentHash)) {
+                skipped++;
+                continue;
+            }
+            this.saves.executeLatest(entity._id(), () -> CompletableFuture.supplyAsync(() -> write(entity, json, contentHash), this.executor).thenCompose(Function.identity()));
         }
+        this.skippedWrites.add(skipped);
+        this.logger.log(Level.FINE, "[EntityRepository]: saveAll skipped " + skipped + " unchanged entities.");
+    }
+
+    @Override
+    public long getSkippedWrites() {
+        return this.skippedWrites.sum();
+    }
+
+    /**
+     * Returns how many load, exists and save requests were answered by a request already in flight for the same ID.
+     *
+     * @return the number of coalesced requests
+     */
+    @Override
+    public long getCoalescedRequests() {
+        return this.loads.coalesced() + this.existsChecks.coalesced() + this.saves.coalesced();
+    }
+
+    /**
+     * Returns the executor that runs the I/O of this repository.
+     *
+     * @return the executor of this repository
+     */
+    @Override
+    public @NotNull RepositoryExecutor getExecutor() {
+        return this.executor;
+    }
+
+    /**
+     * Returns the cache of the loaded entities, which evicts them according to its policy.
+     *
+     * @return the entity cache of this repository
+     */
+    @Override
+    public @NotNull EntityCache<V> getCache() {
+        return this.cache;
+    }
+
+    /**
+     * Sets what a save must survive before its future completes. Files are always replaced atomically, so a crash
+     * never leaves a truncated file behind; {@link AtomicFileWriter.Durability#GROUP} additionally forces the writes
+     * of a short window to the disk together, and {@link AtomicFileWriter.Durability#SYNC} forces every write on its
+     * own.
+     * <p>
+     * Defaults to {@link AtomicFileWriter.Durability#ATOMIC}.
+     *
+     * @param durability the durability of saves
+     */
+    public void setDurability(@NotNull AtomicFileWriter.Durability durability) {
+        this.durability = durability;
+    }
+
+    /**
+     * Returns what a save must survive before its future completes.
+     *
+     * @return the durability of saves
+     */
+    public @NotNull AtomicFileWriter.Durability getDurability() {
+        return this.durability;
     }
 
     /**
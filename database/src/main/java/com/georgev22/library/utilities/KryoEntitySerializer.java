@@ -0,0 +1,79 @@
+package com.georgev22.library.utilities;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.reflect.Constructor;
+
+/**
+ * An {@link EntitySerializer} that stores entities with the shared Kryo instance of {@link KryoUtils}, so the
+ * classes and serializers registered through {@link KryoUtils} are used for the fields of the entities.
+ * <p>
+ * The entity class itself is not registered, since registration IDs depend on the order of registration, and it is
+ * not written either, as it is known when reading. Entities are created with their constructor taking their ID, or
+ * with their no-argument constructor.
+ *
+ * @param <V> the type of the entities
+ */
+public final class KryoEntitySerializer<V extends Entity> implements EntitySerializer<V> {
+
+    private final Class<V> entityClass;
+
+    /**
+     * Creates a Kryo serializer.
+     *
+     * @param entityClass the entity class
+     */
+    public KryoEntitySerializer(@NotNull Class<V> entityClass) {
+        this.entityClass = entityClass;
+        Kryo kryo = KryoUtils.getKryo();
+        synchronized (kryo) {
+            try {
+                Constructor<V> constructor = entityClass.getDeclaredConstructor(String.class);
+                constructor.setAccessible(true);
+                // the ID is read with the other fields
+                kryo.getRegistration(entityClass).setInstantiator(() -> {
+                    try {
+                        return constructor.newInstance((Object) null);
+                    } catch (ReflectiveOperationException e) {
+                        throw new KryoException("Failed to create " + entityClass.getName(), e);
+                    }
+                });
+            } catch (NoSuchMethodException ignored) {
+                // Kryo uses the no-argument constructor
+            }
+        }
+    }
+
+    @Override
+    public @NotNull String name() {
+        return "kryo";
+    }
+
+    @Override
+    public boolean isBinary() {
+        return true;
+    }
+
+    @Override
+    public byte @NotNull [] serialize(@NotNull V entity) {
+        return KryoUtils.serializeObject(entity);
+    }
+
+    @Override
+    public @NotNull V deserialize(byte @NotNull [] data) {
+        try {
+            return KryoUtils.deserialize(data, this.entityClass);
+        } catch (KryoException e) {
+            throw new IllegalArgumentException("Failed to deserialize " + this.entityClass.getName(), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "KryoEntitySerializer{" +
+                "entityClass=" + entityClass.getName() +
+                '}';
+    }
+}
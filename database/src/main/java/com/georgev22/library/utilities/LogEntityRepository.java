@@ -0,0 +1,896 @@
+package com.georgev22.library.utilities;
+
+import com.georgev22.library.maps.ObservableObjectMap;
+import com.google.gson.Gson;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+
+/**
+ * A repository manager for entities that stores them as JSON records in a segmented, append-only log instead of one
+ * file per entity like {@link JsonEntityRepository}.
+ * <p>
+ * Every save appends a record to the active segment ({@code <number>.log}) and every delete appends a tombstone; an
+ * in-memory index maps each entity ID to the position of its latest record, so a load is a single positional read
+ * and {@link #exists(String, boolean, boolean)} does not touch the disk at all. Each record carries a CRC32C
+ * checksum, and a record torn by a crash is detected and cut off when the log is opened, so an entity is always
+ * read either in its previous or in its new state.
+ * <p>
+ * The index is written to {@code index.dat} with a temporary file and an atomic rename on {@link #flush()},
+ * {@link #close()}, after a compaction and periodically. Opening the repository reads that file and only scans the
+ * records appended after it was written. Superseded records are reclaimed by {@link #compact()}, which runs
+ * periodically and moves the live records of the segments whose share of garbage exceeds the
+ * {@link Settings#compactionThreshold() threshold} to the end of the log before deleting them.
+ * <p>
+ * Records are handed to the operating system on every write but only forced to the disk by {@link #flush()} and
+ * {@link #close()}.
+ *
+ * @param <V> The type of the entity.
+ */
+public class LogEntityRepository<V extends Entity> implements EntityRepository<V>, Closeable {
+
+    private static final int INDEX_MAGIC = 0x4C455249;
+    private static final int VERSION = 1;
+    private static final int RECORD_HEADER = 8;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String INDEX_FILE = "index.dat";
+
+    private static volatile ScheduledExecutorService scheduler;
+
+    private final ObservableObjectMap<String, V> loadedEntities = new ObservableObjectMap<>();
+    private final EntityCache<V> cache = new EntityCache<>(this, this.loadedEntities);
+    private final File dataFolder;
+    private final Logger logger;
+    private final Class<V> entityClass;
+    private final Gson gson;
+    private final Settings settings;
+    private final RepositoryExecutor executor;
+    private final LongAdder skippedWrites = new LongAdder();
+    private final SingleFlight<String, V> loads = new SingleFlight<>();
+    private final SingleFlight<Map.Entry<String, Boolean>, Boolean> existsChecks = new SingleFlight<>();
+    private final SingleFlight<String, V> saves = new SingleFlight<>();
+    private final ConcurrentHashMap<String, Location> index = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ScheduledFuture<?> maintenanceTask;
+
+    private Segment active;
+    private boolean indexDirty;
+    private boolean closed;
+
+    /**
+     * Opens, or creates if it does not exist, a log entity repository with the default settings.
+     *
+     * @param dataFolder  The folder where the log segments and the index are stored.
+     * @param logger      The logger for handling log messages.
+     * @param entityClass The class type of the entity managed by this repository.
+     * @param gson        The Gson instance to use.
+     * @throws IOException if the log cannot be opened
+     */
+    public LogEntityRepository(File dataFolder, Logger logger, Class<V> entityClass, Gson gson) throws IOException {
+        this(dataFolder, logger, entityClass, gson, Settings.DEFAULT, RepositoryExecutor.shared("LogEntityRepository-" + dataFolder.getName()));
+    }
+
+    /**
+     * Opens, or creates if it does not exist, a log entity repository that runs its file I/O on the given executor.
+     *
+     * @param dataFolder  The folder where the log segments and the index are stored.
+     * @param logger      The logger for handling log messages.
+     * @param entityClass The class type of the entity managed by this repository.
+     * @param gson        The Gson instance to use.
+     * @param settings    The segment size and compaction settings.
+     * @param executor    The executor that runs the file I/O.
+     * @throws IOException if the log cannot be opened
+     */
+    public LogEntityRepository(File dataFolder, Logger logger, Class<V> entityClass, Gson gson, @NotNull Settings settings, @NotNull Executor executor) throws IOException {
+        this.executor = RepositoryExecutor.of("LogEntityRepository-" + dataFolder.getName(), executor);
+        this.dataFolder = dataFolder;
+        this.logger = logger;
+        this.entityClass = entityClass;
+        this.gson = gson;
+        this.settings = settings;
+        if (!this.dataFolder.exists()) {
+            if (this.dataFolder.mkdirs()) {
+                this.logger.log(Level.INFO, "[EntityRepository]: Created data folder: " + this.dataFolder.getAbsolutePath());
+            } else {
+                throw new IOException("Could not create directory " + this.dataFolder.getAbsolutePath());
+            }
+        }
+        open();
+        long interval = settings.maintenanceInterval().toMillis();
+        this.maintenanceTask = scheduler().scheduleWithFixedDelay(() -> {
+            try {
+                this.executor.execute(this::maintain);
+            } catch (RejectedExecutionException ignored) {
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void open() throws IOException {
+        Files.deleteIfExists(indexPath().resolveSibling(INDEX_FILE + ".tmp"));
+        File[] files = this.dataFolder.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                try {
+                    long id = Long.parseLong(file.getName().substring(0, file.getName().length() - SEGMENT_SUFFIX.length()));
+                    this.segments.put(id, new Segment(id, file.toPath()));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+
+        long checkpointSegment = 0;
+        long checkpointOffset = 0;
+        if (Files.exists(indexPath())) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath()), 1 << 16))) {
+                if (in.readInt() != INDEX_MAGIC || in.readInt() != VERSION) {
+                    throw new IOException("Not a LogEntityRepository index: " + indexPath());
+                }
+                long segment = in.readLong();
+                long offset = in.readLong();
+                int size = in.readInt();
+                Map<String, Location> entries = new HashMap<>(Math.max(16, (int) (size / 0.75f) + 1));
+                for (int i = 0; i < size; i++) {
+                    String id = in.readUTF();
+                    entries.put(id, new Location(in.readLong(), in.readLong(), in.readInt()));
+                }
+                this.index.putAll(entries);
+                checkpointSegment = segment;
+                checkpointOffset = offset;
+            } catch (IOException e) {
+                this.logger.log(Level.WARNING, "[EntityRepository]: Ignoring unreadable index " + indexPath() + ", scanning the whole log", e);
+                this.index.clear();
+            }
+        }
+
+        for (Segment segment : this.segments.values()) {
+            if (segment.id < checkpointSegment) {
+                continue;
+            }
+            long from = segment.id == checkpointSegment ? Math.min(checkpointOffset, segment.size) : 0;
+            long end = scan(segment, from, (record, location) -> {
+                if (record.type() == PUT) {
+                    this.index.put(record.id(), location);
+                } else {
+                    this.index.remove(record.id());
+                }
+            });
+            if (end < segment.size) {
+                this.logger.log(Level.WARNING, "[EntityRepository]: Truncating " + (segment.size - end) + " bytes of a torn record in " + segment.path);
+                segment.channel.truncate(end);
+                segment.size = end;
+            }
+            this.indexDirty |= from < segment.size;
+        }
+        for (Location location : this.index.values()) {
+            Segment segment = this.segments.get(location.segment());
+            if (segment != null) {
+                segment.live += location.length();
+            }
+        }
+        this.active = this.segments.isEmpty() ? createSegment(1) : this.segments.lastEntry().getValue();
+    }
+
+    private @NotNull Segment createSegment(long id) throws IOException {
+        Segment segment = new Segment(id, this.dataFolder.toPath().resolve(id + SEGMENT_SUFFIX));
+        this.segments.put(id, segment);
+        return segment;
+    }
+
+    private @NotNull Path indexPath() {
+        return this.dataFolder.toPath().resolve(INDEX_FILE);
+    }
+
+    /**
+     * Saves the entity by appending it to the log.
+     *
+     * @param entity The entity to be saved.
+     * @return The saved entity, or null if an error occurred.
+     */
+    @Override
+    public CompletableFuture<V> save(@NotNull V entity) {
+        return this.saves.executeLatest(entity._id(), () -> CompletableFuture.supplyAsync(() -> {
+            entity.clearDirty();
+            String json = this.gson.toJson(entity);
+            return write(entity, json, Entity.contentHash(json));
+        }, this.executor));
+    }
+
+    private V write(@NotNull V entity, @NotNull String json, long contentHash) {
+        try {
+            append(PUT, entity._id(), json.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            entity.markDirty();
+            this.logger.log(Level.SEVERE, "[EntityRepository] Error appending entity " + entity._id() + " to " + this.dataFolder.getPath(), e);
+            return null;
+        }
+        entity.markPersisted(contentHash);
+        if (!this.cache.isEvicting(entity)) {
+            this.loadedEntities.append(entity._id(), entity);
+        }
+        return entity;
+    }
+
+    private void append(byte type, @NotNull String entityId, byte @NotNull [] payload) throws IOException {
+        byte[] id = entityId.getBytes(StandardCharsets.UTF_8);
+        int bodyLength = 1 + 4 + id.length + payload.length;
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + bodyLength);
+        record.putInt(bodyLength).putInt(0).put(type).putInt(id.length).put(id).put(payload);
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), RECORD_HEADER, bodyLength);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+
+        this.writeLock.lock();
+        try {
+            if (this.closed) {
+                throw new ClosedChannelException();
+            }
+            Segment segment = this.active;
+            if (segment.size > 0 && segment.size + record.remaining() > this.settings.segmentSize()) {
+                segment = this.active = createSegment(segment.id + 1);
+            }
+            Location location = new Location(segment.id, segment.size, record.remaining());
+            long position = segment.size;
+            while (record.hasRemaining()) {
+                position += segment.channel.write(record, position);
+            }
+            segment.size = position;
+            Location previous = type == PUT ? this.index.put(entityId, location) : this.index.remove(entityId);
+            if (previous != null) {
+                Segment previousSegment = this.segments.get(previous.segment());
+                if (previousSegment != null) {
+                    previousSegment.live -= previous.length();
+                }
+            }
+            if (type == PUT) {
+                segment.live += location.length();
+            }
+            this.indexDirty = true;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Reads the payload of the latest record of an entity, or returns null if the entity is not stored.
+     */
+    private @Nullable String read(@NotNull String entityId) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            Location location = this.index.get(entityId);
+            if (location == null) {
+                return null;
+            }
+            Segment segment = this.segments.get(location.segment());
+            try {
+                if (segment == null) {
+                    throw new ClosedChannelException();
+                }
+                ByteBuffer record = ByteBuffer.allocate(location.length());
+                long position = location.offset();
+                while (record.hasRemaining()) {
+                    if (segment.channel.read(record, position + record.position()) < 0) {
+                        throw new EOFException("Record of " + entityId + " ends past " + segment.path);
+                    }
+                }
+                Record decoded = Record.decode(record.array(), 0, record.capacity());
+                if (decoded == null || !decoded.id().equals(entityId)) {
+                    throw new IOException("Corrupt record of " + entityId + " in " + segment.path + " at " + location.offset());
+                }
+                return decoded.payload();
+            } catch (ClosedChannelException e) {
+                // the segment was compacted away, the index points to the moved record now
+                if (attempt >= 3 || this.closed) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the entity from its latest record in the log.
+     *
+     * @param entityId The ID of the entity to be loaded.
+     * @return The loaded entity, or null if the entity does not exist or an error occurred.
+     */
+    @Override
+    public CompletableFuture<V> load(@NotNull String entityId) {
+        V loaded = this.cache.get(entityId);
+        if (loaded != null) {
+            return CompletableFuture.completedFuture(loaded);
+        }
+        if (!this.index.containsKey(entityId)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return this.loads.execute(entityId, () -> CompletableFuture.supplyAsync(() -> {
+            try {
+                String json = read(entityId);
+                if (json == null) {
+                    return null;
+                }
+                V entity = this.gson.fromJson(json, this.entityClass);
+                entity.clearDirty();
+                entity.markPersisted(Entity.contentHash(json));
+                this.loadedEntities.put(entityId, entity);
+                return entity;
+            } catch (IOException | RuntimeException e) {
+                this.logger.log(Level.SEVERE, "[EntityRepository] Error reading entity " + entityId + " from " + this.dataFolder.getPath(), e);
+                return null;
+            }
+        }, this.executor));
+    }
+
+    /**
+     * Retrieves the loaded entity with the specified entity ID, loading it if it is not loaded or was evicted.
+     *
+     * @param entityId The ID of the entity to be retrieved.
+     * @return The loaded entity, or null if not found.
+     */
+    @Override
+    public CompletableFuture<V> getEntity(@NotNull String entityId) {
+        return this.load(entityId);
+    }
+
+    /**
+     * Checks if an entity with the specified ID is loaded or, if {@code checkDb} is set, stored in the log. The
+     * stored IDs are answered from the in-memory index.
+     *
+     * @param entityId  The ID of the entity to check for existence.
+     * @param checkDb   Check the index of the log for the entity.
+     * @param forceLoad Force load the entity
+     * @return True if the entity exists, false otherwise.
+     */
+    @Override
+    public CompletableFuture<Boolean> exists(@NotNull String entityId, boolean checkDb, boolean forceLoad) {
+        if (!checkDb || loadedEntities.containsKey(entityId)) {
+            return CompletableFuture.completedFuture(loadedEntities.containsKey(entityId));
+        }
+        if (!forceLoad) {
+            return CompletableFuture.completedFuture(this.index.containsKey(entityId));
+        }
+        return this.existsChecks.execute(Map.entry(entityId, true), () -> this.load(entityId).thenApply(Objects::nonNull));
+    }
+
+    /**
+     * Deletes the entity with the specified ID by appending a tombstone to the log.
+     *
+     * @param entityId The ID of the entity to be deleted.
+     */
+    @Override
+    public CompletableFuture<Void> delete(@NotNull String entityId) {
+        return CompletableFuture.runAsync(() -> {
+            if (this.index.containsKey(entityId)) {
+                try {
+                    append(DELETE, entityId, new byte[0]);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            V entity = this.loadedEntities.remove(entityId);
+            if (entity != null) {
+                entity.resetPersisted();
+            }
+        }, this.executor);
+    }
+
+    /**
+     * Loads all entities by reading the segments sequentially and decoding the live records in parallel with a
+     * {@link StreamingLoader}.
+     */
+    @Override
+    public CompletableFuture<BigInteger> loadAll() {
+        return CompletableFuture.supplyAsync(() -> {
+            StreamingLoader<Record> loader = new StreamingLoader<>(ForkJoinPool.commonPool(), record -> {
+                V entity = this.gson.fromJson(record.payload(), this.entityClass);
+                if (entity == null) {
+                    return false;
+                }
+                entity.clearDirty();
+                entity.markPersisted(Entity.contentHash(record.payload()));
+                this.loadedEntities.putIfAbsent(record.id(), entity);
+                return true;
+            });
+
+            long count = 0;
+            try {
+                for (Segment segment : this.segments.values()) {
+                    try {
+                        scan(segment, 0, (record, location) -> {
+                            if (record.type() == PUT && location.equals(this.index.get(record.id())) && !this.loadedEntities.containsKey(record.id())) {
+                                try {
+                                    loader.accept(record);
+                                } catch (InterruptedException e) {
+                                    throw new InterruptedIOException();
+                                }
+                            }
+                        });
+                    } catch (ClosedChannelException ignored) {
+                        // compacted while loading, its live records were appended to a later segment
+                    }
+                }
+                count = loader.finish();
+            } catch (InterruptedIOException | InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.logger.log(Level.SEVERE, "[EntityRepository]: Interrupted while loading entities", e);
+            } catch (IOException | RuntimeException e) {
+                this.logger.log(Level.SEVERE, "[EntityRepository]:", e);
+            }
+            if (loader.getFailure() != null) {
+                this.logger.log(Level.SEVERE, "[EntityRepository]: Failed to decode " + loader.failures() + " entities", loader.getFailure());
+            }
+            return BigInteger.valueOf(count);
+        }, this.executor);
+    }
+
+    /**
+     * Reads the records of a segment sequentially from the given offset until its end or the first torn or corrupt
+     * record.
+     *
+     * @return the offset after the last valid record
+     */
+    private long scan(@NotNull Segment segment, long from, @NotNull RecordVisitor visitor) throws IOException {
+        long position = from;
+        long end = segment.size;
+        try (FileChannel reader = FileChannel.open(segment.path, StandardOpenOption.READ);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(reader.position(from)), 1 << 16))) {
+            while (position + RECORD_HEADER <= end) {
+                int bodyLength = in.readInt();
+                int checksum = in.readInt();
+                if (bodyLength < 5 || position + RECORD_HEADER + bodyLength > end) {
+                    break;
+                }
+                byte[] record = new byte[RECORD_HEADER + bodyLength];
+                ByteBuffer.wrap(record).putInt(bodyLength).putInt(checksum);
+                in.readFully(record, RECORD_HEADER, bodyLength);
+                Record decoded = Record.decode(record, 0, record.length);
+                if (decoded == null) {
+                    break;
+                }
+                visitor.visit(decoded, new Location(segment.id, position, record.length));
+                position += record.length;
+            }
+        } catch (NoSuchFileException e) {
+            throw new ClosedChannelException();
+        }
+        return position;
+    }
+
+    /**
+     * Reclaims the space of superseded records: the live records of every sealed segment whose share of garbage is
+     * at least the {@link Settings#compactionThreshold() compaction threshold} are appended to the active segment,
+     * the index is written and the segment is deleted.
+     *
+     * @return the number of deleted segments
+     * @throws IOException if a segment cannot be read or the index cannot be written
+     */
+    public int compact() throws IOException {
+        List<Segment> candidates = new ArrayList<>();
+        this.writeLock.lock();
+        try {
+            for (Segment segment : this.segments.values()) {
+                if (segment != this.active && (segment.size == 0 || 1.0 - (double) segment.live / segment.size >= this.settings.compactionThreshold())) {
+                    candidates.add(segment);
+                }
+            }
+        } finally {
+            this.writeLock.unlock();
+        }
+        if (candidates.isEmpty()) {
+            return 0;
+        }
+
+        for (Segment segment : candidates) {
+            boolean oldest = segment.id == this.segments.firstKey();
+            scan(segment, 0, (record, location) -> {
+                this.writeLock.lock();
+                try {
+                    String id = record.id();
+                    if (record.type() == PUT ? location.equals(this.index.get(id)) : !oldest && !this.index.containsKey(id)) {
+                        // a tombstone is kept while an older segment may still hold a record of the entity
+                        append(record.type(), id, record.payload().getBytes(StandardCharsets.UTF_8));
+                    }
+                } finally {
+                    this.writeLock.unlock();
+                }
+            });
+        }
+        checkpoint();
+
+        for (Segment segment : candidates) {
+            this.writeLock.lock();
+            try {
+                this.segments.remove(segment.id);
+                segment.channel.close();
+            } finally {
+                this.writeLock.unlock();
+            }
+            Files.deleteIfExists(segment.path);
+        }
+        this.logger.log(Level.FINE, "[EntityRepository]: Compacted " + candidates.size() + " log segments in " + this.dataFolder.getPath());
+        return candidates.size();
+    }
+
+    /**
+     * Forces the log to the disk and writes the index, so reopening the repository does not scan any record.
+     *
+     * @throws IOException if the log cannot be forced or the index cannot be written
+     */
+    public void flush() throws IOException {
+        checkpoint();
+    }
+
+    private void checkpoint() throws IOException {
+        long segmentId;
+        long offset;
+        String[] ids;
+        Location[] locations;
+        this.writeLock.lock();
+        try {
+            if (this.closed) {
+                return;
+            }
+            for (Segment segment : this.segments.values()) {
+                segment.channel.force(false);
+            }
+            segmentId = this.active.id;
+            offset = this.active.size;
+            ids = new String[this.index.size()];
+            locations = new Location[ids.length];
+            int i = 0;
+            for (Map.Entry<String, Location> entry : this.index.entrySet()) {
+                ids[i] = entry.getKey();
+                locations[i++] = entry.getValue();
+            }
+            this.indexDirty = false;
+        } finally {
+            this.writeLock.unlock();
+        }
+
+        Path temporary = indexPath().resolveSibling(INDEX_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(segmentId);
+            out.writeLong(offset);
+            out.writeInt(ids.length);
+            for (int i = 0; i < ids.length; i++) {
+                out.writeUTF(ids[i]);
+                out.writeLong(locations[i].segment());
+                out.writeLong(locations[i].offset());
+                out.writeInt(locations[i].length());
+            }
+            out.flush();
+            channel.force(true);
+        } catch (IOException e) {
+            this.indexDirty = true;
+            throw e;
+        }
+        Files.move(temporary, indexPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void maintain() {
+        try {
+            if (compact() == 0 && this.indexDirty) {
+                checkpoint();
+            }
+        } catch (IOException e) {
+            if (!this.closed) {
+                this.logger.log(Level.SEVERE, "[EntityRepository]: Failed to compact " + this.dataFolder.getPath(), e);
+            }
+        }
+    }
+
+    /**
+     * Writes the index and closes the log. The repository cannot be used afterwards.
+     *
+     * @throws IOException if the index cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        this.maintenanceTask.cancel(false);
+        try {
+            checkpoint();
+        } finally {
+            this.writeLock.lock();
+            try {
+                this.closed = true;
+                for (Segment segment : this.segments.values()) {
+                    segment.channel.close();
+                }
+            } finally {
+                this.writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Saves all changed entities to the log.
+     */
+    @Override
+    public void saveAll() {
+        int skipped = 0;
+        for (V entity : this.loadedEntities.values()) {
+            if (entity.tracksChanges() && !entity.isDirty()) {
+                skipped++;
+                continue;
+            }
+            entity.clearDirty();
+            String json = this.gson.toJson(entity);
+            long contentHash = Entity.contentHash(json);
+            if (entity.isPersisted(contentHash)) {
+                skipped++;
+                continue;
+            }
+            this.saves.executeLatest(entity._id(), () -> CompletableFuture.supplyAsync(() -> write(entity, json, contentHash), this.executor));
+        }
+        this.skippedWrites.add(skipped);
+        this.logger.log(Level.FINE, "[EntityRepository]: saveAll skipped " + skipped + " unchanged entities.");
+    }
+
+    @Override
+    public long getSkippedWrites() {
+        return this.skippedWrites.sum();
+    }
+
+    /**
+     * Returns how many load, exists and save requests were answered by a request already in flight for the same ID.
+     *
+     * @return the number of coalesced requests
+     */
+    @Override
+    public long getCoalescedRequests() {
+        return this.loads.coalesced() + this.existsChecks.coalesced() + this.saves.coalesced();
+    }
+
+    /**
+     * Returns the executor that runs the I/O of this repository.
+     *
+     * @return the executor of this repository
+     */
+    @Override
+    public @NotNull RepositoryExecutor getExecutor() {
+        return this.executor;
+    }
+
+    /**
+     * Returns the cache of the loaded entities, which evicts them according to its policy.
+     *
+     * @return the entity cache of this repository
+     */
+    @Override
+    public @NotNull EntityCache<V> getCache() {
+        return this.cache;
+    }
+
+    /**
+     * Returns the IDs of all stored entities, read from the in-memory index.
+     *
+     * @return an unmodifiable view of the stored IDs
+     */
+    public @NotNull Set<String> getStoredIds() {
+        return Collections.unmodifiableSet(this.index.keySet());
+    }
+
+    /**
+     * Returns a snapshot of the size of the log.
+     *
+     * @return the current metrics
+     */
+    public @NotNull Metrics getMetrics() {
+        this.writeLock.lock();
+        try {
+            long size = 0;
+            long live = 0;
+            for (Segment segment : this.segments.values()) {
+                size += segment.size;
+                live += segment.live;
+            }
+            return new Metrics(this.index.size(), this.segments.size(), size, live);
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the data folder where the log is stored.
+     *
+     * @return The data folder.
+     */
+    public File getDataFolder() {
+        return dataFolder;
+    }
+
+    /**
+     * Gets the logger associated with this repository.
+     *
+     * @return The logger.
+     */
+    public Logger getLogger() {
+        return logger;
+    }
+
+    /**
+     * Returns an observable map of all loaded entities.
+     *
+     * @return an ObservableObjectMap containing all loaded entities
+     */
+    @Override
+    public ObservableObjectMap<String, V> getLoadedEntities() {
+        return this.loadedEntities;
+    }
+
+    private static @NotNull ScheduledExecutorService scheduler() {
+        ScheduledExecutorService executor = scheduler;
+        if (executor == null) {
+            synchronized (LogEntityRepository.class) {
+                executor = scheduler;
+                if (executor == null) {
+                    scheduler = executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, "LogEntityRepository-maintenance");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return executor;
+    }
+
+    @Override
+    public String toString() {
+        return "LogEntityRepository{" +
+                "dataFolder=" + dataFolder +
+                ", settings=" + settings +
+                ", metrics=" + getMetrics() +
+                '}';
+    }
+
+    /**
+     * The position of a record in the log.
+     *
+     * @param segment the number of the segment
+     * @param offset  the offset of the record in the segment
+     * @param length  the length of the record including its header
+     */
+    private record Location(long segment, long offset, int length) {
+    }
+
+    /**
+     * A decoded record: {@code [int body length][int CRC32C of the body][byte type][int id length][id][payload]}.
+     */
+    private record Record(byte type, @NotNull String id, @NotNull String payload) {
+
+        /**
+         * Decodes a record, or returns null if it is torn or its checksum does not match.
+         */
+        private static @Nullable Record decode(byte @NotNull [] bytes, int offset, int length) {
+            if (length < RECORD_HEADER + 5) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+            int bodyLength = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (bodyLength != length - RECORD_HEADER) {
+                return null;
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(bytes, offset + RECORD_HEADER, bodyLength);
+            if ((int) crc.getValue() != checksum) {
+                return null;
+            }
+            byte type = buffer.get();
+            int idLength = buffer.getInt();
+            if (idLength < 0 || idLength > bodyLength - 5) {
+                return null;
+            }
+            String id = new String(bytes, buffer.position(), idLength, StandardCharsets.UTF_8);
+            int payloadOffset = buffer.position() + idLength;
+            return new Record(type, id, new String(bytes, payloadOffset, offset + length - payloadOffset, StandardCharsets.UTF_8));
+        }
+    }
+
+    @FunctionalInterface
+    private interface RecordVisitor {
+        void visit(@NotNull Record record, @NotNull Location location) throws IOException;
+    }
+
+    /**
+     * A segment file of the log. Its size and live bytes are written under the write lock.
+     */
+    private static final class Segment {
+        private final long id;
+        private final Path path;
+        private final FileChannel channel;
+        private volatile long size;
+        private long live;
+
+        private Segment(long id, @NotNull Path path) throws IOException {
+            this.id = id;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.size = this.channel.size();
+        }
+    }
+
+    /**
+     * The segment size and compaction settings of a {@link LogEntityRepository}.
+     *
+     * @param segmentSize         the size in bytes above which a new segment is started
+     * @param compactionThreshold the share of superseded bytes, between 0 and 1, from which a segment is compacted
+     * @param maintenanceInterval how often segments are compacted and the index is written
+     */
+    public record Settings(long segmentSize, double compactionThreshold, @NotNull Duration maintenanceInterval) {
+
+        /**
+         * 64 MiB segments, compacted once half of their bytes are superseded, checked every minute.
+         */
+        public static final Settings DEFAULT = new Settings(64L << 20, 0.5, Duration.ofMinutes(1));
+
+        public Settings {
+            if (segmentSize < 1024) {
+                throw new IllegalArgumentException("segmentSize must be at least 1024");
+            }
+            if (compactionThreshold <= 0 || compactionThreshold > 1) {
+                throw new IllegalArgumentException("compactionThreshold must be in (0, 1]");
+            }
+            if (maintenanceInterval.isNegative() || maintenanceInterval.isZero()) {
+                throw new IllegalArgumentException("maintenanceInterval must be positive");
+            }
+        }
+
+        @Contract("_ -> new")
+        public @NotNull Settings segmentSize(long segmentSize) {
+            return new Settings(segmentSize, compactionThreshold, maintenanceInterval);
+        }
+
+        @Contract("_ -> new")
+        public @NotNull Settings compactionThreshold(double compactionThreshold) {
+            return new Settings(segmentSize, compactionThreshold, maintenanceInterval);
+        }
+
+        @Contract("_ -> new")
+        public @NotNull Settings maintenanceInterval(@NotNull Duration maintenanceInterval) {
+            return new Settings(segmentSize, compactionThreshold, maintenanceInterval);
+        }
+    }
+
+    /**
+     * A snapshot of the size of a {@link LogEntityRepository}.
+     *
+     * @param entities  the number of stored entities
+     * @param segments  the number of segment files
+     * @param size      the total size of the segments in bytes
+     * @param liveBytes the bytes of the latest records of the stored entities
+     */
+    public record Metrics(int entities, int segments, long size, long liveBytes) {
+
+        /**
+         * Returns the share of the log taken by superseded records and tombstones.
+         *
+         * @return the garbage ratio between 0 and 1
+         */
+        public double garbageRatio() {
+            return size == 0 ? 0.0 : 1.0 - (double) liveBytes / size;
+        }
+    }
+}
@@ -1,36 +1,53 @@
 package com.georgev22.library.utilities;
 
+import com.georgev22.library.database.mongo.EntityCodec;
+import com.georgev22.library.maps.ObjectMap;
 import com.georgev22.library.maps.ObservableObjectMap;
 import com.google.gson.Gson;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
 import org.jetbrains.annotations.NotNull;
 
 import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Simple repository manager for MongoDB entities requiring setters for each field and a constructor without varargs.
+ * <p>
+ * Entities are encoded to and decoded from BSON by an {@link EntityCodec} derived from the entity class and the
+ * Gson instance of the repository, without converting them to JSON text.
  *
  * @param <V> The type of the entity.
  */
 public class MongoDBEntityRepository<V extends Entity> implements EntityRepository<V> {
 
+    /**
+     * The maximum number of IDs in a single {@code $in} query issued by {@link #loadMany(Collection)}.
+     */
+    private static final int MAX_IN_IDS = 1000;
+
     private final ObservableObjectMap<String, V> loadedEntities = new ObservableObjectMap<>();
+    private final EntityCache<V> cache = new EntityCache<>(this, this.loadedEntities);
     private final MongoDatabase mongoDatabase;
     private final Logger logger;
     private final Class<V> entityClass;
     private final String collectionName;
-    private final Gson gson;
+    private final EntityCodec<V> codec;
+    private final RepositoryExecutor executor;
+    private final LongAdder skippedWrites = new LongAdder();
+    private final SingleFlight<String, V> loads = new SingleFlight<>();
+    private final SingleFlight<Map.Entry<String, Boolean>, Boolean> existsChecks = new SingleFlight<>();
+    private final SingleFlight<String, V> saves = new SingleFlight<>();
+    private volatile int batchSize = 1000;
 
     /**
      * Constructs a MongoDBEntityRepository with the specified MongoDB database, logger, and entity class.
@@ -57,11 +74,67 @@ public class MongoDBEntityRepository<V extends Entity> implements EntityReposito
             Class<V> entityClass, String collectionName,
             Gson gson
     ) {
+        this(mongoDatabase, logger, entityClass, collectionName, gson, RepositoryExecutor.shared("MongoDBEntityRepository-" + collectionName));
+    }
+
+    /**
+     * Constructs a MongoDBEntityRepository that runs its queries on the given executor.
+     *
+     * @param mongoDatabase  The MongoDB database to be used.
+     * @param logger         The logger for handling log messages.
+     * @param entityClass    The class type of the entity managed by this repository.
+     * @param collectionName The name of the collection in the database.
+     * @param gson           The Gson instance to use.
+     * @param executor       The executor that runs the queries.
+     */
+    public MongoDBEntityRepository(
+            MongoDatabase mongoDatabase,
+            Logger logger,
+            Class<V> entityClass, String collectionName,
+            Gson gson,
+            @NotNull Executor executor
+    ) {
+        this(mongoDatabase, logger, entityClass, collectionName, EntityCodec.of(entityClass, gson), executor);
+    }
+
+    /**
+     * Constructs a MongoDBEntityRepository that stores the entities in the format of the given serializer, in the
+     * {@code data} field of the documents, and runs its queries on the given executor.
+     *
+     * @param mongoDatabase  The MongoDB database to be used.
+     * @param logger         The logger for handling log messages.
+     * @param entityClass    The class type of the entity managed by this repository.
+     * @param collectionName The name of the collection in the database.
+     * @param serializer     The serializer of the entities.
+     * @param executor       The executor that runs the queries.
+     */
+    public MongoDBEntityRepository(
+            MongoDatabase mongoDatabase,
+            Logger logger,
+            Class<V> entityClass, String collectionName,
+            @NotNull EntitySerializer<V> serializer,
+            @NotNull Executor executor
+    ) {
+        this(mongoDatabase, logger, entityClass, collectionName, EntityCodec.of(entityClass, serializer), executor);
+    }
+
+    private MongoDBEntityRepository(
+            MongoDatabase mongoDatabase,
+            Logger logger,
+            Class<V> entityClass, String collectionName,
+            @NotNull EntityCodec<V> codec,
+            @NotNull Executor executor
+    ) {
+        this.executor = RepositoryExecutor.of("MongoDBEntityRepository-" + collectionName, executor);
         this.mongoDatabase = mongoDatabase;
         this.logger = logger;
         this.entityClass = entityClass;
         this.collectionName = collectionName;
-        this.gson = gson;
+        this.codec = codec;
+    }
+
+    private MongoCollection<RawBsonDocument> collection() {
+        return mongoDatabase.getCollection(this.collectionName, RawBsonDocument.class);
     }
 
     /**
@@ -71,18 +144,30 @@ public class MongoDBEntityRepository<V extends Entity> implements EntityReposito
      */
     @Override
     public CompletableFuture<V> save(V entity) {
-        return exists(entity._id(), true, false).thenApplyAsync(exists -> {
-            JsonObject jsonObject = JsonParser.parseString(gson.toJson(entity)).getAsJsonObject();
-            Document document = Document.parse(jsonObject.toString());
-            MongoCollection<Document> collection = mongoDatabase.getCollection(this.collectionName);
+        return this.saves.executeLatest(entity._id(), () -> exists(entity._id(), true, false).thenApplyAsync(exists -> {
+            entity.clearDirty();
+            byte[] bson = codec.toBson(entity);
+            return write(entity, new RawBsonDocument(bson), Entity.contentHash(bson), exists);
+        }, this.executor));
+    }
+
+    private V write(V entity, RawBsonDocument document, long contentHash, boolean exists) {
+        try {
+            MongoCollection<RawBsonDocument> collection = collection();
             if (exists) {
                 collection.replaceOne(new Document("_id", entity._id()), document);
             } else {
                 collection.insertOne(document);
             }
+        } catch (RuntimeException e) {
+            entity.markDirty();
+            throw e;
+        }
+        entity.markPersisted(contentHash);
+        if (!this.cache.isEvicting(entity)) {
             this.loadedEntities.append(entity._id(), entity);
-            return entity;
-        });
+        }
+        return entity;
     }
 
     /**
@@ -92,17 +177,19 @@ public class MongoDBEntityRepository<V extends Entity> implements EntityReposito
      */
     @Override
     public CompletableFuture<V> load(@NotNull String entityId) {
-        if (this.loadedEntities.containsKey(entityId)) {
+        V loaded = this.cache.get(entityId);
+        if (loaded != null) {
             this.logger.log(Level.FINE, "Entity with ID " + entityId + " already loaded.");
-            return CompletableFuture.completedFuture(this.loadedEntities.get(entityId));
+            return CompletableFuture.completedFuture(loaded);
         }
-        return CompletableFuture.supplyAsync(() -> {
-            MongoCollection<Document> collection = mongoDatabase.getCollection(this.collectionName);
-            Document document = collection.find(new Document("_id", entityId)).first();
+        return this.loads.execute(entityId, () -> CompletableFuture.supplyAsync(() -> {
+            RawBsonDocument document = collection().find(new Document("_id", entityId)).first();
 
             if (document != null) {
                 try {
-                    V entity = gson.fromJson(document.toJson(), entityClass);
+                    V entity = codec.fromDocument(document);
+                    entity.clearDirty();
+                    entity.markPersisted(EntityCodec.contentHash(document));
                     this.loadedEntities.append(entityId, entity);
                     return entity;
                 } catch (Exception e) {
@@ -110,7 +197,52 @@ public class MongoDBEntityRepository<V extends Entity> implements EntityReposito
                 }
             }
             return null;
-        });
+        }, this.executor));
+    }
+
+    /**
+     * Loads the entities with the specified IDs with one {@code $in} query per {@value #MAX_IN_IDS} IDs that are not
+     * loaded yet.
+     *
+     * @param entityIds The IDs of the entities to be loaded.
+     * @return a CompletableFuture containing the found entities by ID
+     */
+    @Override
+    public CompletableFuture<ObjectMap<String, V>> loadMany(@NotNull Collection<String> entityIds) {
+        return CompletableFuture.supplyAsync(() -> {
+            Set<String> ids = new LinkedHashSet<>(entityIds);
+            List<String> missing = new ArrayList<>();
+            for (String entityId : ids) {
+                if (this.cache.get(entityId) == null) {
+                    missing.add(entityId);
+                }
+            }
+
+            MongoCollection<RawBsonDocument> collection = collection();
+            for (int from = 0; from < missing.size(); from += MAX_IN_IDS) {
+                List<String> batch = missing.subList(from, Math.min(from + MAX_IN_IDS, missing.size()));
+                try (MongoCursor<RawBsonDocument> cursor = collection.find(new Document("_id", new Document("$in", batch))).iterator()) {
+                    while (cursor.hasNext()) {
+                        RawBsonDocument document = cursor.next();
+                        V entity = codec.fromDocument(document);
+                        entity.clearDirty();
+                        entity.markPersisted(EntityCodec.contentHash(document));
+                        this.loadedEntities.putIfAbsent(entity._id(), entity);
+                    }
+                } catch (RuntimeException e) {
+                    this.logger.log(Level.SEVERE, "[EntityRepository]:", e);
+                }
+            }
+
+            ObjectMap<String, V> entities = ObjectMap.newLinkedObjectMap();
+            for (String entityId : ids) {
+                V entity = this.loadedEntities.get(entityId);
+                if (entity != null) {
+                    entities.put(entityId, entity);
+                }
+            }
+            return entities;
+        }, this.executor);
     }
 
     /**
@@ -121,9 +253,6 @@ public class MongoDBEntityRepository<V extends Entity> implements EntityReposito
      */
     @Override
     public CompletableFuture<V> getEntity(@NotNull String entityId) {
-        if (loadedEntities.containsKey(entityId)) {
-            return CompletableFuture.completedFuture(loadedEntities.get(entityId));
-        }
         return this.load(entityId);
     }
 
@@ -138,20 +267,18 @@ public class MongoDBEntityRepository<V extends Entity> implements EntityReposito
      */
     @Override
     public CompletableFuture<Boolean> exists(@NotNull String entityId, boolean checkDb, boolean forceLoad) {
-        return CompletableFuture.supplyAsync(() -> {
+        if (!checkDb) {
+            return CompletableFuture.completedFuture(loadedEntities.containsKey(entityId));
+        }
+        return this.existsChecks.execute(Map.entry(entityId, forceLoad), () -> CompletableFuture.supplyAsync(() -> {
             if (loadedEntities.containsKey(entityId)) {
                 return true;
             }
 
-            if (checkDb) {
-                MongoCollection<Document> collection = mongoDatabase.getCollection(this.collectionName);
-                Document document = collection.find(new Document("_id", entityId)).first();
-
-                return forceLoad ? this.load(entityId) != null : document != null;
-            }
-
-            return false;
-        });
+            return collection().find(new Document("_id", entityId)).first() != null;
+        }, this.executor).thenCompose(found -> found && forceLoad
+                ? this.load(entityId).thenApply(Objects::nonNull)
+                : CompletableFuture.completedFuture(found)));
     }
 
 
@@ -167,47 +294,122 @@ public class MongoDBEntityRepository<V extends Entity> implements EntityReposito
                 this.logger.log(Level.WARNING, "[EntityRepository]: Entity with ID " + entityId + " does not exist.");
                 return;
             }
-            MongoCollection<Document> collection = mongoDatabase.getCollection(this.collectionName);
-            collection.deleteOne(new Document("_id", entityId));
-            this.loadedEntities.remove(entityId);
-        }));
+            collection().deleteOne(new Document("_id", entityId));
+            V entity = this.loadedEntities.remove(entityId);
+            if (entity != null) {
+                entity.resetPersisted();
+            }
+        }, this.executor), this.executor);
     }
 
     /**
      * Loads all entities from the database.
+     * <p>
+     * The documents are streamed with a cursor that fetches {@link #setBatchSize(int) batch size} documents per
+     * round trip and are decoded in parallel by a {@link StreamingLoader}, without querying each document again.
      */
     @Override
     public CompletableFuture<BigInteger> loadAll() {
         return CompletableFuture.supplyAsync(() -> {
-            FindIterable<Document> documents = mongoDatabase.getCollection(this.collectionName).find();
-            List<CompletableFuture<Void>> futures = new ArrayList<>();
-            AtomicReference<BigInteger> count = new AtomicReference<>(BigInteger.ZERO);
-
-            for (Document document : documents) {
-                Object idValue = document.get("_id");
-                if (idValue != null) {
-                    CompletableFuture<Void> future = load(idValue.toString()).thenAccept(v -> {
-                        if (v != null) {
-                            count.updateAndGet(current -> current.add(BigInteger.ONE));
-                        }
-                    });
-                    futures.add(future);
+            StreamingLoader<RawBsonDocument> loader = new StreamingLoader<>(ForkJoinPool.commonPool(), document -> {
+                V entity = codec.fromDocument(document);
+                if (entity._id() == null) {
+                    return false;
+                }
+                entity.clearDirty();
+                entity.markPersisted(EntityCodec.contentHash(document));
+                this.loadedEntities.append(entity._id(), entity);
+                return true;
+            });
+
+            long count = 0;
+            try (MongoCursor<RawBsonDocument> cursor = collection().find().batchSize(this.batchSize).iterator()) {
+                while (cursor.hasNext()) {
+                    loader.accept(cursor.next());
                 }
+                count = loader.finish();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.logger.log(Level.SEVERE, "[EntityRepository]: Interrupted while loading entities", e);
+            } catch (RuntimeException e) {
+                this.logger.log(Level.SEVERE, "[EntityRepository]:", e);
+            }
+            if (loader.getFailure() != null) {
+                this.logger.log(Level.SEVERE, "[EntityRepository]: Failed to decode " + loader.failures() + " entities", loader.getFailure());
             }
+            return BigInteger.valueOf(count);
+        }, this.executor);
+    }
 
-            CompletableFuture<Void> allOf = CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
-            return allOf.thenApply(v -> count.get());
-        }).thenCompose(countFuture -> countFuture);
+    /**
+     * Sets the number of documents fetched per round trip by {@link #loadAll()}.
+     *
+     * @param batchSize the batch size
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        this.batchSize = batchSize;
     }
 
     /**
-     * Saves all loaded entities to the database.
+     * Saves all changed loaded entities to the database.
      */
     @Override
     public void saveAll() {
+        int skipped = 0;
         for (V entity : this.loadedEntities.values()) {
-            this.save(entity);
+            if (entity.tracksChanges() && !entity.isDirty()) {
+                skipped++;
+                continue;
+            }
+            entity.clearDirty();
+            byte[] bson = codec.toBson(entity);
+            long contentHash = Entity.contentHash(bson);
+            if (entity.isPersisted(contentHash)) {
+                skipped++;
+                continue;
+            }
+            this.saves.executeLatest(entity._id(), () -> exists(entity._id(), true, false).thenApplyAsync(exists -> write(entity, new RawBsonDocument(bson), contentHash, exists), this.executor));
         }
+        this.skippedWrites.add(skipped);
+        this.logger.log(Level.FINE, "[EntityRepository]: saveAll skipped " + skipped + " unchanged entities.");
+    }
+
+    @Override
+    public long getSkippedWrites() {
+        return this.skippedWrites.sum();
+    }
+
+    /**
+     * Returns how many load, exists and save requests were answered by a request already in flight for the same ID.
+     *
+     * @return the number of coalesced requests
+     */
+    @Override
+    public long getCoalescedRequests() {
+        return this.loads.coalesced() + this.existsChecks.coalesced() + this.saves.coalesced();
+    }
+
+    /**
+     * Returns the executor that runs the I/O of this repository.
+     *
+     * @return the executor of this repository
+     */
+    @Override
+    public @NotNull RepositoryExecutor getExecutor() {
+        return this.executor;
+    }
+
+    /**
+     * Returns the cache of the loaded entities, which evicts them according to its policy.
+     *
+     * @return the entity cache of this repository
+     */
+    @Override
+    public @NotNull EntityCache<V> getCache() {
+        return this.cache;
     }
 
     /**
@@ -0,0 +1,585 @@
+package com.georgev22.library.utilities;
+
+import com.georgev22.library.database.mongo.EntityCodec;
+import com.georgev22.library.maps.ObjectMap;
+import com.georgev22.library.maps.ObservableObjectMap;
+import com.google.gson.Gson;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import org.bson.RawBsonDocument;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Repository manager for MongoDB entities built on the reactive streams driver.
+ * <p>
+ * Unlike {@link MongoDBEntityRepository}, no thread waits for the database: every query is a {@link Publisher}
+ * whose result completes the returned {@link CompletableFuture}, and the {@link #getExecutor() executor} is only
+ * used to encode and decode entities with an {@link EntityCodec}. {@link #save(Entity)} is a single
+ * {@code replaceOne} with upsert, {@link #saveAll()} writes the changed entities with unordered {@code bulkWrite}
+ * batches, and {@link #exists(String, boolean, boolean)} only fetches the {@code _id} of the document.
+ *
+ * @param <V> The type of the entity.
+ */
+public class MongoDBReactiveEntityRepository<V extends Entity> implements EntityRepository<V> {
+
+    /**
+     * The maximum number of IDs in a single {@code $in} query issued by {@link #loadMany(Collection)}, and the
+     * maximum number of writes in a single {@code bulkWrite} issued by {@link #saveAll()}.
+     */
+    private static final int MAX_BATCH = 1000;
+
+    private static final ReplaceOptions UPSERT = new ReplaceOptions().upsert(true);
+
+    private final ObservableObjectMap<String, V> loadedEntities = new ObservableObjectMap<>();
+    private final EntityCache<V> cache = new EntityCache<>(this, this.loadedEntities);
+    private final MongoDatabase mongoDatabase;
+    private final Logger logger;
+    private final Class<V> entityClass;
+    private final String collectionName;
+    private final EntityCodec<V> codec;
+    private final RepositoryExecutor executor;
+    private final LongAdder skippedWrites = new LongAdder();
+    private final SingleFlight<String, V> loads = new SingleFlight<>();
+    private final SingleFlight<Map.Entry<String, Boolean>, Boolean> existsChecks = new SingleFlight<>();
+    private final SingleFlight<String, V> saves = new SingleFlight<>();
+    private volatile int batchSize = 1000;
+
+    /**
+     * Constructs a MongoDBReactiveEntityRepository with the specified MongoDB database, logger, and entity class.
+     *
+     * @param mongoDatabase The reactive MongoDB database to be used.
+     * @param logger        The logger for handling log messages.
+     * @param entityClass   The class type of the entity managed by this repository.
+     */
+    public MongoDBReactiveEntityRepository(MongoDatabase mongoDatabase, Logger logger, Class<V> entityClass) {
+        this(mongoDatabase, logger, entityClass, entityClass.getSimpleName(), new Gson());
+    }
+
+    /**
+     * Constructs a MongoDBReactiveEntityRepository with the specified MongoDB database, logger, and entity class.
+     *
+     * @param mongoDatabase  The reactive MongoDB database to be used.
+     * @param logger         The logger for handling log messages.
+     * @param entityClass    The class type of the entity managed by this repository.
+     * @param collectionName The name of the collection in the database.
+     * @param gson           The Gson instance to use.
+     */
+    public MongoDBReactiveEntityRepository(
+            MongoDatabase mongoDatabase,
+            Logger logger,
+            Class<V> entityClass, String collectionName,
+            Gson gson
+    ) {
+        this(mongoDatabase, logger, entityClass, collectionName, gson, RepositoryExecutor.shared("MongoDBReactiveEntityRepository-" + collectionName));
+    }
+
+    /**
+     * Constructs a MongoDBReactiveEntityRepository that serializes and decodes entities on the given executor.
+     *
+     * @param mongoDatabase  The reactive MongoDB database to be used.
+     * @param logger         The logger for handling log messages.
+     * @param entityClass    The class type of the entity managed by this repository.
+     * @param collectionName The name of the collection in the database.
+     * @param gson           The Gson instance to use.
+     * @param executor       The executor that serializes and decodes the entities.
+     */
+    public MongoDBReactiveEntityRepository(
+            MongoDatabase mongoDatabase,
+            Logger logger,
+            Class<V> entityClass, String collectionName,
+            Gson gson,
+            @NotNull Executor executor
+    ) {
+        this(mongoDatabase, logger, entityClass, collectionName, EntityCodec.of(entityClass, gson), executor);
+    }
+
+    /**
+     * Constructs a MongoDBReactiveEntityRepository that stores the entities in the format of the given serializer, in the
+     * {@code data} field of the documents, and serializes and decodes entities on the given executor.
+     *
+     * @param mongoDatabase  The reactive MongoDB database to be used.
+     * @param logger         The logger for handling log messages.
+     * @param entityClass    The class type of the entity managed by this repository.
+     * @param collectionName The name of the collection in the database.
+     * @param serializer     The serializer of the entities.
+     * @param executor       The executor that serializes and decodes the entities.
+     */
+    public MongoDBReactiveEntityRepository(
+            MongoDatabase mongoDatabase,
+            Logger logger,
+            Class<V> entityClass, String collectionName,
+            @NotNull EntitySerializer<V> serializer,
+            @NotNull Executor executor
+    ) {
+        this(mongoDatabase, logger, entityClass, collectionName, EntityCodec.of(entityClass, serializer), executor);
+    }
+
+    private MongoDBReactiveEntityRepository(
+            MongoDatabase mongoDatabase,
+            Logger logger,
+            Class<V> entityClass, String collectionName,
+            @NotNull EntityCodec<V> codec,
+            @NotNull Executor executor
+    ) {
+        this.executor = RepositoryExecutor.of("MongoDBReactiveEntityRepository-" + collectionName, executor);
+        this.mongoDatabase = mongoDatabase;
+        this.logger = logger;
+        this.entityClass = entityClass;
+        this.collectionName = collectionName;
+        this.codec = codec;
+    }
+
+    private MongoCollection<RawBsonDocument> collection() {
+        return this.mongoDatabase.getCollection(this.collectionName, RawBsonDocument.class);
+    }
+
+    /**
+     * Saves the given entity with a single {@code replaceOne} with upsert, whether the document exists or not.
+     *
+     * @param entity The entity to be saved.
+     */
+    @Override
+    public CompletableFuture<V> save(V entity) {
+        return this.saves.executeLatest(entity._id(), () -> CompletableFuture.supplyAsync(() -> {
+            entity.clearDirty();
+            return serialize(entity);
+        }, this.executor).thenCompose(write -> first(collection().replaceOne(Filters.eq("_id", entity._id()), write.document(), UPSERT))
+                .handleAsync((result, throwable) -> {
+                    if (throwable != null) {
+                        entity.markDirty();
+                        throw throwable instanceof CompletionException completionException ? completionException : new CompletionException(throwable);
+                    }
+                    entity.markPersisted(write.contentHash());
+                    if (!this.cache.isEvicting(entity)) {
+                        this.loadedEntities.append(entity._id(), entity);
+                    }
+                    return entity;
+                }, this.executor)));
+    }
+
+    private @NotNull Write<V> serialize(@NotNull V entity) {
+        byte[] bson = codec.toBson(entity);
+        return new Write<>(entity, new RawBsonDocument(bson), Entity.contentHash(bson));
+    }
+
+    private @NotNull V decode(@NotNull RawBsonDocument document) {
+        V entity = codec.fromDocument(document);
+        entity.clearDirty();
+        entity.markPersisted(EntityCodec.contentHash(document));
+        return entity;
+    }
+
+    /**
+     * Loads an entity from the MongoDB database based on the specified entity ID.
+     *
+     * @param entityId The ID of the entity to be loaded.
+     */
+    @Override
+    public CompletableFuture<V> load(@NotNull String entityId) {
+        V loaded = this.cache.get(entityId);
+        if (loaded != null) {
+            this.logger.log(Level.FINE, "Entity with ID " + entityId + " already loaded.");
+            return CompletableFuture.completedFuture(loaded);
+        }
+        return this.loads.execute(entityId, () -> first(collection().find(Filters.eq("_id", entityId)).first()).thenApplyAsync(document -> {
+            if (document != null) {
+                try {
+                    V entity = decode(document);
+                    this.loadedEntities.append(entityId, entity);
+                    return entity;
+                } catch (Exception e) {
+                    this.logger.log(Level.SEVERE, "[EntityRepository]:", e);
+                }
+            }
+            return null;
+        }, this.executor));
+    }
+
+    /**
+     * Loads the entities with the specified IDs with one {@code $in} query per {@value #MAX_BATCH} IDs that are not
+     * loaded yet. The queries run concurrently.
+     *
+     * @param entityIds The IDs of the entities to be loaded.
+     * @return a CompletableFuture containing the found entities by ID
+     */
+    @Override
+    public CompletableFuture<ObjectMap<String, V>> loadMany(@NotNull Collection<String> entityIds) {
+        Set<String> ids = new LinkedHashSet<>(entityIds);
+        List<String> missing = new ArrayList<>();
+        for (String entityId : ids) {
+            if (this.cache.get(entityId) == null) {
+                missing.add(entityId);
+            }
+        }
+
+        List<CompletableFuture<Long>> queries = new ArrayList<>();
+        for (int from = 0; from < missing.size(); from += MAX_BATCH) {
+            List<String> batch = List.copyOf(missing.subList(from, Math.min(from + MAX_BATCH, missing.size())));
+            queries.add(stream(collection().find(Filters.in("_id", batch)).batchSize(this.batchSize), this::putAll)
+                    .exceptionally(throwable -> {
+                        this.logger.log(Level.SEVERE, "[EntityRepository]:", throwable);
+                        return 0L;
+                    }));
+        }
+
+        return CompletableFuture.allOf(queries.toArray(new CompletableFuture[0])).thenApplyAsync(ignored -> {
+            ObjectMap<String, V> entities = ObjectMap.newLinkedObjectMap();
+            for (String entityId : ids) {
+                V entity = this.loadedEntities.get(entityId);
+                if (entity != null) {
+                    entities.put(entityId, entity);
+                }
+            }
+            return entities;
+        }, this.executor);
+    }
+
+    private int putAll(@NotNull List<RawBsonDocument> documents) {
+        int loaded = 0;
+        for (RawBsonDocument document : documents) {
+            try {
+                V entity = decode(document);
+                if (entity._id() != null) {
+                    this.loadedEntities.putIfAbsent(entity._id(), entity);
+                    loaded++;
+                }
+            } catch (RuntimeException e) {
+                this.logger.log(Level.SEVERE, "[EntityRepository]: Failed to decode entity", e);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Retrieves the loaded entity with the specified entity ID if cached or loads it from the database.
+     *
+     * @param entityId The ID of the entity to be retrieved.
+     * @return The loaded entity, or null if not found.
+     */
+    @Override
+    public CompletableFuture<V> getEntity(@NotNull String entityId) {
+        return this.load(entityId);
+    }
+
+    /**
+     * Checks if an entity with the specified ID is loaded or, if {@code checkDb} is set, stored in the database.
+     * Without {@code forceLoad} only the {@code _id} of the document is fetched.
+     *
+     * @param entityId  The ID of the entity to check for existence
+     * @param checkDb   Check if the entity exists in the database
+     * @param forceLoad Force load the entity
+     * @return True if the entity exists, false otherwise.
+     */
+    @Override
+    public CompletableFuture<Boolean> exists(@NotNull String entityId, boolean checkDb, boolean forceLoad) {
+        if (!checkDb || loadedEntities.containsKey(entityId)) {
+            return CompletableFuture.completedFuture(loadedEntities.containsKey(entityId));
+        }
+        return this.existsChecks.execute(Map.entry(entityId, forceLoad), () -> {
+            if (forceLoad) {
+                return this.load(entityId).thenApply(Objects::nonNull);
+            }
+            return first(collection().find(Filters.eq("_id", entityId)).projection(Projections.include("_id")).first())
+                    .thenApplyAsync(Objects::nonNull, this.executor);
+        });
+    }
+
+    /**
+     * Deletes the entity with the specified ID from the MongoDB database and removes it from the loaded entities.
+     *
+     * @param entityId The ID of the entity to be deleted.
+     */
+    @Override
+    public CompletableFuture<Void> delete(@NotNull String entityId) {
+        return first(collection().deleteOne(Filters.eq("_id", entityId))).thenAcceptAsync(result -> {
+            V entity = this.loadedEntities.remove(entityId);
+            if (entity != null) {
+                entity.resetPersisted();
+            } else if (result == null || result.getDeletedCount() == 0) {
+                this.logger.log(Level.WARNING, "[EntityRepository]: Entity with ID " + entityId + " does not exist.");
+            }
+        }, this.executor);
+    }
+
+    /**
+     * Loads all entities from the database.
+     * <p>
+     * The documents are requested {@link #setBatchSize(int) batch size} at a time, and each batch is decoded on the
+     * executor while the next one is fetched.
+     */
+    @Override
+    public CompletableFuture<BigInteger> loadAll() {
+        return stream(collection().find().batchSize(this.batchSize), this::putAll)
+                .handle((count, throwable) -> {
+                    if (throwable != null) {
+                        this.logger.log(Level.SEVERE, "[EntityRepository]:", throwable);
+                        return BigInteger.ZERO;
+                    }
+                    return BigInteger.valueOf(count);
+                });
+    }
+
+    /**
+     * Sets the number of documents fetched per round trip by {@link #loadAll()} and {@link #loadMany(Collection)}.
+     *
+     * @param batchSize the batch size
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Saves all changed loaded entities to the database without waiting for the writes.
+     *
+     * @see #saveAllAsync()
+     */
+    @Override
+    public void saveAll() {
+        saveAllAsync();
+    }
+
+    /**
+     * Saves all changed loaded entities with unordered {@code bulkWrite} batches of {@value #MAX_BATCH} upserts.
+     * Entities of a failed batch are marked dirty, so the next save writes them again.
+     *
+     * @return a CompletableFuture containing the number of written entities
+     */
+    public CompletableFuture<Integer> saveAllAsync() {
+        List<V> entities = new ArrayList<>(this.loadedEntities.values());
+        return CompletableFuture.supplyAsync(() -> {
+            List<Write<V>> writes = new ArrayList<>();
+            int skipped = 0;
+            for (V entity : entities) {
+                if (entity.tracksChanges() && !entity.isDirty()) {
+                    skipped++;
+                    continue;
+                }
+                entity.clearDirty();
+                Write<V> write = serialize(entity);
+                if (entity.isPersisted(write.contentHash())) {
+                    skipped++;
+                    continue;
+                }
+                writes.add(write);
+            }
+            this.skippedWrites.add(skipped);
+            this.logger.log(Level.FINE, "[EntityRepository]: saveAll skipped " + skipped + " unchanged entities.");
+            return writes;
+        }, this.executor).thenCompose(writes -> {
+            List<CompletableFuture<Integer>> batches = new ArrayList<>();
+            for (int from = 0; from < writes.size(); from += MAX_BATCH) {
+                batches.add(bulkWrite(writes.subList(from, Math.min(from + MAX_BATCH, writes.size()))));
+            }
+            return CompletableFuture.allOf(batches.toArray(new CompletableFuture[0]))
+                    .thenApply(ignored -> batches.stream().mapToInt(CompletableFuture::join).sum());
+        });
+    }
+
+    private CompletableFuture<Integer> bulkWrite(@NotNull List<Write<V>> batch) {
+        List<WriteModel<RawBsonDocument>> models = new ArrayList<>(batch.size());
+        for (Write<V> write : batch) {
+            models.add(new ReplaceOneModel<>(Filters.eq("_id", write.entity()._id()), write.document(), UPSERT));
+        }
+        return first(collection().bulkWrite(models, new BulkWriteOptions().ordered(false))).handleAsync((result, throwable) -> {
+            if (throwable != null) {
+                for (Write<V> write : batch) {
+                    write.entity().markDirty();
+                }
+                this.logger.log(Level.SEVERE, "[EntityRepository]: Failed to save " + batch.size() + " entities", throwable);
+                return 0;
+            }
+            for (Write<V> write : batch) {
+                write.entity().markPersisted(write.contentHash());
+            }
+            return batch.size();
+        }, this.executor);
+    }
+
+    @Override
+    public long getSkippedWrites() {
+        return this.skippedWrites.sum();
+    }
+
+    /**
+     * Returns how many load, exists and save requests were answered by a request already in flight for the same ID.
+     *
+     * @return the number of coalesced requests
+     */
+    @Override
+    public long getCoalescedRequests() {
+        return this.loads.coalesced() + this.existsChecks.coalesced() + this.saves.coalesced();
+    }
+
+    /**
+     * Returns the executor that serializes and decodes the entities of this repository.
+     *
+     * @return the executor of this repository
+     */
+    @Override
+    public @NotNull RepositoryExecutor getExecutor() {
+        return this.executor;
+    }
+
+    /**
+     * Returns the cache of the loaded entities, which evicts them according to its policy.
+     *
+     * @return the entity cache of this repository
+     */
+    @Override
+    public @NotNull EntityCache<V> getCache() {
+        return this.cache;
+    }
+
+    /**
+     * Gets the reactive MongoDB database associated with this repository.
+     *
+     * @return The MongoDB database.
+     */
+    public MongoDatabase getMongoDatabase() {
+        return mongoDatabase;
+    }
+
+    /**
+     * Gets the logger associated with this repository.
+     *
+     * @return The logger.
+     */
+    public Logger getLogger() {
+        return logger;
+    }
+
+    /**
+     * Returns an observable map of all loaded entities.
+     *
+     * @return an ObservableObjectMap containing all loaded entities
+     */
+    @Override
+    public ObservableObjectMap<String, V> getLoadedEntities() {
+        return this.loadedEntities;
+    }
+
+    /**
+     * Subscribes to a publisher of at most one element.
+     *
+     * @param publisher the publisher
+     * @param <T>       the type of the element
+     * @return a CompletableFuture containing the element, or null if the publisher completed without one
+     */
+    private static <T> CompletableFuture<T> first(@NotNull Publisher<T> publisher) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        publisher.subscribe(new Subscriber<T>() {
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(T item) {
+                future.complete(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                future.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                future.complete(null);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Subscribes to a publisher of documents and hands them to the decoder on the executor in batches of
+     * {@link #setBatchSize(int) batch size}. The next batch is requested once the batch before the current one is
+     * decoded, so at most two batches are held in memory.
+     *
+     * @param publisher the publisher of the documents
+     * @param decoder   decodes a batch and returns the number of loaded entities, must not throw
+     * @return a CompletableFuture containing the number of loaded entities
+     */
+    private <T> CompletableFuture<Long> stream(@NotNull Publisher<T> publisher, @NotNull ToIntFunction<List<T>> decoder) {
+        int batchSize = this.batchSize;
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        publisher.subscribe(new Subscriber<T>() {
+            private Subscription subscription;
+            private List<T> batch = new ArrayList<>(batchSize);
+            private CompletableFuture<Long> decoded = CompletableFuture.completedFuture(0L);
+
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(batchSize);
+            }
+
+            @Override
+            public void onNext(T document) {
+                this.batch.add(document);
+                if (this.batch.size() == batchSize) {
+                    CompletableFuture<Long> previous = this.decoded;
+                    this.decoded = decode(previous);
+                    previous.thenRun(() -> this.subscription.request(batchSize));
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                this.decoded.whenComplete((count, ignored) -> result.completeExceptionally(throwable));
+            }
+
+            @Override
+            public void onComplete() {
+                decode(this.decoded).whenComplete((count, throwable) -> {
+                    if (throwable != null) {
+                        result.completeExceptionally(throwable);
+                    } else {
+                        result.complete(count);
+                    }
+                });
+            }
+
+            private CompletableFuture<Long> decode(@NotNull CompletableFuture<Long> previous) {
+                List<T> documents = this.batch;
+                this.batch = new ArrayList<>(batchSize);
+                return documents.isEmpty() ? previous : previous.thenApplyAsync(count -> count + decoder.applyAsInt(documents), executor);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * A serialized entity waiting to be written.
+     *
+     * @param entity      the entity
+     * @param document    the document of the entity
+     * @param contentHash the hash of the serialized entity
+     * @param <V>         the type of the entity
+     */
+    private record Write<V extends Entity>(@NotNull V entity, @NotNull RawBsonDocument document, long contentHash) {
+    }
+}
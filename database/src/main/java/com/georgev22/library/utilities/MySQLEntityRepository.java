@@ -1,36 +1,66 @@
 package com.georgev22.library.utilities;
 
 import com.georgev22.library.database.sql.Database;
+import com.georgev22.library.database.sql.mysql.MySQL;
+import com.georgev22.library.database.sql.postgresql.PostgreSQL;
+import com.georgev22.library.maps.ObjectMap;
 import com.georgev22.library.maps.ObservableObjectMap;
-import com.google.gson.Gson;
+import com.georgev22.library.maps.Pair;
 import com.google.gson.GsonBuilder;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.math.BigInteger;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Simple repository manager for MySQL entities requiring setters for each column and a constructor without varargs.
+ * <p>
+ * Entities are stored in a table with an {@code _id} column, which must be the primary key (or unique), and a
+ * {@code data} column, which {@link #createTable()} creates. The {@link EntitySerializer} of the repository decides
+ * the format of the data: JSON in a text column by default, or a binary format in a {@code BLOB} column. Saves are
+ * upserts ({@code INSERT ... ON DUPLICATE KEY UPDATE} on MySQL,
+ * {@code INSERT ... ON CONFLICT} otherwise), so no existence check is needed before writing.
+ * <p>
+ * With {@link #enableWriteBehind(int, long, TimeUnit)} saved entities are only queued and written in JDBC batches,
+ * one transaction per batch, when the queue reaches the batch size or when the flush interval elapses.
+ * Call {@link #flush()} to write the queue and wait for it, for example on shutdown.
  *
  * @param <V> The type of the entity.
  */
 public class MySQLEntityRepository<V extends Entity> implements EntityRepository<V> {
 
+    /**
+     * The maximum number of IDs bound to a single {@code IN (...)} query by {@link #loadMany(Collection)}.
+     */
+    private static final int MAX_IN_PARAMETERS = 500;
+
     private final ObservableObjectMap<String, V> loadedEntities = new ObservableObjectMap<>();
+    private final EntityCache<V> cache = new EntityCache<>(this, this.loadedEntities);
     private final Database database;
     private final Logger logger;
     private final Class<V> entityClass;
     private final String tableName;
-    private final Gson gson;
+    private final EntitySerializer<V> serializer;
+    private final RepositoryExecutor executor;
+    private final Map<String, PendingWrite<V>> pendingWrites = new ConcurrentHashMap<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final LongAdder skippedWrites = new LongAdder();
+    private final SingleFlight<String, V> loads = new SingleFlight<>();
+    private final SingleFlight<Map.Entry<String, Boolean>, Boolean> existsChecks = new SingleFlight<>();
+    private final SingleFlight<String, V> saves = new SingleFlight<>();
+    private volatile int batchSize = 500;
+    private volatile int fetchSize = 1000;
+    private volatile ScheduledExecutorService writer;
 
     /**
      * Constructs a MySQLEntityRepository with the specified database, logger, and entity class.
@@ -52,43 +82,118 @@ public class MySQLEntityRepository<V extends Entity> implements EntityRepository
      * @param tableName   The name of the table in the database.
      */
     public MySQLEntityRepository(Database database, Logger logger, Class<V> entityClass, String tableName) {
+        this(database, logger, entityClass, tableName, RepositoryExecutor.shared("MySQLEntityRepository-" + tableName));
+    }
+
+    /**
+     * Constructs a MySQLEntityRepository that runs its queries on the given executor.
+     *
+     * @param database    The database to be used.
+     * @param logger      The logger for handling log messages.
+     * @param entityClass The class type of the entity managed by this repository.
+     * @param tableName   The name of the table in the database.
+     * @param executor    The executor that runs the queries.
+     */
+    public MySQLEntityRepository(Database database, Logger logger, Class<V> entityClass, String tableName, @NotNull Executor executor) {
+        this(database, logger, entityClass, tableName, EntitySerializer.gson(entityClass, new GsonBuilder().create()), executor);
+    }
+
+    /**
+     * Constructs a MySQLEntityRepository that stores the entities in the format of the given serializer.
+     *
+     * @param database    The database to be used.
+     * @param logger      The logger for handling log messages.
+     * @param entityClass The class type of the entity managed by this repository.
+     * @param tableName   The name of the table in the database.
+     * @param serializer  The serializer of the entities.
+     */
+    public MySQLEntityRepository(Database database, Logger logger, Class<V> entityClass, String tableName, @NotNull EntitySerializer<V> serializer) {
+        this(database, logger, entityClass, tableName, serializer, RepositoryExecutor.shared("MySQLEntityRepository-" + tableName));
+    }
+
+    /**
+     * Constructs a MySQLEntityRepository that stores the entities in the format of the given serializer and runs its
+     * queries on the given executor.
+     *
+     * @param database    The database to be used.
+     * @param logger      The logger for handling log messages.
+     * @param entityClass The class type of the entity managed by this repository.
+     * @param tableName   The name of the table in the database.
+     * @param serializer  The serializer of the entities.
+     * @param executor    The executor that runs the queries.
+     */
+    public MySQLEntityRepository(Database database, Logger logger, Class<V> entityClass, String tableName, @NotNull EntitySerializer<V> serializer, @NotNull Executor executor) {
+        this.executor = RepositoryExecutor.of("MySQLEntityRepository-" + tableName, executor);
         this.database = database;
         this.logger = logger;
         this.entityClass = entityClass;
         this.tableName = tableName;
-        this.gson = new GsonBuilder().create();
+        this.serializer = serializer;
     }
 
     /**
-     * Saves the given entity to the database. Generates and executes an SQL statement based on entity changes.
+     * Creates the table if it does not exist, with a {@code data} column of the type the format of the serializer
+     * needs, and migrates it with {@link Database#createTable} otherwise.
+     * <p>
+     * Changing the type of the {@code data} column does not convert the rows: entities stored in another format must
+     * be loaded and saved again with a repository using that format first.
+     *
+     * @throws SQLException           if a database access error occurs
+     * @throws ClassNotFoundException if the database driver class cannot be found
+     */
+    public void createTable() throws SQLException, ClassNotFoundException {
+        boolean binary = this.serializer.isBinary();
+        String dataType;
+        if (this.database instanceof MySQL) {
+            dataType = binary ? "LONGBLOB" : "LONGTEXT";
+        } else if (this.database instanceof PostgreSQL) {
+            dataType = binary ? "BYTEA" : "TEXT";
+        } else {
+            dataType = binary ? "BLOB" : "TEXT";
+        }
+        ObjectMap<String, Pair<String, String>> columnsMap = ObjectMap.newLinkedObjectMap();
+        columnsMap.append("_id", Pair.create("VARCHAR(191) NOT NULL", null));
+        columnsMap.append("data", Pair.create(dataType, null));
+        this.database.createTable(this.tableName, columnsMap, "_id");
+    }
+
+    /**
+     * Saves the given entity to the database with a single upsert.
+     * <p>
+     * If write-behind is enabled the entity is only queued, and the returned future completes immediately.
      *
      * @param entity The entity to be saved.
      */
     @Override
     public CompletableFuture<V> save(@NotNull V entity) {
-        return exists(entity._id(), true, false).thenApplyAsync(exists -> {
-            String entityId = escapeSql(entity._id());
-            String json = gson.toJson(entity);
-            String statement;
-            if (exists) {
-                statement = "UPDATE " + tableName + " SET data = ? WHERE _id = ?";
-            } else {
-                statement = "INSERT INTO " + tableName + " (_id, data) VALUES (?, ?)";
+        if (this.writer != null) {
+            if (!this.cache.isEvicting(entity)) {
+                this.loadedEntities.append(entity._id(), entity);
             }
-
-            try (Connection connection = this.database.getConnection();
-                 PreparedStatement preparedStatement = connection.prepareStatement(statement)) {
-                preparedStatement.setString(1, json);
-                preparedStatement.setString(2, entityId);
-                preparedStatement.executeUpdate();
-            } catch (SQLException | ClassNotFoundException e) {
+            this.pendingWrites.put(entity._id(), new PendingWrite<>(entity));
+            if (this.pendingWrites.size() >= this.batchSize) {
+                scheduleFlush();
+            }
+            return CompletableFuture.completedFuture(entity);
+        }
+        return this.saves.executeLatest(entity._id(), () -> CompletableFuture.supplyAsync(() -> {
+            entity.clearDirty();
+            Object data;
+            try {
+                data = encode(entity);
+                this.database.update(upsertStatement(), entity._id(), data);
+            } catch (SQLException | ClassNotFoundException | RuntimeException e) {
+                entity.markDirty();
                 this.logger.log(Level.SEVERE, "[EntityRepository]:", e);
                 return null;
             }
 
-            this.loadedEntities.append(entity._id(), entity);
+            entity.markPersisted(contentHash(data));
+            if (!this.cache.isEvicting(entity)) {
+                this.loadedEntities.append(entity._id(), entity);
+            }
             return entity;
-        });
+        }, this.executor));
     }
 
     /**
@@ -98,41 +203,97 @@ public class MySQLEntityRepository<V extends Entity> implements EntityRepository
      */
     @Override
     public CompletableFuture<V> load(@NotNull String entityId) {
-        if (loadedEntities.containsKey(entityId)) {
+        V loaded = this.cache.get(entityId);
+        if (loaded != null) {
             this.logger.log(Level.FINE, "Entity with ID " + entityId + " already loaded.");
-            return CompletableFuture.completedFuture(loadedEntities.get(entityId));
+            return CompletableFuture.completedFuture(loaded);
         }
-        return CompletableFuture.supplyAsync(() -> {
-            String statement = "SELECT data FROM " + this.tableName + " WHERE _id = '" + escapeSql(entityId) + "'";
-            try (Connection connection = this.database.getConnection();
-                 PreparedStatement preparedStatement = connection.prepareStatement(statement)) {
-                try (ResultSet resultSet = preparedStatement.executeQuery()) {
-                    if (resultSet.next()) {
-                        String json = resultSet.getString("data");
-                        V entity = gson.fromJson(json, entityClass);
-                        this.loadedEntities.append(entityId, entity);
-                        return entity;
-                    }
+        return this.loads.execute(entityId, () -> CompletableFuture.supplyAsync(() -> {
+            // an evicted entity may still be waiting for its write-behind flush
+            PendingWrite<V> pending = this.pendingWrites.get(entityId);
+            if (pending != null) {
+                V entity = this.loadedEntities.putIfAbsent(entityId, pending.entity());
+                return entity != null ? entity : pending.entity();
+            }
+            try {
+                Object data = this.database.queryFirst("SELECT data FROM " + this.tableName + " WHERE _id = ?", resultSet -> read(resultSet, 1), entityId);
+                V entity = data != null ? decode(data) : null;
+                if (entity != null) {
+                    entity.clearDirty();
+                    entity.markPersisted(contentHash(data));
+                    this.loadedEntities.append(entityId, entity);
+                    return entity;
                 }
             } catch (SQLException | ClassNotFoundException e) {
                 this.logger.log(Level.SEVERE, "[EntityRepository]:", e);
             }
 
             return null;
-        });
+        }, this.executor));
     }
 
     /**
-     * Retrieves the loaded entity with the specified entity ID.
+     * Loads the entities with the specified IDs with one {@code SELECT ... WHERE _id IN (...)} query per
+     * {@value #MAX_IN_PARAMETERS} IDs that are not loaded yet.
+     *
+     * @param entityIds The IDs of the entities to be loaded.
+     * @return a CompletableFuture containing the found entities by ID
+     */
+    @Override
+    public CompletableFuture<ObjectMap<String, V>> loadMany(@NotNull Collection<String> entityIds) {
+        return CompletableFuture.supplyAsync(() -> {
+            Set<String> ids = new LinkedHashSet<>(entityIds);
+            List<String> missing = new ArrayList<>();
+            for (String entityId : ids) {
+                if (this.cache.get(entityId) != null) {
+                    continue;
+                }
+                PendingWrite<V> pending = this.pendingWrites.get(entityId);
+                if (pending != null) {
+                    this.loadedEntities.putIfAbsent(entityId, pending.entity());
+                } else {
+                    missing.add(entityId);
+                }
+            }
+
+            for (int from = 0; from < missing.size(); from += MAX_IN_PARAMETERS) {
+                List<String> batch = missing.subList(from, Math.min(from + MAX_IN_PARAMETERS, missing.size()));
+                String statement = "SELECT _id, data FROM " + this.tableName + " WHERE _id IN (" + "?, ".repeat(batch.size() - 1) + "?)";
+                try {
+                    List<Map.Entry<String, Object>> rows = this.database.query(statement,
+                            resultSet -> new AbstractMap.SimpleImmutableEntry<>(resultSet.getString(1), read(resultSet, 2)), batch.toArray());
+                    for (Map.Entry<String, Object> row : rows) {
+                        V entity = row.getValue() != null ? decode(row.getValue()) : null;
+                        if (entity != null) {
+                            entity.clearDirty();
+                            entity.markPersisted(contentHash(row.getValue()));
+                            this.loadedEntities.putIfAbsent(row.getKey(), entity);
+                        }
+                    }
+                } catch (SQLException | ClassNotFoundException e) {
+                    this.logger.log(Level.SEVERE, "[EntityRepository]:", e);
+                }
+            }
+
+            ObjectMap<String, V> entities = ObjectMap.newLinkedObjectMap();
+            for (String entityId : ids) {
+                V entity = this.loadedEntities.get(entityId);
+                if (entity != null) {
+                    entities.put(entityId, entity);
+                }
+            }
+            return entities;
+        }, this.executor);
+    }
+
+    /**
+     * Retrieves the loaded entity with the specified entity ID, loading it if it is not loaded or was evicted.
      *
      * @param entityId The ID of the entity to be retrieved.
      * @return The loaded entity, or null if not found.
      */
     @Override
     public CompletableFuture<V> getEntity(@NotNull String entityId) {
-        if (loadedEntities.containsKey(entityId)) {
-            return CompletableFuture.completedFuture(loadedEntities.get(entityId));
-        }
         return this.load(entityId);
     }
 
@@ -146,25 +307,22 @@ public class MySQLEntityRepository<V extends Entity> implements EntityRepository
      */
     @Override
     public CompletableFuture<Boolean> exists(@NotNull String entityId, boolean checkDb, boolean forceLoad) {
-        return CompletableFuture.supplyAsync(() -> {
+        if (!checkDb) {
+            return CompletableFuture.completedFuture(loadedEntities.containsKey(entityId));
+        }
+        return this.existsChecks.execute(Map.entry(entityId, forceLoad), () -> CompletableFuture.supplyAsync(() -> {
             if (loadedEntities.containsKey(entityId)) {
                 return true;
             }
-            if (checkDb) {
-                String statement = "SELECT COUNT(*) FROM " + this.tableName + " WHERE _id = '" + escapeSql(entityId) + "'";
-                try (Connection connection = this.database.getConnection();
-                     PreparedStatement preparedStatement = connection.prepareStatement(statement);
-                     ResultSet resultSet = preparedStatement.executeQuery()) {
-                    resultSet.next();
-                    int count = resultSet.getInt(1);
-                    return forceLoad ? this.load(entityId) != null : count > 0;
-                } catch (SQLException | ClassNotFoundException e) {
-                    this.logger.log(Level.SEVERE, "[EntityRepository]:", e);
-                    return false;
-                }
+            try {
+                return this.database.queryFirst("SELECT 1 FROM " + this.tableName + " WHERE _id = ?", resultSet -> true, entityId) != null;
+            } catch (SQLException | ClassNotFoundException e) {
+                this.logger.log(Level.SEVERE, "[EntityRepository]:", e);
+                return false;
             }
-            return false;
-        });
+        }, this.executor).thenCompose(found -> found && forceLoad
+                ? this.load(entityId).thenApply(Objects::nonNull)
+                : CompletableFuture.completedFuture(found)));
     }
 
     /**
@@ -179,60 +337,353 @@ public class MySQLEntityRepository<V extends Entity> implements EntityRepository
                 this.logger.log(Level.WARNING, "[EntityRepository]: Entity with ID " + entityId + " does not exist.");
                 return;
             }
-            String statement = "DELETE FROM " + this.tableName + " WHERE _id = '" + escapeSql(entityId) + "'";
-
-            try (Connection connection = this.database.getConnection();
-                 PreparedStatement preparedStatement = connection.prepareStatement(statement)) {
-                preparedStatement.executeUpdate();
+            this.pendingWrites.remove(entityId);
+            try {
+                this.database.update("DELETE FROM " + this.tableName + " WHERE _id = ?", entityId);
             } catch (SQLException | ClassNotFoundException e) {
                 this.logger.log(Level.SEVERE, "[EntityRepository]:", e);
             }
-            this.loadedEntities.remove(entityId);
-        }));
+            V entity = this.loadedEntities.remove(entityId);
+            if (entity != null) {
+                entity.resetPersisted();
+            }
+        }, this.executor), this.executor);
     }
 
     /**
      * Loads all entities from the database.
+     * <p>
+     * The rows are streamed with a forward-only cursor that fetches {@link #setFetchSize(int) fetch size} rows per
+     * round trip and are decoded in parallel by a {@link StreamingLoader}, so memory use does not grow with the
+     * size of the table.
      */
     @Override
     public CompletableFuture<BigInteger> loadAll() {
         return CompletableFuture.supplyAsync(() -> {
             String statement = "SELECT _id, data FROM " + this.tableName;
-            List<CompletableFuture<Void>> futures = new ArrayList<>();
-            AtomicReference<BigInteger> count = new AtomicReference<>(BigInteger.ZERO);
-
-            try (Connection connection = this.database.getConnection();
-                 PreparedStatement preparedStatement = connection.prepareStatement(statement);
-                 ResultSet resultSet = preparedStatement.executeQuery()) {
-                while (resultSet.next()) {
-                    String id = resultSet.getString("_id");
-                    String json = resultSet.getString("data");
-                    CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
-                        V entity = gson.fromJson(json, entityClass);
-                        if (entity != null) {
-                            this.loadedEntities.append(id, entity);
-                            count.updateAndGet(current -> current.add(BigInteger.ONE));
-                        }
-                    });
-                    futures.add(future);
+            StreamingLoader<Object[]> loader = new StreamingLoader<>(ForkJoinPool.commonPool(), row -> {
+                V entity = row[1] != null ? decode(row[1]) : null;
+                if (entity == null) {
+                    return false;
                 }
+                entity.clearDirty();
+                entity.markPersisted(contentHash(row[1]));
+                this.loadedEntities.append((String) row[0], entity);
+                return true;
+            });
+
+            long count = 0;
+            try {
+                // the connection may be the single shared one, so it is not closed and its auto-commit mode is restored
+                this.database.withConnection(connection -> {
+                    boolean autoCommit = connection.getAutoCommit();
+                    // PostgreSQL only honors the fetch size inside a transaction
+                    connection.setAutoCommit(false);
+                    try (PreparedStatement preparedStatement = connection.prepareStatement(statement, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                        preparedStatement.setFetchSize(this.fetchSize);
+                        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                            while (resultSet.next()) {
+                                loader.accept(new Object[]{resultSet.getString(1), read(resultSet, 2)});
+                            }
+                        } catch (InterruptedException e) {
+                            // stops reading, the interruption is reported by loader.finish()
+                            Thread.currentThread().interrupt();
+                        }
+                    } finally {
+                        try {
+                            connection.commit();
+                        } finally {
+                            connection.setAutoCommit(autoCommit);
+                        }
+                    }
+                    return null;
+                });
+                count = loader.finish();
             } catch (SQLException | ClassNotFoundException e) {
                 this.logger.log(Level.SEVERE, "[EntityRepository]:", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.logger.log(Level.SEVERE, "[EntityRepository]: Interrupted while loading entities", e);
+            }
+            if (loader.getFailure() != null) {
+                this.logger.log(Level.SEVERE, "[EntityRepository]: Failed to decode " + loader.failures() + " entities", loader.getFailure());
             }
+            return BigInteger.valueOf(count);
+        }, this.executor);
+    }
 
-            CompletableFuture<Void> allOf = CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
-            return allOf.thenApply(v -> count.get());
-        }).thenCompose(countFuture -> countFuture);
+    /**
+     * Sets the number of rows fetched per round trip by {@link #loadAll()}.
+     *
+     * @param fetchSize the fetch size
+     */
+    public void setFetchSize(int fetchSize) {
+        if (fetchSize < 1) {
+            throw new IllegalArgumentException("fetchSize must be at least 1");
+        }
+        this.fetchSize = fetchSize;
     }
 
     /**
-     * Saves all loaded entities to the database.
+     * Saves all changed loaded entities to the database in batches.
+     * The entities are written asynchronously, call {@link #flush()} to wait for them.
      */
     @Override
     public void saveAll() {
+        int skipped = 0;
         for (V entity : this.loadedEntities.values()) {
-            this.save(entity);
+            if (entity.tracksChanges() && !entity.isDirty()) {
+                skipped++;
+            } else {
+                this.pendingWrites.put(entity._id(), new PendingWrite<>(entity));
+            }
+        }
+        this.skippedWrites.add(skipped);
+        scheduleFlush();
+    }
+
+    @Override
+    public long getSkippedWrites() {
+        return this.skippedWrites.sum();
+    }
+
+    /**
+     * Returns how many load, exists and save requests were answered by a request already in flight for the same ID.
+     *
+     * @return the number of coalesced requests
+     */
+    @Override
+    public long getCoalescedRequests() {
+        return this.loads.coalesced() + this.existsChecks.coalesced() + this.saves.coalesced();
+    }
+
+    /**
+     * Returns the executor that runs the I/O of this repository.
+     *
+     * @return the executor of this repository
+     */
+    @Override
+    public @NotNull RepositoryExecutor getExecutor() {
+        return this.executor;
+    }
+
+    /**
+     * Returns the cache of the loaded entities, which evicts them according to its policy.
+     *
+     * @return the entity cache of this repository
+     */
+    @Override
+    public @NotNull EntityCache<V> getCache() {
+        return this.cache;
+    }
+
+    /**
+     * Enables write-behind: {@link #save(Entity)} only queues the entity, and the queue is written in batches of
+     * {@code batchSize} entities, each in its own transaction, whenever it reaches the batch size and every
+     * {@code flushInterval}.
+     *
+     * @param batchSize     the maximum number of entities written per batch
+     * @param flushInterval the interval between two periodic flushes
+     * @param unit          the time unit of the flush interval
+     */
+    public synchronized void enableWriteBehind(int batchSize, long flushInterval, @NotNull TimeUnit unit) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        disableWriteBehind();
+        this.batchSize = batchSize;
+        ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "EntityRepository-writer-" + this.tableName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, unit);
+        this.writer = writer;
+    }
+
+    /**
+     * Disables write-behind and writes the queued entities before returning.
+     */
+    public synchronized void disableWriteBehind() {
+        ScheduledExecutorService writer = this.writer;
+        if (writer == null) {
+            return;
         }
+        this.writer = null;
+        writer.shutdownNow();
+        flush();
+    }
+
+    /**
+     * Returns whether write-behind is enabled.
+     *
+     * @return true if write-behind is enabled
+     */
+    public boolean isWriteBehind() {
+        return this.writer != null;
+    }
+
+    /**
+     * Returns the number of entities waiting to be written.
+     *
+     * @return the number of queued entities
+     */
+    public int pendingWrites() {
+        return this.pendingWrites.size();
+    }
+
+    /**
+     * Writes every queued entity with batched upserts, one transaction per batch, and blocks until done.
+     * Entities whose content did not change since they were loaded or saved are skipped.
+     * Entities stay queued until their batch is written, so the entities of a failed batch are written by the next flush.
+     *
+     * @return the number of entities written
+     */
+    public int flush() {
+        this.flushLock.lock();
+        try {
+            int written = 0;
+            List<PendingWrite<V>> batch = new ArrayList<>(Math.min(this.batchSize, this.pendingWrites.size()));
+            for (PendingWrite<V> pending : this.pendingWrites.values()) {
+                batch.add(pending);
+                if (batch.size() >= this.batchSize) {
+                    written += writeBatch(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                written += writeBatch(batch);
+            }
+            return written;
+        } finally {
+            this.flushLock.unlock();
+        }
+    }
+
+    /**
+     * Runs {@link #flush()} from the writer thread. An exception escaping a periodic task would cancel it and stop
+     * write-behind for good, so it is logged instead.
+     */
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            this.logger.log(Level.SEVERE, "[EntityRepository]: Failed to flush the write-behind queue", e);
+        }
+    }
+
+    private int writeBatch(@NotNull List<PendingWrite<V>> batch) {
+        List<Object> documents = new ArrayList<>(batch.size());
+        List<V> changed = new ArrayList<>(batch.size());
+        long[] contentHashes = new long[batch.size()];
+        for (PendingWrite<V> pending : batch) {
+            V entity = pending.entity();
+            entity.clearDirty();
+            Object data;
+            try {
+                data = encode(entity);
+            } catch (RuntimeException e) {
+                // retrying would fail the same way on every flush; the entity stays dirty, so the next save queues it again
+                this.logger.log(Level.SEVERE, "[EntityRepository]: Failed to serialize entity " + entity._id() + ", dropping it from the write-behind queue", e);
+                entity.markDirty();
+                this.pendingWrites.remove(entity._id(), pending);
+                continue;
+            }
+            long contentHash = contentHash(data);
+            if (entity.isPersisted(contentHash)) {
+                this.skippedWrites.increment();
+                continue;
+            }
+            contentHashes[changed.size()] = contentHash;
+            documents.add(data);
+            changed.add(entity);
+        }
+        if (changed.isEmpty()) {
+            dequeue(batch);
+            return 0;
+        }
+        try {
+            this.database.transaction(connection -> {
+                try (PreparedStatement preparedStatement = connection.prepareStatement(upsertStatement())) {
+                    for (int i = 0; i < changed.size(); i++) {
+                        preparedStatement.setString(1, changed.get(i)._id());
+                        preparedStatement.setObject(2, documents.get(i));
+                        preparedStatement.addBatch();
+                    }
+                    return preparedStatement.executeBatch();
+                }
+            });
+        } catch (SQLException | ClassNotFoundException | RuntimeException e) {
+            this.logger.log(Level.SEVERE, "[EntityRepository]: Failed to write a batch of " + changed.size() + " entities", e);
+            for (V entity : changed) {
+                entity.markDirty();
+            }
+            return 0;
+        }
+        for (int i = 0; i < changed.size(); i++) {
+            changed.get(i).markPersisted(contentHashes[i]);
+        }
+        dequeue(batch);
+        return changed.size();
+    }
+
+    /**
+     * Removes written entities from the queue. Entities stay queued until they are written, so an entity that was
+     * evicted from the loaded entities is never loaded again from a stale row. An entity saved again while its batch
+     * was written was queued with a new {@link PendingWrite}, which stays queued for the next flush.
+     */
+    private void dequeue(@NotNull List<PendingWrite<V>> batch) {
+        for (PendingWrite<V> pending : batch) {
+            this.pendingWrites.remove(pending.entity()._id(), pending);
+        }
+    }
+
+    private void scheduleFlush() {
+        ScheduledExecutorService writer = this.writer;
+        if (writer != null) {
+            try {
+                writer.execute(this::flushQuietly);
+                return;
+            } catch (RejectedExecutionException ignored) {
+                // write-behind was disabled concurrently, which flushes on its own
+            }
+        }
+        CompletableFuture.runAsync(this::flushQuietly, this.executor);
+    }
+
+    /**
+     * Serializes the entity to bytes for binary formats and to a string otherwise.
+     */
+    private @NotNull Object encode(@NotNull V entity) {
+        return this.serializer.isBinary() ? this.serializer.serialize(entity) : this.serializer.serializeToString(entity);
+    }
+
+    private @Nullable V decode(@NotNull Object data) {
+        return data instanceof byte[] bytes ? this.serializer.deserialize(bytes) : this.serializer.deserialize((String) data);
+    }
+
+    private @Nullable Object read(@NotNull ResultSet resultSet, int column) throws SQLException {
+        return this.serializer.isBinary() ? resultSet.getBytes(column) : resultSet.getString(column);
+    }
+
+    private static long contentHash(@NotNull Object data) {
+        return data instanceof byte[] bytes ? Entity.contentHash(bytes) : Entity.contentHash((String) data);
+    }
+
+    private @NotNull String upsertStatement() {
+        if (this.database instanceof MySQL) {
+            return "INSERT INTO " + this.tableName + " (_id, data) VALUES (?, ?) ON DUPLICATE KEY UPDATE data = VALUES(data)";
+        }
+        return "INSERT INTO " + this.tableName + " (_id, data) VALUES (?, ?) ON CONFLICT (_id) DO UPDATE SET data = excluded.data";
+    }
+
+    /**
+     * Returns the serializer that converts the entities to the stored format.
+     *
+     * @return the serializer of this repository
+     */
+    public @NotNull EntitySerializer<V> getSerializer() {
+        return this.serializer;
     }
 
     /**
@@ -263,7 +714,19 @@ public class MySQLEntityRepository<V extends Entity> implements EntityRepository
         return this.loadedEntities;
     }
 
-    private String escapeSql(String input) {
-        return input.replace("'", "''");
+    /**
+     * A queued write of an entity. Every save queues a new instance, which is compared by identity, so a flush only
+     * dequeues the writes whose entity state it encoded.
+     */
+    private static final class PendingWrite<V extends Entity> {
+        private final V entity;
+
+        private PendingWrite(@NotNull V entity) {
+            this.entity = entity;
+        }
+
+        private @NotNull V entity() {
+            return this.entity;
+        }
     }
 }
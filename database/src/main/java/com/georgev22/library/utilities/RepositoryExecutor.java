@@ -0,0 +1,223 @@
+package com.georgev22.library.utilities;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The executor that runs the blocking I/O of an {@link EntityRepository}.
+ * <p>
+ * Repositories used to run their JDBC, MongoDB and file I/O on the {@link ForkJoinPool#commonPool()}, where blocked
+ * threads starve parallel streams and other CPU-bound work. A RepositoryExecutor wraps a dedicated executor and
+ * records the queue depth, the time tasks wait before running and the time they run, so every repository can
+ * report its own metrics while sharing the same pool through {@link #shared(String)}.
+ */
+public final class RepositoryExecutor implements Executor {
+
+    private static volatile ExecutorService sharedPool;
+
+    private final String name;
+    private final Executor delegate;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder totalQueueNanos = new LongAdder();
+    private final LongAdder totalRunNanos = new LongAdder();
+    private final AtomicLong maxQueueNanos = new AtomicLong();
+    private final AtomicLong maxRunNanos = new AtomicLong();
+
+    /**
+     * Creates a RepositoryExecutor that runs its tasks on the given executor.
+     *
+     * @param name     the name reported with the metrics, usually the repository
+     * @param delegate the executor that runs the tasks
+     */
+    public RepositoryExecutor(@NotNull String name, @NotNull Executor delegate) {
+        this.name = name;
+        this.delegate = delegate;
+    }
+
+    /**
+     * Returns a RepositoryExecutor backed by the I/O pool shared by every repository, a bounded pool of daemon
+     * threads with twice as many threads as available processors and at least eight.
+     *
+     * @param name the name reported with the metrics
+     * @return a new RepositoryExecutor using the shared pool
+     */
+    public static @NotNull RepositoryExecutor shared(@NotNull String name) {
+        ExecutorService pool = sharedPool;
+        if (pool == null) {
+            synchronized (RepositoryExecutor.class) {
+                pool = sharedPool;
+                if (pool == null) {
+                    sharedPool = pool = newBoundedPool("EntityRepository-io", Math.max(8, Runtime.getRuntime().availableProcessors() * 2));
+                }
+            }
+        }
+        return new RepositoryExecutor(name, pool);
+    }
+
+    /**
+     * Returns a RepositoryExecutor backed by its own bounded pool of daemon threads.
+     *
+     * @param name    the name of the threads and the metrics
+     * @param threads the number of threads
+     * @return a new RepositoryExecutor
+     */
+    public static @NotNull RepositoryExecutor bounded(@NotNull String name, int threads) {
+        return new RepositoryExecutor(name, newBoundedPool(name, threads));
+    }
+
+    /**
+     * Returns a RepositoryExecutor that runs every task on a new virtual thread when the running Java version
+     * supports them, or on the shared pool otherwise.
+     *
+     * @param name the name reported with the metrics
+     * @return a new RepositoryExecutor
+     */
+    public static @NotNull RepositoryExecutor virtual(@NotNull String name) {
+        try {
+            ExecutorService executor = (ExecutorService) MethodHandles.publicLookup()
+                    .findStatic(Executors.class, "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class))
+                    .invoke();
+            return new RepositoryExecutor(name, executor);
+        } catch (Throwable ignored) {
+            return shared(name);
+        }
+    }
+
+    /**
+     * Returns the given executor if it already is a RepositoryExecutor, or wraps it.
+     *
+     * @param name     the name reported with the metrics
+     * @param executor the executor
+     * @return a RepositoryExecutor running on the given executor
+     */
+    public static @NotNull RepositoryExecutor of(@NotNull String name, @NotNull Executor executor) {
+        return executor instanceof RepositoryExecutor repositoryExecutor ? repositoryExecutor : new RepositoryExecutor(name, executor);
+    }
+
+    private static @NotNull ExecutorService newBoundedPool(@NotNull String name, int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @Override
+    public void execute(@NotNull Runnable command) {
+        long submittedAt = System.nanoTime();
+        queued.incrementAndGet();
+        try {
+            delegate.execute(() -> {
+                long startedAt = System.nanoTime();
+                queued.decrementAndGet();
+                active.incrementAndGet();
+                record(totalQueueNanos, maxQueueNanos, startedAt - submittedAt);
+                try {
+                    command.run();
+                } catch (RuntimeException | Error e) {
+                    failed.increment();
+                    throw e;
+                } finally {
+                    active.decrementAndGet();
+                    completed.increment();
+                    record(totalRunNanos, maxRunNanos, System.nanoTime() - startedAt);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private static void record(@NotNull LongAdder total, @NotNull AtomicLong max, long nanos) {
+        total.add(nanos);
+        max.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Returns the name of this executor.
+     *
+     * @return the name of this executor
+     */
+    public @NotNull String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of tasks waiting to run.
+     *
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    /**
+     * Returns a snapshot of the metrics of this executor.
+     *
+     * @return the current metrics
+     */
+    public @NotNull Metrics getMetrics() {
+        return new Metrics(name, queued.get(), active.get(), completed.sum(), failed.sum(),
+                Duration.ofNanos(totalQueueNanos.sum()), Duration.ofNanos(maxQueueNanos.get()),
+                Duration.ofNanos(totalRunNanos.sum()), Duration.ofNanos(maxRunNanos.get()));
+    }
+
+    @Override
+    public String toString() {
+        return "RepositoryExecutor{" +
+                "metrics=" + getMetrics() +
+                ", delegate=" + delegate +
+                '}';
+    }
+
+    /**
+     * A snapshot of the metrics of a {@link RepositoryExecutor}.
+     *
+     * @param name           the name of the executor
+     * @param queueDepth     the number of tasks waiting to run
+     * @param active         the number of running tasks
+     * @param completed      the number of finished tasks
+     * @param failed         the number of tasks that threw an exception
+     * @param totalQueueTime the time all finished and running tasks waited before running
+     * @param maxQueueTime   the longest time a task waited before running
+     * @param totalRunTime   the time all finished tasks spent running
+     * @param maxRunTime     the longest time a task spent running
+     */
+    public record Metrics(@NotNull String name, int queueDepth, int active, long completed, long failed,
+                          @NotNull Duration totalQueueTime, @NotNull Duration maxQueueTime,
+                          @NotNull Duration totalRunTime, @NotNull Duration maxRunTime) {
+
+        /**
+         * Returns the average time a task waited before running.
+         *
+         * @return the average queue time
+         */
+        public @NotNull Duration averageQueueTime() {
+            long started = completed + active;
+            return started == 0 ? Duration.ZERO : totalQueueTime.dividedBy(started);
+        }
+
+        /**
+         * Returns the average time a task spent running.
+         *
+         * @return the average run time
+         */
+        public @NotNull Duration averageRunTime() {
+            return completed == 0 ? Duration.ZERO : totalRunTime.dividedBy(completed);
+        }
+    }
+}
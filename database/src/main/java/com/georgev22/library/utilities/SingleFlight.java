@@ -0,0 +1,160 @@
+package com.georgev22.library.utilities;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent asynchronous calls for the same key.
+ * <p>
+ * {@link #execute(Object, Supplier)} is meant for reads: while a call for a key is in flight, every other caller
+ * for that key receives the same future instead of starting its own call.
+ * <p>
+ * {@link #executeLatest(Object, Supplier)} is meant for writes, which must not be answered by a write that
+ * started before the caller's change: while a call for a key is in flight, the following callers share a single
+ * queued call that starts once the running one completes, using the supplier of the latest caller.
+ *
+ * @param <K> the type of the keys
+ * @param <T> the type of the results
+ */
+public final class SingleFlight<K, T> {
+
+    private final Map<K, CompletableFuture<T>> inFlight = new ConcurrentHashMap<>();
+    private final Map<K, WriteSlot> writes = new ConcurrentHashMap<>();
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Returns the in-flight future for the key, or starts the call and returns its future.
+     *
+     * @param key  the key of the call
+     * @param call starts the call
+     * @return a future completed with the result of the shared call
+     */
+    public @NotNull CompletableFuture<T> execute(@NotNull K key, @NotNull Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        CompletableFuture<T> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalesced.increment();
+            return existing;
+        }
+        executed.increment();
+        start(call).whenComplete((result, throwable) -> {
+            // remove first, so a caller reacting to the completion starts a new call
+            inFlight.remove(key, future);
+            complete(future, result, throwable);
+        });
+        return future;
+    }
+
+    /**
+     * Starts the call if none is in flight for the key. Otherwise, returns the future of the call queued behind
+     * the running one, which is shared by every caller until it starts and uses the supplier of the latest caller.
+     *
+     * @param key  the key of the call
+     * @param call starts the call
+     * @return a future completed with the result of a call that started after this method was called
+     */
+    public @NotNull CompletableFuture<T> executeLatest(@NotNull K key, @NotNull Supplier<CompletableFuture<T>> call) {
+        while (true) {
+            WriteSlot slot = writes.computeIfAbsent(key, k -> new WriteSlot());
+            synchronized (slot) {
+                if (slot.removed) {
+                    continue;
+                }
+                if (slot.running == null) {
+                    // the call may complete before run returns and clear the slot
+                    CompletableFuture<T> future = new CompletableFuture<>();
+                    slot.running = future;
+                    run(key, slot, future, call);
+                    return future;
+                }
+                if (slot.next == null) {
+                    slot.next = new CompletableFuture<>();
+                } else {
+                    coalesced.increment();
+                }
+                slot.nextCall = call;
+                return slot.next;
+            }
+        }
+    }
+
+    private void run(@NotNull K key, @NotNull WriteSlot slot, @NotNull CompletableFuture<T> future, @NotNull Supplier<CompletableFuture<T>> call) {
+        executed.increment();
+        start(call).whenComplete((result, throwable) -> {
+            CompletableFuture<T> next;
+            Supplier<CompletableFuture<T>> nextCall;
+            synchronized (slot) {
+                next = slot.next;
+                nextCall = slot.nextCall;
+                slot.next = null;
+                slot.nextCall = null;
+                slot.running = next;
+                if (next == null) {
+                    slot.removed = true;
+                    writes.remove(key, slot);
+                }
+            }
+            complete(future, result, throwable);
+            if (next != null) {
+                run(key, slot, next, nextCall);
+            }
+        });
+    }
+
+    private @NotNull CompletableFuture<T> start(@NotNull Supplier<CompletableFuture<T>> call) {
+        try {
+            CompletableFuture<T> future = call.get();
+            return future != null ? future : CompletableFuture.completedFuture(null);
+        } catch (Throwable throwable) {
+            return CompletableFuture.failedFuture(throwable);
+        }
+    }
+
+    private void complete(@NotNull CompletableFuture<T> future, T result, Throwable throwable) {
+        if (throwable != null) {
+            future.completeExceptionally(throwable);
+        } else {
+            future.complete(result);
+        }
+    }
+
+    /**
+     * Returns the number of calls that were started.
+     *
+     * @return the number of started calls
+     */
+    public long executed() {
+        return executed.sum();
+    }
+
+    /**
+     * Returns the number of calls that were answered by a call started by another caller.
+     *
+     * @return the number of coalesced calls
+     */
+    public long coalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * Returns the number of keys with a call in flight.
+     *
+     * @return the number of keys with a call in flight
+     */
+    public int inFlight() {
+        return inFlight.size() + writes.size();
+    }
+
+    private final class WriteSlot {
+        private CompletableFuture<T> running;
+        private CompletableFuture<T> next;
+        private Supplier<CompletableFuture<T>> nextCall;
+        private boolean removed;
+    }
+}
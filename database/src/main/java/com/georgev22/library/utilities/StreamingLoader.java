@@ -0,0 +1,155 @@
+package com.georgev22.library.utilities;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Decodes the rows of a cursor in parallel with bounded memory.
+ * <p>
+ * The thread reading the cursor hands every row to {@link #accept(Object)}, which groups the rows in chunks and
+ * decodes each chunk on the executor. At most {@code maxInFlight} chunks are queued or being decoded at any time;
+ * once the limit is reached {@link #accept(Object)} blocks, so the cursor is only read as fast as the rows can be
+ * decoded instead of buffering the whole result set.
+ * <p>
+ * A row whose decoder throws is skipped; the number of such rows and the first exception are available once
+ * {@link #finish()} returned.
+ *
+ * @param <R> the type of the rows
+ */
+public final class StreamingLoader<R> {
+
+    /**
+     * The default number of rows decoded per task.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 256;
+
+    private final Executor executor;
+    private final Predicate<R> decoder;
+    private final int chunkSize;
+    private final int maxInFlight;
+    private final Semaphore permits;
+    private final LongAdder loaded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    private List<R> chunk;
+
+    /**
+     * Creates a StreamingLoader that keeps two chunks in flight per available processor.
+     *
+     * @param executor the executor that decodes the chunks
+     * @param decoder  decodes a row and returns whether an entity was loaded from it
+     */
+    public StreamingLoader(@NotNull Executor executor, @NotNull Predicate<R> decoder) {
+        this(executor, decoder, DEFAULT_CHUNK_SIZE, Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * Creates a StreamingLoader.
+     *
+     * @param executor    the executor that decodes the chunks
+     * @param decoder     decodes a row and returns whether an entity was loaded from it
+     * @param chunkSize   the number of rows decoded per task
+     * @param maxInFlight the maximum number of chunks queued or being decoded
+     */
+    public StreamingLoader(@NotNull Executor executor, @NotNull Predicate<R> decoder, int chunkSize, int maxInFlight) {
+        if (chunkSize < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("chunkSize and maxInFlight must be at least 1");
+        }
+        this.executor = executor;
+        this.decoder = decoder;
+        this.chunkSize = chunkSize;
+        this.maxInFlight = maxInFlight;
+        this.permits = new Semaphore(maxInFlight);
+        this.chunk = new ArrayList<>(chunkSize);
+    }
+
+    /**
+     * Adds a row, blocking while {@code maxInFlight} chunks are pending.
+     * Must be called from a single thread.
+     *
+     * @param row the row to decode
+     * @throws InterruptedException if interrupted while waiting for a chunk to finish
+     */
+    public void accept(@NotNull R row) throws InterruptedException {
+        chunk.add(row);
+        if (chunk.size() >= chunkSize) {
+            submit();
+        }
+    }
+
+    /**
+     * Decodes the remaining rows and waits for every chunk to be decoded.
+     *
+     * @return the number of rows the decoder reported as loaded
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public long finish() throws InterruptedException {
+        if (!chunk.isEmpty()) {
+            submit();
+        }
+        permits.acquire(maxInFlight);
+        permits.release(maxInFlight);
+        return loaded.sum();
+    }
+
+    /**
+     * Returns the number of rows whose decoder threw an exception.
+     *
+     * @return the number of failed rows
+     */
+    public long failures() {
+        return failed.sum();
+    }
+
+    /**
+     * Returns the first exception thrown by the decoder, if any.
+     *
+     * @return the first failure or null
+     */
+    public @Nullable RuntimeException getFailure() {
+        return failure.get();
+    }
+
+    private void submit() throws InterruptedException {
+        List<R> rows = chunk;
+        chunk = new ArrayList<>(chunkSize);
+        permits.acquire();
+        try {
+            executor.execute(() -> {
+                try {
+                    decode(rows);
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            try {
+                decode(rows);
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    private void decode(@NotNull List<R> rows) {
+        for (R row : rows) {
+            try {
+                if (decoder.test(row)) {
+                    loaded.increment();
+                }
+            } catch (RuntimeException e) {
+                failed.increment();
+                failure.compareAndSet(null, e);
+            }
+        }
+    }
+}
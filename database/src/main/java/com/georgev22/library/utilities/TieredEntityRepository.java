@@ -0,0 +1,786 @@
+package com.georgev22.library.utilities;
+
+import com.georgev22.library.maps.ObjectMap;
+import com.georgev22.library.maps.ObservableObjectMap;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.math.BigInteger;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A repository that layers other repositories as tiers, for example a local {@link JsonEntityRepository} or
+ * SQLite-backed {@link MySQLEntityRepository} in front of a remote MySQL or MongoDB repository.
+ * <p>
+ * The loaded entities of this repository are the in-memory tier, with its own {@link EntityCache}. A miss there is
+ * read through the tiers in order, and the entity found in a tier is written to the faster tiers that
+ * {@link Tier#fillOnRead() fill on read}, so the next miss is answered locally. How saves and deletes reach a tier
+ * depends on its {@link Consistency}: {@link Consistency#WRITE_THROUGH write-through} tiers are written before the
+ * save completes, {@link Consistency#WRITE_BEHIND write-behind} tiers are written later in batches, and
+ * {@link Consistency#READ_ONLY read-only} tiers are never written. The last tier is the source of truth, from which
+ * {@link #loadAll()} loads.
+ * <p>
+ * The tiers are used as storage only: the entities they load or save are removed from their loaded entities again,
+ * so each entity is kept once, in the in-memory tier. The tiers must not have write-behind of their own enabled, as
+ * the content hash an entity was persisted with is shared by every tier it is written to.
+ * <p>
+ * Call {@link #close()} on shutdown to write the queued entities.
+ *
+ * @param <V> The type of the entity.
+ */
+public class TieredEntityRepository<V extends Entity> implements EntityRepository<V>, AutoCloseable {
+
+    private final ObservableObjectMap<String, V> loadedEntities = new ObservableObjectMap<>();
+    private final EntityCache<V> cache = new EntityCache<>(this, this.loadedEntities);
+    private final Logger logger;
+    private final String name;
+    private final List<TierState<V>> tiers;
+    private final LongAdder skippedWrites = new LongAdder();
+    private final SingleFlight<String, V> loads = new SingleFlight<>();
+    private final @Nullable ScheduledExecutorService writer;
+
+    /**
+     * Constructs a TieredEntityRepository.
+     *
+     * @param logger The logger for handling log messages.
+     * @param name   The name of the repository, used to name its writer thread.
+     * @param tiers  The tiers, fastest first; the last one is the source of truth.
+     */
+    public TieredEntityRepository(@NotNull Logger logger, @NotNull String name, @NotNull List<Tier<V>> tiers) {
+        if (tiers.isEmpty()) {
+            throw new IllegalArgumentException("At least one tier is required");
+        }
+        this.logger = logger;
+        this.name = name;
+        List<TierState<V>> states = new ArrayList<>(tiers.size());
+        boolean writeBehind = false;
+        for (Tier<V> tier : tiers) {
+            states.add(new TierState<>(tier));
+            writeBehind |= tier.consistency() == Consistency.WRITE_BEHIND;
+        }
+        this.tiers = List.copyOf(states);
+        if (writeBehind) {
+            this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "EntityRepository-writer-" + name);
+                thread.setDaemon(true);
+                return thread;
+            });
+            for (TierState<V> state : this.tiers) {
+                if (state.tier().consistency() == Consistency.WRITE_BEHIND) {
+                    long interval = state.tier().flushInterval().toMillis();
+                    this.writer.scheduleWithFixedDelay(() -> flush(state), interval, interval, TimeUnit.MILLISECONDS);
+                }
+            }
+        } else {
+            this.writer = null;
+        }
+    }
+
+    /**
+     * Saves the entity to every writable tier: the returned future completes once the write-through tiers wrote it,
+     * while the write-behind tiers only queue it.
+     *
+     * @param entity The entity to be saved.
+     * @return a CompletableFuture containing the saved entity, or completing with null if a write-through tier
+     * failed to write it
+     */
+    @Override
+    public CompletableFuture<V> save(@NotNull V entity) {
+        if (!this.cache.isEvicting(entity)) {
+            this.loadedEntities.putIfAbsent(entity._id(), entity);
+        }
+        List<CompletableFuture<V>> writes = new ArrayList<>();
+        for (TierState<V> state : this.tiers) {
+            switch (state.tier().consistency()) {
+                case WRITE_THROUGH -> writes.add(write(state, entity));
+                case WRITE_BEHIND -> enqueue(state, entity._id(), entity);
+                case READ_ONLY -> {
+                }
+            }
+        }
+        return CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).handle((ignored, throwable) -> {
+            for (CompletableFuture<V> write : writes) {
+                if (write.isCompletedExceptionally() || write.join() == null) {
+                    return null;
+                }
+            }
+            return entity;
+        });
+    }
+
+    /**
+     * Writes the entity to a tier and releases it from the loaded entities of the tier.
+     *
+     * @return a future completed with the entity, or with null if the tier failed to write it
+     */
+    private @NotNull CompletableFuture<V> write(@NotNull TierState<V> state, @NotNull V entity) {
+        CompletableFuture<V> write;
+        try {
+            write = state.tier().repository().save(entity);
+        } catch (RuntimeException e) {
+            write = CompletableFuture.failedFuture(e);
+        }
+        return write.handle((saved, throwable) -> {
+            release(state, entity);
+            if (saved == null || throwable != null) {
+                state.failures.increment();
+                if (throwable != null) {
+                    this.logger.log(Level.SEVERE, "[EntityRepository]: Failed to save " + entity._id() + " to " + state.tier().repository().getClass().getSimpleName(), throwable);
+                }
+                return null;
+            }
+            state.writes.increment();
+            return saved;
+        });
+    }
+
+    /**
+     * Queues a write, or a deletion if the entity is null, for a write-behind tier. Every call queues a new
+     * {@link PendingWrite}, so a flush writing an earlier one leaves this one queued.
+     */
+    private void enqueue(@NotNull TierState<V> state, @NotNull String entityId, @Nullable V entity) {
+        state.pending.put(entityId, new PendingWrite<>(entity));
+        if (state.pending.size() >= state.tier().batchSize()) {
+            scheduleFlush(state);
+        }
+    }
+
+    private void scheduleFlush(@NotNull TierState<V> state) {
+        ScheduledExecutorService writer = this.writer;
+        if (writer != null && state.flushQueued.compareAndSet(false, true)) {
+            try {
+                writer.execute(() -> flush(state));
+            } catch (RejectedExecutionException e) {
+                // closed, which flushes on its own
+                state.flushQueued.set(false);
+            }
+        }
+    }
+
+    private void release(@NotNull TierState<V> state, @NotNull V entity) {
+        state.tier().repository().getLoadedEntities().remove(entity._id(), entity);
+    }
+
+    /**
+     * Loads an entity, reading through the tiers in order until one of them has it.
+     * <p>
+     * An entity that is queued for a write-behind tier is answered from the queue, and one whose deletion is queued
+     * is not found, so the slower tiers never answer with an older state.
+     *
+     * @param entityId The ID of the entity to be loaded.
+     */
+    @Override
+    public CompletableFuture<V> load(@NotNull String entityId) {
+        V loaded = this.cache.get(entityId);
+        if (loaded != null) {
+            return CompletableFuture.completedFuture(loaded);
+        }
+        return this.loads.execute(entityId, () -> {
+            for (TierState<V> state : this.tiers) {
+                PendingWrite<V> pending = state.pending.get(entityId);
+                if (pending != null) {
+                    return CompletableFuture.completedFuture(pending.isDelete() ? null : keep(entityId, pending.entity()));
+                }
+            }
+            return loadFrom(0, entityId);
+        });
+    }
+
+    private @NotNull CompletableFuture<V> loadFrom(int index, @NotNull String entityId) {
+        if (index >= this.tiers.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        TierState<V> state = this.tiers.get(index);
+        CompletableFuture<V> load;
+        try {
+            load = state.tier().repository().load(entityId);
+        } catch (RuntimeException e) {
+            load = CompletableFuture.failedFuture(e);
+        }
+        return load.handle((entity, throwable) -> {
+            if (throwable != null) {
+                this.logger.log(Level.SEVERE, "[EntityRepository]: Failed to load " + entityId + " from " + state.tier().repository().getClass().getSimpleName(), throwable);
+            }
+            return entity;
+        }).thenCompose(entity -> {
+            if (entity == null) {
+                state.misses.increment();
+                return loadFrom(index + 1, entityId);
+            }
+            state.hits.increment();
+            release(state, entity);
+            fill(index, entity);
+            return CompletableFuture.completedFuture(keep(entityId, entity));
+        });
+    }
+
+    /**
+     * Writes an entity found in a tier to the faster tiers that fill on read.
+     */
+    private void fill(int found, @NotNull V entity) {
+        for (int i = 0; i < found; i++) {
+            TierState<V> state = this.tiers.get(i);
+            if (!state.tier().fillOnRead()) {
+                continue;
+            }
+            switch (state.tier().consistency()) {
+                case WRITE_THROUGH -> write(state, entity);
+                case WRITE_BEHIND -> enqueue(state, entity._id(), entity);
+                case READ_ONLY -> {
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds an entity to the in-memory tier, unless another instance was added meanwhile, which is returned instead.
+     */
+    private @NotNull V keep(@NotNull String entityId, @NotNull V entity) {
+        V existing = this.loadedEntities.putIfAbsent(entityId, entity);
+        return existing != null ? existing : entity;
+    }
+
+    /**
+     * Loads the entities with the specified IDs with one {@link EntityRepository#loadMany(Collection)} per tier,
+     * passing each tier the IDs the faster tiers did not have.
+     *
+     * @param entityIds The IDs of the entities to be loaded.
+     * @return a CompletableFuture containing the found entities by ID
+     */
+    @Override
+    public CompletableFuture<ObjectMap<String, V>> loadMany(@NotNull Collection<String> entityIds) {
+        Set<String> ids = new LinkedHashSet<>(entityIds);
+        List<String> missing = new ArrayList<>();
+        for (String entityId : ids) {
+            if (this.cache.get(entityId) != null) {
+                continue;
+            }
+            PendingWrite<V> pending = null;
+            for (TierState<V> state : this.tiers) {
+                pending = state.pending.get(entityId);
+                if (pending != null) {
+                    break;
+                }
+            }
+            if (pending == null) {
+                missing.add(entityId);
+            } else if (!pending.isDelete()) {
+                keep(entityId, pending.entity());
+            }
+        }
+        return loadManyFrom(0, missing).thenApply(ignored -> {
+            ObjectMap<String, V> entities = ObjectMap.newLinkedObjectMap();
+            for (String entityId : ids) {
+                V entity = this.loadedEntities.get(entityId);
+                if (entity != null) {
+                    entities.put(entityId, entity);
+                }
+            }
+            return entities;
+        });
+    }
+
+    private @NotNull CompletableFuture<Void> loadManyFrom(int index, @NotNull List<String> entityIds) {
+        if (index >= this.tiers.size() || entityIds.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        TierState<V> state = this.tiers.get(index);
+        CompletableFuture<ObjectMap<String, V>> load;
+        try {
+            load = state.tier().repository().loadMany(entityIds);
+        } catch (RuntimeException e) {
+            load = CompletableFuture.failedFuture(e);
+        }
+        return load.handle((found, throwable) -> {
+            if (throwable != null) {
+                this.logger.log(Level.SEVERE, "[EntityRepository]: Failed to load " + entityIds.size() + " entities from " + state.tier().repository().getClass().getSimpleName(), throwable);
+                return ObjectMap.<String, V>newLinkedObjectMap();
+            }
+            return found;
+        }).thenCompose(found -> {
+            List<String> missing = new ArrayList<>();
+            for (String entityId : entityIds) {
+                V entity = found.get(entityId);
+                if (entity == null) {
+                    state.misses.increment();
+                    missing.add(entityId);
+                    continue;
+                }
+                state.hits.increment();
+                release(state, entity);
+                fill(index, entity);
+                keep(entityId, entity);
+            }
+            return loadManyFrom(index + 1, missing);
+        });
+    }
+
+    /**
+     * Retrieves the loaded entity with the specified entity ID, loading it if it is not loaded or was evicted.
+     *
+     * @param entityId The ID of the entity to be retrieved.
+     * @return The loaded entity, or null if not found.
+     */
+    @Override
+    public CompletableFuture<V> getEntity(@NotNull String entityId) {
+        return load(entityId);
+    }
+
+    /**
+     * Checks if an entity with the specified ID exists in the in-memory tier, in a write-behind queue or, if
+     * {@code checkDb} is set, in any tier.
+     *
+     * @param entityId  The ID of the entity to check for existence.
+     * @param checkDb   Check if the entity exists in the tiers
+     * @param forceLoad Load the entity if it exists
+     * @return True if the entity exists, false otherwise.
+     */
+    @Override
+    public CompletableFuture<Boolean> exists(@NotNull String entityId, boolean checkDb, boolean forceLoad) {
+        if (this.loadedEntities.containsKey(entityId)) {
+            return CompletableFuture.completedFuture(true);
+        }
+        for (TierState<V> state : this.tiers) {
+            PendingWrite<V> pending = state.pending.get(entityId);
+            if (pending != null) {
+                return CompletableFuture.completedFuture(!pending.isDelete());
+            }
+        }
+        if (!checkDb) {
+            return CompletableFuture.completedFuture(false);
+        }
+        if (forceLoad) {
+            return load(entityId).thenApply(Objects::nonNull);
+        }
+        return existsFrom(0, entityId);
+    }
+
+    private @NotNull CompletableFuture<Boolean> existsFrom(int index, @NotNull String entityId) {
+        if (index >= this.tiers.size()) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return this.tiers.get(index).tier().repository().exists(entityId, true, false)
+                .exceptionally(throwable -> false)
+                .thenCompose(exists -> exists ? CompletableFuture.completedFuture(true) : existsFrom(index + 1, entityId));
+    }
+
+    /**
+     * Deletes the entity from the in-memory tier and from every writable tier: the returned future completes once
+     * the write-through tiers deleted it, while the deletion is queued for the write-behind tiers.
+     *
+     * @param entityId The ID of the entity to be deleted.
+     */
+    @Override
+    public CompletableFuture<Void> delete(@NotNull String entityId) {
+        V entity = this.loadedEntities.remove(entityId);
+        if (entity != null) {
+            entity.resetPersisted();
+        }
+        List<CompletableFuture<Void>> deletes = new ArrayList<>();
+        for (TierState<V> state : this.tiers) {
+            switch (state.tier().consistency()) {
+                case WRITE_THROUGH -> deletes.add(state.tier().repository().delete(entityId).whenComplete((ignored, throwable) -> {
+                    if (throwable != null) {
+                        state.failures.increment();
+                        this.logger.log(Level.SEVERE, "[EntityRepository]: Failed to delete " + entityId + " from " + state.tier().repository().getClass().getSimpleName(), throwable);
+                    }
+                }));
+                case WRITE_BEHIND -> enqueue(state, entityId, null);
+                case READ_ONLY -> {
+                }
+            }
+        }
+        return CompletableFuture.allOf(deletes.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Loads all entities from the last tier, the source of truth, into the in-memory tier. The faster tiers are not
+     * filled. Entities that are loaded or queued already are kept.
+     */
+    @Override
+    public CompletableFuture<BigInteger> loadAll() {
+        TierState<V> state = this.tiers.get(this.tiers.size() - 1);
+        EntityRepository<V> repository = state.tier().repository();
+        return repository.loadAll().thenApply(count -> {
+            for (V entity : new ArrayList<>(repository.getLoadedEntities().values())) {
+                release(state, entity);
+                boolean queued = false;
+                for (TierState<V> other : this.tiers) {
+                    queued |= other.pending.containsKey(entity._id());
+                }
+                if (!queued) {
+                    this.loadedEntities.putIfAbsent(entity._id(), entity);
+                }
+            }
+            return count;
+        });
+    }
+
+    /**
+     * Saves every loaded entity that may have changed with {@link #save(Entity)}.
+     * Entities that {@link Entity#tracksChanges() track their changes} and are clean are skipped.
+     */
+    @Override
+    public void saveAll() {
+        int skipped = 0;
+        for (V entity : this.loadedEntities.values()) {
+            if (entity.tracksChanges() && !entity.isDirty()) {
+                skipped++;
+            } else {
+                save(entity);
+            }
+        }
+        this.skippedWrites.add(skipped);
+    }
+
+    /**
+     * Writes the queues of the write-behind tiers and blocks until done. Entries whose write failed stay queued for
+     * the next flush.
+     *
+     * @return the number of entities written or deleted
+     */
+    public int flush() {
+        int written = 0;
+        for (TierState<V> state : this.tiers) {
+            if (state.tier().consistency() == Consistency.WRITE_BEHIND) {
+                written += flush(state);
+            }
+        }
+        return written;
+    }
+
+    private int flush(@NotNull TierState<V> state) {
+        state.flushQueued.set(false);
+        state.flushLock.lock();
+        try {
+            int written = 0;
+            List<Map.Entry<String, PendingWrite<V>>> batch = new ArrayList<>(state.tier().batchSize());
+            for (Map.Entry<String, PendingWrite<V>> entry : state.pending.entrySet()) {
+                batch.add(Map.entry(entry.getKey(), entry.getValue()));
+                if (batch.size() >= state.tier().batchSize()) {
+                    written += writeBatch(state, batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                written += writeBatch(state, batch);
+            }
+            return written;
+        } finally {
+            state.flushLock.unlock();
+        }
+    }
+
+    /**
+     * Writes a batch of queued entries to a write-behind tier concurrently and waits for them. Only the queued
+     * entries that were written are dequeued, so the writes queued again meanwhile stay queued.
+     */
+    private int writeBatch(@NotNull TierState<V> state, @NotNull List<Map.Entry<String, PendingWrite<V>>> batch) {
+        List<CompletableFuture<Boolean>> writes = new ArrayList<>(batch.size());
+        for (Map.Entry<String, PendingWrite<V>> entry : batch) {
+            if (entry.getValue().isDelete()) {
+                CompletableFuture<Void> delete;
+                try {
+                    delete = state.tier().repository().delete(entry.getKey());
+                } catch (RuntimeException e) {
+                    delete = CompletableFuture.failedFuture(e);
+                }
+                writes.add(delete.handle((ignored, throwable) -> throwable == null));
+            } else {
+                V entity = entry.getValue().entity();
+                long changes = entry.getValue().changes();
+                // the tier clears the dirty flag, which must stay set for the faster tiers if the entity changed
+                // after it was queued
+                writes.add(write(state, entity).thenApply(saved -> {
+                    if (entity.changes() != changes) {
+                        entity.markDirty();
+                    }
+                    return saved != null;
+                }));
+            }
+        }
+        int written = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            Map.Entry<String, PendingWrite<V>> entry = batch.get(i);
+            if (writes.get(i).join()) {
+                state.pending.remove(entry.getKey(), entry.getValue());
+                written++;
+            } else if (entry.getValue().isDelete()) {
+                state.failures.increment();
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Stops the periodic flushes and writes the queues of the write-behind tiers.
+     */
+    @Override
+    public void close() {
+        if (this.writer != null) {
+            this.writer.shutdownNow();
+        }
+        flush();
+    }
+
+    @Override
+    public long getSkippedWrites() {
+        return this.skippedWrites.sum();
+    }
+
+    /**
+     * Returns how many load requests were answered by a request already in flight for the same ID.
+     *
+     * @return the number of coalesced requests
+     */
+    @Override
+    public long getCoalescedRequests() {
+        return this.loads.coalesced();
+    }
+
+    /**
+     * Returns the cache of the in-memory tier, which evicts the entities according to its policy.
+     *
+     * @return the entity cache of this repository
+     */
+    @Override
+    public @NotNull EntityCache<V> getCache() {
+        return this.cache;
+    }
+
+    /**
+     * Returns the tiers of this repository, fastest first.
+     *
+     * @return the tiers
+     */
+    public @NotNull List<Tier<V>> getTiers() {
+        return this.tiers.stream().map(TierState::tier).toList();
+    }
+
+    /**
+     * Returns a snapshot of the metrics of every tier, fastest first.
+     *
+     * @return the current metrics of the tiers
+     */
+    public @NotNull List<TierMetrics> getMetrics() {
+        return this.tiers.stream().map(state -> new TierMetrics(state.tier().consistency(), state.hits.sum(),
+                state.misses.sum(), state.writes.sum(), state.failures.sum(), state.pending.size())).toList();
+    }
+
+    /**
+     * Gets the logger associated with this repository.
+     *
+     * @return The logger.
+     */
+    @Override
+    public Logger getLogger() {
+        return this.logger;
+    }
+
+    /**
+     * Returns an observable map of all loaded entities, the in-memory tier.
+     *
+     * @return an ObservableObjectMap containing all loaded entities
+     */
+    @Override
+    public ObservableObjectMap<String, V> getLoadedEntities() {
+        return this.loadedEntities;
+    }
+
+    @Override
+    public String toString() {
+        return "TieredEntityRepository{" +
+                "name='" + name + '\'' +
+                ", tiers=" + getMetrics() +
+                '}';
+    }
+
+    /**
+     * How saves and deletes reach a tier.
+     */
+    public enum Consistency {
+        /**
+         * Saves and deletes complete once the tier wrote them, and fail if it could not.
+         */
+        WRITE_THROUGH,
+        /**
+         * Saves and deletes are queued, only the latest per ID, and written every flush interval or once the batch
+         * size is queued. Loads of a queued ID are answered from the queue. Queued writes are lost if the process
+         * dies before they were flushed.
+         */
+        WRITE_BEHIND,
+        /**
+         * The tier is only read, for example a replica maintained by another application.
+         */
+        READ_ONLY
+    }
+
+    /**
+     * A repository layered by a {@link TieredEntityRepository}.
+     *
+     * @param repository    the repository of the tier
+     * @param consistency   how saves and deletes reach the tier
+     * @param fillOnRead    whether entities found in a slower tier are written to this tier
+     * @param flushInterval the interval between two flushes of a {@link Consistency#WRITE_BEHIND} tier
+     * @param batchSize     the number of queued writes that triggers a flush, and the number written concurrently
+     * @param <V>           the type of the entities
+     */
+    public record Tier<V extends Entity>(@NotNull EntityRepository<V> repository, @NotNull Consistency consistency,
+                                         boolean fillOnRead, @NotNull Duration flushInterval, int batchSize) {
+
+        /**
+         * The default flush interval of write-behind tiers.
+         */
+        public static final Duration DEFAULT_FLUSH_INTERVAL = Duration.ofSeconds(5);
+
+        /**
+         * The default batch size of write-behind tiers.
+         */
+        public static final int DEFAULT_BATCH_SIZE = 500;
+
+        public Tier {
+            if (flushInterval.isNegative() || flushInterval.isZero()) {
+                throw new IllegalArgumentException("flushInterval must be positive");
+            }
+            if (batchSize < 1) {
+                throw new IllegalArgumentException("batchSize must be at least 1");
+            }
+        }
+
+        /**
+         * Returns a write-through tier that is filled on read, for example the local tier.
+         *
+         * @param repository the repository of the tier
+         * @param <V>        the type of the entities
+         * @return the tier
+         */
+        @Contract("_ -> new")
+        public static <V extends Entity> @NotNull Tier<V> writeThrough(@NotNull EntityRepository<V> repository) {
+            return new Tier<>(repository, Consistency.WRITE_THROUGH, true, DEFAULT_FLUSH_INTERVAL, DEFAULT_BATCH_SIZE);
+        }
+
+        /**
+         * Returns a write-behind tier that is not filled on read, for example the remote tier.
+         *
+         * @param repository the repository of the tier
+         * @param <V>        the type of the entities
+         * @return the tier
+         */
+        @Contract("_ -> new")
+        public static <V extends Entity> @NotNull Tier<V> writeBehind(@NotNull EntityRepository<V> repository) {
+            return new Tier<>(repository, Consistency.WRITE_BEHIND, false, DEFAULT_FLUSH_INTERVAL, DEFAULT_BATCH_SIZE);
+        }
+
+        /**
+         * Returns a read-only tier.
+         *
+         * @param repository the repository of the tier
+         * @param <V>        the type of the entities
+         * @return the tier
+         */
+        @Contract("_ -> new")
+        public static <V extends Entity> @NotNull Tier<V> readOnly(@NotNull EntityRepository<V> repository) {
+            return new Tier<>(repository, Consistency.READ_ONLY, false, DEFAULT_FLUSH_INTERVAL, DEFAULT_BATCH_SIZE);
+        }
+
+        @Contract("_ -> new")
+        public @NotNull Tier<V> fillOnRead(boolean fillOnRead) {
+            return new Tier<>(this.repository, this.consistency, fillOnRead, this.flushInterval, this.batchSize);
+        }
+
+        @Contract("_ -> new")
+        public @NotNull Tier<V> flushInterval(@NotNull Duration flushInterval) {
+            return new Tier<>(this.repository, this.consistency, this.fillOnRead, flushInterval, this.batchSize);
+        }
+
+        @Contract("_ -> new")
+        public @NotNull Tier<V> batchSize(int batchSize) {
+            return new Tier<>(this.repository, this.consistency, this.fillOnRead, this.flushInterval, batchSize);
+        }
+    }
+
+    /**
+     * A snapshot of the metrics of a tier.
+     *
+     * @param consistency how saves and deletes reach the tier
+     * @param hits        the number of loads the tier answered
+     * @param misses      the number of loads the tier did not have the entity for
+     * @param writes      the number of entities the tier wrote
+     * @param failures    the number of writes and deletes of the tier that failed
+     * @param pending     the number of writes and deletes queued for the tier
+     */
+    public record TierMetrics(@NotNull Consistency consistency, long hits, long misses, long writes, long failures,
+                              int pending) {
+
+        /**
+         * Returns the fraction of the loads reaching this tier that it answered.
+         *
+         * @return the hit rate, or 0 if no load reached the tier
+         */
+        public double hitRate() {
+            long total = this.hits + this.misses;
+            return total == 0 ? 0 : (double) this.hits / total;
+        }
+    }
+
+    /**
+     * A tier with its write-behind queue and counters.
+     */
+    private static final class TierState<V extends Entity> {
+        private final Tier<V> tier;
+        private final Map<String, PendingWrite<V>> pending = new ConcurrentHashMap<>();
+        private final ReentrantLock flushLock = new ReentrantLock();
+        private final AtomicBoolean flushQueued = new AtomicBoolean();
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder writes = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+
+        private TierState(@NotNull Tier<V> tier) {
+            this.tier = tier;
+        }
+
+        private @NotNull Tier<V> tier() {
+            return this.tier;
+        }
+    }
+
+    /**
+     * A queued write or deletion of an entity for a write-behind tier, compared by identity.
+     */
+    private static final class PendingWrite<V extends Entity> {
+        private final @Nullable V entity;
+        private final long changes;
+
+        private PendingWrite(@Nullable V entity) {
+            this.entity = entity;
+            this.changes = entity != null ? entity.changes() : 0;
+        }
+
+        /**
+         * Returns the entity to write, or null for a deletion.
+         */
+        private @Nullable V entity() {
+            return this.entity;
+        }
+
+        /**
+         * Returns the {@link Entity#changes() change count} of the entity when the write was queued.
+         */
+        private long changes() {
+            return this.changes;
+        }
+
+        private boolean isDelete() {
+            return this.entity == null;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.georgev22.library.utilities;
 
 import com.georgev22.library.maps.ObservableObjectMap;
+import com.georgev22.library.yaml.file.AtomicFileWriter;
 import com.georgev22.library.yaml.file.YamlConfiguration;
 import com.georgev22.library.yaml.serialization.ConfigurationSerializable;
 import org.jetbrains.annotations.NotNull;
@@ -8,10 +9,14 @@ import org.jetbrains.annotations.NotNull;
 import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -23,9 +28,16 @@ import java.util.logging.Logger;
 public class YamlEntityRepository<V extends Entity> implements EntityRepository<V> {
 
     private final ObservableObjectMap<String, V> loadedEntities = new ObservableObjectMap<>();
+    private final EntityCache<V> cache = new EntityCache<>(this, this.loadedEntities);
     private final File dataFolder;
     private final Logger logger;
     private final Class<V> entityClass;
+    private final RepositoryExecutor executor;
+    private final LongAdder skippedWrites = new LongAdder();
+    private final SingleFlight<String, V> loads = new SingleFlight<>();
+    private final SingleFlight<Map.Entry<String, Boolean>, Boolean> existsChecks = new SingleFlight<>();
+    private final SingleFlight<String, V> saves = new SingleFlight<>();
+    private volatile AtomicFileWriter.Durability durability = AtomicFileWriter.Durability.ATOMIC;
 
     /**
      * Constructs a YAML entity repository.
@@ -35,6 +47,19 @@ public class YamlEntityRepository<V extends Entity> implements EntityRepository<
      * @param entityClass The class type of the entity managed by this repository.
      */
     public YamlEntityRepository(File dataFolder, Logger logger, Class<V> entityClass) {
+        this(dataFolder, logger, entityClass, RepositoryExecutor.shared("YamlEntityRepository-" + dataFolder.getName()));
+    }
+
+    /**
+     * Constructs a YAML entity repository that runs its file I/O on the given executor.
+     *
+     * @param dataFolder  The folder where YAML files will be stored.
+     * @param logger      The logger for handling log messages.
+     * @param entityClass The class type of the entity managed by this repository.
+     * @param executor    The executor that runs the file I/O.
+     */
+    public YamlEntityRepository(File dataFolder, Logger logger, Class<V> entityClass, @NotNull Executor executor) {
+        this.executor = RepositoryExecutor.of("YamlEntityRepository-" + dataFolder.getName(), executor);
         if (!ConfigurationSerializable.class.isAssignableFrom(entityClass)) {
             throw new RuntimeException("Entity is not a ConfigurationSerializable");
         }
@@ -56,21 +81,34 @@ public class YamlEntityRepository<V extends Entity> implements EntityRepository<
      */
     @Override
     public CompletableFuture<V> save(@NotNull V entity) {
-        return CompletableFuture.supplyAsync(() -> {
-            File file = new File(dataFolder, entity._id() + ".yml");
-            YamlConfiguration config = YamlConfiguration.loadConfiguration(file);
+        return this.saves.executeLatest(entity._id(), () -> CompletableFuture.supplyAsync(() -> {
+            entity.clearDirty();
+            return write(entity, contentHash(entity));
+        }, this.executor).thenCompose(Function.identity()));
+    }
 
-            config.set("entity", entity);
+    private CompletableFuture<V> write(@NotNull V entity, long contentHash) {
+        File file = new File(dataFolder, entity._id() + ".yml");
+        YamlConfiguration config = YamlConfiguration.loadConfiguration(file);
 
-            try {
-                config.save(file);
-            } catch (IOException e) {
-                this.logger.log(Level.SEVERE, "[EntityRepository]:", e);
+        config.set("entity", entity);
+
+        byte[] data = config.saveToString().getBytes(StandardCharsets.UTF_8);
+        return AtomicFileWriter.shared(this.durability).write(file.toPath(), data).handleAsync((ignored, throwable) -> {
+            if (throwable != null) {
+                entity.markDirty();
+                this.logger.log(Level.SEVERE, "[EntityRepository]:", throwable);
                 return null;
             }
-
+            entity.markPersisted(contentHash);
             return entity;
-        });
+        }, this.executor);
+    }
+
+    private long contentHash(@NotNull V entity) {
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("entity", entity);
+        return Entity.contentHash(config.saveToString());
     }
 
     /**
@@ -81,10 +119,11 @@ public class YamlEntityRepository<V extends Entity> implements EntityRepository<
      */
     @Override
     public CompletableFuture<V> load(@NotNull String entityId) {
-        if (loadedEntities.containsKey(entityId)) {
-            return CompletableFuture.completedFuture(loadedEntities.get(entityId));
+        V loaded = this.cache.get(entityId);
+        if (loaded != null) {
+            return CompletableFuture.completedFuture(loaded);
         }
-        return CompletableFuture.supplyAsync(() -> {
+        return this.loads.execute(entityId, () -> CompletableFuture.supplyAsync(() -> {
             File file = new File(dataFolder, entityId + ".yml");
             if (!file.exists()) {
                 return null;
@@ -97,22 +136,22 @@ public class YamlEntityRepository<V extends Entity> implements EntityRepository<
                 this.logger.log(Level.SEVERE, "[EntityRepository] Error loading entity from file: " + file.getPath());
                 return null;
             }
+            entity.clearDirty();
+            // the parser already decoded the stored section, so it is hashed as it serializes again
+            entity.markPersisted(contentHash(entity));
             this.loadedEntities.put(entityId, entity);
             return entity;
-        });
+        }, this.executor));
     }
 
     /**
-     * Retrieves the loaded entity with the specified entity ID.
+     * Retrieves the loaded entity with the specified entity ID, loading it if it is not loaded or was evicted.
      *
      * @param entityId The ID of the entity to be retrieved.
      * @return The loaded entity, or null if not found.
      */
     @Override
     public CompletableFuture<V> getEntity(@NotNull String entityId) {
-        if (loadedEntities.containsKey(entityId)) {
-            return CompletableFuture.completedFuture(loadedEntities.get(entityId));
-        }
         return this.load(entityId);
     }
 
@@ -126,17 +165,18 @@ public class YamlEntityRepository<V extends Entity> implements EntityRepository<
      */
     @Override
     public CompletableFuture<Boolean> exists(@NotNull String entityId, boolean checkDb, boolean forceLoad) {
-        return CompletableFuture.supplyAsync(() -> {
+        if (!checkDb) {
+            return CompletableFuture.completedFuture(loadedEntities.containsKey(entityId));
+        }
+        return this.existsChecks.execute(Map.entry(entityId, forceLoad), () -> CompletableFuture.supplyAsync(() -> {
             if (loadedEntities.containsKey(entityId)) {
                 return true;
             }
 
-            if (checkDb) {
-                File file = new File(dataFolder, entityId + ".yml");
-                return forceLoad ? this.load(entityId) != null : file.exists();
-            }
-            return false;
-        });
+            return new File(dataFolder, entityId + ".yml").exists();
+        }, this.executor).thenCompose(found -> found && forceLoad
+                ? this.load(entityId).thenApply(Objects::nonNull)
+                : CompletableFuture.completedFuture(found)));
     }
 
     /**
@@ -152,47 +192,136 @@ public class YamlEntityRepository<V extends Entity> implements EntityRepository<
                 //noinspection ResultOfMethodCallIgnored
                 file.delete();
             }
-            this.loadedEntities.remove(entityId);
-        });
+            V entity = this.loadedEntities.remove(entityId);
+            if (entity != null) {
+                entity.resetPersisted();
+            }
+        }, this.executor);
     }
 
     /**
      * Loads all entities from the data folder.
+     * <p>
+     * The files are read and parsed in parallel by a {@link DirectoryLoader}. Entities that are already loaded are
+     * kept as they are.
      */
     @Override
     public CompletableFuture<BigInteger> loadAll() {
         return CompletableFuture.supplyAsync(() -> {
-            File[] files = dataFolder.listFiles((dir, name) -> name.endsWith(".yml"));
-            if (files == null) {
-                return CompletableFuture.completedFuture(BigInteger.ZERO);
+            if (!this.dataFolder.isDirectory()) {
+                return BigInteger.ZERO;
             }
-
-            AtomicReference<BigInteger> atomicCount = new AtomicReference<>(BigInteger.ZERO);
-            List<CompletableFuture<Void>> futures = new ArrayList<>();
-
-            for (File file : files) {
-                String entityId = file.getName().replace(".yml", "");
-                CompletableFuture<Void> future = load(entityId).thenAccept(v -> {
-                    if (v != null) {
-                        atomicCount.updateAndGet(current -> current.add(BigInteger.ONE));
+            try {
+                DirectoryLoader.Result result = new DirectoryLoader(this.dataFolder.toPath(), ".yml").load(ForkJoinPool.commonPool(), (entityId, content) -> {
+                    if (this.loadedEntities.containsKey(entityId)) {
+                        return true;
+                    }
+                    YamlConfiguration config = new YamlConfiguration();
+                    config.loadFromString(content.toString());
+                    V entity = config.getObject("entity", this.entityClass);
+                    if (entity == null) {
+                        this.logger.log(Level.SEVERE, "[EntityRepository] Error loading entity from file: " + entityId + ".yml");
+                        return false;
                     }
+                    entity.clearDirty();
+                    entity.markPersisted(contentHash(entity));
+                    this.loadedEntities.put(entityId, entity);
+                    return true;
                 });
-                futures.add(future);
+                if (result.failure() != null) {
+                    this.logger.log(Level.SEVERE, "[EntityRepository]: Failed to load " + result.failed() + " entities", result.failure());
+                }
+                this.logger.log(Level.FINE, "[EntityRepository]: loadAll loaded " + result);
+                return BigInteger.valueOf(result.loaded());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.logger.log(Level.SEVERE, "[EntityRepository]: Interrupted while loading entities", e);
+            } catch (IOException e) {
+                this.logger.log(Level.SEVERE, "[EntityRepository]:", e);
             }
-
-            CompletableFuture<Void> allOf = CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
-            return allOf.thenApply(v -> atomicCount.get());
-        }).thenCompose(countFuture -> countFuture);
+            return BigInteger.ZERO;
+        }, this.executor);
     }
 
     /**
-     * Saves all entities to the data folder.
+     * Saves all changed entities to the data folder.
      */
     @Override
     public void saveAll() {
+        int skipped = 0;
         for (V entity : this.loadedEntities.values()) {
-            save(entity);
+            if (entity.tracksChanges() && !entity.isDirty()) {
+                skipped++;
+                continue;
+            }
+            entity.clearDirty();
+            long contentHash = contentHash(entity);
+            if (entity.isPersisted(contentHash)) {
+                skipped++;
+                continue;
+            }
+            this.saves.executeLatest(entity._id(), () -> CompletableFuture.supplyAsync(() -> write(entity, contentHash), this.executor).thenCompose(Function.identity()));
         }
+        this.skippedWrites.add(skipped);
+        this.logger.log(Level.FINE, "[EntityRepository]: saveAll skipped " + skipped + " unchanged entities.");
+    }
+
+    @Override
+    public long getSkippedWrites() {
+        return this.skippedWrites.sum();
+    }
+
+    /**
+     * Returns how many load, exists and save requests were answered by a request already in flight for the same ID.
+     *
+     * @return the number of coalesced requests
+     */
+    @Override
+    public long getCoalescedRequests() {
+        return this.loads.coalesced() + this.existsChecks.coalesced() + this.saves.coalesced();
+    }
+
+    /**
+     * Returns the executor that runs the I/O of this repository.
+     *
+     * @return the executor of this repository
+     */
+    @Override
+    public @NotNull RepositoryExecutor getExecutor() {
+        return this.executor;
+    }
+
+    /**
+     * Returns the cache of the loaded entities, which evicts them according to its policy.
+     *
+     * @return the entity cache of this repository
+     */
+    @Override
+    public @NotNull EntityCache<V> getCache() {
+        return this.cache;
+    }
+
+    /**
+     * Sets what a save must survive before its future completes. Files are always replaced atomically, so a crash
+     * never leaves a truncated file behind; {@link AtomicFileWriter.Durability#GROUP} additionally forces the writes
+     * of a short window to the disk together, and {@link AtomicFileWriter.Durability#SYNC} forces every write on its
+     * own.
+     * <p>
+     * Defaults to {@link AtomicFileWriter.Durability#ATOMIC}.
+     *
+     * @param durability the durability of saves
+     */
+    public void setDurability(@NotNull AtomicFileWriter.Durability durability) {
+        this.durability = durability;
+    }
+
+    /**
+     * Returns what a save must survive before its future completes.
+     *
+     * @return the durability of saves
+     */
+    public @NotNull AtomicFileWriter.Durability getDurability() {
+        return this.durability;
     }
 
     /**
@@ -0,0 +1,106 @@
+package com.georgev22.library.database.mongo;
+
+import com.georgev22.library.utilities.Entity;
+import com.google.gson.Gson;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Compares the encoding and decoding of entities with {@link EntityCodec} against the previous path, which turned
+ * an entity into JSON with Gson and parsed it again with {@link Document#parse(String)}.
+ * <p>
+ * This is not a unit test and needs the real BSON library on the classpath. Run it from the test classpath with
+ * {@code java com.georgev22.library.database.mongo.EntityCodecBenchmark [entities] [rounds]}; each line reports
+ * the best of the rounds.
+ */
+public final class EntityCodecBenchmark {
+
+    private static long blackhole;
+
+    private EntityCodecBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        Gson gson = new Gson();
+        EntityCodec<Player> codec = EntityCodec.of(Player.class, gson);
+
+        List<Player> players = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            players.add(Player.random(i));
+        }
+        List<Document> parsed = new ArrayList<>(count);
+        List<RawBsonDocument> documents = new ArrayList<>(count);
+        for (Player player : players) {
+            parsed.add(Document.parse(gson.toJson(player)));
+            documents.add(codec.toDocument(player));
+        }
+
+        run("encode gson + Document.parse", rounds, players, player -> consume(Document.parse(gson.toJson(player))));
+        run("encode EntityCodec", rounds, players, player -> consume(codec.toDocument(player)));
+        run("decode Document.toJson + gson", rounds, parsed, document -> consume(gson.fromJson(document.toJson(), Player.class)));
+        run("decode EntityCodec", rounds, documents, document -> consume(codec.fromDocument(document)));
+        System.out.println("document size: " + documents.get(0).getByteBuffer().remaining() + " bytes");
+    }
+
+    private static <T> void run(String name, int rounds, List<T> inputs, Consumer<T> operation) {
+        double best = 0;
+        // the first round warms up the JIT and is not counted
+        for (int round = 0; round <= rounds; round++) {
+            long start = System.nanoTime();
+            for (T input : inputs) {
+                operation.accept(input);
+            }
+            double perSecond = inputs.size() / ((System.nanoTime() - start) / 1_000_000_000.0);
+            if (round > 0) {
+                best = Math.max(best, perSecond);
+            }
+        }
+        System.out.printf("%-32s %,12.0f ops/s%n", name, best);
+    }
+
+    private static void consume(Object value) {
+        blackhole += System.identityHashCode(value);
+    }
+
+    /**
+     * An entity with the field types of a typical player profile.
+     */
+    public static final class Player extends Entity {
+        private String name;
+        private int level;
+        private long experience;
+        private double balance;
+        private boolean online;
+        private UUID uuid;
+        private List<String> friends;
+        private Map<String, Integer> stats;
+
+        public Player(String _id) {
+            super(_id);
+        }
+
+        private static Player random(int index) {
+            Player player = new Player("player-" + index);
+            player.name = "Player" + index;
+            player.level = index % 100;
+            player.experience = index * 1_000L;
+            player.balance = index * 1.5;
+            player.online = index % 2 == 0;
+            player.uuid = new UUID(index, ~index);
+            player.friends = List.of("friend-" + (index + 1), "friend-" + (index + 2), "friend-" + (index + 3));
+            player.stats = new LinkedHashMap<>();
+            player.stats.put("kills", index % 50);
+            player.stats.put("deaths", index % 30);
+            return player;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.georgev22.library.utilities;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DirectoryLoaderTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsSmallAndLargeFiles() throws IOException, InterruptedException {
+        Map<String, String> expected = Map.of(
+                "small", "{\"name\":\"small\"}",
+                "large", "x".repeat(300 * 1024),
+                "larger", "\u00e9".repeat(700 * 1024),
+                "huge", "y".repeat(3 * 1024 * 1024));
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            Files.writeString(directory.resolve(entry.getKey() + ".json"), entry.getValue());
+        }
+        Files.writeString(directory.resolve("ignored.yml"), "ignored");
+        Map<String, String> read = new ConcurrentHashMap<>();
+
+        DirectoryLoader.Result result = new DirectoryLoader(directory, ".json", 2).load(ForkJoinPool.commonPool(), (id, content) -> {
+            read.put(id, content.toString());
+            return true;
+        });
+
+        assertEquals(expected, read);
+        assertEquals(4, result.files());
+        assertEquals(4, result.loaded());
+        assertEquals(0, result.failed());
+        long bytes = 0;
+        for (String content : expected.values()) {
+            bytes += content.getBytes(StandardCharsets.UTF_8).length;
+        }
+        assertEquals(bytes, result.bytes());
+    }
+
+    @Test
+    void filesCanBeReplacedAfterTheyWereRead() throws IOException, InterruptedException {
+        Path file = Files.writeString(directory.resolve("entity.json"), "z".repeat(256 * 1024));
+
+        new DirectoryLoader(directory, ".json", 1).load(Runnable::run, (id, content) -> true);
+
+        Path replacement = Files.writeString(directory.resolve("entity.json.tmp"), "replaced");
+        Files.move(replacement, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        assertEquals("replaced", Files.readString(file));
+    }
+
+    @Test
+    void malformedFilesAreCountedAsFailed() throws IOException, InterruptedException {
+        Files.writeString(directory.resolve("valid.json"), "valid");
+        Files.write(directory.resolve("malformed.json"), new byte[]{(byte) 0xC3, (byte) 0x28});
+
+        DirectoryLoader.Result result = new DirectoryLoader(directory, ".json", 1).load(Runnable::run, (id, content) -> true);
+
+        assertEquals(2, result.files());
+        assertEquals(1, result.loaded());
+        assertEquals(1, result.failed());
+        assertNotNull(result.failure());
+    }
+}
@@ -0,0 +1,105 @@
+package com.georgev22.library.utilities;
+
+import com.google.gson.Gson;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EntityCacheTest {
+
+    private static final Logger LOGGER = Logger.getLogger(EntityCacheTest.class.getName());
+
+    static {
+        LOGGER.setLevel(Level.OFF);
+    }
+
+    private final FakeDatabase database = new FakeDatabase();
+    private final MySQLEntityRepository<GenericEntity> repository = new MySQLEntityRepository<>(database, LOGGER,
+            GenericEntity.class, "entities", EntitySerializer.gson(GenericEntity.class, new Gson()), Runnable::run);
+    private final EntityCache<GenericEntity> cache = repository.getCache();
+
+    @AfterEach
+    void disableWriteBehind() {
+        repository.disableWriteBehind();
+    }
+
+    @Test
+    void evictedEntityIsSavedAndUnloaded() {
+        GenericEntity entity = entity("a", "first");
+        repository.save(entity).join();
+        entity.setValue("name", "second");
+
+        assertTrue(cache.evict("a"));
+
+        assertFalse(repository.getLoadedEntities().containsKey("a"));
+        assertEquals(2, database.writes.get());
+        assertEquals(1, cache.getMetrics().evictions());
+        assertEquals("second", repository.load("a").join().getName());
+    }
+
+    @Test
+    void evictedEntityStaysUnloadedWithWriteBehind() {
+        repository.enableWriteBehind(100, 1, TimeUnit.HOURS);
+        GenericEntity entity = entity("a", "first");
+        repository.save(entity).join();
+
+        assertTrue(cache.evict("a"));
+
+        assertFalse(repository.getLoadedEntities().containsKey("a"));
+        assertEquals(1, repository.pendingWrites());
+        assertSame(entity, repository.load("a").join());
+    }
+
+    @Test
+    void entityThatFailsToSaveStaysLoaded() {
+        GenericEntity entity = entity("a", "first");
+        repository.save(entity).join();
+        entity.setValue("name", "second");
+        database.failWrites = true;
+
+        cache.evict("a");
+
+        assertSame(entity, repository.getLoadedEntities().get("a"));
+        assertTrue(entity.isDirty());
+    }
+
+    @Test
+    void pinnedEntitiesAreNotEvicted() {
+        repository.save(entity("a", "first")).join();
+        repository.save(entity("b", "second")).join();
+        repository.save(entity("c", "third")).join();
+        cache.pin("a");
+
+        assertFalse(cache.evict("a"));
+        cache.setPolicy(EntityCache.Policy.UNBOUNDED.maximumSize(1));
+        cache.cleanUp();
+
+        assertEquals(1, repository.getLoadedEntities().size());
+        assertTrue(repository.getLoadedEntities().containsKey("a"));
+        cache.setPolicy(EntityCache.Policy.UNBOUNDED);
+    }
+
+    @Test
+    void idleEntitiesAreEvicted() throws InterruptedException {
+        repository.save(entity("a", "first")).join();
+        cache.setPolicy(EntityCache.Policy.UNBOUNDED.idleTimeout(Duration.ofMillis(1)).cleanupInterval(Duration.ofHours(1)));
+        Thread.sleep(5);
+
+        assertEquals(1, cache.cleanUp());
+
+        assertTrue(repository.getLoadedEntities().isEmpty());
+        cache.setPolicy(EntityCache.Policy.UNBOUNDED);
+    }
+
+    private static GenericEntity entity(String id, String name) {
+        GenericEntity entity = new GenericEntity(id);
+        entity.setValue("name", name);
+        return entity;
+    }
+}
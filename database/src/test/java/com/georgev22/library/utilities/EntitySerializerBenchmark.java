@@ -0,0 +1,112 @@
+package com.georgev22.library.utilities;
+
+import com.google.gson.Gson;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Compares the size and the encoding and decoding speed of the {@link EntitySerializer} formats on an entity with
+ * nine fields, including a list and a map.
+ * <p>
+ * This is not a unit test. Run it from the test classpath with
+ * {@code java com.georgev22.library.utilities.EntitySerializerBenchmark [entities] [rounds]}; each line reports the
+ * best of the rounds.
+ */
+public final class EntitySerializerBenchmark {
+
+    private static long blackhole;
+
+    private EntitySerializerBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        Gson gson = new Gson();
+        List<Player> players = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            players.add(Player.random(i));
+        }
+
+        List<EntitySerializer<Player>> serializers = List.of(
+                EntitySerializer.gson(Player.class, gson),
+                EntitySerializer.kryo(Player.class),
+                EntitySerializer.binary(Player.class, gson));
+        for (EntitySerializer<Player> serializer : serializers) {
+            List<byte[]> encoded = new ArrayList<>(count);
+            for (Player player : players) {
+                encoded.add(serializer.serialize(player));
+            }
+            System.out.printf("%-8s %5d B  encode %,10.0f/s  decode %,10.0f/s%n", serializer.name(), encoded.get(0).length,
+                    run(rounds, players, player -> consume(serializer.serialize(player))),
+                    run(rounds, encoded, data -> consume(serializer.deserialize(data))));
+        }
+    }
+
+    private static <T> double run(int rounds, List<T> inputs, Consumer<T> operation) {
+        double best = 0;
+        // the first round warms up the JIT and is not counted
+        for (int round = 0; round <= rounds; round++) {
+            long start = System.nanoTime();
+            for (T input : inputs) {
+                operation.accept(input);
+            }
+            double perSecond = inputs.size() / ((System.nanoTime() - start) / 1_000_000_000.0);
+            if (round > 0) {
+                best = Math.max(best, perSecond);
+            }
+        }
+        return best;
+    }
+
+    private static void consume(Object value) {
+        blackhole += System.identityHashCode(value);
+    }
+
+    /**
+     * The rank of a {@link Player}.
+     */
+    public enum Rank {
+        MEMBER, VIP, ADMIN
+    }
+
+    /**
+     * An entity with the field types of a typical player profile.
+     */
+    public static final class Player extends Entity {
+        private String name;
+        private int level;
+        private long experience;
+        private double balance;
+        private boolean online;
+        private UUID uuid;
+        private Rank rank;
+        private List<String> friends;
+        private Map<String, Integer> stats;
+
+        public Player(String _id) {
+            super(_id);
+        }
+
+        private static Player random(int index) {
+            Player player = new Player("player-" + index);
+            player.name = "Player" + index;
+            player.level = index % 100;
+            player.experience = index * 1_000L;
+            player.balance = index * 1.5;
+            player.online = index % 2 == 0;
+            player.uuid = new UUID(index, ~index);
+            player.rank = Rank.values()[index % Rank.values().length];
+            player.friends = new ArrayList<>(List.of("friend-" + (index + 1), "friend-" + (index + 2), "friend-" + (index + 3)));
+            player.stats = new LinkedHashMap<>();
+            player.stats.put("kills", index % 50);
+            player.stats.put("deaths", index % 30);
+            return player;
+        }
+    }
+}
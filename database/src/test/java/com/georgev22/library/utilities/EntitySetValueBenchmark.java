@@ -0,0 +1,131 @@
+package com.georgev22.library.utilities;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares {@link Entity#setValue(String, Object)} and {@link Entity#setValues(Map)} with the previous
+ * implementation, which looked up the setter or the field reflectively on every call.
+ * <p>
+ * This is not a unit test. Run it from the test classpath with
+ * {@code java com.georgev22.library.utilities.EntitySetValueBenchmark [operations] [rounds]}; each line reports the
+ * best of the rounds, in values set per second, or in entities per second for the lines setting four keys.
+ */
+public final class EntitySetValueBenchmark {
+
+    private static long blackhole;
+
+    private EntitySetValueBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        FieldEntity fields = new FieldEntity("fields");
+        SetterEntity setters = new SetterEntity("setters");
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("name", "name");
+        values.put("level", 42);
+        values.put("balance", 1.5);
+        values.put("online", true);
+
+        compare("field-only entity", operations, rounds,
+                i -> legacySetValue(fields, "level", i),
+                i -> fields.setValue("level", i));
+        compare("exact-type setter", operations, rounds,
+                i -> legacySetValue(setters, "level", i),
+                i -> setters.setValue("level", i));
+        compare("4 keys per entity", operations / 4, rounds,
+                i -> values.forEach((key, value) -> legacySetValue(fields, key, value)),
+                i -> values.forEach(fields::setValue));
+        report("4 keys with setValues", measure(operations / 4, rounds, i -> fields.setValues(values)));
+        blackhole += fields.level + setters.level;
+    }
+
+    private static void compare(String name, int operations, int rounds, Operation legacy, Operation current) {
+        report(name + " (reflection)", measure(operations, rounds, legacy));
+        report(name, measure(operations, rounds, current));
+    }
+
+    private static double measure(int operations, int rounds, Operation operation) {
+        double best = 0;
+        // the first round warms up the JIT and is not counted
+        for (int round = 0; round <= rounds; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < operations; i++) {
+                operation.run(i);
+            }
+            double perSecond = operations / ((System.nanoTime() - start) / 1_000_000_000.0);
+            if (round > 0) {
+                best = Math.max(best, perSecond);
+            }
+        }
+        return best;
+    }
+
+    private static void report(String name, double perSecond) {
+        System.out.printf("%-34s %,14.0f/s%n", name, perSecond);
+    }
+
+    /**
+     * The implementation of {@link Entity#setValue(String, Object)} before the accessors were cached.
+     */
+    private static void legacySetValue(@NotNull Entity entity, @NotNull String key, Object value) {
+        if (key.equals("_id")) {
+            return;
+        }
+        try {
+            Method method = entity.getClass().getDeclaredMethod("set" + key.substring(0, 1).toUpperCase() + key.substring(1), value.getClass());
+            method.invoke(entity, value);
+        } catch (InvocationTargetException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        } catch (NoSuchMethodException e) {
+            try {
+                Field field = entity.getClass().getDeclaredField(key);
+                field.setAccessible(true);
+                field.set(entity, value);
+            } catch (NoSuchFieldException | IllegalAccessException ex) {
+                throw new RuntimeException("No setter found for key '" + key + "'", ex);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+        void run(int index);
+    }
+
+    /**
+     * An entity set through its fields only.
+     */
+    public static final class FieldEntity extends Entity {
+        private String name;
+        private int level;
+        private double balance;
+        private boolean online;
+
+        public FieldEntity(String _id) {
+            super(_id);
+        }
+    }
+
+    /**
+     * An entity with a setter taking the boxed type, which the previous implementation found directly.
+     */
+    public static final class SetterEntity extends Entity {
+        private int level;
+
+        public SetterEntity(String _id) {
+            super(_id);
+        }
+
+        public void setLevel(Integer level) {
+            this.level = level;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.georgev22.library.utilities;
+
+import com.georgev22.library.database.sql.Database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-memory {@link Database} with a single {@code (_id, data)} table, backed by proxies of the JDBC interfaces.
+ * It understands the statements of {@link MySQLEntityRepository} and records how its connection is used.
+ */
+final class FakeDatabase extends Database {
+
+    final Map<String, Object> rows = new LinkedHashMap<>();
+    final AtomicInteger closes = new AtomicInteger();
+    final AtomicInteger writes = new AtomicInteger();
+    volatile boolean failWrites;
+    volatile boolean autoCommit = true;
+    volatile Runnable beforeBatch;
+
+    @Override
+    public Connection openConnection() {
+        if (this.connection == null) {
+            this.connection = proxy(Connection.class, (proxy, method, args) -> switch (method.getName()) {
+                case "prepareStatement" -> statement((String) args[0]);
+                case "getAutoCommit" -> autoCommit;
+                case "setAutoCommit" -> {
+                    autoCommit = (Boolean) args[0];
+                    yield null;
+                }
+                case "isClosed" -> false;
+                case "isValid" -> true;
+                case "close" -> {
+                    closes.incrementAndGet();
+                    yield null;
+                }
+                case "hashCode" -> System.identityHashCode(proxy);
+                case "equals" -> proxy == args[0];
+                default -> null;
+            });
+        }
+        return this.connection;
+    }
+
+    private PreparedStatement statement(String sql) {
+        Object[] parameters = new Object[1024];
+        List<Object[]> batch = new ArrayList<>();
+        return proxy(PreparedStatement.class, (proxy, method, args) -> switch (method.getName()) {
+            case "setString", "setObject" -> {
+                parameters[(Integer) args[0]] = args[1];
+                yield null;
+            }
+            case "addBatch" -> {
+                batch.add(parameters.clone());
+                yield null;
+            }
+            case "executeBatch" -> {
+                Runnable hook = beforeBatch;
+                if (hook != null) {
+                    beforeBatch = null;
+                    hook.run();
+                }
+                checkWrite();
+                synchronized (rows) {
+                    for (Object[] row : batch) {
+                        rows.put((String) row[1], row[2]);
+                    }
+                }
+                writes.addAndGet(batch.size());
+                yield new int[batch.size()];
+            }
+            case "executeUpdate" -> {
+                checkWrite();
+                synchronized (rows) {
+                    if (sql.startsWith("DELETE")) {
+                        yield rows.remove((String) parameters[1]) != null ? 1 : 0;
+                    }
+                    rows.put((String) parameters[1], parameters[2]);
+                }
+                writes.incrementAndGet();
+                yield 1;
+            }
+            case "executeQuery" -> resultSet(sql, parameters);
+            default -> null;
+        });
+    }
+
+    private void checkWrite() throws SQLException {
+        if (failWrites) {
+            throw new SQLException("write failed");
+        }
+    }
+
+    private ResultSet resultSet(String sql, Object[] parameters) {
+        List<Object[]> result = new ArrayList<>();
+        synchronized (rows) {
+            for (Map.Entry<String, Object> row : rows.entrySet()) {
+                if (!sql.contains("WHERE") || Arrays.asList(parameters).contains(row.getKey())) {
+                    result.add(sql.startsWith("SELECT data") ? new Object[]{row.getValue()}
+                            : sql.startsWith("SELECT 1") ? new Object[]{1}
+                            : new Object[]{row.getKey(), row.getValue()});
+                }
+            }
+        }
+        int[] cursor = {-1};
+        return proxy(ResultSet.class, (proxy, method, args) -> switch (method.getName()) {
+            case "next" -> ++cursor[0] < result.size();
+            case "getString", "getBytes", "getObject" -> args[0] instanceof Integer column
+                    ? result.get(cursor[0])[column - 1]
+                    : result.get(cursor[0])[args[0].equals("_id") ? 0 : 1];
+            default -> null;
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(FakeDatabase.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+}
@@ -0,0 +1,139 @@
+package com.georgev22.library.utilities;
+
+import com.google.gson.Gson;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogEntityRepositoryTest {
+
+    private static final Logger LOGGER = Logger.getLogger(LogEntityRepositoryTest.class.getName());
+
+    static {
+        LOGGER.setLevel(Level.OFF);
+    }
+
+    @TempDir
+    Path directory;
+
+    private LogEntityRepository<GenericEntity> repository;
+
+    @AfterEach
+    void close() throws IOException {
+        if (repository != null) {
+            repository.close();
+        }
+    }
+
+    @Test
+    void entitiesSurviveReopening() throws IOException {
+        repository = open(LogEntityRepository.Settings.DEFAULT);
+        repository.save(entity("a", "first")).join();
+        repository.save(entity("b", "second")).join();
+        repository.save(entity("a", "third")).join();
+        repository.delete("b").join();
+        repository.close();
+
+        repository = open(LogEntityRepository.Settings.DEFAULT);
+
+        assertEquals(Set.of("a"), repository.getStoredIds());
+        assertEquals("third", repository.load("a").join().getName());
+        assertNull(repository.load("b").join());
+        assertTrue(repository.exists("a", true, false).join());
+        assertFalse(repository.exists("b", true, false).join());
+    }
+
+    @Test
+    void recordsAppendedAfterTheIndexAreScanned() throws IOException {
+        repository = open(LogEntityRepository.Settings.DEFAULT);
+        repository.save(entity("a", "first")).join();
+        repository.flush();
+        repository.save(entity("b", "second")).join();
+        repository.delete("a").join();
+        Files.copy(directory.resolve("index.dat"), directory.resolve("index.bak"));
+        repository.close();
+        Files.move(directory.resolve("index.bak"), directory.resolve("index.dat"), StandardCopyOption.REPLACE_EXISTING);
+
+        repository = open(LogEntityRepository.Settings.DEFAULT);
+
+        assertEquals(Set.of("b"), repository.getStoredIds());
+        assertEquals("second", repository.load("b").join().getName());
+    }
+
+    @Test
+    void tornRecordIsCutOffWhenOpening() throws IOException {
+        repository = open(LogEntityRepository.Settings.DEFAULT);
+        repository.save(entity("a", "first")).join();
+        repository.close();
+        Path segment = directory.resolve("1.log");
+        long size = Files.size(segment);
+        Files.write(segment, new byte[]{0, 0, 0, 42, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        repository = open(LogEntityRepository.Settings.DEFAULT);
+
+        assertEquals(size, Files.size(segment));
+        assertEquals("first", repository.load("a").join().getName());
+        repository.save(entity("b", "second")).join();
+        repository.close();
+        repository = open(LogEntityRepository.Settings.DEFAULT);
+        assertEquals(Set.of("a", "b"), repository.getStoredIds());
+    }
+
+    @Test
+    void compactionReclaimsSupersededRecords() throws IOException {
+        repository = open(LogEntityRepository.Settings.DEFAULT.segmentSize(1024));
+        for (int i = 0; i < 100; i++) {
+            repository.save(entity("a", "name-" + i)).join();
+        }
+        repository.save(entity("b", "kept")).join();
+        LogEntityRepository.Metrics before = repository.getMetrics();
+
+        assertTrue(repository.compact() > 0);
+
+        LogEntityRepository.Metrics after = repository.getMetrics();
+        assertTrue(after.segments() < before.segments());
+        assertTrue(after.garbageRatio() < before.garbageRatio());
+        repository.getLoadedEntities().clear();
+        assertEquals("name-99", repository.load("a").join().getName());
+        assertEquals("kept", repository.load("b").join().getName());
+        repository.close();
+        repository = open(LogEntityRepository.Settings.DEFAULT.segmentSize(1024));
+        assertEquals("name-99", repository.load("a").join().getName());
+    }
+
+    @Test
+    void loadAllLoadsEveryStoredEntity() throws IOException {
+        repository = open(LogEntityRepository.Settings.DEFAULT);
+        for (int i = 0; i < 20; i++) {
+            repository.save(entity("id-" + i, "name-" + i)).join();
+        }
+        repository.close();
+        repository = open(LogEntityRepository.Settings.DEFAULT);
+
+        assertEquals(20, repository.loadAll().join().intValue());
+
+        assertEquals(20, repository.getLoadedEntities().size());
+        assertEquals("name-7", repository.getLoadedEntities().get("id-7").getName());
+    }
+
+    private LogEntityRepository<GenericEntity> open(LogEntityRepository.Settings settings) throws IOException {
+        return new LogEntityRepository<>(directory.toFile(), LOGGER, GenericEntity.class, new Gson(), settings, Runnable::run);
+    }
+
+    private static GenericEntity entity(String id, String name) {
+        GenericEntity entity = new GenericEntity(id);
+        entity.setValue("name", name);
+        return entity;
+    }
+}
@@ -0,0 +1,194 @@
+package com.georgev22.library.utilities;
+
+import com.georgev22.library.maps.ObjectMap;
+import com.google.gson.Gson;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MySQLEntityRepositoryTest {
+
+    private static final Logger LOGGER = Logger.getLogger(MySQLEntityRepositoryTest.class.getName());
+
+    static {
+        LOGGER.setLevel(Level.OFF);
+    }
+
+    private final FakeDatabase database = new FakeDatabase();
+    private final EntitySerializer<GenericEntity> gson = EntitySerializer.gson(GenericEntity.class, new Gson());
+    private final MySQLEntityRepository<GenericEntity> repository = new MySQLEntityRepository<>(database, LOGGER,
+            GenericEntity.class, "entities", new FailingSerializer(gson), Runnable::run);
+
+    @AfterEach
+    void disableWriteBehind() {
+        repository.disableWriteBehind();
+    }
+
+    @Test
+    void writeBehindQueuesSavesUntilFlushed() {
+        repository.enableWriteBehind(100, 1, TimeUnit.HOURS);
+        GenericEntity entity = entity("a", "first");
+
+        repository.save(entity).join();
+
+        assertEquals(1, repository.pendingWrites());
+        assertTrue(database.rows.isEmpty());
+        assertEquals(1, repository.flush());
+        assertEquals(0, repository.pendingWrites());
+        assertTrue(database.rows.containsKey("a"));
+        assertFalse(entity.isDirty());
+    }
+
+    @Test
+    void flushSkipsEntitiesThatDidNotChange() {
+        repository.enableWriteBehind(100, 1, TimeUnit.HOURS);
+        GenericEntity entity = entity("a", "first");
+        repository.save(entity).join();
+        repository.flush();
+
+        repository.save(entity).join();
+
+        assertEquals(0, repository.flush());
+        assertEquals(1, database.writes.get());
+        assertEquals(1, repository.getSkippedWrites());
+    }
+
+    @Test
+    void failedBatchStaysQueuedForTheNextFlush() {
+        repository.enableWriteBehind(100, 1, TimeUnit.HOURS);
+        GenericEntity entity = entity("a", "first");
+        repository.save(entity).join();
+        database.failWrites = true;
+
+        assertEquals(0, repository.flush());
+        assertEquals(1, repository.pendingWrites());
+        assertTrue(entity.isDirty());
+
+        database.failWrites = false;
+        assertEquals(1, repository.flush());
+        assertEquals(0, repository.pendingWrites());
+    }
+
+    @Test
+    void entitySavedAgainDuringAFlushStaysQueued() {
+        repository.enableWriteBehind(100, 1, TimeUnit.HOURS);
+        GenericEntity entity = entity("a", "first");
+        repository.save(entity).join();
+        database.beforeBatch = () -> {
+            entity.setValue("name", "second");
+            repository.save(entity).join();
+        };
+
+        assertEquals(1, repository.flush());
+        assertEquals(1, repository.pendingWrites());
+        assertEquals(1, repository.flush());
+        assertEquals("second", gson.deserialize((String) database.rows.get("a")).getName());
+    }
+
+    @Test
+    void entityThatCannotBeSerializedIsDroppedFromTheQueue() {
+        repository.enableWriteBehind(100, 1, TimeUnit.HOURS);
+        GenericEntity broken = entity("broken", FailingSerializer.FAIL);
+        GenericEntity valid = entity("valid", "name");
+        repository.save(broken).join();
+        repository.save(valid).join();
+
+        assertEquals(1, repository.flush());
+
+        assertEquals(0, repository.pendingWrites());
+        assertTrue(database.rows.containsKey("valid"));
+        assertFalse(database.rows.containsKey("broken"));
+        assertTrue(broken.isDirty());
+    }
+
+    @Test
+    void directSaveReportsSerializationFailures() {
+        GenericEntity broken = entity("broken", FailingSerializer.FAIL);
+
+        assertNull(repository.save(broken).join());
+        assertTrue(broken.isDirty());
+        assertTrue(database.rows.isEmpty());
+    }
+
+    @Test
+    void loadAllLeavesTheSharedConnectionUsable() {
+        for (int i = 0; i < 10; i++) {
+            database.rows.put("id-" + i, gson.serializeToString(entity("id-" + i, "name-" + i)));
+        }
+
+        assertEquals(10, repository.loadAll().join().intValue());
+
+        assertEquals(10, repository.getLoadedEntities().size());
+        assertEquals("name-3", repository.getLoadedEntities().get("id-3").getName());
+        assertFalse(repository.getLoadedEntities().get("id-3").isDirty());
+        assertEquals(0, database.closes.get());
+        assertTrue(database.autoCommit);
+    }
+
+    @Test
+    void loadManyLeavesTheSharedConnectionUsable() {
+        database.rows.put("a", gson.serializeToString(entity("a", "first")));
+        database.rows.put("b", gson.serializeToString(entity("b", "second")));
+        database.rows.put("c", gson.serializeToString(entity("c", "third")));
+
+        ObjectMap<String, GenericEntity> loaded = repository.loadMany(List.of("a", "c", "missing")).join();
+
+        assertEquals(2, loaded.size());
+        assertEquals("third", loaded.get("c").getName());
+        assertFalse(repository.getLoadedEntities().containsKey("b"));
+        assertEquals(0, database.closes.get());
+    }
+
+    @Test
+    void existsWithForceLoadReportsMissingEntities() {
+        database.rows.put("a", gson.serializeToString(entity("a", "first")));
+
+        assertFalse(repository.exists("missing", true, true).join());
+        assertFalse(repository.getLoadedEntities().containsKey("missing"));
+        assertTrue(repository.exists("a", true, true).join());
+        assertEquals("first", repository.getLoadedEntities().get("a").getName());
+    }
+
+    private static GenericEntity entity(String id, String name) {
+        GenericEntity entity = new GenericEntity(id);
+        entity.setValue("name", name);
+        return entity;
+    }
+
+    /**
+     * Delegates to another serializer, but fails to serialize entities named {@link #FAIL}.
+     */
+    private record FailingSerializer(EntitySerializer<GenericEntity> delegate) implements EntitySerializer<GenericEntity> {
+
+        static final String FAIL = "fail";
+
+        @Override
+        public String name() {
+            return delegate.name();
+        }
+
+        @Override
+        public boolean isBinary() {
+            return delegate.isBinary();
+        }
+
+        @Override
+        public byte[] serialize(GenericEntity entity) {
+            if (FAIL.equals(entity.getName())) {
+                throw new IllegalStateException("cannot serialize " + entity._id());
+            }
+            return delegate.serialize(entity);
+        }
+
+        @Override
+        public GenericEntity deserialize(byte[] data) {
+            return delegate.deserialize(data);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.georgev22.library.utilities;
+
+import com.google.gson.Gson;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TieredEntityRepositoryTest {
+
+    private static final Logger LOGGER = Logger.getLogger(TieredEntityRepositoryTest.class.getName());
+
+    static {
+        LOGGER.setLevel(Level.OFF);
+    }
+
+    private final EntitySerializer<GenericEntity> gson = EntitySerializer.gson(GenericEntity.class, new Gson());
+    private final FakeDatabase localDatabase = new FakeDatabase();
+    private final FakeDatabase remoteDatabase = new FakeDatabase();
+    private final MySQLEntityRepository<GenericEntity> local = new MySQLEntityRepository<>(localDatabase, LOGGER,
+            GenericEntity.class, "entities", gson, Runnable::run);
+    private final MySQLEntityRepository<GenericEntity> remote = new MySQLEntityRepository<>(remoteDatabase, LOGGER,
+            GenericEntity.class, "entities", gson, Runnable::run);
+    private TieredEntityRepository<GenericEntity> repository = tiered(
+            TieredEntityRepository.Tier.writeThrough(local),
+            TieredEntityRepository.Tier.writeBehind(remote).flushInterval(Duration.ofHours(1)));
+
+    @AfterEach
+    void close() {
+        repository.close();
+    }
+
+    @Test
+    void saveWritesThroughAndQueuesWriteBehind() {
+        GenericEntity entity = entity("a", "first");
+
+        assertSame(entity, repository.save(entity).join());
+
+        assertEquals("first", name(localDatabase, "a"));
+        assertFalse(remoteDatabase.rows.containsKey("a"));
+        assertEquals(1, repository.getMetrics().get(1).pending());
+        assertEquals(1, repository.flush());
+        assertEquals("first", name(remoteDatabase, "a"));
+        assertEquals(0, repository.getMetrics().get(1).pending());
+        assertTrue(local.getLoadedEntities().isEmpty());
+        assertTrue(remote.getLoadedEntities().isEmpty());
+    }
+
+    @Test
+    void flushCleansEntitiesOfWriteBehindOnlyTiers() {
+        repository.close();
+        repository = tiered(TieredEntityRepository.Tier.writeBehind(remote).flushInterval(Duration.ofHours(1)));
+        GenericEntity entity = entity("a", "first");
+        repository.save(entity).join();
+
+        assertEquals(1, repository.flush());
+
+        assertFalse(entity.isDirty());
+        assertEquals("first", name(remoteDatabase, "a"));
+    }
+
+    @Test
+    void entityChangedAfterItWasQueuedStaysDirty() {
+        GenericEntity entity = entity("a", "first");
+        repository.save(entity).join();
+        entity.setValue("name", "second");
+
+        assertEquals(1, repository.flush());
+
+        assertTrue(entity.isDirty());
+        assertEquals("second", name(remoteDatabase, "a"));
+        assertEquals("first", name(localDatabase, "a"));
+    }
+
+    @Test
+    void failedWriteStaysQueuedForTheNextFlush() {
+        repository.save(entity("a", "first")).join();
+        remoteDatabase.failWrites = true;
+
+        assertEquals(0, repository.flush());
+        assertEquals(1, repository.getMetrics().get(1).pending());
+        assertEquals(1, repository.getMetrics().get(1).failures());
+
+        remoteDatabase.failWrites = false;
+        assertEquals(1, repository.flush());
+        assertEquals("first", name(remoteDatabase, "a"));
+    }
+
+    @Test
+    void loadReadsThroughAndFillsTheFasterTiers() {
+        remoteDatabase.rows.put("a", gson.serializeToString(entity("a", "remote")));
+
+        GenericEntity entity = repository.load("a").join();
+
+        assertEquals("remote", entity.getName());
+        assertEquals("remote", name(localDatabase, "a"));
+        assertSame(entity, repository.getLoadedEntities().get("a"));
+        assertEquals(1, repository.getMetrics().get(0).misses());
+        assertEquals(1, repository.getMetrics().get(1).hits());
+    }
+
+    @Test
+    void queuedDeletionHidesTheSlowerTiers() {
+        remoteDatabase.rows.put("a", gson.serializeToString(entity("a", "remote")));
+
+        repository.delete("a").join();
+
+        assertNull(repository.load("a").join());
+        assertFalse(repository.exists("a", true, false).join());
+        assertEquals(1, repository.flush());
+        assertFalse(remoteDatabase.rows.containsKey("a"));
+    }
+
+    @SafeVarargs
+    private static TieredEntityRepository<GenericEntity> tiered(TieredEntityRepository.Tier<GenericEntity>... tiers) {
+        return new TieredEntityRepository<>(LOGGER, "test", List.of(tiers));
+    }
+
+    private String name(FakeDatabase database, String id) {
+        return gson.deserialize((String) database.rows.get(id)).getName();
+    }
+
+    private static GenericEntity entity(String id, String name) {
+        GenericEntity entity = new GenericEntity(id);
+        entity.setValue("name", name);
+        return entity;
+    }
+}
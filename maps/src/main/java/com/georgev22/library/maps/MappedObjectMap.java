@@ -0,0 +1,982 @@
+package com.georgev22.library.maps;
+
+import com.georgev22.library.maps.utilities.ObjectMapBinaryCodec;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An off-heap {@link ObjectMap} that keeps its entries in memory-mapped files instead of on the Java heap.
+ * <p>
+ * Entries are encoded with a {@link Codec} for the keys and one for the values and appended to a segmented data file
+ * ({@code <name>.<generation>.dat}). An open-addressing hash index ({@code <name>.<generation>.idx}) maps the hash
+ * of each encoded key to the offset of its latest record, so a lookup costs one probe sequence plus one key comparison
+ * and only the requested value is ever decoded. Both files survive restarts: reopening a map only maps the index, it
+ * does not scan the data.
+ * <p>
+ * Files are never replaced while they are mapped. Growing the index, {@link #compact()} and {@link #clear()} write a
+ * new generation, force it to the disk and only then switch to it. The files of the previous generation are deleted
+ * right away where the platform allows deleting a mapped file; otherwise, as on Windows, they are deleted the next time
+ * the map is opened.
+ * <p>
+ * Replacing or removing an entry leaves the previous record behind in the data file; call {@link #compact()} from
+ * time to time to rewrite the live records into a new generation. Changes are written to the mapped pages right away
+ * but are only guaranteed to reach the disk after {@link #flush()} or {@link #close()}.
+ * <p>
+ * The map is thread-safe. Keys and values may not be {@code null}. Iterators are not fail-safe: modifying the map
+ * while iterating, other than through the iterator itself, results in a {@link ConcurrentModificationException}.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public class MappedObjectMap<K, V> extends AbstractObjectMap<K, V> implements Closeable {
+
+    /**
+     * The default size of a data file segment. A single record may not be larger than a segment.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 26;
+
+    /**
+     * The default number of index slots of a new map.
+     */
+    public static final int DEFAULT_INITIAL_CAPACITY = 1024;
+
+    private static final int INDEX_MAGIC = 0x4D4F4D49;
+    private static final int DATA_MAGIC = 0x4D4F4D44;
+    private static final int VERSION = 1;
+    private static final int INDEX_HEADER = 64;
+    private static final int DATA_HEADER = 8;
+    private static final int SLOT = 16;
+    private static final int RECORD_HEADER = 8;
+    private static final long EMPTY = 0L;
+    private static final long TOMBSTONE = -1L;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final File directory;
+    private final String name;
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+
+    private MappedByteBuffer index;
+    private FileChannel dataChannel;
+    private int segmentSize;
+    private int capacity;
+    private int size;
+    private int tombstones;
+    private long generation;
+    private long indexGeneration;
+    private long dataEnd;
+    private int modCount;
+    private boolean closed;
+
+    /**
+     * Opens, or creates if it does not exist, a memory-mapped map with the default segment size and capacity.
+     *
+     * @param directory  the directory that holds the map files
+     * @param name       the name of the map, used as the file name prefix
+     * @param keyCodec   the codec used to encode the keys
+     * @param valueCodec the codec used to encode the values
+     * @throws IOException if the map files cannot be opened or created
+     */
+    public MappedObjectMap(@NotNull File directory, @NotNull String name, @NotNull Codec<K> keyCodec, @NotNull Codec<V> valueCodec) throws IOException {
+        this(directory, name, keyCodec, valueCodec, DEFAULT_INITIAL_CAPACITY, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens, or creates if it does not exist, a memory-mapped map.
+     * <p>
+     * The initial capacity and segment size are only used when the map is created; an existing map keeps the values
+     * it was created with.
+     *
+     * @param directory       the directory that holds the map files
+     * @param name            the name of the map, used as the file name prefix
+     * @param keyCodec        the codec used to encode the keys
+     * @param valueCodec      the codec used to encode the values
+     * @param initialCapacity the initial number of index slots, rounded up to a power of two
+     * @param segmentSize     the size in bytes of a data file segment, which is also the maximum record size
+     * @throws IOException if the map files cannot be opened or created
+     */
+    public MappedObjectMap(@NotNull File directory, @NotNull String name, @NotNull Codec<K> keyCodec, @NotNull Codec<V> valueCodec,
+                           int initialCapacity, int segmentSize) throws IOException {
+        if (segmentSize <= DATA_HEADER + RECORD_HEADER) {
+            throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+        }
+        this.directory = directory;
+        this.name = name;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory.getAbsolutePath());
+        }
+        open(Math.max(16, Integer.highestOneBit(Math.max(1, initialCapacity - 1)) << 1), segmentSize);
+    }
+
+    private void open(int initialCapacity, int initialSegmentSize) throws IOException {
+        List<Long> indexGenerations = generations(".idx");
+        for (long candidate : indexGenerations) {
+            // the newest index is only skipped if it was never committed, because the map crashed while building it
+            if (openIndex(indexPath(candidate))) {
+                this.indexGeneration = candidate;
+                break;
+            }
+        }
+        if (index != null) {
+            this.size = index.getInt(12);
+            this.tombstones = index.getInt(16);
+            this.generation = index.getLong(24);
+            this.dataEnd = index.getLong(32);
+        } else if (!indexGenerations.isEmpty()) {
+            throw new IOException("Not a MappedObjectMap index: " + indexPath(indexGenerations.get(0)));
+        } else {
+            this.segmentSize = initialSegmentSize;
+            this.capacity = initialCapacity;
+            this.generation = 0;
+            this.indexGeneration = 0;
+            this.dataEnd = DATA_HEADER;
+            this.index = createIndex(indexPath(indexGeneration), capacity);
+            writeHeader(index);
+            commit(index);
+        }
+        this.dataChannel = FileChannel.open(dataPath(generation), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment(0).putInt(0, DATA_MAGIC);
+        segment(0).putInt(4, VERSION);
+        segment((int) ((dataEnd - 1) / segmentSize));
+        deleteStaleFiles();
+    }
+
+    /**
+     * Maps the given index if it was committed, see {@link #commit(MappedByteBuffer)}.
+     */
+    private boolean openIndex(@NotNull Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() < INDEX_HEADER) {
+                return false;
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, INDEX_HEADER);
+            if (header.getInt(0) != INDEX_MAGIC || header.getInt(4) != VERSION) {
+                return false;
+            }
+            this.capacity = header.getInt(8);
+            this.segmentSize = header.getInt(20);
+            this.index = channel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER + (long) capacity * SLOT);
+            return true;
+        }
+    }
+
+    /**
+     * Put/replace the given key/value pair into this ObjectMap and return this.
+     * Unlike {@link #put(Object, Object)} the previous value is not decoded.
+     *
+     * @param key   key
+     * @param value value
+     * @return this
+     */
+    @Override
+    public MappedObjectMap<K, V> append(final K key, final V value) {
+        store(key, value, false);
+        return this;
+    }
+
+    /**
+     * Associates the specified value with the specified key in this map.
+     *
+     * @param key   key with which the specified value is to be associated
+     * @param value value to be associated with the specified key
+     * @return the previous value associated with the key, or {@code null} if there was no mapping for the key
+     */
+    @Override
+    public V put(@NotNull K key, @NotNull V value) {
+        return store(key, value, true);
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped, or {@code null} if this map contains no mapping for the key.
+     *
+     * @param key the key whose associated value is to be returned
+     * @return the value to which the specified key is mapped, or {@code null}
+     */
+    @Override
+    public V get(Object key) {
+        byte[] keyBytes = encodeKey(key);
+        if (keyBytes == null) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            int slot = find(keyBytes, hash(keyBytes));
+            return slot < 0 ? null : readValue(slotOffset(slot));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns {@code true} if this map contains a mapping for the specified key. The value is not decoded.
+     *
+     * @param key key whose presence in this map is to be tested
+     * @return {@code true} if this map contains a mapping for the specified key
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        byte[] keyBytes = encodeKey(key);
+        if (keyBytes == null) {
+            return false;
+        }
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            return find(keyBytes, hash(keyBytes)) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the mapping for a key from this map if it is present.
+     *
+     * @param key key whose mapping is to be removed from the map
+     * @return the previous value associated with the key, or {@code null} if there was no mapping for the key
+     */
+    @Override
+    public V remove(Object key) {
+        byte[] keyBytes = encodeKey(key);
+        if (keyBytes == null) {
+            return null;
+        }
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            int slot = find(keyBytes, hash(keyBytes));
+            if (slot < 0) {
+                return null;
+            }
+            V old = readValue(slotOffset(slot));
+            removeSlot(slot);
+            return old;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of key-value mappings in this map.
+     *
+     * @return the number of key-value mappings in this map
+     */
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes all the mappings from this map and replaces the data file with a new, empty generation, so the disk
+     * space of the records is released. The index keeps its capacity.
+     * <p>
+     * The data file is replaced instead of truncated in place, since it is still mapped.
+     */
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            Path newDataPath = dataPath(generation + 1);
+            List<MappedByteBuffer> newSegments = new ArrayList<>();
+            FileChannel newData = FileChannel.open(newDataPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                segment(newData, newSegments, 0).putInt(0, DATA_MAGIC);
+                segment(newData, newSegments, 0).putInt(4, VERSION);
+            } catch (IOException | RuntimeException e) {
+                release(newData, newDataPath);
+                throw e;
+            }
+            FileChannel oldData = dataChannel;
+            Path oldDataPath = dataPath(generation);
+            for (int slot = 0; slot < capacity; slot++) {
+                setSlot(slot, EMPTY, 0);
+            }
+            size = 0;
+            tombstones = 0;
+            generation++;
+            dataEnd = DATA_HEADER;
+            modCount++;
+            segments.clear();
+            segments.addAll(newSegments);
+            dataChannel = newData;
+            writeHeader(index);
+            // the old data file is only released once the index on the disk no longer refers to it
+            index.force();
+            release(oldData, oldDataPath);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a {@link Set} view of the mappings contained in this map.
+     * Entries are decoded while iterating and do not support {@link Map.Entry#setValue(Object)}.
+     *
+     * @return a set view of the mappings contained in this map
+     */
+    @Override
+    public @NotNull Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public @NotNull Iterator<Entry<K, V>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return MappedObjectMap.this.size();
+            }
+
+            @Override
+            public void clear() {
+                MappedObjectMap.this.clear();
+            }
+        };
+    }
+
+    /**
+     * Rewrites the live records into a new data file generation and drops the records of replaced and removed entries.
+     *
+     * @throws IOException if the new files cannot be written
+     */
+    public void compact() throws IOException {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            long newGeneration = generation + 1;
+            Path newDataPath = dataPath(newGeneration);
+            Path newIndexPath = indexPath(indexGeneration + 1);
+            List<MappedByteBuffer> newSegments = new ArrayList<>();
+            long newDataEnd = DATA_HEADER;
+            int newCapacity = capacityFor(size);
+            MappedByteBuffer newIndex = createIndex(newIndexPath, newCapacity);
+            FileChannel newData;
+            try {
+                newData = FileChannel.open(newDataPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (IOException | RuntimeException e) {
+                release(null, newIndexPath);
+                throw e;
+            }
+            try {
+                segment(newData, newSegments, 0).putInt(0, DATA_MAGIC);
+                segment(newData, newSegments, 0).putInt(4, VERSION);
+                for (int slot = 0; slot < capacity; slot++) {
+                    long offset = slotOffset(slot);
+                    if (offset == EMPTY || offset == TOMBSTONE) {
+                        continue;
+                    }
+                    ByteBuffer segment = segmentFor(offset);
+                    int position = positionIn(offset);
+                    int length = RECORD_HEADER + segment.getInt(position) + segment.getInt(position + 4);
+                    long target = alignRecord(newDataEnd, length);
+                    segment(newData, newSegments, (int) (target / segmentSize)).put(positionIn(target), segment, position, length);
+                    newDataEnd = target + length;
+                    insertRehashed(newIndex, newCapacity, target, slotHash(slot));
+                }
+                for (MappedByteBuffer newSegment : newSegments) {
+                    newSegment.force();
+                }
+                writeHeader(newIndex, newCapacity, 0, newGeneration, newDataEnd);
+                commit(newIndex);
+            } catch (IOException | RuntimeException e) {
+                release(newData, newDataPath);
+                release(null, newIndexPath);
+                throw e;
+            }
+            FileChannel oldData = dataChannel;
+            Path oldDataPath = dataPath(generation);
+            Path oldIndexPath = indexPath(indexGeneration);
+            this.generation = newGeneration;
+            this.indexGeneration++;
+            this.dataEnd = newDataEnd;
+            this.tombstones = 0;
+            this.capacity = newCapacity;
+            this.index = newIndex;
+            segments.clear();
+            segments.addAll(newSegments);
+            this.dataChannel = newData;
+            modCount++;
+            release(oldData, oldDataPath);
+            release(null, oldIndexPath);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of bytes used in the data file, including the records of replaced and removed entries.
+     *
+     * @return the number of bytes used in the data file
+     */
+    public long dataSize() {
+        lock.readLock().lock();
+        try {
+            return dataEnd;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Forces all the changes made to this map to be written to the disk.
+     */
+    public void flush() {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+            index.force();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Flushes and closes this map. Any later access throws an {@link IllegalStateException}.
+     *
+     * @throws IOException if the data file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+            index.force();
+            dataChannel.close();
+            segments.clear();
+            closed = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private @Nullable V store(@NotNull K key, @NotNull V value, boolean returnPrevious) {
+        byte[] keyBytes = keyCodec.encode(Objects.requireNonNull(key, "key"));
+        byte[] valueBytes = valueCodec.encode(Objects.requireNonNull(value, "value"));
+        int hash = hash(keyBytes);
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            int slot = find(keyBytes, hash);
+            V previous = null;
+            if (slot >= 0) {
+                if (returnPrevious) {
+                    previous = readValue(slotOffset(slot));
+                }
+                setSlot(slot, writeRecord(keyBytes, valueBytes), hash);
+            } else {
+                if (size + tombstones + 1 > capacity * LOAD_FACTOR) {
+                    rehash(capacityFor(size + 1));
+                    slot = find(keyBytes, hash);
+                }
+                int insertion = -slot - 1;
+                if (slotOffset(insertion) == TOMBSTONE) {
+                    tombstones--;
+                }
+                setSlot(insertion, writeRecord(keyBytes, valueBytes), hash);
+                size++;
+                modCount++;
+            }
+            writeHeader(index);
+            return previous;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeSlot(int slot) {
+        setSlot(slot, TOMBSTONE, 0);
+        size--;
+        tombstones++;
+        modCount++;
+        writeHeader(index);
+    }
+
+    /**
+     * Returns the slot of the given key, or {@code -(insertion slot + 1)} if the key is not present.
+     */
+    private int find(byte @NotNull [] keyBytes, int hash) {
+        int mask = capacity - 1;
+        int slot = hash & mask;
+        int firstTombstone = -1;
+        while (true) {
+            long offset = slotOffset(slot);
+            if (offset == EMPTY) {
+                return -((firstTombstone >= 0 ? firstTombstone : slot) + 1);
+            }
+            if (offset == TOMBSTONE) {
+                if (firstTombstone < 0) {
+                    firstTombstone = slot;
+                }
+            } else if (slotHash(slot) == hash && keyMatches(offset, keyBytes)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void rehash(int newCapacity) throws IOException {
+        Path newIndexPath = indexPath(indexGeneration + 1);
+        MappedByteBuffer newIndex = createIndex(newIndexPath, newCapacity);
+        try {
+            for (int slot = 0; slot < capacity; slot++) {
+                long offset = slotOffset(slot);
+                if (offset != EMPTY && offset != TOMBSTONE) {
+                    insertRehashed(newIndex, newCapacity, offset, slotHash(slot));
+                }
+            }
+            writeHeader(newIndex, newCapacity, 0, generation, dataEnd);
+            commit(newIndex);
+        } catch (RuntimeException e) {
+            release(null, newIndexPath);
+            throw e;
+        }
+        Path oldIndexPath = indexPath(indexGeneration);
+        this.indexGeneration++;
+        this.capacity = newCapacity;
+        this.tombstones = 0;
+        this.index = newIndex;
+        modCount++;
+        release(null, oldIndexPath);
+    }
+
+    private static void insertRehashed(@NotNull MappedByteBuffer target, int targetCapacity, long offset, int hash) {
+        int mask = targetCapacity - 1;
+        int slot = hash & mask;
+        while (target.getLong(INDEX_HEADER + slot * SLOT) != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        target.putLong(INDEX_HEADER + slot * SLOT, offset);
+        target.putInt(INDEX_HEADER + slot * SLOT + 8, hash);
+    }
+
+    private static int capacityFor(int entries) {
+        int needed = (int) Math.ceil(Math.max(entries, 1) / (double) LOAD_FACTOR) + 1;
+        return Math.max(16, Integer.highestOneBit(needed - 1) << 1);
+    }
+
+    private long writeRecord(byte @NotNull [] keyBytes, byte @NotNull [] valueBytes) throws IOException {
+        int length = RECORD_HEADER + keyBytes.length + valueBytes.length;
+        if (length > segmentSize) {
+            throw new IllegalArgumentException("Entry of " + length + " bytes does not fit in a segment of " + segmentSize + " bytes");
+        }
+        long offset = alignRecord(dataEnd, length);
+        MappedByteBuffer segment = segment((int) (offset / segmentSize));
+        int position = positionIn(offset);
+        segment.putInt(position, keyBytes.length);
+        segment.putInt(position + 4, valueBytes.length);
+        segment.put(position + RECORD_HEADER, keyBytes);
+        segment.put(position + RECORD_HEADER + keyBytes.length, valueBytes);
+        dataEnd = offset + length;
+        return offset;
+    }
+
+    /**
+     * Records never span two segments; a record that does not fit in the rest of a segment starts the next one.
+     */
+    private long alignRecord(long offset, int length) {
+        if (positionIn(offset) + (long) length > segmentSize) {
+            return (offset / segmentSize + 1) * segmentSize;
+        }
+        return offset;
+    }
+
+    private boolean keyMatches(long offset, byte @NotNull [] keyBytes) {
+        ByteBuffer segment = segmentFor(offset);
+        int position = positionIn(offset);
+        if (segment.getInt(position) != keyBytes.length) {
+            return false;
+        }
+        return segment.slice(position + RECORD_HEADER, keyBytes.length).equals(ByteBuffer.wrap(keyBytes));
+    }
+
+    private @NotNull K readKey(long offset) {
+        ByteBuffer segment = segmentFor(offset);
+        int position = positionIn(offset);
+        return keyCodec.decode(segment.slice(position + RECORD_HEADER, segment.getInt(position)).asReadOnlyBuffer());
+    }
+
+    private @NotNull V readValue(long offset) {
+        ByteBuffer segment = segmentFor(offset);
+        int position = positionIn(offset);
+        int keyLength = segment.getInt(position);
+        return valueCodec.decode(segment.slice(position + RECORD_HEADER + keyLength, segment.getInt(position + 4)).asReadOnlyBuffer());
+    }
+
+    /**
+     * Every segment up to {@link #dataEnd} is mapped when the map is opened and by {@link #writeRecord(byte[], byte[])},
+     * so readers never have to map a segment themselves.
+     */
+    private @NotNull ByteBuffer segmentFor(long offset) {
+        return segments.get((int) (offset / segmentSize));
+    }
+
+    private int positionIn(long offset) {
+        return (int) (offset % segmentSize);
+    }
+
+    private @NotNull MappedByteBuffer segment(int segment) throws IOException {
+        return segment(dataChannel, segments, segment);
+    }
+
+    private @NotNull MappedByteBuffer segment(@NotNull FileChannel channel, @NotNull List<MappedByteBuffer> mapped, int segment) throws IOException {
+        while (mapped.size() <= segment) {
+            mapped.add(channel.map(FileChannel.MapMode.READ_WRITE, (long) mapped.size() * segmentSize, segmentSize));
+        }
+        return mapped.get(segment);
+    }
+
+    private long slotOffset(int slot) {
+        return index.getLong(INDEX_HEADER + slot * SLOT);
+    }
+
+    private int slotHash(int slot) {
+        return index.getInt(INDEX_HEADER + slot * SLOT + 8);
+    }
+
+    private void setSlot(int slot, long offset, int hash) {
+        index.putLong(INDEX_HEADER + slot * SLOT, offset);
+        index.putInt(INDEX_HEADER + slot * SLOT + 8, hash);
+    }
+
+    private @NotNull MappedByteBuffer createIndex(@NotNull Path path, int slots) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER + (long) slots * SLOT);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, slots);
+            buffer.putInt(20, segmentSize);
+            return buffer;
+        }
+    }
+
+    /**
+     * Forces a new index to the disk and only then writes its magic number, so an index that was being built when
+     * the map crashed is skipped when the map is opened again.
+     */
+    private static void commit(@NotNull MappedByteBuffer newIndex) {
+        newIndex.force();
+        newIndex.putInt(0, INDEX_MAGIC);
+        newIndex.force();
+    }
+
+    private void writeHeader(@NotNull MappedByteBuffer target) {
+        writeHeader(target, capacity, tombstones, generation, dataEnd);
+    }
+
+    private void writeHeader(@NotNull MappedByteBuffer target, int capacity, int tombstones, long generation, long dataEnd) {
+        target.putInt(8, capacity);
+        target.putInt(12, size);
+        target.putInt(16, tombstones);
+        target.putInt(20, segmentSize);
+        target.putLong(24, generation);
+        target.putLong(32, dataEnd);
+    }
+
+    private void deleteStaleFiles() throws IOException {
+        for (long stale : generations(".dat")) {
+            if (stale != generation) {
+                release(null, dataPath(stale));
+            }
+        }
+        for (long stale : generations(".idx")) {
+            if (stale != indexGeneration) {
+                release(null, indexPath(stale));
+            }
+        }
+    }
+
+    /**
+     * Returns the generations of the files of this map with the given suffix, newest first.
+     */
+    private @NotNull List<Long> generations(@NotNull String suffix) throws IOException {
+        List<Long> generations = new ArrayList<>();
+        String prefix = name + ".";
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath(), prefix + "*" + suffix)) {
+            for (Path path : stream) {
+                String fileName = path.getFileName().toString();
+                String generation = fileName.substring(prefix.length(), fileName.length() - suffix.length());
+                // skips the files of another map whose name starts with the name of this one
+                if (!generation.isEmpty() && generation.length() < 19 && generation.chars().allMatch(c -> c >= '0' && c <= '9')) {
+                    generations.add(Long.parseLong(generation));
+                }
+            }
+        }
+        generations.sort(Comparator.reverseOrder());
+        return generations;
+    }
+
+    /**
+     * Closes and deletes the file of a previous generation. Its pages may stay mapped until they are garbage
+     * collected, and some platforms, such as Windows, refuse to delete a mapped file; it is then left behind and
+     * deleted the next time the map is opened.
+     */
+    private static void release(@Nullable FileChannel channel, @NotNull Path path) {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException ignored) {
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+        }
+    }
+
+    private @NotNull Path indexPath(long generation) {
+        return new File(directory, name + "." + generation + ".idx").toPath();
+    }
+
+    private @NotNull Path dataPath(long generation) {
+        return new File(directory, name + "." + generation + ".dat").toPath();
+    }
+
+    private byte @Nullable [] encodeKey(Object key) {
+        if (key == null) {
+            return null;
+        }
+        try {
+            //noinspection unchecked
+            return keyCodec.encode((K) key);
+        } catch (ClassCastException e) {
+            return null;
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("MappedObjectMap " + name + " is closed");
+        }
+    }
+
+    private static int hash(byte @NotNull [] bytes) {
+        int hash = Arrays.hashCode(bytes);
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    private final class EntryIterator implements Iterator<Entry<K, V>> {
+
+        private int expectedModCount;
+        private int next = -1;
+        private int last = -1;
+
+        private EntryIterator() {
+            lock.readLock().lock();
+            try {
+                this.expectedModCount = modCount;
+                advance(0);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private void advance(int from) {
+            next = -1;
+            for (int slot = from; slot < capacity; slot++) {
+                long offset = slotOffset(slot);
+                if (offset != EMPTY && offset != TOMBSTONE) {
+                    next = slot;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next >= 0;
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (next < 0) {
+                throw new NoSuchElementException();
+            }
+            lock.readLock().lock();
+            try {
+                ensureOpen();
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                long offset = slotOffset(next);
+                Entry<K, V> entry = new AbstractMap.SimpleImmutableEntry<>(readKey(offset), readValue(offset));
+                last = next;
+                advance(next + 1);
+                return entry;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            lock.writeLock().lock();
+            try {
+                ensureOpen();
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                removeSlot(last);
+                expectedModCount = modCount;
+                last = -1;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Encodes and decodes the keys or values of a {@link MappedObjectMap}.
+     * <p>
+     * Two equal keys must always be encoded to the same bytes, since lookups compare encoded keys.
+     *
+     * @param <T> the type of the encoded objects
+     */
+    public interface Codec<T> {
+
+        /**
+         * A codec for {@link String}s encoded as UTF-8.
+         */
+        Codec<String> STRING = new Codec<>() {
+            @Override
+            public byte @NotNull [] encode(@NotNull String value) {
+                return value.getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public @NotNull String decode(@NotNull ByteBuffer buffer) {
+                return StandardCharsets.UTF_8.decode(buffer).toString();
+            }
+        };
+
+        /**
+         * A codec for {@link UUID}s encoded as two longs.
+         */
+        Codec<UUID> UUID = new Codec<>() {
+            @Override
+            public byte @NotNull [] encode(java.util.@NotNull UUID value) {
+                return ByteBuffer.allocate(Long.BYTES * 2)
+                        .putLong(value.getMostSignificantBits())
+                        .putLong(value.getLeastSignificantBits())
+                        .array();
+            }
+
+            @Override
+            public java.util.@NotNull UUID decode(@NotNull ByteBuffer buffer) {
+                return new java.util.UUID(buffer.getLong(0), buffer.getLong(Long.BYTES));
+            }
+        };
+
+        /**
+         * A codec for {@link Long}s.
+         */
+        Codec<Long> LONG = new Codec<>() {
+            @Override
+            public byte @NotNull [] encode(@NotNull Long value) {
+                return ByteBuffer.allocate(Long.BYTES).putLong(value).array();
+            }
+
+            @Override
+            public @NotNull Long decode(@NotNull ByteBuffer buffer) {
+                return buffer.getLong(0);
+            }
+        };
+
+        /**
+         * A codec for {@link Integer}s.
+         */
+        Codec<Integer> INTEGER = new Codec<>() {
+            @Override
+            public byte @NotNull [] encode(@NotNull Integer value) {
+                return ByteBuffer.allocate(Integer.BYTES).putInt(value).array();
+            }
+
+            @Override
+            public @NotNull Integer decode(@NotNull ByteBuffer buffer) {
+                return buffer.getInt(0);
+            }
+        };
+
+        /**
+         * Returns a codec for {@link ObjectMap}s that uses {@link ObjectMapBinaryCodec}.
+         *
+         * @param <K> the type of the keys of the encoded maps
+         * @param <V> the type of the values of the encoded maps
+         * @return a codec for ObjectMaps
+         */
+        static <K, V> @NotNull Codec<ObjectMap<K, V>> objectMap() {
+            return new Codec<>() {
+                @Override
+                public byte @NotNull [] encode(@NotNull ObjectMap<K, V> value) {
+                    ByteBuffer buffer = ObjectMapBinaryCodec.encode(value);
+                    return Arrays.copyOf(buffer.array(), buffer.remaining());
+                }
+
+                @Override
+                public @NotNull ObjectMap<K, V> decode(@NotNull ByteBuffer buffer) {
+                    return ObjectMapBinaryCodec.decode(buffer);
+                }
+            };
+        }
+
+        /**
+         * Encodes the given object.
+         *
+         * @param value the object to encode
+         * @return the encoded bytes
+         */
+        byte @NotNull [] encode(@NotNull T value);
+
+        /**
+         * Decodes an object from the given buffer, which contains exactly the bytes returned by {@link #encode(Object)}
+         * and is positioned at zero.
+         *
+         * @param buffer the encoded bytes
+         * @return the decoded object
+         */
+        @NotNull T decode(@NotNull ByteBuffer buffer);
+    }
+}
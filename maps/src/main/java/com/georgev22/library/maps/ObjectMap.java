@@ -3,6 +3,7 @@ package com.georgev22.library.maps;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -49,6 +50,36 @@ public interface ObjectMap<K, V> extends Map<K, V> {
         return new TreeObjectMap<>();
     }
 
+    /**
+     * Creates a new empty {@link RankedObjectMap} instance ordered by the given value comparator.
+     *
+     * @param comparator the comparator used to order the values
+     * @return a new empty {@link RankedObjectMap} instance.
+     */
+    @Contract("_ -> new")
+    static @NotNull <K, V> RankedObjectMap<K, V> newRankedObjectMap(Comparator<? super V> comparator) {
+        return new RankedObjectMap<>(comparator);
+    }
+
+    /**
+     * Returns the empty {@link PersistentObjectMap}.
+     *
+     * @return the empty {@link PersistentObjectMap} instance.
+     */
+    static @NotNull <K, V> PersistentObjectMap<K, V> newPersistentObjectMap() {
+        return PersistentObjectMap.empty();
+    }
+
+    /**
+     * Creates a new empty {@link SnapshotObjectMap} instance.
+     *
+     * @return a new empty {@link SnapshotObjectMap} instance.
+     */
+    @Contract(" -> new")
+    static @NotNull <K, V> SnapshotObjectMap<K, V> newSnapshotObjectMap() {
+        return new SnapshotObjectMap<>();
+    }
+
     /**
      * Creates a {@link LinkedObjectMap} instance with the same mappings as the specified map.
      *
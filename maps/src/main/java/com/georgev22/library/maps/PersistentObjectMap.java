@@ -0,0 +1,465 @@
+package com.georgev22.library.maps;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * An immutable {@link ObjectMap} backed by a hash array mapped trie (HAMT).
+ * <p>
+ * {@link #with(Object, Object)} and {@link #without(Object)} return a new map in {@code O(log32 n)} that shares every
+ * unchanged node with the previous version, so publishing a new version of a large read-mostly map (configs,
+ * registries) does not copy its entries, and every version can be read by any number of threads without locking.
+ * Nodes only hold as many slots as they have children, which keeps the trie compact.
+ * <p>
+ * The mutating {@link Map} and {@link ObjectMap} methods throw an {@link UnsupportedOperationException}, like
+ * {@link UnmodifiableObjectMap}. Keys may not be {@code null}. See {@link SnapshotObjectMap} for a mutable concurrent
+ * map that hands out PersistentObjectMap snapshots in constant time.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public final class PersistentObjectMap<K, V> extends AbstractObjectMap<K, V> implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 0L;
+
+    private static final PersistentObjectMap<?, ?> EMPTY = new PersistentObjectMap<>(BitmapNode.EMPTY, 0);
+    private static final Object NOT_FOUND = new Object();
+
+    private final transient Node root;
+    private final transient int size;
+
+    private PersistentObjectMap(@NotNull Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Returns the empty PersistentObjectMap.
+     *
+     * @param <K> the type of keys
+     * @param <V> the type of values
+     * @return the empty map
+     */
+    public static <K, V> @NotNull PersistentObjectMap<K, V> empty() {
+        //noinspection unchecked
+        return (PersistentObjectMap<K, V>) EMPTY;
+    }
+
+    /**
+     * Returns a PersistentObjectMap with the same mappings as the given map.
+     * If the given map already is a PersistentObjectMap it is returned as is.
+     *
+     * @param map the mappings to be placed in the new map
+     * @param <K> the type of keys
+     * @param <V> the type of values
+     * @return a PersistentObjectMap with the mappings of the given map
+     */
+    public static <K, V> @NotNull PersistentObjectMap<K, V> copyOf(@NotNull Map<? extends K, ? extends V> map) {
+        if (map instanceof PersistentObjectMap<?, ?> persistent) {
+            //noinspection unchecked
+            return (PersistentObjectMap<K, V>) persistent;
+        }
+        return PersistentObjectMap.<K, V>empty().withAll(map);
+    }
+
+    /**
+     * Returns a map with the given mapping added or replaced. This map is not modified.
+     *
+     * @param key   key with which the specified value is to be associated
+     * @param value value to be associated with the specified key
+     * @return the new map, or this map if it already contains the mapping
+     */
+    @Contract(pure = true)
+    public @NotNull PersistentObjectMap<K, V> with(@NotNull K key, V value) {
+        boolean[] added = new boolean[1];
+        Node newRoot = root.assoc(0, hash(Objects.requireNonNull(key, "key")), key, value, added);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentObjectMap<>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * Returns a map with all the mappings of the given map added or replaced. This map is not modified.
+     *
+     * @param map the mappings to add
+     * @return the new map
+     */
+    @Contract(pure = true)
+    public @NotNull PersistentObjectMap<K, V> withAll(@NotNull Map<? extends K, ? extends V> map) {
+        Node newRoot = root;
+        int newSize = size;
+        boolean[] added = new boolean[1];
+        for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            added[0] = false;
+            K key = Objects.requireNonNull(entry.getKey(), "key");
+            newRoot = newRoot.assoc(0, hash(key), key, entry.getValue(), added);
+            if (added[0]) {
+                newSize++;
+            }
+        }
+        return newRoot == root ? this : new PersistentObjectMap<>(newRoot, newSize);
+    }
+
+    /**
+     * Returns a map without the mapping for the given key. This map is not modified.
+     *
+     * @param key the key whose mapping is to be removed
+     * @return the new map, or this map if it does not contain the key
+     */
+    @Contract(pure = true)
+    public @NotNull PersistentObjectMap<K, V> without(@Nullable Object key) {
+        if (key == null) {
+            return this;
+        }
+        Node newRoot = root.without(0, hash(key), key);
+        if (newRoot == root) {
+            return this;
+        }
+        return newRoot == null ? empty() : new PersistentObjectMap<>(newRoot, size - 1);
+    }
+
+    @Override
+    public V get(Object key) {
+        if (key == null) {
+            return null;
+        }
+        Object value = root.find(0, hash(key), key);
+        //noinspection unchecked
+        return value == NOT_FOUND ? null : (V) value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key != null && root.find(0, hash(key), key) != NOT_FOUND;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public @NotNull Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public @NotNull Iterator<Entry<K, V>> iterator() {
+                return new EntryIterator<>(root);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public V put(K key, V value) {
+        throw new UnsupportedOperationException("PersistentObjectMap");
+    }
+
+    @Override
+    public V remove(Object key) {
+        throw new UnsupportedOperationException("PersistentObjectMap");
+    }
+
+    @Override
+    public void putAll(@NotNull Map<? extends K, ? extends V> m) {
+        throw new UnsupportedOperationException("PersistentObjectMap");
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("PersistentObjectMap");
+    }
+
+    @Serial
+    private Object writeReplace() {
+        return new SerializationProxy<>(this);
+    }
+
+    private static int hash(@NotNull Object key) {
+        int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & 31);
+    }
+
+    /**
+     * A trie node. Both node types store their content as a flat array of key/value pairs; in a {@link BitmapNode} a
+     * {@code null} key means that the value slot holds a child node.
+     */
+    private interface Node {
+
+        Object find(int shift, int hash, @NotNull Object key);
+
+        @NotNull Node assoc(int shift, int hash, @NotNull Object key, Object value, boolean @NotNull [] added);
+
+        @Nullable Node without(int shift, int hash, @NotNull Object key);
+
+        Object @NotNull [] array();
+    }
+
+    private static final class BitmapNode implements Node {
+
+        private static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        private final int bitmap;
+        private final Object[] array;
+
+        private BitmapNode(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        public Object find(int shift, int hash, @NotNull Object key) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return NOT_FOUND;
+            }
+            int index = index(bit);
+            Object storedKey = array[2 * index];
+            Object value = array[2 * index + 1];
+            if (storedKey == null) {
+                return ((Node) value).find(shift + 5, hash, key);
+            }
+            return key.equals(storedKey) ? value : NOT_FOUND;
+        }
+
+        @Override
+        public @NotNull Node assoc(int shift, int hash, @NotNull Object key, Object value, boolean @NotNull [] added) {
+            int bit = bit(hash, shift);
+            int index = index(bit);
+            if ((bitmap & bit) == 0) {
+                int count = Integer.bitCount(bitmap);
+                Object[] newArray = new Object[2 * (count + 1)];
+                System.arraycopy(array, 0, newArray, 0, 2 * index);
+                newArray[2 * index] = key;
+                newArray[2 * index + 1] = value;
+                System.arraycopy(array, 2 * index, newArray, 2 * (index + 1), 2 * (count - index));
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, newArray);
+            }
+            Object storedKey = array[2 * index];
+            Object storedValue = array[2 * index + 1];
+            if (storedKey == null) {
+                Node child = (Node) storedValue;
+                Node newChild = child.assoc(shift + 5, hash, key, value, added);
+                return newChild == child ? this : new BitmapNode(bitmap, set(array, 2 * index + 1, newChild));
+            }
+            if (key.equals(storedKey)) {
+                return storedValue == value ? this : new BitmapNode(bitmap, set(array, 2 * index + 1, value));
+            }
+            added[0] = true;
+            Object[] newArray = set(array, 2 * index, null);
+            newArray[2 * index + 1] = createNode(shift + 5, storedKey, storedValue, hash, key, value);
+            return new BitmapNode(bitmap, newArray);
+        }
+
+        @Override
+        public @Nullable Node without(int shift, int hash, @NotNull Object key) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int index = index(bit);
+            Object storedKey = array[2 * index];
+            Object storedValue = array[2 * index + 1];
+            if (storedKey == null) {
+                Node child = (Node) storedValue;
+                Node newChild = child.without(shift + 5, hash, key);
+                if (newChild == child) {
+                    return this;
+                }
+                if (newChild == null) {
+                    return bitmap == bit ? null : new BitmapNode(bitmap ^ bit, removePair(array, index));
+                }
+                Object[] childArray = newChild.array();
+                if (childArray.length == 2 && childArray[0] != null) {
+                    // Inline a child that is left with a single entry to keep the trie compact.
+                    Object[] newArray = set(array, 2 * index, childArray[0]);
+                    newArray[2 * index + 1] = childArray[1];
+                    return new BitmapNode(bitmap, newArray);
+                }
+                return new BitmapNode(bitmap, set(array, 2 * index + 1, newChild));
+            }
+            if (!key.equals(storedKey)) {
+                return this;
+            }
+            return bitmap == bit ? null : new BitmapNode(bitmap ^ bit, removePair(array, index));
+        }
+
+        @Override
+        public Object @NotNull [] array() {
+            return array;
+        }
+
+        private static @NotNull Node createNode(int shift, @NotNull Object key1, Object value1, int hash2, @NotNull Object key2, Object value2) {
+            int hash1 = hash(key1);
+            if (hash1 == hash2) {
+                return new CollisionNode(hash1, new Object[]{key1, value1, key2, value2});
+            }
+            boolean[] added = new boolean[1];
+            return EMPTY.assoc(shift, hash1, key1, value1, added).assoc(shift, hash2, key2, value2, added);
+        }
+    }
+
+    private static final class CollisionNode implements Node {
+
+        private final int hash;
+        private final Object[] array;
+
+        private CollisionNode(int hash, Object[] array) {
+            this.hash = hash;
+            this.array = array;
+        }
+
+        private int indexOf(@NotNull Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public Object find(int shift, int hash, @NotNull Object key) {
+            if (hash != this.hash) {
+                return NOT_FOUND;
+            }
+            int index = indexOf(key);
+            return index < 0 ? NOT_FOUND : array[index + 1];
+        }
+
+        @Override
+        public @NotNull Node assoc(int shift, int hash, @NotNull Object key, Object value, boolean @NotNull [] added) {
+            if (hash != this.hash) {
+                return new BitmapNode(bit(this.hash, shift), new Object[]{null, this}).assoc(shift, hash, key, value, added);
+            }
+            int index = indexOf(key);
+            if (index >= 0) {
+                return array[index + 1] == value ? this : new CollisionNode(hash, set(array, index + 1, value));
+            }
+            Object[] newArray = Arrays.copyOf(array, array.length + 2);
+            newArray[array.length] = key;
+            newArray[array.length + 1] = value;
+            added[0] = true;
+            return new CollisionNode(hash, newArray);
+        }
+
+        @Override
+        public @Nullable Node without(int shift, int hash, @NotNull Object key) {
+            int index = hash == this.hash ? indexOf(key) : -1;
+            if (index < 0) {
+                return this;
+            }
+            if (array.length == 2) {
+                return null;
+            }
+            return new CollisionNode(hash, removePair(array, index / 2));
+        }
+
+        @Override
+        public Object @NotNull [] array() {
+            return array;
+        }
+    }
+
+    private static Object @NotNull [] set(Object @NotNull [] array, int index, Object value) {
+        Object[] copy = array.clone();
+        copy[index] = value;
+        return copy;
+    }
+
+    private static Object @NotNull [] removePair(Object @NotNull [] array, int pair) {
+        Object[] copy = new Object[array.length - 2];
+        System.arraycopy(array, 0, copy, 0, 2 * pair);
+        System.arraycopy(array, 2 * (pair + 1), copy, 2 * pair, copy.length - 2 * pair);
+        return copy;
+    }
+
+    private static final class EntryIterator<K, V> implements Iterator<Entry<K, V>> {
+
+        private final Deque<Object[]> arrays = new ArrayDeque<>();
+        private final Deque<Integer> positions = new ArrayDeque<>();
+        private Entry<K, V> next;
+
+        private EntryIterator(@NotNull Node root) {
+            arrays.push(root.array());
+            positions.push(0);
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (!arrays.isEmpty()) {
+                Object[] array = arrays.peek();
+                int position = positions.pop();
+                if (position >= array.length) {
+                    arrays.pop();
+                    continue;
+                }
+                positions.push(position + 2);
+                Object key = array[position];
+                if (key == null) {
+                    arrays.push(((Node) array[position + 1]).array());
+                    positions.push(0);
+                } else {
+                    //noinspection unchecked
+                    next = new AbstractMap.SimpleImmutableEntry<>((K) key, (V) array[position + 1]);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Entry<K, V> entry = next;
+            advance();
+            return entry;
+        }
+    }
+
+    /**
+     * Serializes the entries instead of the trie, which is rebuilt on deserialization.
+     */
+    private static final class SerializationProxy<K, V> implements Serializable {
+
+        @Serial
+        private static final long serialVersionUID = 0L;
+
+        private final HashObjectMap<K, V> entries;
+
+        private SerializationProxy(@NotNull PersistentObjectMap<K, V> map) {
+            this.entries = new HashObjectMap<>(map);
+        }
+
+        @Serial
+        private Object readResolve() {
+            return PersistentObjectMap.copyOf(entries);
+        }
+    }
+}
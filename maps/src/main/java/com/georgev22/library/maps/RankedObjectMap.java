@@ -0,0 +1,624 @@
+package com.georgev22.library.maps;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * A thread-safe {@link ObjectMap} that keeps its entries ordered by value and indexed by rank, for leaderboards and
+ * other "top N" lookups.
+ * <p>
+ * Lookups by key go to a {@link ConcurrentHashMap} and never block. The entries are also kept in an order-statistic
+ * tree (a treap whose nodes know the size of their subtree), so finding the rank of a key, the entry at a rank, the
+ * first {@code n} entries or all entries between two ranks or two values costs {@code O(log n + k)} where {@code k}
+ * is the number of returned entries. Nothing is copied besides the returned entries, unlike
+ * {@code Utils.findGreatest}, which walks the whole map on every call.
+ * <p>
+ * Entries with equal values are ranked by insertion time: the entry whose current value was set first ranks first.
+ * Iteration follows the rank order and is weakly consistent: each step continues after the last returned entry, so
+ * it never repeats or skips an entry because of concurrent changes, but an entry whose value changes meanwhile may be
+ * returned again at its new rank. Values may not be {@code null}.
+ * <p>
+ * The compound operations ({@code putIfAbsent}, {@code replace}, {@code compute}, {@code merge} and their variants)
+ * are atomic: they run under the same lock as {@link #put(Object, Object)}, so the given functions must be short and
+ * must not modify this map.
+ * <pre>
+ * RankedObjectMap&lt;UUID, Integer&gt; kills = new RankedObjectMap&lt;&gt;(Comparator.reverseOrder());
+ * kills.append(player, 10);
+ * List&lt;Map.Entry&lt;UUID, Integer&gt;&gt; top10 = kills.top(10);
+ * int position = kills.rank(player) + 1;
+ * </pre>
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public class RankedObjectMap<K, V> extends AbstractObjectMap<K, V> {
+
+    private final Comparator<? super V> comparator;
+    private final ConcurrentHashMap<K, Node<K, V>> nodes = new ConcurrentHashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private Node<K, V> root;
+    private long sequence;
+
+    /**
+     * Creates an empty RankedObjectMap ordered by the given value comparator.
+     * Use {@link Comparator#reverseOrder()} to rank the highest values first.
+     *
+     * @param comparator the comparator used to order the values
+     */
+    public RankedObjectMap(@NotNull Comparator<? super V> comparator) {
+        this.comparator = comparator;
+    }
+
+    /**
+     * Creates a RankedObjectMap ordered by the given value comparator and initialized with the given map.
+     *
+     * @param comparator the comparator used to order the values
+     * @param map        initial map
+     */
+    public RankedObjectMap(@NotNull Comparator<? super V> comparator, @NotNull Map<K, V> map) {
+        this(comparator);
+        putAll(map);
+    }
+
+    /**
+     * Returns the comparator used to order the values of this map.
+     *
+     * @return the value comparator
+     */
+    public Comparator<? super V> comparator() {
+        return comparator;
+    }
+
+    /**
+     * Associates the specified value with the specified key in this map and moves the entry to its new rank.
+     *
+     * @param key   key with which the specified value is to be associated
+     * @param value value to be associated with the specified key
+     * @return the previous value associated with the key, or {@code null} if there was no mapping for the key
+     */
+    @Override
+    public V put(@NotNull K key, @NotNull V value) {
+        Objects.requireNonNull(value, "value");
+        lock.writeLock().lock();
+        try {
+            return update(key, value);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public V putIfAbsent(@NotNull K key, @NotNull V value) {
+        Objects.requireNonNull(value, "value");
+        lock.writeLock().lock();
+        try {
+            V current = get(key);
+            return current != null ? current : update(key, value);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean replace(@NotNull K key, @NotNull V oldValue, @NotNull V newValue) {
+        Objects.requireNonNull(newValue, "newValue");
+        lock.writeLock().lock();
+        try {
+            V current = get(key);
+            if (current == null || !current.equals(oldValue)) {
+                return false;
+            }
+            update(key, newValue);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public V replace(@NotNull K key, @NotNull V value) {
+        Objects.requireNonNull(value, "value");
+        lock.writeLock().lock();
+        try {
+            return nodes.containsKey(key) ? update(key, value) : null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public V computeIfAbsent(@NotNull K key, @NotNull Function<? super K, ? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction, "mappingFunction");
+        lock.writeLock().lock();
+        try {
+            V current = get(key);
+            if (current != null) {
+                return current;
+            }
+            V value = mappingFunction.apply(key);
+            if (value != null) {
+                update(key, value);
+            }
+            return value;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public V computeIfPresent(@NotNull K key, @NotNull BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction, "remappingFunction");
+        lock.writeLock().lock();
+        try {
+            V current = get(key);
+            if (current == null) {
+                return null;
+            }
+            V value = remappingFunction.apply(key, current);
+            update(key, value);
+            return value;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public V compute(@NotNull K key, @NotNull BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction, "remappingFunction");
+        lock.writeLock().lock();
+        try {
+            V value = remappingFunction.apply(key, get(key));
+            update(key, value);
+            return value;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public V merge(@NotNull K key, @NotNull V value, @NotNull BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(value, "value");
+        Objects.requireNonNull(remappingFunction, "remappingFunction");
+        lock.writeLock().lock();
+        try {
+            V current = get(key);
+            V merged = current == null ? value : remappingFunction.apply(current, value);
+            update(key, merged);
+            return merged;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the mapping for a key from this map if it is present.
+     *
+     * @param key key whose mapping is to be removed from the map
+     * @return the previous value associated with the key, or {@code null} if there was no mapping for the key
+     */
+    @Override
+    public V remove(Object key) {
+        if (key == null) {
+            return null;
+        }
+        lock.writeLock().lock();
+        try {
+            Node<K, V> previous = nodes.remove(key);
+            if (previous == null) {
+                return null;
+            }
+            root = delete(root, previous);
+            return previous.value;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped, or {@code null} if this map contains no mapping for the key.
+     * This method never blocks.
+     *
+     * @param key the key whose associated value is to be returned
+     * @return the value to which the specified key is mapped, or {@code null}
+     */
+    @Override
+    public boolean remove(Object key, Object value) {
+        if (key == null || value == null) {
+            return false;
+        }
+        lock.writeLock().lock();
+        try {
+            Node<K, V> previous = nodes.get(key);
+            if (previous == null || !previous.value.equals(value)) {
+                return false;
+            }
+            nodes.remove(key);
+            root = delete(root, previous);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public V get(Object key) {
+        if (key == null) {
+            return null;
+        }
+        Node<K, V> node = nodes.get(key);
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key != null && nodes.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return nodes.size();
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            nodes.clear();
+            root = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the zero-based rank of the given key, i.e. the number of entries ordered before it.
+     *
+     * @param key the key
+     * @return the rank of the key, or {@code -1} if this map contains no mapping for the key
+     */
+    public int rank(@NotNull K key) {
+        lock.readLock().lock();
+        try {
+            Node<K, V> node = nodes.get(key);
+            if (node == null) {
+                return -1;
+            }
+            int rank = 0;
+            Node<K, V> current = root;
+            while (current != null) {
+                int compare = compare(node, current);
+                if (compare < 0) {
+                    current = current.left;
+                } else if (compare > 0) {
+                    rank += size(current.left) + 1;
+                    current = current.right;
+                } else {
+                    return rank + size(current.left);
+                }
+            }
+            return -1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the entry at the given zero-based rank.
+     *
+     * @param rank the rank
+     * @return the entry at the given rank, or {@code null} if the rank is out of range
+     */
+    public @Nullable Map.Entry<K, V> entryAt(int rank) {
+        lock.readLock().lock();
+        try {
+            Node<K, V> node = select(rank);
+            return node == null ? null : node.entry();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the first {@code n} entries in rank order.
+     *
+     * @param n the maximum number of entries to return
+     * @return a new list with at most {@code n} entries
+     */
+    public @NotNull List<Map.Entry<K, V>> top(int n) {
+        return range(0, n);
+    }
+
+    /**
+     * Returns the entries whose rank is between {@code fromRank} (inclusive) and {@code toRank} (exclusive).
+     *
+     * @param fromRank the first rank to return
+     * @param toRank   the rank after the last one to return
+     * @return a new list with the entries in the given rank range
+     */
+    public @NotNull List<Map.Entry<K, V>> range(int fromRank, int toRank) {
+        lock.readLock().lock();
+        try {
+            int from = Math.max(0, fromRank);
+            int to = Math.min(size(root), toRank);
+            List<Map.Entry<K, V>> result = new ArrayList<>(Math.max(0, to - from));
+            if (from < to) {
+                collect(root, 0, from, to, result);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the entries whose value is between {@code fromValue} (inclusive) and {@code toValue} (exclusive),
+     * according to the comparator of this map, in rank order.
+     *
+     * @param fromValue the lowest value to return
+     * @param toValue   the value after the highest one to return
+     * @return a new list with the entries in the given value range
+     */
+    public @NotNull List<Map.Entry<K, V>> valueRange(@NotNull V fromValue, @NotNull V toValue) {
+        lock.readLock().lock();
+        try {
+            int from = countBefore(fromValue);
+            int to = countBefore(toValue);
+            List<Map.Entry<K, V>> result = new ArrayList<>(Math.max(0, to - from));
+            if (from < to) {
+                collect(root, 0, from, to, result);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a {@link Set} view of the mappings contained in this map, in rank order.
+     * Entries do not support {@link Map.Entry#setValue(Object)}; use {@link #put(Object, Object)} instead.
+     *
+     * @return a set view of the mappings contained in this map
+     */
+    @Override
+    public @NotNull Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public @NotNull Iterator<Entry<K, V>> iterator() {
+                return new Iterator<>() {
+                    private Node<K, V> next = after(null);
+                    private Entry<K, V> last;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next != null;
+                    }
+
+                    @Override
+                    public Entry<K, V> next() {
+                        Node<K, V> node = next;
+                        if (node == null) {
+                            throw new NoSuchElementException();
+                        }
+                        // the tree may have been rotated since, so the next node is looked up again
+                        next = after(node);
+                        last = node.entry();
+                        return last;
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (last == null) {
+                            throw new IllegalStateException();
+                        }
+                        RankedObjectMap.this.remove(last.getKey());
+                        last = null;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return nodes.size();
+            }
+        };
+    }
+
+    /**
+     * Returns the first node ordered after the given one, which may have been removed already, or the first node if
+     * it is null.
+     */
+    private @Nullable Node<K, V> after(@Nullable Node<K, V> node) {
+        lock.readLock().lock();
+        try {
+            Node<K, V> result = null;
+            Node<K, V> current = root;
+            while (current != null) {
+                if (node == null || compare(current, node) > 0) {
+                    result = current;
+                    current = current.left;
+                } else {
+                    current = current.right;
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts the entries whose value is ordered strictly before the given value.
+     */
+    /**
+     * Sets the value of the given key and moves its entry to the new rank, or removes the entry if the value is
+     * {@code null}. Must be called with the write lock held.
+     */
+    private @Nullable V update(@NotNull K key, @Nullable V value) {
+        Node<K, V> previous = value == null ? nodes.remove(key) : nodes.get(key);
+        if (previous != null) {
+            root = delete(root, previous);
+        }
+        if (value != null) {
+            Node<K, V> node = new Node<>(key, value, sequence++);
+            root = insert(root, node);
+            nodes.put(key, node);
+        }
+        return previous == null ? null : previous.value;
+    }
+
+    private int countBefore(@NotNull V value) {
+        int count = 0;
+        Node<K, V> current = root;
+        while (current != null) {
+            if (comparator.compare(value, current.value) <= 0) {
+                current = current.left;
+            } else {
+                count += size(current.left) + 1;
+                current = current.right;
+            }
+        }
+        return count;
+    }
+
+    private @Nullable Node<K, V> select(int rank) {
+        Node<K, V> current = root;
+        while (current != null) {
+            int leftSize = size(current.left);
+            if (rank < leftSize) {
+                current = current.left;
+            } else if (rank > leftSize) {
+                rank -= leftSize + 1;
+                current = current.right;
+            } else {
+                return current;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds the entries of the subtree whose ranks fall in {@code [from, to)} to the result, skipping whole subtrees
+     * that are outside the range. {@code offset} is the rank of the first node of the subtree.
+     */
+    private void collect(@Nullable Node<K, V> node, int offset, int from, int to, @NotNull List<Map.Entry<K, V>> result) {
+        if (node == null || offset >= to || offset + node.size <= from) {
+            return;
+        }
+        int nodeRank = offset + size(node.left);
+        collect(node.left, offset, from, to, result);
+        if (nodeRank >= from && nodeRank < to) {
+            result.add(node.entry());
+        }
+        collect(node.right, nodeRank + 1, from, to, result);
+    }
+
+    private int compare(@NotNull Node<K, V> a, @NotNull Node<K, V> b) {
+        int compare = comparator.compare(a.value, b.value);
+        return compare != 0 ? compare : Long.compare(a.sequence, b.sequence);
+    }
+
+    private @NotNull Node<K, V> insert(@Nullable Node<K, V> node, @NotNull Node<K, V> inserted) {
+        if (node == null) {
+            return inserted;
+        }
+        if (compare(inserted, node) < 0) {
+            node.left = insert(node.left, inserted);
+            if (node.left.priority > node.priority) {
+                node = rotateRight(node);
+            }
+        } else {
+            node.right = insert(node.right, inserted);
+            if (node.right.priority > node.priority) {
+                node = rotateLeft(node);
+            }
+        }
+        node.update();
+        return node;
+    }
+
+    private @Nullable Node<K, V> delete(@Nullable Node<K, V> node, @NotNull Node<K, V> deleted) {
+        if (node == null) {
+            return null;
+        }
+        int compare = compare(deleted, node);
+        if (compare < 0) {
+            node.left = delete(node.left, deleted);
+        } else if (compare > 0) {
+            node.right = delete(node.right, deleted);
+        } else {
+            return merge(node.left, node.right);
+        }
+        node.update();
+        return node;
+    }
+
+    private @Nullable Node<K, V> merge(@Nullable Node<K, V> left, @Nullable Node<K, V> right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            left.update();
+            return left;
+        }
+        right.left = merge(left, right.left);
+        right.update();
+        return right;
+    }
+
+    private @NotNull Node<K, V> rotateRight(@NotNull Node<K, V> node) {
+        Node<K, V> left = node.left;
+        node.left = left.right;
+        left.right = node;
+        node.update();
+        left.update();
+        return left;
+    }
+
+    private @NotNull Node<K, V> rotateLeft(@NotNull Node<K, V> node) {
+        Node<K, V> right = node.right;
+        node.right = right.left;
+        right.left = node;
+        node.update();
+        right.update();
+        return right;
+    }
+
+    private static int size(@Nullable Node<?, ?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static final class Node<K, V> {
+        private final K key;
+        private final V value;
+        private final long sequence;
+        private final int priority = ThreadLocalRandom.current().nextInt();
+        private Node<K, V> left;
+        private Node<K, V> right;
+        private int size = 1;
+
+        private Node(K key, V value, long sequence) {
+            this.key = key;
+            this.value = value;
+            this.sequence = sequence;
+        }
+
+        private void update() {
+            size = 1 + RankedObjectMap.size(left) + RankedObjectMap.size(right);
+        }
+
+        private @NotNull Map.Entry<K, V> entry() {
+            return new AbstractMap.SimpleImmutableEntry<>(key, value);
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.georgev22.library.maps;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * A thread-safe, mutable {@link ObjectMap} that can hand out immutable snapshots of itself in constant time.
+ * <p>
+ * The map holds a reference to a {@link PersistentObjectMap}; every write builds the next version with
+ * {@link PersistentObjectMap#with(Object, Object)} or {@link PersistentObjectMap#without(Object)} and publishes it
+ * with a compare-and-set, so reads never block and {@link #snapshot()} simply returns the current version instead of
+ * copying every entry like {@code ObjectMap.newHashObjectMap(map)} does. Iterating over the map iterates over the
+ * version that was current when the iteration started.
+ * <p>
+ * The compound operations ({@code putIfAbsent}, {@code replace}, {@code compute}, {@code merge} and their variants)
+ * are atomic compare-and-set loops as well. Like the function given to {@link #update(UnaryOperator)}, their
+ * functions may be called more than once under contention and must be free of side effects.
+ * <p>
+ * Keys may not be {@code null}.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public class SnapshotObjectMap<K, V> extends AbstractObjectMap<K, V> {
+
+    private final AtomicReference<PersistentObjectMap<K, V>> current;
+
+    /**
+     * Creates an empty SnapshotObjectMap.
+     */
+    public SnapshotObjectMap() {
+        this.current = new AtomicReference<>(PersistentObjectMap.empty());
+    }
+
+    /**
+     * Creates a SnapshotObjectMap initialized with the given map.
+     *
+     * @param map initial map
+     */
+    public SnapshotObjectMap(@NotNull Map<K, V> map) {
+        this.current = new AtomicReference<>(PersistentObjectMap.copyOf(map));
+    }
+
+    /**
+     * Returns an immutable snapshot of this map in constant time. Later changes to this map are not visible in the
+     * returned snapshot.
+     *
+     * @return the current version of this map
+     */
+    public @NotNull PersistentObjectMap<K, V> snapshot() {
+        return current.get();
+    }
+
+    /**
+     * Atomically replaces the content of this map with the result of the given function, which may be called more
+     * than once under contention and must therefore be free of side effects.
+     *
+     * @param function the function that computes the next version from the current one
+     * @return the new version of this map
+     */
+    public @NotNull PersistentObjectMap<K, V> update(@NotNull UnaryOperator<PersistentObjectMap<K, V>> function) {
+        return current.updateAndGet(function);
+    }
+
+    @Override
+    public SnapshotObjectMap<K, V> append(final K key, final V value) {
+        current.updateAndGet(map -> map.with(key, value));
+        return this;
+    }
+
+    @Override
+    public V put(@NotNull K key, V value) {
+        return current.getAndUpdate(map -> map.with(key, value)).get(key);
+    }
+
+    @Override
+    public V putIfAbsent(@NotNull K key, V value) {
+        while (true) {
+            PersistentObjectMap<K, V> map = current.get();
+            V previous = map.get(key);
+            if (previous != null || current.compareAndSet(map, map.with(key, value))) {
+                return previous;
+            }
+        }
+    }
+
+    @Override
+    public boolean replace(@NotNull K key, V oldValue, V newValue) {
+        while (true) {
+            PersistentObjectMap<K, V> map = current.get();
+            if (!map.containsKey(key) || !Objects.equals(map.get(key), oldValue)) {
+                return false;
+            }
+            if (current.compareAndSet(map, map.with(key, newValue))) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public V replace(@NotNull K key, V value) {
+        while (true) {
+            PersistentObjectMap<K, V> map = current.get();
+            if (!map.containsKey(key)) {
+                return null;
+            }
+            if (current.compareAndSet(map, map.with(key, value))) {
+                return map.get(key);
+            }
+        }
+    }
+
+    @Override
+    public V computeIfAbsent(@NotNull K key, @NotNull Function<? super K, ? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction, "mappingFunction");
+        while (true) {
+            PersistentObjectMap<K, V> map = current.get();
+            V previous = map.get(key);
+            if (previous != null) {
+                return previous;
+            }
+            V value = mappingFunction.apply(key);
+            if (value == null || current.compareAndSet(map, map.with(key, value))) {
+                return value;
+            }
+        }
+    }
+
+    @Override
+    public V computeIfPresent(@NotNull K key, @NotNull BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction, "remappingFunction");
+        while (true) {
+            PersistentObjectMap<K, V> map = current.get();
+            V previous = map.get(key);
+            if (previous == null) {
+                return null;
+            }
+            V value = remappingFunction.apply(key, previous);
+            if (current.compareAndSet(map, value == null ? map.without(key) : map.with(key, value))) {
+                return value;
+            }
+        }
+    }
+
+    @Override
+    public V compute(@NotNull K key, @NotNull BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction, "remappingFunction");
+        while (true) {
+            PersistentObjectMap<K, V> map = current.get();
+            V value = remappingFunction.apply(key, map.get(key));
+            if (value == null && !map.containsKey(key)) {
+                return null;
+            }
+            if (current.compareAndSet(map, value == null ? map.without(key) : map.with(key, value))) {
+                return value;
+            }
+        }
+    }
+
+    @Override
+    public V merge(@NotNull K key, @NotNull V value, @NotNull BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(value, "value");
+        Objects.requireNonNull(remappingFunction, "remappingFunction");
+        while (true) {
+            PersistentObjectMap<K, V> map = current.get();
+            V previous = map.get(key);
+            V merged = previous == null ? value : remappingFunction.apply(previous, value);
+            if (current.compareAndSet(map, merged == null ? map.without(key) : map.with(key, merged))) {
+                return merged;
+            }
+        }
+    }
+
+    @Override
+    public void putAll(@NotNull Map<? extends K, ? extends V> m) {
+        current.updateAndGet(map -> map.withAll(m));
+    }
+
+    @Override
+    public V remove(Object key) {
+        return current.getAndUpdate(map -> map.without(key)).get(key);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        while (true) {
+            PersistentObjectMap<K, V> map = current.get();
+            if (!map.containsKey(key) || !Objects.equals(map.get(key), value)) {
+                return false;
+            }
+            if (current.compareAndSet(map, map.without(key))) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        current.set(PersistentObjectMap.empty());
+    }
+
+    @Override
+    public V get(Object key) {
+        return current.get().get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return current.get().containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return current.get().size();
+    }
+
+    /**
+     * Returns a {@link Set} view of the mappings of the version of this map that is current when an iteration starts.
+     * Removing through the iterator removes the key from this map.
+     *
+     * @return a set view of the mappings contained in this map
+     */
+    @Override
+    public @NotNull Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public @NotNull Iterator<Entry<K, V>> iterator() {
+                Iterator<Entry<K, V>> iterator = current.get().entrySet().iterator();
+                return new Iterator<>() {
+                    private Entry<K, V> last;
+
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Entry<K, V> next() {
+                        last = iterator.next();
+                        return last;
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (last == null) {
+                            throw new IllegalStateException();
+                        }
+                        SnapshotObjectMap.this.remove(last.getKey());
+                        last = null;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return SnapshotObjectMap.this.size();
+            }
+        };
+    }
+}
@@ -0,0 +1,463 @@
+package com.georgev22.library.maps;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * A thread-safe {@link ObjectMap} for write-heavy workloads that partitions its keys across a fixed number of shards.
+ * <p>
+ * Every shard is a {@link ConcurrentObjectMap} with its own queue of change events. Unlike
+ * {@link ObservableObjectMap}, which calls its listeners on the writing thread, writers only enqueue an event and the
+ * queue of each shard is drained by a single task on the listener executor, so the events of a shard are delivered in
+ * order and a slow listener never blocks a writer. {@link #append(Object, Object)} is a single {@code put} instead of
+ * a {@code containsKey} followed by a {@code replace} or {@code put}.
+ * <p>
+ * Every write, including {@code merge}, {@code compute} and the other compound operations, is a single atomic
+ * operation of the shard map that also queues its events, so the events of a key are delivered in the order its
+ * changes were applied.
+ * <p>
+ * Use {@link #shards()} or {@link #parallelForEach(BiConsumer)} to process the shards in parallel.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public class StripedObjectMap<K, V> extends AbstractObjectMap<K, V> {
+
+    private final Shard<K, V>[] shards;
+    private final int mask;
+    private final Executor listenerExecutor;
+    private final List<ObservableObjectMap.MapChangeListener<K, V>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Creates a StripedObjectMap with one shard per available processor, rounded up to a power of two, that notifies
+     * its listeners on the {@link ForkJoinPool#commonPool()}.
+     */
+    public StripedObjectMap() {
+        this(Runtime.getRuntime().availableProcessors(), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a StripedObjectMap with the given number of shards that notifies its listeners on the given executor.
+     *
+     * @param shardCount       the number of shards, rounded up to a power of two
+     * @param listenerExecutor the executor that delivers the change events to the listeners
+     */
+    public StripedObjectMap(int shardCount, @NotNull Executor listenerExecutor) {
+        int count = shardCount <= 1 ? 1 : Integer.highestOneBit(shardCount - 1) << 1;
+        //noinspection unchecked
+        this.shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard<>();
+        }
+        this.mask = count - 1;
+        this.listenerExecutor = listenerExecutor;
+    }
+
+    /**
+     * Adds a {@link ObservableObjectMap.MapChangeListener} to this map.
+     * Listeners are called on the listener executor, never on the writing thread.
+     *
+     * @param listener the listener to be added
+     */
+    public void addListener(ObservableObjectMap.MapChangeListener<K, V> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a {@link ObservableObjectMap.MapChangeListener} from this map.
+     *
+     * @param listener the listener to be removed
+     */
+    public void removeListener(ObservableObjectMap.MapChangeListener<K, V> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns an unmodifiable List of the registered MapChangeListeners.
+     *
+     * @return An unmodifiable List of the registered MapChangeListeners.
+     */
+    public List<ObservableObjectMap.MapChangeListener<K, V>> getListeners() {
+        return Collections.unmodifiableList(listeners);
+    }
+
+    /**
+     * Put/replace the given key/value pair into this ObjectMap and return this, with a single hash lookup.
+     *
+     * @param key   key
+     * @param value value
+     * @return this
+     */
+    @Override
+    public StripedObjectMap<K, V> append(final K key, final V value) {
+        put(key, value);
+        return this;
+    }
+
+    @Override
+    public V put(@NotNull K key, @NotNull V value) {
+        Objects.requireNonNull(value, "value");
+        Shard<K, V> shard = shardFor(key);
+        if (listeners.isEmpty()) {
+            return shard.map.put(key, value);
+        }
+        List<V> previous = new ArrayList<>(1);
+        shard.map.compute(key, (k, current) -> {
+            previous.add(current);
+            return changed(shard, k, current, value);
+        });
+        schedule(shard);
+        return previous.get(0);
+    }
+
+    @Override
+    public V putIfAbsent(@NotNull K key, @NotNull V value) {
+        Objects.requireNonNull(value, "value");
+        Shard<K, V> shard = shardFor(key);
+        AtomicBoolean added = new AtomicBoolean();
+        V current = shard.map.computeIfAbsent(key, k -> {
+            added.set(true);
+            return changed(shard, k, null, value);
+        });
+        schedule(shard);
+        return added.get() ? null : current;
+    }
+
+    @Override
+    public V replace(@NotNull K key, @NotNull V value) {
+        Objects.requireNonNull(value, "value");
+        Shard<K, V> shard = shardFor(key);
+        List<V> previous = new ArrayList<>(1);
+        shard.map.computeIfPresent(key, (k, current) -> {
+            previous.add(current);
+            return changed(shard, k, current, value);
+        });
+        schedule(shard);
+        return previous.isEmpty() ? null : previous.get(0);
+    }
+
+    @Override
+    public boolean replace(@NotNull K key, @NotNull V oldValue, @NotNull V newValue) {
+        Objects.requireNonNull(newValue, "newValue");
+        Shard<K, V> shard = shardFor(key);
+        AtomicBoolean replaced = new AtomicBoolean();
+        shard.map.computeIfPresent(key, (k, current) -> {
+            if (!current.equals(oldValue)) {
+                return current;
+            }
+            replaced.set(true);
+            return changed(shard, k, current, newValue);
+        });
+        schedule(shard);
+        return replaced.get();
+    }
+
+    @Override
+    public V get(Object key) {
+        return key == null ? null : shardFor(key).map.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key != null && shardFor(key).map.containsKey(key);
+    }
+
+    @Override
+    public V remove(Object key) {
+        if (key == null) {
+            return null;
+        }
+        Shard<K, V> shard = shardFor(key);
+        if (listeners.isEmpty()) {
+            return shard.map.remove(key);
+        }
+        List<V> previous = new ArrayList<>(1);
+        //noinspection unchecked
+        shard.map.computeIfPresent((K) key, (k, current) -> {
+            previous.add(current);
+            return changed(shard, k, current, null);
+        });
+        schedule(shard);
+        return previous.isEmpty() ? null : previous.get(0);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        if (key == null || value == null) {
+            return false;
+        }
+        Shard<K, V> shard = shardFor(key);
+        AtomicBoolean removed = new AtomicBoolean();
+        //noinspection unchecked
+        shard.map.computeIfPresent((K) key, (k, current) -> {
+            if (!current.equals(value)) {
+                return current;
+            }
+            removed.set(true);
+            return changed(shard, k, current, null);
+        });
+        schedule(shard);
+        return removed.get();
+    }
+
+    @Override
+    public V computeIfAbsent(@NotNull K key, @NotNull Function<? super K, ? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction, "mappingFunction");
+        Shard<K, V> shard = shardFor(key);
+        V value = shard.map.computeIfAbsent(key, k -> changed(shard, k, null, mappingFunction.apply(k)));
+        schedule(shard);
+        return value;
+    }
+
+    @Override
+    public V computeIfPresent(@NotNull K key, @NotNull BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction, "remappingFunction");
+        Shard<K, V> shard = shardFor(key);
+        V value = shard.map.computeIfPresent(key, (k, current) -> changed(shard, k, current, remappingFunction.apply(k, current)));
+        schedule(shard);
+        return value;
+    }
+
+    @Override
+    public V compute(@NotNull K key, @NotNull BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction, "remappingFunction");
+        Shard<K, V> shard = shardFor(key);
+        V value = shard.map.compute(key, (k, current) -> changed(shard, k, current, remappingFunction.apply(k, current)));
+        schedule(shard);
+        return value;
+    }
+
+    @Override
+    public V merge(@NotNull K key, @NotNull V value, @NotNull BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(value, "value");
+        Objects.requireNonNull(remappingFunction, "remappingFunction");
+        Shard<K, V> shard = shardFor(key);
+        V merged = shard.map.compute(key, (k, current) ->
+                changed(shard, k, current, current == null ? value : remappingFunction.apply(current, value)));
+        schedule(shard);
+        return merged;
+    }
+
+    /**
+     * Returns the number of key-value mappings in this map. The result is only an estimate while the map is
+     * being modified concurrently.
+     *
+     * @return the number of key-value mappings in this map
+     */
+    @Override
+    public int size() {
+        long size = 0;
+        for (Shard<K, V> shard : shards) {
+            size += shard.map.size();
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (Shard<K, V> shard : shards) {
+            if (!shard.map.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        for (Shard<K, V> shard : shards) {
+            for (K key : shard.map.keySet()) {
+                remove(key);
+            }
+        }
+    }
+
+    /**
+     * Returns a {@link Set} view of the mappings contained in this map, shard by shard.
+     * Iteration is weakly consistent and removing through the iterator notifies the listeners.
+     *
+     * @return a set view of the mappings contained in this map
+     */
+    @Override
+    public @NotNull Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public @NotNull Iterator<Entry<K, V>> iterator() {
+                return new Iterator<>() {
+                    private int shard = 0;
+                    private Iterator<Entry<K, V>> current = shards[0].map.entrySet().iterator();
+                    private Entry<K, V> last;
+
+                    @Override
+                    public boolean hasNext() {
+                        while (!current.hasNext()) {
+                            if (++shard >= shards.length) {
+                                return false;
+                            }
+                            current = shards[shard].map.entrySet().iterator();
+                        }
+                        return true;
+                    }
+
+                    @Override
+                    public Entry<K, V> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        last = current.next();
+                        return last;
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (last == null) {
+                            throw new IllegalStateException();
+                        }
+                        StripedObjectMap.this.remove(last.getKey(), last.getValue());
+                        last = null;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return StripedObjectMap.this.size();
+            }
+        };
+    }
+
+    /**
+     * Returns the number of shards of this map.
+     *
+     * @return the number of shards
+     */
+    public int shardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Returns an unmodifiable view of every shard, so they can be processed independently, for example one per thread.
+     *
+     * @return an unmodifiable list of unmodifiable shard views
+     */
+    public @NotNull List<Map<K, V>> shards() {
+        List<Map<K, V>> views = new ArrayList<>(shards.length);
+        for (Shard<K, V> shard : shards) {
+            views.add(Collections.unmodifiableMap(shard.map));
+        }
+        return Collections.unmodifiableList(views);
+    }
+
+    /**
+     * Performs the given action for each entry of this map, processing the shards in parallel on the
+     * {@link ForkJoinPool#commonPool()}. The action must be thread-safe.
+     *
+     * @param action the action to be performed for each entry
+     */
+    public void parallelForEach(@NotNull BiConsumer<? super K, ? super V> action) {
+        IntStream.range(0, shards.length).parallel().forEach(i -> shards[i].map.forEach(action));
+    }
+
+    /**
+     * Delivers every pending change event on the calling thread and returns once all the queues are empty,
+     * for example before shutting down the listener executor.
+     */
+    public void drainEvents() {
+        for (Shard<K, V> shard : shards) {
+            while (!shard.events.isEmpty()) {
+                if (shard.draining.compareAndSet(false, true)) {
+                    drain(shard);
+                } else {
+                    Thread.onSpinWait();
+                }
+            }
+        }
+    }
+
+    private @NotNull Shard<K, V> shardFor(@NotNull Object key) {
+        int hash = key.hashCode();
+        return shards[(hash ^ (hash >>> 16)) & mask];
+    }
+
+    /**
+     * Queues the events of replacing {@code current} with {@code value} and returns {@code value}. Only called from
+     * within an atomic operation of the shard map, so the events of a key are queued in the order its changes were
+     * applied. The events are delivered once the operation returns, see {@link #schedule(Shard)}.
+     */
+    private @Nullable V changed(@NotNull Shard<K, V> shard, @NotNull K key, @Nullable V current, @Nullable V value) {
+        if (current == value || listeners.isEmpty()) {
+            return value;
+        }
+        if (current != null) {
+            shard.events.add(new Event(key, current, false));
+        }
+        if (value != null) {
+            shard.events.add(new Event(key, value, true));
+        }
+        return value;
+    }
+
+    /**
+     * Starts draining the events of the shard on the listener executor, unless a drain is already running. It is not
+     * called from within the atomic operations, so a listener executor that runs tasks inline never runs a listener
+     * while the shard map holds a lock.
+     */
+    private void schedule(@NotNull Shard<K, V> shard) {
+        if (!shard.events.isEmpty() && shard.draining.compareAndSet(false, true)) {
+            listenerExecutor.execute(() -> drain(shard));
+        }
+    }
+
+    /**
+     * Runs while holding the {@code draining} flag of the shard, so a single thread delivers the events of a shard.
+     * The queue is checked again after releasing the flag to not miss an event enqueued in between.
+     */
+    private void drain(@NotNull Shard<K, V> shard) {
+        do {
+            try {
+                Event event;
+                while ((event = shard.events.poll()) != null) {
+                    fire(event);
+                }
+            } finally {
+                shard.draining.set(false);
+            }
+        } while (!shard.events.isEmpty() && shard.draining.compareAndSet(false, true));
+    }
+
+    private void fire(@NotNull Event event) {
+        for (ObservableObjectMap.MapChangeListener<K, V> listener : listeners) {
+            try {
+                if (event.added) {
+                    //noinspection unchecked
+                    listener.entryAdded((K) event.key, (V) event.value);
+                } else {
+                    listener.entryRemoved(event.key, event.value);
+                }
+            } catch (RuntimeException e) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+        }
+    }
+
+    private static final class Shard<K, V> {
+        private final ConcurrentObjectMap<K, V> map = new ConcurrentObjectMap<>();
+        private final Queue<Event> events = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean draining = new AtomicBoolean();
+    }
+
+    private record Event(Object key, @Nullable Object value, boolean added) {
+    }
+}
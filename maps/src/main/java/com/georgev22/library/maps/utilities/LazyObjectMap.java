@@ -0,0 +1,170 @@
+package com.georgev22.library.maps.utilities;
+
+import com.georgev22.library.maps.AbstractObjectMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * A read-only {@link com.georgev22.library.maps.ObjectMap} view over a buffer written by {@link ObjectMapBinaryCodec}.
+ * <p>
+ * The keys of the encoded map are read when the view is created, but a value is only decoded the first time its key
+ * is accessed, after which the decoded value is cached. Attempts to modify the map result in an
+ * {@link UnsupportedOperationException}.
+ * <p>
+ * Instances are created with {@link ObjectMapBinaryCodec#lazy(java.nio.ByteBuffer)}.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public final class LazyObjectMap<K, V> extends AbstractObjectMap<K, V> {
+
+    private static final Object UNDECODED = new Object();
+
+    private final ObjectMapBinaryCodec.Reader reader;
+    private final Map<Object, Integer> index;
+    private final int[] valuePositions;
+    private final Object[] values;
+
+    LazyObjectMap(@NotNull ObjectMapBinaryCodec.Reader reader) {
+        this.reader = reader;
+        List<Object> keys = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        reader.indexRootMap(keys, positions);
+        this.index = new LinkedHashMap<>(Math.max(16, (int) (keys.size() / 0.75f) + 1));
+        this.valuePositions = new int[keys.size()];
+        this.values = new Object[keys.size()];
+        for (int i = 0; i < keys.size(); i++) {
+            index.put(keys.get(i), i);
+            valuePositions[i] = positions.get(i);
+            values[i] = UNDECODED;
+        }
+    }
+
+    /**
+     * Returns the number of key-value mappings in this map.
+     *
+     * @return the number of key-value mappings in this map
+     */
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Returns {@code true} if this map contains a mapping for the specified key. The value is not decoded.
+     *
+     * @param key key whose presence in this map is to be tested
+     * @return {@code true} if this map contains a mapping for the specified key
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     * Returns the value to which the specified key is mapped, decoding it on first access.
+     *
+     * @param key the key whose associated value is to be returned
+     * @return the value to which the specified key is mapped, or {@code null} if this map contains no mapping for the key
+     */
+    @Override
+    public V get(Object key) {
+        Integer slot = index.get(key);
+        return slot == null ? null : valueAt(slot);
+    }
+
+    /**
+     * Returns the number of values that have been decoded so far.
+     *
+     * @return the number of decoded values
+     */
+    public int decodedCount() {
+        synchronized (reader) {
+            int count = 0;
+            for (Object value : values) {
+                if (value != UNDECODED) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Returns a {@link Set} view of the keys contained in this map. No value is decoded.
+     *
+     * @return a set view of the keys contained in this map
+     */
+    @Override
+    public @NotNull Set<K> keySet() {
+        //noinspection unchecked
+        return (Set<K>) Collections.unmodifiableSet(index.keySet());
+    }
+
+    /**
+     * Returns a {@link Set} view of the mappings contained in this map. Iterating over the entries decodes their values.
+     *
+     * @return a set view of the mappings contained in this map
+     */
+    @Override
+    public @NotNull Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public @NotNull Iterator<Entry<K, V>> iterator() {
+                Iterator<Map.Entry<Object, Integer>> iterator = index.entrySet().iterator();
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Entry<K, V> next() {
+                        Map.Entry<Object, Integer> next = iterator.next();
+                        //noinspection unchecked
+                        return new AbstractMap.SimpleImmutableEntry<>((K) next.getKey(), valueAt(next.getValue()));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return index.size();
+            }
+        };
+    }
+
+    @Override
+    public V put(K key, V value) {
+        throw new UnsupportedOperationException("LazyObjectMap");
+    }
+
+    @Override
+    public V remove(Object key) {
+        throw new UnsupportedOperationException("LazyObjectMap");
+    }
+
+    @Override
+    public void putAll(@NotNull Map<? extends K, ? extends V> m) {
+        throw new UnsupportedOperationException("LazyObjectMap");
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("LazyObjectMap");
+    }
+
+    private @Nullable V valueAt(int slot) {
+        synchronized (reader) {
+            Object value = values[slot];
+            if (value == UNDECODED) {
+                value = reader.read(valuePositions[slot]);
+                values[slot] = value;
+            }
+            //noinspection unchecked
+            return (V) value;
+        }
+    }
+}
@@ -0,0 +1,654 @@
+package com.georgev22.library.maps.utilities;
+
+import com.georgev22.library.maps.*;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A compact binary codec for {@link ObjectMap} and {@link PairDocument} trees.
+ * <p>
+ * Unlike {@link ObjectMapSerializerDeserializer}, which wraps every map in a JSON object and goes through Gson
+ * reflection and {@link Class#forName(String)}, this codec writes type-tagged values directly to a {@link ByteBuffer}:
+ * integers are zig-zag varint encoded, every distinct string is stored once in a string table at the head of the
+ * buffer and referenced by index afterwards, and nested maps are tagged with a one byte kind instead of a class name.
+ * <p>
+ * Layout of an encoded buffer:
+ * <pre>
+ * magic (1 byte) | version (1 byte) | string count (varint) | [length (varint) | UTF-8 bytes]* | root value
+ * </pre>
+ * Supported values are {@code null}, {@link Boolean}, {@link Byte}, {@link Short}, {@link Integer}, {@link Long},
+ * {@link Float}, {@link Double}, {@link Character}, {@link String}, {@code byte[]}, {@link UUID}, {@link Date},
+ * {@link Collection} (decoded as {@link List}), {@link Map} (decoded as an {@link ObjectMap}) and {@link PairDocument}.
+ * Sorted maps are only supported with their natural ordering, since a {@link java.util.Comparator} cannot be encoded.
+ * <p>
+ * Use {@link #lazy(ByteBuffer)} to get a read-only view that only decodes a value when its key is accessed.
+ */
+public final class ObjectMapBinaryCodec {
+
+    static final byte MAGIC = 0x4D;
+    static final byte VERSION = 1;
+
+    static final byte NULL = 0;
+    static final byte TRUE = 1;
+    static final byte FALSE = 2;
+    static final byte BYTE = 3;
+    static final byte SHORT = 4;
+    static final byte INT = 5;
+    static final byte LONG = 6;
+    static final byte FLOAT = 7;
+    static final byte DOUBLE = 8;
+    static final byte CHAR = 9;
+    static final byte STRING = 10;
+    static final byte BYTES = 11;
+    static final byte UUID_TAG = 12;
+    static final byte DATE = 13;
+    static final byte LIST = 14;
+    static final byte MAP = 15;
+    static final byte PAIR_DOCUMENT = 16;
+
+    static final byte KIND_LINKED = 0;
+    static final byte KIND_HASH = 1;
+    static final byte KIND_CONCURRENT = 2;
+    static final byte KIND_TREE = 3;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private ObjectMapBinaryCodec() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+
+    /**
+     * Encodes the given map into a new heap {@link ByteBuffer}.
+     *
+     * @param map the map to encode
+     * @return a buffer positioned at zero containing the encoded map
+     * @throws IllegalArgumentException if the map contains a value that cannot be encoded
+     */
+    @Contract("_ -> new")
+    public static @NotNull ByteBuffer encode(@NotNull Map<?, ?> map) {
+        return encodeRoot(map);
+    }
+
+    /**
+     * Encodes the given {@link PairDocument} into a new heap {@link ByteBuffer}.
+     *
+     * @param document the document to encode
+     * @return a buffer positioned at zero containing the encoded document
+     * @throws IllegalArgumentException if the document contains a value that cannot be encoded
+     */
+    @Contract("_ -> new")
+    public static @NotNull ByteBuffer encode(@NotNull PairDocument<?, ?> document) {
+        return encodeRoot(document);
+    }
+
+    /**
+     * Encodes the given map into the given buffer, starting at its current position.
+     * The buffer may be a direct buffer; its position is advanced past the written bytes.
+     *
+     * @param map    the map to encode
+     * @param buffer the buffer to write to
+     * @throws BufferOverflowException  if the buffer does not have enough remaining space
+     * @throws IllegalArgumentException if the map contains a value that cannot be encoded
+     */
+    public static void encode(@NotNull Map<?, ?> map, @NotNull ByteBuffer buffer) {
+        encodeRoot(map, buffer);
+    }
+
+    /**
+     * Encodes the given {@link PairDocument} into the given buffer, starting at its current position.
+     * The buffer may be a direct buffer; its position is advanced past the written bytes.
+     *
+     * @param document the document to encode
+     * @param buffer   the buffer to write to
+     * @throws BufferOverflowException  if the buffer does not have enough remaining space
+     * @throws IllegalArgumentException if the document contains a value that cannot be encoded
+     */
+    public static void encode(@NotNull PairDocument<?, ?> document, @NotNull ByteBuffer buffer) {
+        encodeRoot(document, buffer);
+    }
+
+    /**
+     * Decodes a map from the given buffer, starting at its current position.
+     * The position of the buffer is advanced past the decoded bytes.
+     *
+     * @param buffer the buffer to read from
+     * @param <K>    the type of the keys
+     * @param <V>    the type of the values
+     * @return the decoded map
+     * @throws IllegalArgumentException if the buffer does not contain an encoded map or is corrupt
+     */
+    public static <K, V> @NotNull ObjectMap<K, V> decode(@NotNull ByteBuffer buffer) {
+        Object root = decodeRoot(buffer);
+        if (!(root instanceof ObjectMap<?, ?>)) {
+            throw new IllegalArgumentException("Encoded root value is not a map");
+        }
+        //noinspection unchecked
+        return (ObjectMap<K, V>) root;
+    }
+
+    /**
+     * Decodes a {@link PairDocument} from the given buffer, starting at its current position.
+     * The position of the buffer is advanced past the decoded bytes.
+     *
+     * @param buffer the buffer to read from
+     * @param <K>    the type of the keys
+     * @param <V>    the type of the values
+     * @return the decoded document
+     * @throws IllegalArgumentException if the buffer does not contain an encoded PairDocument
+     */
+    public static <K, V> @NotNull PairDocument<K, V> decodePairDocument(@NotNull ByteBuffer buffer) {
+        Object root = decodeRoot(buffer);
+        if (!(root instanceof PairDocument<?, ?>)) {
+            throw new IllegalArgumentException("Encoded root value is not a PairDocument");
+        }
+        //noinspection unchecked
+        return (PairDocument<K, V>) root;
+    }
+
+    /**
+     * Returns a read-only map view over an encoded map that decodes a value only when its key is accessed.
+     * <p>
+     * Only the string table offsets and the keys of the root map are read up front; the buffer is not copied,
+     * so it must not be modified while the returned map is in use.
+     * The position of the given buffer is advanced past the encoded map.
+     *
+     * @param buffer the buffer to read from
+     * @param <K>    the type of the keys
+     * @param <V>    the type of the values
+     * @return a lazily decoded view of the encoded map
+     * @throws IllegalArgumentException if the buffer does not contain an encoded map
+     */
+    @Contract("_ -> new")
+    public static <K, V> @NotNull LazyObjectMap<K, V> lazy(@NotNull ByteBuffer buffer) {
+        Reader reader = new Reader(buffer);
+        int end = reader.skip(reader.rootPosition());
+        LazyObjectMap<K, V> map = new LazyObjectMap<>(reader);
+        buffer.position(buffer.position() + (end - reader.start));
+        return map;
+    }
+
+    private static @NotNull ByteBuffer encodeRoot(@NotNull Object root) {
+        Writer writer = new Writer(ByteBuffer.allocate(INITIAL_CAPACITY), true);
+        writer.writeRoot(root);
+        ByteBuffer result = writer.buffer;
+        result.flip();
+        return result;
+    }
+
+    private static void encodeRoot(@NotNull Object root, @NotNull ByteBuffer buffer) {
+        ByteBuffer target = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        Writer writer = new Writer(target, false);
+        writer.writeRoot(root);
+        buffer.position(target.position());
+    }
+
+    private static @Nullable Object decodeRoot(@NotNull ByteBuffer buffer) {
+        Reader reader = new Reader(buffer);
+        Object root = reader.read(reader.rootPosition());
+        buffer.position(buffer.position() + (reader.position - reader.start));
+        return root;
+    }
+
+    /**
+     * Writes values to a {@link ByteBuffer}, growing it when it is allowed to.
+     */
+    private static final class Writer {
+
+        private final Map<String, Integer> strings = new LinkedHashMap<>();
+        private final boolean growable;
+        private ByteBuffer buffer;
+
+        private Writer(ByteBuffer buffer, boolean growable) {
+            this.buffer = buffer;
+            this.growable = growable;
+        }
+
+        private void writeRoot(@NotNull Object root) {
+            collectStrings(root);
+            ensure(2);
+            buffer.put(MAGIC);
+            buffer.put(VERSION);
+            writeVarInt(strings.size());
+            for (String string : strings.keySet()) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                writeVarInt(bytes.length);
+                ensure(bytes.length);
+                buffer.put(bytes);
+            }
+            write(root);
+        }
+
+        private void collectStrings(@Nullable Object value) {
+            if (value instanceof String string) {
+                strings.putIfAbsent(string, strings.size());
+            } else if (value instanceof Map<?, ?> map) {
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    collectStrings(entry.getKey());
+                    collectStrings(entry.getValue());
+                }
+            } else if (value instanceof Collection<?> collection) {
+                for (Object element : collection) {
+                    collectStrings(element);
+                }
+            } else if (value instanceof PairDocument<?, ?> document) {
+                for (Pair<?, ?> pair : document.objectPairs()) {
+                    collectStrings(pair.key());
+                    collectStrings(pair.value());
+                }
+            }
+        }
+
+        private void write(@Nullable Object value) {
+            if (value == null) {
+                writeTag(NULL);
+            } else if (value instanceof String string) {
+                writeTag(STRING);
+                writeVarInt(strings.get(string));
+            } else if (value instanceof Integer integer) {
+                writeTag(INT);
+                writeVarLong(zigZag(integer));
+            } else if (value instanceof Long longValue) {
+                writeTag(LONG);
+                writeVarLong(zigZag(longValue));
+            } else if (value instanceof Boolean bool) {
+                writeTag(bool ? TRUE : FALSE);
+            } else if (value instanceof Double doubleValue) {
+                writeTag(DOUBLE);
+                ensure(Double.BYTES);
+                buffer.putDouble(doubleValue);
+            } else if (value instanceof Float floatValue) {
+                writeTag(FLOAT);
+                ensure(Float.BYTES);
+                buffer.putFloat(floatValue);
+            } else if (value instanceof Short shortValue) {
+                writeTag(SHORT);
+                writeVarLong(zigZag(shortValue));
+            } else if (value instanceof Byte byteValue) {
+                writeTag(BYTE);
+                ensure(1);
+                buffer.put(byteValue);
+            } else if (value instanceof Character character) {
+                writeTag(CHAR);
+                writeVarInt(character);
+            } else if (value instanceof byte[] bytes) {
+                writeTag(BYTES);
+                writeVarInt(bytes.length);
+                ensure(bytes.length);
+                buffer.put(bytes);
+            } else if (value instanceof UUID uuid) {
+                writeTag(UUID_TAG);
+                ensure(Long.BYTES * 2);
+                buffer.putLong(uuid.getMostSignificantBits());
+                buffer.putLong(uuid.getLeastSignificantBits());
+            } else if (value instanceof Date date) {
+                writeTag(DATE);
+                writeVarLong(zigZag(date.getTime()));
+            } else if (value instanceof Map<?, ?> map) {
+                writeTag(MAP);
+                ensure(1);
+                buffer.put(kindOf(map));
+                writeVarInt(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    write(entry.getKey());
+                    write(entry.getValue());
+                }
+            } else if (value instanceof Collection<?> collection) {
+                writeTag(LIST);
+                writeVarInt(collection.size());
+                for (Object element : collection) {
+                    write(element);
+                }
+            } else if (value instanceof PairDocument<?, ?> document) {
+                writeTag(PAIR_DOCUMENT);
+                writeVarInt(document.objectPairs().size());
+                for (Pair<?, ?> pair : document.objectPairs()) {
+                    write(pair.key());
+                    write(pair.value());
+                }
+            } else {
+                throw new IllegalArgumentException("Cannot encode value of type " + value.getClass().getName());
+            }
+        }
+
+        private static byte kindOf(Map<?, ?> map) {
+            if (map instanceof SortedMap<?, ?> sorted) {
+                if (sorted.comparator() != null) {
+                    // the comparator cannot be encoded, decoding would silently fall back to natural ordering
+                    throw new IllegalArgumentException("Cannot encode a sorted map with a custom comparator");
+                }
+                return KIND_TREE;
+            } else if (map instanceof TreeObjectMap<?, ?>) {
+                return KIND_TREE;
+            } else if (map instanceof ConcurrentObjectMap<?, ?>) {
+                return KIND_CONCURRENT;
+            } else if (map instanceof HashObjectMap<?, ?>) {
+                return KIND_HASH;
+            }
+            return KIND_LINKED;
+        }
+
+        private void writeTag(byte tag) {
+            ensure(1);
+            buffer.put(tag);
+        }
+
+        private void writeVarInt(int value) {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        private void writeVarLong(long value) {
+            // 7 bits per byte, so a fixed buffer only needs room for the bytes actually written
+            ensure((63 - Long.numberOfLeadingZeros(value)) / 7 + 1);
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        private static long zigZag(long value) {
+            return (value << 1) ^ (value >> 63);
+        }
+
+        private void ensure(int bytes) {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+            if (!growable) {
+                throw new BufferOverflowException();
+            }
+            int capacity = Math.max(buffer.capacity() * 2, buffer.position() + bytes);
+            ByteBuffer grown = ByteBuffer.allocate(capacity);
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+    }
+
+    /**
+     * Reads values from an encoded buffer using absolute positions, so a single reader can be shared by
+     * {@link LazyObjectMap} without copying or moving the underlying buffer.
+     */
+    static final class Reader {
+
+        private final ByteBuffer buffer;
+        private final int start;
+        private final int root;
+        private final int[] stringOffsets;
+        private final int[] stringLengths;
+        private final String[] strings;
+        private int position;
+
+        Reader(@NotNull ByteBuffer source) {
+            this.buffer = source.duplicate().order(ByteOrder.BIG_ENDIAN);
+            this.start = source.position();
+            this.position = start;
+            try {
+                if (buffer.get(position++) != MAGIC) {
+                    throw new IllegalArgumentException("Buffer does not contain an encoded ObjectMap");
+                }
+                byte version = buffer.get(position++);
+                if (version != VERSION) {
+                    throw new IllegalArgumentException("Unsupported encoding version " + version);
+                }
+                int count = readCount(1);
+                this.stringOffsets = new int[count];
+                this.stringLengths = new int[count];
+                this.strings = new String[count];
+                for (int i = 0; i < count; i++) {
+                    stringLengths[i] = readCount(1);
+                    stringOffsets[i] = position;
+                    position += stringLengths[i];
+                }
+                this.root = position;
+            } catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+                throw new IllegalArgumentException("Truncated ObjectMap buffer", e);
+            }
+        }
+
+        /**
+         * Returns the position right after the string table, where the root value starts.
+         */
+        int rootPosition() {
+            return root;
+        }
+
+        /**
+         * Reads the value at the given absolute position and leaves {@link #position} right after it.
+         */
+        @Nullable Object read(int at) {
+            position = at;
+            try {
+                return readValue();
+            } catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+                throw new IllegalArgumentException("Truncated ObjectMap buffer", e);
+            }
+        }
+
+        /**
+         * Returns the absolute position right after the value starting at the given position, without decoding it.
+         */
+        int skip(int at) {
+            position = at;
+            try {
+                skipValue();
+            } catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+                throw new IllegalArgumentException("Truncated ObjectMap buffer", e);
+            }
+            return position;
+        }
+
+        /**
+         * Reads the keys of the root map and the positions of their values, skipping over the values themselves.
+         */
+        void indexRootMap(@NotNull List<Object> keys, @NotNull List<Integer> valuePositions) {
+            position = root;
+            try {
+                if (buffer.get(position++) != MAP) {
+                    throw new IllegalArgumentException("Encoded root value is not a map");
+                }
+                position++;
+                int size = readCount(2);
+                for (int i = 0; i < size; i++) {
+                    keys.add(readValue());
+                    valuePositions.add(position);
+                    skipValue();
+                }
+            } catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+                throw new IllegalArgumentException("Truncated ObjectMap buffer", e);
+            }
+        }
+
+        private @Nullable Object readValue() {
+            byte tag = buffer.get(position++);
+            switch (tag) {
+                case NULL:
+                    return null;
+                case TRUE:
+                    return Boolean.TRUE;
+                case FALSE:
+                    return Boolean.FALSE;
+                case BYTE:
+                    return buffer.get(position++);
+                case SHORT:
+                    return (short) unZigZag(readVarLong());
+                case INT:
+                    return (int) unZigZag(readVarLong());
+                case LONG:
+                    return unZigZag(readVarLong());
+                case FLOAT: {
+                    float value = buffer.getFloat(position);
+                    position += Float.BYTES;
+                    return value;
+                }
+                case DOUBLE: {
+                    double value = buffer.getDouble(position);
+                    position += Double.BYTES;
+                    return value;
+                }
+                case CHAR:
+                    return (char) readVarInt();
+                case STRING:
+                    return string(readVarInt());
+                case BYTES: {
+                    int length = readCount(1);
+                    byte[] bytes = new byte[length];
+                    buffer.get(position, bytes);
+                    position += length;
+                    return bytes;
+                }
+                case UUID_TAG: {
+                    long most = buffer.getLong(position);
+                    long least = buffer.getLong(position + Long.BYTES);
+                    position += Long.BYTES * 2;
+                    return new UUID(most, least);
+                }
+                case DATE:
+                    return new Date(unZigZag(readVarLong()));
+                case LIST: {
+                    int size = readCount(1);
+                    List<Object> list = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        list.add(readValue());
+                    }
+                    return list;
+                }
+                case MAP: {
+                    byte kind = buffer.get(position++);
+                    int size = readCount(2);
+                    ObjectMap<Object, Object> map = newMap(kind, size);
+                    for (int i = 0; i < size; i++) {
+                        Object key = readValue();
+                        map.put(key, readValue());
+                    }
+                    return map;
+                }
+                case PAIR_DOCUMENT: {
+                    int size = readCount(2);
+                    List<Pair<Object, Object>> pairs = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        Object key = readValue();
+                        pairs.add(Pair.create(key, readValue()));
+                    }
+                    return new PairDocument<>(pairs);
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown value tag " + tag + " at position " + (position - 1));
+            }
+        }
+
+        private void skipValue() {
+            byte tag = buffer.get(position++);
+            switch (tag) {
+                case NULL, TRUE, FALSE -> {
+                }
+                case BYTE -> position++;
+                case SHORT, INT, LONG, DATE -> readVarLong();
+                case CHAR, STRING -> readVarInt();
+                case FLOAT -> position += Float.BYTES;
+                case DOUBLE -> position += Double.BYTES;
+                case UUID_TAG -> position += Long.BYTES * 2;
+                case BYTES -> {
+                    int length = readCount(1);
+                    position += length;
+                }
+                case LIST -> {
+                    int size = readCount(1);
+                    for (int i = 0; i < size; i++) {
+                        skipValue();
+                    }
+                }
+                case MAP -> {
+                    position++;
+                    int size = readCount(2);
+                    for (int i = 0; i < size * 2; i++) {
+                        skipValue();
+                    }
+                }
+                case PAIR_DOCUMENT -> {
+                    int size = readCount(2);
+                    for (int i = 0; i < size * 2; i++) {
+                        skipValue();
+                    }
+                }
+                default ->
+                        throw new IllegalArgumentException("Unknown value tag " + tag + " at position " + (position - 1));
+            }
+        }
+
+        private @NotNull String string(int index) {
+            if (index < 0 || index >= strings.length) {
+                throw new IllegalArgumentException("String index " + index + " out of range");
+            }
+            String string = strings[index];
+            if (string == null) {
+                string = decodeString(stringOffsets[index], stringLengths[index]);
+                strings[index] = string;
+            }
+            return string;
+        }
+
+        private @NotNull String decodeString(int offset, int length) {
+            if (buffer.hasArray()) {
+                return new String(buffer.array(), buffer.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(offset, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private int readVarInt() {
+            return (int) readVarLong();
+        }
+
+        /**
+         * Reads a length or element count and checks it against the bytes left in the buffer, so a corrupt count
+         * fails fast instead of driving a huge allocation. Every element takes at least {@code bytesPerElement} bytes.
+         */
+        private int readCount(int bytesPerElement) {
+            long count = readVarLong();
+            long remaining = buffer.limit() - position;
+            if (count < 0 || count > remaining / bytesPerElement) {
+                throw new IllegalArgumentException("Invalid length " + count + " at position " + position
+                        + ", only " + remaining + " bytes remain");
+            }
+            return (int) count;
+        }
+
+        private long readVarLong() {
+            long result = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (shift >= 64) {
+                    throw new IllegalArgumentException("Malformed varint at position " + position);
+                }
+                b = buffer.get(position++);
+                result |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return result;
+        }
+
+        private static long unZigZag(long value) {
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private static @NotNull ObjectMap<Object, Object> newMap(byte kind, int size) {
+            return switch (kind) {
+                case KIND_HASH -> new HashObjectMap<>(Math.max(16, (int) (size / 0.75f) + 1));
+                case KIND_CONCURRENT -> new ConcurrentObjectMap<>(Math.max(16, size));
+                case KIND_TREE -> new TreeObjectMap<>();
+                default -> new LinkedObjectMap<>();
+            };
+        }
+    }
+}
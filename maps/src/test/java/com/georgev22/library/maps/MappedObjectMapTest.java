@@ -0,0 +1,125 @@
+package com.georgev22.library.maps;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedObjectMapTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void entriesSurviveGrowingAndReopening() throws IOException {
+        try (MappedObjectMap<String, Long> map = open("map")) {
+            for (long i = 0; i < 1_000; i++) {
+                map.put("key-" + i, i);
+            }
+            assertEquals(500L, map.remove("key-500"));
+        }
+        try (MappedObjectMap<String, Long> map = open("map")) {
+            assertEquals(999, map.size());
+            assertEquals(999L, map.get("key-999"));
+            assertNull(map.get("key-500"));
+            // the index was rebuilt several times while growing, only its latest generation is kept
+            List<String> files = files();
+            assertEquals(2, files.size(), files.toString());
+            assertEquals("map.0.dat", files.get(0));
+            assertTrue(files.get(1).endsWith(".idx"));
+        }
+    }
+
+    @Test
+    void compactDropsReplacedRecords() throws IOException {
+        try (MappedObjectMap<String, Long> map = open("map")) {
+            for (long i = 0; i < 100; i++) {
+                map.put("key", i);
+            }
+            map.put("other", -1L);
+            map.remove("other");
+            long before = map.dataSize();
+
+            map.compact();
+
+            assertTrue(map.dataSize() < before);
+            assertEquals(1, map.size());
+            assertEquals(99L, map.get("key"));
+            map.put("after", 1L);
+        }
+        try (MappedObjectMap<String, Long> map = open("map")) {
+            assertEquals(99L, map.get("key"));
+            assertEquals(1L, map.get("after"));
+            assertEquals(List.of("map.1.dat", "map.1.idx"), files());
+        }
+    }
+
+    @Test
+    void clearStartsANewDataGeneration() throws IOException {
+        try (MappedObjectMap<String, Long> map = open("map")) {
+            for (long i = 0; i < 10; i++) {
+                map.put("key-" + i, i);
+            }
+
+            map.clear();
+
+            assertEquals(0, map.size());
+            assertTrue(map.isEmpty());
+            assertNull(map.get("key-1"));
+            map.put("key-1", 42L);
+        }
+        try (MappedObjectMap<String, Long> map = open("map")) {
+            assertEquals(1, map.size());
+            assertEquals(42L, map.get("key-1"));
+            assertEquals(List.of("map.0.idx", "map.1.dat"), files());
+        }
+    }
+
+    @Test
+    void skipsAnIndexThatWasNeverCommitted() throws IOException {
+        try (MappedObjectMap<String, Long> map = open("map")) {
+            map.put("key", 1L);
+        }
+        // an index the map crashed while building has no magic number yet
+        Files.write(directory.resolve("map.7.idx"), new byte[4096]);
+        Files.write(directory.resolve("map.7.dat"), new byte[64]);
+
+        try (MappedObjectMap<String, Long> map = open("map")) {
+            assertEquals(1L, map.get("key"));
+        }
+        assertEquals(List.of("map.0.dat", "map.0.idx"), files());
+    }
+
+    @Test
+    void leavesTheFilesOfOtherMapsAlone() throws IOException {
+        try (MappedObjectMap<String, Long> map = open("map");
+             MappedObjectMap<String, Long> other = open("map.other")) {
+            map.put("key", 1L);
+            other.put("key", 2L);
+            other.compact();
+        }
+        try (MappedObjectMap<String, Long> map = open("map");
+             MappedObjectMap<String, Long> other = open("map.other")) {
+            assertEquals(1L, map.get("key"));
+            assertEquals(2L, other.get("key"));
+        }
+    }
+
+    private MappedObjectMap<String, Long> open(String name) throws IOException {
+        return new MappedObjectMap<>(directory.toFile(), name, MappedObjectMap.Codec.STRING, MappedObjectMap.Codec.LONG,
+                16, 4096);
+    }
+
+    private List<String> files() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString()).sorted().toList();
+        }
+    }
+}
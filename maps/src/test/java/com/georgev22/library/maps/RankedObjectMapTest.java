@@ -0,0 +1,108 @@
+package com.georgev22.library.maps;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RankedObjectMapTest {
+
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 20_000;
+
+    @Test
+    void ranksEntriesByValue() {
+        RankedObjectMap<String, Integer> map = new RankedObjectMap<>(Comparator.reverseOrder());
+        map.put("a", 10);
+        map.put("b", 30);
+        map.put("c", 20);
+
+        assertEquals(List.of("b", "c", "a"), keys(map.top(3)));
+        assertEquals(0, map.rank("b"));
+        assertEquals(2, map.rank("a"));
+        assertEquals("c", map.entryAt(1).getKey());
+    }
+
+    @Test
+    void compoundOperationsMoveEntriesToTheirNewRank() {
+        RankedObjectMap<String, Integer> map = new RankedObjectMap<>(Comparator.reverseOrder());
+        map.put("a", 10);
+        map.put("b", 20);
+
+        assertEquals(25, map.merge("a", 15, Integer::sum));
+        assertEquals(List.of("a", "b"), keys(map.top(2)));
+
+        assertEquals(20, map.putIfAbsent("b", 100));
+        assertEquals(5, map.computeIfAbsent("c", key -> 5));
+        assertEquals(5, map.computeIfAbsent("c", key -> 500));
+        assertFalse(map.replace("c", 4, 50));
+        assertTrue(map.replace("c", 5, 50));
+        assertEquals(List.of("c", "a", "b"), keys(map.top(3)));
+
+        assertNull(map.computeIfPresent("c", (key, value) -> null));
+        assertFalse(map.containsKey("c"));
+        assertFalse(map.remove("a", 10));
+        assertTrue(map.remove("a", 25));
+        assertEquals(List.of("b"), keys(map.top(3)));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    void concurrentMergesAreNotLost() throws Exception {
+        RankedObjectMap<String, Integer> map = new RankedObjectMap<>(Comparator.naturalOrder());
+        concurrently(() -> {
+            for (int i = 0; i < OPERATIONS; i++) {
+                map.merge("key-" + (i % 4), 1, Integer::sum);
+            }
+        });
+
+        int total = 0;
+        for (int i = 0; i < 4; i++) {
+            total += map.get("key-" + i);
+        }
+        assertEquals(THREADS * OPERATIONS, total);
+        assertEquals(4, map.top(10).size());
+    }
+
+    @Test
+    void concurrentComputeIfAbsentCallsTheFunctionOnce() throws Exception {
+        RankedObjectMap<String, Integer> map = new RankedObjectMap<>(Comparator.naturalOrder());
+        AtomicInteger calls = new AtomicInteger();
+        concurrently(() -> {
+            for (int i = 0; i < 1_000; i++) {
+                map.computeIfAbsent("key-" + i, key -> calls.incrementAndGet());
+            }
+        });
+
+        assertEquals(1_000, calls.get());
+        assertEquals(1_000, map.size());
+        assertEquals(1_000, map.range(0, 1_000).size());
+    }
+
+    private static void concurrently(Runnable task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(task));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<String> keys(List<Map.Entry<String, Integer>> entries) {
+        return entries.stream().map(Map.Entry::getKey).toList();
+    }
+}
@@ -0,0 +1,97 @@
+package com.georgev22.library.maps;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotObjectMapTest {
+
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 20_000;
+
+    @Test
+    void snapshotsAreNotAffectedByLaterWrites() {
+        SnapshotObjectMap<String, Integer> map = new SnapshotObjectMap<>();
+        map.put("a", 1);
+        PersistentObjectMap<String, Integer> snapshot = map.snapshot();
+
+        map.put("a", 2);
+        map.put("b", 3);
+
+        assertEquals(1, snapshot.get("a"));
+        assertEquals(1, snapshot.size());
+        assertEquals(2, map.get("a"));
+    }
+
+    @Test
+    void compoundOperationsFollowTheMapContract() {
+        SnapshotObjectMap<String, Integer> map = new SnapshotObjectMap<>();
+        map.put("nothing", null);
+
+        assertNull(map.putIfAbsent("nothing", 1));
+        assertEquals(1, map.get("nothing"));
+        assertEquals(1, map.putIfAbsent("nothing", 2));
+        assertEquals(3, map.merge("nothing", 2, Integer::sum));
+        assertNull(map.merge("nothing", 2, (previous, value) -> null));
+        assertFalse(map.containsKey("nothing"));
+
+        assertEquals(5, map.computeIfAbsent("a", key -> 5));
+        assertEquals(5, map.computeIfAbsent("a", key -> 6));
+        assertNull(map.computeIfPresent("b", (key, value) -> 1));
+        assertEquals(6, map.computeIfPresent("a", (key, value) -> value + 1));
+        assertFalse(map.replace("a", 5, 7));
+        assertTrue(map.replace("a", 6, 7));
+        assertEquals(7, map.replace("a", 8));
+        assertNull(map.replace("b", 8));
+        assertFalse(map.remove("a", 7));
+        assertTrue(map.remove("a", 8));
+        assertNull(map.compute("a", (key, value) -> null));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    void concurrentCompoundOperationsAreNotLost() throws Exception {
+        SnapshotObjectMap<String, Integer> map = new SnapshotObjectMap<>();
+        concurrently(() -> {
+            for (int i = 0; i < OPERATIONS; i++) {
+                String key = "key-" + (i % 4);
+                switch (i % 3) {
+                    case 0 -> map.merge(key, 1, Integer::sum);
+                    case 1 -> map.compute(key, (k, value) -> value == null ? 1 : value + 1);
+                    default -> {
+                        if (map.putIfAbsent(key, 1) != null) {
+                            map.computeIfPresent(key, (k, value) -> value + 1);
+                        }
+                    }
+                }
+            }
+        });
+
+        int total = 0;
+        for (int value : map.values()) {
+            total += value;
+        }
+        assertEquals(THREADS * OPERATIONS, total);
+    }
+
+    private static void concurrently(Runnable task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(task));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
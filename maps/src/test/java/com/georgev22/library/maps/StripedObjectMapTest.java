@@ -0,0 +1,130 @@
+package com.georgev22.library.maps;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StripedObjectMapTest {
+
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 20_000;
+
+    @Test
+    void compoundOperationsQueueTheirEvents() {
+        StripedObjectMap<String, Integer> map = new StripedObjectMap<>(4, Runnable::run);
+        List<String> events = new ArrayList<>();
+        map.addListener(new ObservableObjectMap.MapChangeListener<>() {
+            @Override
+            public void entryAdded(String key, Integer value) {
+                events.add("+" + key + "=" + value);
+            }
+
+            @Override
+            public void entryRemoved(Object key, Object value) {
+                events.add("-" + key + "=" + value);
+            }
+        });
+
+        assertNull(map.put("a", 1));
+        assertEquals(1, map.putIfAbsent("a", 2));
+        assertEquals(3, map.merge("a", 2, Integer::sum));
+        assertFalse(map.replace("a", 1, 10));
+        assertTrue(map.replace("a", 3, 4));
+        assertEquals(5, map.computeIfAbsent("b", key -> 5));
+        assertNull(map.computeIfPresent("b", (key, value) -> null));
+        assertFalse(map.remove("a", 3));
+        assertTrue(map.remove("a", 4));
+        map.drainEvents();
+
+        assertEquals(List.of("+a=1", "-a=1", "+a=3", "-a=3", "+a=4", "+b=5", "-b=5", "-a=4"), events);
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    void concurrentMergesAreNotLost() throws Exception {
+        StripedObjectMap<String, Integer> map = new StripedObjectMap<>(4, Runnable::run);
+        concurrently(() -> {
+            for (int i = 0; i < OPERATIONS; i++) {
+                map.merge("key-" + (i % 16), 1, Integer::sum);
+            }
+        });
+
+        int total = 0;
+        for (int value : map.values()) {
+            total += value;
+        }
+        assertEquals(THREADS * OPERATIONS, total);
+    }
+
+    @Test
+    void eventsOfAKeyArriveInTheOrderOfItsChanges() throws Exception {
+        ExecutorService listenerExecutor = Executors.newFixedThreadPool(2);
+        try {
+            StripedObjectMap<Integer, Integer> map = new StripedObjectMap<>(2, listenerExecutor);
+            Map<Integer, Integer> replica = new HashMap<>();
+            AtomicInteger outOfOrder = new AtomicInteger();
+            map.addListener(new ObservableObjectMap.MapChangeListener<>() {
+                @Override
+                public void entryAdded(Integer key, Integer value) {
+                    synchronized (replica) {
+                        if (replica.put(key, value) != null) {
+                            outOfOrder.incrementAndGet();
+                        }
+                    }
+                }
+
+                @Override
+                public void entryRemoved(Object key, Object value) {
+                    synchronized (replica) {
+                        if (!replica.remove(key, value)) {
+                            outOfOrder.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            AtomicInteger sequence = new AtomicInteger();
+            concurrently(() -> {
+                for (int i = 0; i < OPERATIONS; i++) {
+                    int key = i % 8;
+                    if (i % 3 == 0) {
+                        map.remove(key);
+                    } else {
+                        map.put(key, sequence.incrementAndGet());
+                    }
+                }
+            });
+            map.drainEvents();
+
+            assertEquals(0, outOfOrder.get());
+            synchronized (replica) {
+                assertEquals(new HashMap<>(map), replica);
+            }
+        } finally {
+            listenerExecutor.shutdownNow();
+        }
+    }
+
+    private static void concurrently(Runnable task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(task));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
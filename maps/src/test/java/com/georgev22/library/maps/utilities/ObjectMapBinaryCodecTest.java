@@ -0,0 +1,118 @@
+package com.georgev22.library.maps.utilities;
+
+import com.georgev22.library.maps.HashObjectMap;
+import com.georgev22.library.maps.LinkedObjectMap;
+import com.georgev22.library.maps.ObjectMap;
+import com.georgev22.library.maps.Pair;
+import com.georgev22.library.maps.PairDocument;
+import com.georgev22.library.maps.TreeObjectMap;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ObjectMapBinaryCodecTest {
+
+    @Test
+    void roundTripsEverySupportedValue() {
+        UUID uuid = UUID.randomUUID();
+        ObjectMap<String, Object> nested = new TreeObjectMap<String, Object>()
+                .append("b", 2)
+                .append("a", 1);
+        ObjectMap<String, Object> map = new LinkedObjectMap<String, Object>()
+                .append("null", null)
+                .append("boolean", true)
+                .append("byte", (byte) -3)
+                .append("short", (short) -300)
+                .append("int", Integer.MIN_VALUE)
+                .append("long", Long.MAX_VALUE)
+                .append("float", 1.5f)
+                .append("double", -2.25d)
+                .append("char", 'x')
+                .append("string", "h\u00e9llo")
+                .append("uuid", uuid)
+                .append("date", new Date(1234567890L))
+                .append("list", List.of("a", 1, List.of()))
+                .append("nested", nested)
+                .append("document", new PairDocument<>(List.of(Pair.create("k", "v"))));
+
+        ObjectMap<String, Object> decoded = ObjectMapBinaryCodec.decode(ObjectMapBinaryCodec.encode(map));
+
+        assertEquals(map.keySet().stream().toList(), decoded.keySet().stream().toList());
+        for (String key : map.keySet()) {
+            if (!key.equals("document")) {
+                assertEquals(map.get(key), decoded.get(key), key);
+            }
+        }
+        assertTrue(decoded.get("nested") instanceof TreeObjectMap<?, ?>);
+        PairDocument<?, ?> document = (PairDocument<?, ?>) decoded.get("document");
+        assertEquals("k", document.objectPairs().get(0).key());
+        assertEquals("v", document.objectPairs().get(0).value());
+    }
+
+    @Test
+    void roundTripsByteArrays() {
+        byte[] bytes = {1, 2, 3, -1};
+        ObjectMap<String, Object> decoded = ObjectMapBinaryCodec.decode(
+                ObjectMapBinaryCodec.encode(new HashObjectMap<String, Object>().append("bytes", bytes)));
+
+        assertArrayEquals(bytes, (byte[]) decoded.get("bytes"));
+    }
+
+    @Test
+    void lazyViewDecodesOnAccess() {
+        ObjectMap<String, Object> map = new LinkedObjectMap<String, Object>()
+                .append("a", 1)
+                .append("b", List.of("x", "y"));
+
+        ObjectMap<String, Object> lazy = ObjectMapBinaryCodec.lazy(ObjectMapBinaryCodec.encode(map));
+
+        assertEquals(2, lazy.size());
+        assertEquals(List.of("x", "y"), lazy.get("b"));
+        assertEquals(1, lazy.get("a"));
+    }
+
+    @Test
+    void rejectsSortedMapsWithCustomComparator() {
+        ObjectMap<String, Object> map = new TreeObjectMap<String, Object>(Comparator.reverseOrder()).append("a", 1);
+
+        assertThrows(IllegalArgumentException.class, () -> ObjectMapBinaryCodec.encode(map));
+        assertThrows(IllegalArgumentException.class,
+                () -> ObjectMapBinaryCodec.encode(new LinkedObjectMap<String, Object>().append("nested", map)));
+    }
+
+    @Test
+    void rejectsCountsLargerThanTheBuffer() {
+        // magic, version, string count of 2^28
+        ByteBuffer strings = ByteBuffer.wrap(new byte[]{ObjectMapBinaryCodec.MAGIC, ObjectMapBinaryCodec.VERSION,
+                (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01});
+        assertThrows(IllegalArgumentException.class, () -> ObjectMapBinaryCodec.decode(strings));
+
+        // empty string table, then a map claiming Integer.MAX_VALUE entries
+        ByteBuffer entries = ByteBuffer.wrap(new byte[]{ObjectMapBinaryCodec.MAGIC, ObjectMapBinaryCodec.VERSION, 0,
+                ObjectMapBinaryCodec.MAP, ObjectMapBinaryCodec.KIND_HASH,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07});
+        assertThrows(IllegalArgumentException.class, () -> ObjectMapBinaryCodec.decode(entries));
+
+        // a negative byte array length
+        ByteBuffer bytes = ByteBuffer.wrap(new byte[]{ObjectMapBinaryCodec.MAGIC, ObjectMapBinaryCodec.VERSION, 0,
+                ObjectMapBinaryCodec.MAP, ObjectMapBinaryCodec.KIND_LINKED, 1,
+                ObjectMapBinaryCodec.NULL, ObjectMapBinaryCodec.BYTES,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x01});
+        assertThrows(IllegalArgumentException.class, () -> ObjectMapBinaryCodec.decode(bytes));
+    }
+
+    @Test
+    void rejectsTruncatedBuffers() {
+        ByteBuffer encoded = ObjectMapBinaryCodec.encode(new LinkedObjectMap<String, Object>().append("key", 42L));
+        ByteBuffer truncated = ByteBuffer.wrap(encoded.array(), 0, encoded.remaining() - 1);
+
+        assertThrows(IllegalArgumentException.class, () -> ObjectMapBinaryCodec.decode(truncated));
+    }
+}
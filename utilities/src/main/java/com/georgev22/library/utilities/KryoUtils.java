@@ -9,52 +9,90 @@ import com.esotericsoftware.kryo.util.ObjectMap;
 import com.georgev22.library.maps.*;
 import org.jetbrains.annotations.NotNull;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Serializes objects with a Kryo instance shared by the whole library, which the classes are registered with.
+ * <p>
+ * Kryo instances are not thread-safe, so every use of the shared instance, including through {@link #getKryo()},
+ * must hold its monitor; the methods of this class do.
+ */
 public class KryoUtils {
     private static final Kryo kryo = createKryoInstance();
 
     public static byte[] serialize(Object object) {
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        Output output = new Output(byteArrayOutputStream);
-        kryo.writeClassAndObject(output, object);
-        output.close();
-
-        return byteArrayOutputStream.toByteArray();
+        Output output = new Output(256, -1);
+        synchronized (kryo) {
+            kryo.writeClassAndObject(output, object);
+        }
+        return output.toBytes();
     }
 
     public static <T> T deserialize(byte[] bytes) {
-        ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(bytes);
-        Input input = new Input(byteArrayInputStream);
-        T object = (T) kryo.readClassAndObject(input);
-        input.close();
+        synchronized (kryo) {
+            return (T) kryo.readClassAndObject(new Input(bytes));
+        }
+    }
+
+    /**
+     * Serializes an object without its class, which must be passed to {@link #deserialize(byte[], Class)}.
+     *
+     * @param object the object to serialize
+     * @return the serialized object
+     */
+    public static byte @NotNull [] serializeObject(@NotNull Object object) {
+        Output output = new Output(256, -1);
+        synchronized (kryo) {
+            kryo.writeObject(output, object);
+        }
+        return output.toBytes();
+    }
 
-        return object;
+    /**
+     * Deserializes an object written by {@link #serializeObject(Object)}.
+     *
+     * @param bytes the serialized object
+     * @param type  the class of the object
+     * @param <T>   the type of the object
+     * @return the deserialized object
+     */
+    public static <T> @NotNull T deserialize(byte @NotNull [] bytes, @NotNull Class<T> type) {
+        synchronized (kryo) {
+            return kryo.readObject(new Input(bytes), type);
+        }
     }
 
     public static void registerClass(Class<?> clazz) {
-        kryo.register(clazz, getKryo().getDefaultSerializer(clazz));
+        synchronized (kryo) {
+            kryo.register(clazz, kryo.getDefaultSerializer(clazz));
+        }
     }
 
     public static void registerClass(Class<?> clazz, int id) {
-        kryo.register(clazz, getKryo().getDefaultSerializer(clazz), id);
+        synchronized (kryo) {
+            kryo.register(clazz, kryo.getDefaultSerializer(clazz), id);
+        }
     }
 
     public static <T> void registerClass(Class<?> clazz, Serializer<T> serializer) {
-        kryo.register(clazz, serializer);
+        synchronized (kryo) {
+            kryo.register(clazz, serializer);
+        }
     }
 
     public static <T> void registerClass(Class<?> clazz, Serializer<T> serializer, int id) {
-        kryo.register(clazz, serializer, id);
+        synchronized (kryo) {
+            kryo.register(clazz, serializer, id);
+        }
     }
 
     public static <T> void setDefaultSerializer(Class<? extends Serializer<T>> serializerClass) {
-        kryo.setDefaultSerializer(serializerClass);
+        synchronized (kryo) {
+            kryo.setDefaultSerializer(serializerClass);
+        }
     }
 
     private static @NotNull Kryo createKryoInstance() {
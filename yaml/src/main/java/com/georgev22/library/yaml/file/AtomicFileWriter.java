@@ -0,0 +1,320 @@
+package com.georgev22.library.yaml.file;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replaces files atomically: the new content is written to a temporary file in the same directory, which is then
+ * renamed over the target, so a crash in the middle of a write leaves either the previous or the new content and
+ * never a truncated file.
+ * <p>
+ * How much a write costs, and what survives a power loss, depends on the {@link Durability}:
+ * <ul>
+ *     <li>{@link Durability#ATOMIC} renames without forcing anything to the disk. The write survives a crash of the
+ *     process, but the operating system may lose it, and on some file systems leave an empty file, on a power
+ *     loss.</li>
+ *     <li>{@link Durability#GROUP} forces the temporary file on the calling thread, where concurrent forces share the
+ *     journal commits of the file system, and hands the rename to a commit thread. The commit renames every write
+ *     that arrived since the previous commit and forces each of their directories once. Every write is durable when
+ *     its future completes.</li>
+ *     <li>{@link Durability#SYNC} forces the temporary file and the directory on every write.</li>
+ * </ul>
+ * Writers are shared per durability through {@link #shared(Durability)}, so the writes of every repository and
+ * configuration with {@link Durability#GROUP} are committed together.
+ */
+public final class AtomicFileWriter {
+
+    /**
+     * The default time a {@link Durability#GROUP} writer waits for more writes before committing them. No delay: the
+     * writes that arrive while a commit runs form the next group.
+     */
+    public static final Duration DEFAULT_GROUP_COMMIT_DELAY = Duration.ZERO;
+
+    private static final Map<Durability, AtomicFileWriter> SHARED = new EnumMap<>(Durability.class);
+    private static volatile ScheduledExecutorService scheduler;
+
+    private final Durability durability;
+    private final long groupCommitDelayNanos;
+    private final Queue<Pending> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean commitScheduled = new AtomicBoolean();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder syncs = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+
+    /**
+     * Creates a writer with the given durability and the {@link #DEFAULT_GROUP_COMMIT_DELAY default group commit
+     * delay}.
+     *
+     * @param durability what the writes must survive
+     */
+    public AtomicFileWriter(@NotNull Durability durability) {
+        this(durability, DEFAULT_GROUP_COMMIT_DELAY);
+    }
+
+    /**
+     * Creates a writer.
+     *
+     * @param durability       what the writes must survive
+     * @param groupCommitDelay how long a {@link Durability#GROUP} writer waits for more writes before committing them
+     */
+    public AtomicFileWriter(@NotNull Durability durability, @NotNull Duration groupCommitDelay) {
+        if (groupCommitDelay.isNegative()) {
+            throw new IllegalArgumentException("groupCommitDelay must not be negative");
+        }
+        this.durability = durability;
+        this.groupCommitDelayNanos = groupCommitDelay.toNanos();
+    }
+
+    /**
+     * Returns the writer with the given durability shared by the whole library.
+     *
+     * @param durability what the writes must survive
+     * @return the shared writer
+     */
+    public static @NotNull AtomicFileWriter shared(@NotNull Durability durability) {
+        synchronized (SHARED) {
+            return SHARED.computeIfAbsent(durability, AtomicFileWriter::new);
+        }
+    }
+
+    /**
+     * Replaces the content of the target file.
+     * <p>
+     * With {@link Durability#ATOMIC} and {@link Durability#SYNC} the write happens on the calling thread and the
+     * returned future is already completed. With {@link Durability#GROUP} the temporary file is written and forced on
+     * the calling thread, and the future completes once the group it belongs to was renamed.
+     *
+     * @param target the file to replace, whose directory must exist
+     * @param data   the new content
+     * @return a future completed when the write is as durable as requested, or completed exceptionally with the
+     * {@link IOException} that failed it
+     */
+    public @NotNull CompletableFuture<Void> write(@NotNull Path target, byte @NotNull [] data) {
+        this.writes.increment();
+        Path temporary = null;
+        try {
+            Path directory = target.toAbsolutePath().getParent();
+            // not Files.createTempFile, which would leave the replaced file readable by its owner only
+            temporary = directory.resolve("." + target.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (this.durability != Durability.ATOMIC) {
+                    channel.force(true);
+                    this.syncs.increment();
+                }
+            }
+            if (this.durability == Durability.GROUP) {
+                Pending write = new Pending(temporary, target, directory, new CompletableFuture<>());
+                this.pending.add(write);
+                scheduleCommit();
+                return write.future();
+            }
+            move(temporary, target);
+            if (this.durability == Durability.SYNC) {
+                forceDirectory(directory);
+            }
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(temporary);
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Replaces the content of the target file and waits until the write is as durable as requested.
+     *
+     * @param target the file to replace, whose directory must exist
+     * @param data   the new content
+     * @throws IOException if the file cannot be written
+     */
+    public void writeAndWait(@NotNull Path target, byte @NotNull [] data) throws IOException {
+        try {
+            write(target, data).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing " + target);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (cause instanceof UncheckedIOException uncheckedIOException) {
+                throw uncheckedIOException.getCause();
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private void scheduleCommit() {
+        if (this.commitScheduled.compareAndSet(false, true)) {
+            try {
+                scheduler().schedule(this::commit, this.groupCommitDelayNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                this.commitScheduled.set(false);
+                commit();
+            }
+        }
+    }
+
+    /**
+     * Commits the pending {@link Durability#GROUP} writes now instead of at the end of their window.
+     */
+    public void flush() {
+        commit();
+    }
+
+    private synchronized void commit() {
+        this.commitScheduled.set(false);
+        List<Pending> group = new ArrayList<>();
+        for (Pending write; (write = this.pending.poll()) != null; ) {
+            group.add(write);
+        }
+        if (group.isEmpty()) {
+            return;
+        }
+        this.commits.increment();
+        Set<Path> directories = new LinkedHashSet<>();
+        List<Pending> renamed = new ArrayList<>(group.size());
+        for (Pending write : group) {
+            try {
+                move(write.temporary(), write.target());
+                directories.add(write.directory());
+                renamed.add(write);
+            } catch (IOException | RuntimeException e) {
+                deleteQuietly(write.temporary());
+                write.future().completeExceptionally(e);
+            }
+        }
+        IOException failure = null;
+        for (Path directory : directories) {
+            try {
+                forceDirectory(directory);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        for (Pending write : renamed) {
+            if (failure != null) {
+                write.future().completeExceptionally(failure);
+            } else {
+                write.future().complete(null);
+            }
+        }
+    }
+
+    private static void move(@NotNull Path temporary, @NotNull Path target) throws IOException {
+        try {
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void forceDirectory(@NotNull Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+            this.syncs.increment();
+        } catch (AccessDeniedException | UnsupportedOperationException ignored) {
+            // directories cannot be opened or forced on every platform, the rename is durable there
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        if (path != null) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static @NotNull ScheduledExecutorService scheduler() {
+        ScheduledExecutorService executor = scheduler;
+        if (executor == null) {
+            synchronized (AtomicFileWriter.class) {
+                executor = scheduler;
+                if (executor == null) {
+                    scheduler = executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, "AtomicFileWriter-commit");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Returns the durability of this writer.
+     *
+     * @return the durability
+     */
+    public @NotNull Durability getDurability() {
+        return this.durability;
+    }
+
+    /**
+     * Returns a snapshot of the metrics of this writer.
+     *
+     * @return the current metrics
+     */
+    public @NotNull Metrics getMetrics() {
+        return new Metrics(this.writes.sum(), this.syncs.sum(), this.commits.sum(), this.pending.size());
+    }
+
+    @Override
+    public String toString() {
+        return "AtomicFileWriter{" +
+                "durability=" + durability +
+                ", metrics=" + getMetrics() +
+                '}';
+    }
+
+    /**
+     * What a write must survive before it is reported as done.
+     */
+    public enum Durability {
+        /**
+         * A crash of the process. The new content is renamed into place but not forced to the disk.
+         */
+        ATOMIC,
+        /**
+         * A power loss, with the writes of a short window forced to the disk together.
+         */
+        GROUP,
+        /**
+         * A power loss, with every write forced to the disk on its own.
+         */
+        SYNC
+    }
+
+    /**
+     * A snapshot of the metrics of an {@link AtomicFileWriter}.
+     *
+     * @param writes  the number of writes
+     * @param syncs   the number of files and directories forced to the disk
+     * @param commits the number of committed {@link Durability#GROUP} windows
+     * @param pending the number of writes waiting for their group to be committed
+     */
+    public record Metrics(long writes, long syncs, long commits, int pending) {
+    }
+
+    private record Pending(@NotNull Path temporary, @NotNull Path target, @NotNull Path directory,
+                           @NotNull CompletableFuture<Void> future) {
+    }
+}
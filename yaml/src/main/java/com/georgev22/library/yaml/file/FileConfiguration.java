@@ -41,7 +41,8 @@ public abstract class FileConfiguration extends MemoryConfiguration {
      * exception will be thrown.
      * <p>
      * This method will save using the system default encoding, or possibly
-     * using UTF8.
+     * using UTF8. The file is replaced atomically, with the
+     * {@link FileConfigurationOptions#durability() durability} of the options.
      *
      * @param file File to save to.
      * @throws IOException              Thrown when the given file cannot be written to for
@@ -58,9 +59,7 @@ public abstract class FileConfiguration extends MemoryConfiguration {
 
         String data = saveToString();
 
-        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), Charsets.UTF_8)) {
-            writer.write(data);
-        }
+        AtomicFileWriter.shared(options().durability()).writeAndWait(file.toPath(), data.getBytes(Charsets.UTF_8));
     }
 
     /**
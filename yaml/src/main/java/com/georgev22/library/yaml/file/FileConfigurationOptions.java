@@ -5,6 +5,7 @@ import com.georgev22.library.yaml.MemoryConfigurationOptions;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -17,6 +18,7 @@ public class FileConfigurationOptions extends MemoryConfigurationOptions {
     private List<String> header = Collections.emptyList();
     private List<String> footer = Collections.emptyList();
     private boolean parseComments = true;
+    private AtomicFileWriter.Durability durability = AtomicFileWriter.Durability.ATOMIC;
 
     protected FileConfigurationOptions(@NotNull MemoryConfiguration configuration) {
         super(configuration);
@@ -177,6 +179,32 @@ public class FileConfigurationOptions extends MemoryConfigurationOptions {
         return this;
     }
 
+    /**
+     * Gets what a {@link FileConfiguration#save(File) save} must survive before it returns.
+     * <p>
+     * Defaults to {@link AtomicFileWriter.Durability#ATOMIC}.
+     *
+     * @return The durability of saves.
+     */
+    @NotNull
+    public AtomicFileWriter.Durability durability() {
+        return durability;
+    }
+
+    /**
+     * Sets what a {@link FileConfiguration#save(File) save} must survive before it returns.
+     * <p>
+     * Defaults to {@link AtomicFileWriter.Durability#ATOMIC}.
+     *
+     * @param value The durability of saves.
+     * @return This object, for chaining
+     */
+    @NotNull
+    public FileConfigurationOptions durability(@NotNull AtomicFileWriter.Durability value) {
+        durability = value;
+        return this;
+    }
+
     /**
      * @return Whether or not comments are parsed.
      * @deprecated Call {@link #parseComments()} instead.
@@ -66,6 +66,13 @@ public class YamlConfigurationOptions extends FileConfigurationOptions {
         return this;
     }
 
+    @NotNull
+    @Override
+    public YamlConfigurationOptions durability(@NotNull AtomicFileWriter.Durability value) {
+        super.durability(value);
+        return this;
+    }
+
     @NotNull
     @Override
     @Deprecated
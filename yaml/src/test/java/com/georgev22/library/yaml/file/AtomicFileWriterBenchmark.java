@@ -0,0 +1,95 @@
+package com.georgev22.library.yaml.file;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Measures how many files per second concurrent threads save with each {@link AtomicFileWriter.Durability}, compared
+ * with writing the files in place.
+ * <p>
+ * This is not a unit test. Run it from the test classpath with
+ * {@code java com.georgev22.library.yaml.file.AtomicFileWriterBenchmark [directory] [threads] [files] [size]};
+ * the directory defaults to a temporary one, which should be on the disk being measured, as fsync costs differ
+ * widely between disks.
+ */
+public final class AtomicFileWriterBenchmark {
+
+    private AtomicFileWriterBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path directory = args.length > 0 ? Path.of(args[0]) : Files.createTempDirectory("atomic-file-writer");
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int files = args.length > 2 ? Integer.parseInt(args[2]) : 2400;
+        int size = args.length > 3 ? Integer.parseInt(args[3]) : 512;
+        byte[] data = new byte[size];
+        Arrays.fill(data, (byte) 'x');
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            // the first run warms up the JIT and the file system and is not reported
+            run(executor, directory.resolve("warmup"), threads, files, target -> Files.write(target, data));
+            report("plain write", run(executor, directory.resolve("plain"), threads, files, target -> Files.write(target, data)), files, null);
+            for (AtomicFileWriter.Durability durability : AtomicFileWriter.Durability.values()) {
+                AtomicFileWriter writer = new AtomicFileWriter(durability);
+                long nanos = run(executor, directory.resolve(durability.name().toLowerCase()), threads, files, target -> writer.writeAndWait(target, data));
+                report(durability.name(), nanos, files, writer.getMetrics());
+            }
+        } finally {
+            executor.shutdown();
+            if (args.length == 0) {
+                delete(directory);
+            }
+        }
+    }
+
+    private static long run(ExecutorService executor, Path directory, int threads, int files, Write write) throws Exception {
+        Files.createDirectories(directory);
+        List<Future<?>> tasks = new ArrayList<>(threads);
+        long start = System.nanoTime();
+        for (int thread = 0; thread < threads; thread++) {
+            int first = thread;
+            tasks.add(executor.submit(() -> {
+                for (int file = first; file < files; file += threads) {
+                    try {
+                        write.write(directory.resolve(file + ".yml"));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }));
+        }
+        for (Future<?> task : tasks) {
+            task.get();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String name, long nanos, int files, AtomicFileWriter.Metrics metrics) {
+        System.out.printf("%-12s %,10.0f saves/s%s%n", name, files / (nanos / 1_000_000_000.0),
+                metrics == null ? "" : ", " + metrics.syncs() + " fsyncs in " + metrics.commits() + " commits");
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Write {
+        void write(Path target) throws IOException;
+    }
+}